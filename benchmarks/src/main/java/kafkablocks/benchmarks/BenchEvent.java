@@ -0,0 +1,30 @@
+package kafkablocks.benchmarks;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.serialization.flyweight.FixedLayout;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Событие для бенчмарков, по составу полей похожее на PositionEvent из примеров.
+ * Для него генерируется flyweight (BenchEvent_Flyweight)
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString(callSuper = true)
+@FixedLayout
+public class BenchEvent extends BaseEvent {
+    private String objectId;
+    private double x;
+    private double y;
+    private long sequence;
+    private String label;
+
+    @Override
+    public String getKey() {
+        return objectId;
+    }
+}
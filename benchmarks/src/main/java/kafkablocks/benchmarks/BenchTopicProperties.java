@@ -0,0 +1,32 @@
+package kafkablocks.benchmarks;
+
+import kafkablocks.EventTopicProperties;
+import kafkablocks.events.Event;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Параметры топиков для бенчмарков: инициализируются вручную, без Spring-а
+ */
+public class BenchTopicProperties extends EventTopicProperties {
+    public static final String TOPIC = "bench-events";
+
+    public static BenchTopicProperties create(String format) {
+        return create(format, Collections.singletonList(BenchEvent.class));
+    }
+
+    /**
+     * Параметры топиков для нескольких типов событий: у каждого типа свой топик
+     */
+    public static BenchTopicProperties create(String format, List<Class<? extends Event>> eventTypes) {
+        BenchTopicProperties properties = new BenchTopicProperties();
+        for (int i = 0; i < eventTypes.size(); i++) {
+            String topic = i == 0 ? TOPIC : TOPIC + "-" + i;
+            properties.getEventTopic().put(eventTypes.get(i).getName(), topic);
+        }
+        properties.setDefaultFormat(format);
+        properties.init();
+        return properties;
+    }
+}
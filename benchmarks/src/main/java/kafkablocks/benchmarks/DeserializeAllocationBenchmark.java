@@ -0,0 +1,97 @@
+package kafkablocks.benchmarks;
+
+import kafkablocks.events.Event;
+import kafkablocks.serialization.EventDeserializer;
+import kafkablocks.serialization.EventSerializer;
+import kafkablocks.serialization.JsonEventCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Аллокации при десериализации события из буфера, в который прочитана пачка записей:
+ * копирование записи в отдельный массив против разбора на месте (heap и direct буферы).
+ * <p>
+ * Байты на запись - метрика gc.alloc.rate.norm профайлера gc:
+ * java -cp benchmarks/target/benchmarks.jar kafkablocks.benchmarks.DeserializeAllocationBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeserializeAllocationBenchmark {
+    private static final String TOPIC = BenchTopicProperties.TOPIC;
+    /**
+     * Смещение записи в буфере, чтобы она, как и в реальной пачке, начиналась не с начала буфера
+     */
+    private static final int RECORD_OFFSET = 64;
+
+    @Param({JsonEventCodec.NAME, "avro"})
+    private String format;
+
+    private EventDeserializer<Event> deserializer;
+    private ByteBuffer heapBuffer;
+    private ByteBuffer directBuffer;
+
+    @Setup
+    public void setup() {
+        BenchTopicProperties.create(format);
+
+        BenchEvent event = new BenchEvent("object-42", 12.5, -7.25, 1_000_000L, "moving");
+        byte[] data = new EventSerializer<BenchEvent>().serialize(TOPIC, event);
+
+        heapBuffer = createRecordBuffer(ByteBuffer.allocate(RECORD_OFFSET + data.length), data);
+        directBuffer = createRecordBuffer(ByteBuffer.allocateDirect(RECORD_OFFSET + data.length), data);
+
+        deserializer = new EventDeserializer<>();
+    }
+
+    private static ByteBuffer createRecordBuffer(ByteBuffer buffer, byte[] data) {
+        buffer.position(RECORD_OFFSET);
+        buffer.put(data);
+        buffer.position(RECORD_OFFSET);
+        return buffer;
+    }
+
+    @Benchmark
+    public Object copyToArray() {
+        byte[] data = new byte[heapBuffer.remaining()];
+        heapBuffer.duplicate().get(data);
+        return deserializer.deserialize(TOPIC, null, data);
+    }
+
+    @Benchmark
+    public Object heapBuffer() {
+        return deserializer.deserialize(TOPIC, null, heapBuffer);
+    }
+
+    @Benchmark
+    public Object directBuffer() {
+        return deserializer.deserialize(TOPIC, null, directBuffer);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DeserializeAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,67 @@
+package kafkablocks.benchmarks;
+
+import kafkablocks.serialization.EventCodecs;
+import kafkablocks.serialization.JsonEventCodec;
+import kafkablocks.serialization.TypedCodec;
+import kafkablocks.serialization.flyweight.FixedLayoutEventCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение числовых полей записи: десериализация события из JSON и из формата "fixed"
+ * против чтения тех же полей через flyweight (BenchEvent_Flyweight) без создания события.
+ * <p>
+ * Запуск: java -jar benchmarks/target/benchmarks.jar FlyweightBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlyweightBenchmark {
+    private byte[] json;
+    private byte[] fixed;
+
+    private TypedCodec<BenchEvent> jsonCodec;
+    private TypedCodec<BenchEvent> fixedCodec;
+    private final BenchEvent_Flyweight flyweight = new BenchEvent_Flyweight();
+
+    @Setup
+    public void setup() {
+        BenchEvent event = new BenchEvent("object-42", 12.5, -7.25, 1_000_000L, "moving");
+
+        jsonCodec = EventCodecs.get(JsonEventCodec.NAME).bind(BenchEvent.class);
+        fixedCodec = EventCodecs.get(FixedLayoutEventCodec.NAME).bind(BenchEvent.class);
+        json = jsonCodec.serialize(event);
+        fixed = fixedCodec.serialize(event);
+    }
+
+    @Benchmark
+    public double deserializeJson() {
+        BenchEvent event = jsonCodec.deserialize(json, 0, json.length);
+        return event.getX() + event.getY() + event.getSequence();
+    }
+
+    @Benchmark
+    public double deserializeFixed() {
+        BenchEvent event = fixedCodec.deserialize(fixed, 0, fixed.length);
+        return event.getX() + event.getY() + event.getSequence();
+    }
+
+    @Benchmark
+    public double flyweight() {
+        flyweight.wrap(fixed);
+        return flyweight.getX() + flyweight.getY() + flyweight.getSequence();
+    }
+}
@@ -0,0 +1,70 @@
+package kafkablocks.benchmarks;
+
+import kafkablocks.serialization.JsonEventCodec;
+import kafkablocks.serialization.TypedCodec;
+import kafkablocks.utils.ObjectMapperUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение JSON-кодека, сгенерированного JsonCodecProcessor-ом (BenchEvent_JsonCodec),
+ * с Jackson data binding (кодек с явно заданным ObjectMapper-ом сгенерированные кодеки не использует).
+ * Оба кодека пишут одинаковый JSON.
+ * <p>
+ * Запуск: java -jar benchmarks/target/benchmarks.jar JsonCodecBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+    private BenchEvent event;
+    private byte[] data;
+
+    private TypedCodec<BenchEvent> jacksonCodec;
+    private TypedCodec<BenchEvent> generatedCodec;
+
+    @Setup
+    public void setup() {
+        event = new BenchEvent("object-42", 12.5, -7.25, 1_000_000L, "moving");
+
+        jacksonCodec = new JsonEventCodec(ObjectMapperUtils.createWithDefaultDTFormatters()).bind(BenchEvent.class);
+        generatedCodec = new JsonEventCodec().bind(BenchEvent.class);
+        data = jacksonCodec.serialize(event);
+
+        if (!new String(data).equals(new String(generatedCodec.serialize(event))))
+            throw new IllegalStateException("Generated codec writes different JSON");
+    }
+
+    @Benchmark
+    public Object deserializeJackson() {
+        return jacksonCodec.deserialize(data, 0, data.length);
+    }
+
+    @Benchmark
+    public Object deserializeGenerated() {
+        return generatedCodec.deserialize(data, 0, data.length);
+    }
+
+    @Benchmark
+    public byte[] serializeJackson() {
+        return jacksonCodec.serialize(event);
+    }
+
+    @Benchmark
+    public byte[] serializeGenerated() {
+        return generatedCodec.serialize(event);
+    }
+}
@@ -0,0 +1,114 @@
+package kafkablocks.benchmarks;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.serialization.JsonEventCodec;
+import kafkablocks.serialization.Projection;
+import kafkablocks.serialization.TypedCodec;
+import kafkablocks.utils.ObjectMapperUtils;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение полной десериализации "широкого" события с чтением только трех его полей (см. Projection)
+ * через Jackson data binding и через сгенерированный кодек.
+ * <p>
+ * Запуск: java -jar benchmarks/target/benchmarks.jar ProjectionBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    @Getter
+    @NoArgsConstructor
+    public static class WideEvent extends BaseEvent {
+        private String objectId;
+        private double x;
+        private double y;
+        private double z;
+        private double speed;
+        private double heading;
+        private long sequence;
+        private String source;
+        private String description;
+        private Map<String, String> attributes;
+        private List<Double> samples;
+
+        WideEvent(String objectId) {
+            this.objectId = objectId;
+            this.x = 12.5;
+            this.y = -7.25;
+            this.z = 100;
+            this.speed = 3.75;
+            this.heading = 270;
+            this.sequence = 1_000_000L;
+            this.source = "sensor-17";
+            this.description = "wide event with a lot of fields, which the handler does not need";
+            this.attributes = new HashMap<>();
+            for (int i = 0; i < 10; i++) {
+                attributes.put("attribute-" + i, "value-" + i);
+            }
+            this.samples = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                samples.add(i * 0.5);
+            }
+        }
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    private static final Projection PROJECTION = Projection.of("objectId", "x", "y");
+
+    private byte[] data;
+    private TypedCodec<WideEvent> jacksonCodec;
+    private TypedCodec<WideEvent> generatedCodec;
+
+    @Setup
+    public void setup() {
+        jacksonCodec = new JsonEventCodec(ObjectMapperUtils.createWithDefaultDTFormatters()).bind(WideEvent.class);
+        generatedCodec = new JsonEventCodec().bind(WideEvent.class);
+        data = jacksonCodec.serialize(new WideEvent("object-42"));
+    }
+
+    @Benchmark
+    public Object fullJackson() {
+        return jacksonCodec.deserialize(data, 0, data.length);
+    }
+
+    @Benchmark
+    public Object projectedJackson() {
+        return jacksonCodec.deserialize(data, 0, data.length, null, PROJECTION);
+    }
+
+    @Benchmark
+    public Object fullGenerated() {
+        return generatedCodec.deserialize(data, 0, data.length);
+    }
+
+    @Benchmark
+    public Object projectedGenerated() {
+        return generatedCodec.deserialize(data, 0, data.length, null, PROJECTION);
+    }
+}
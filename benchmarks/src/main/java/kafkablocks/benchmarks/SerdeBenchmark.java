@@ -0,0 +1,91 @@
+package kafkablocks.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kafkablocks.events.Event;
+import kafkablocks.serialization.EventDeserializer;
+import kafkablocks.serialization.EventSerializer;
+import kafkablocks.serialization.JsonEventCodec;
+import kafkablocks.utils.ObjectMapperUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение сериализации событий через реестр serde-ов (EventSerializer/EventDeserializer)
+ * с прежним способом: поиск класса события по топику и ObjectMapper.readValue/writeValueAsBytes на каждую запись.
+ * <p>
+ * Запуск: java -jar benchmarks/target/benchmarks.jar SerdeBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerdeBenchmark {
+    private static final String TOPIC = BenchTopicProperties.TOPIC;
+
+    @Param({JsonEventCodec.NAME, "avro"})
+    private String format;
+
+    private BenchEvent event;
+    private byte[] jsonData;
+    private byte[] data;
+
+    // прежний способ
+    private final Map<String, Class<? extends Event>> topic2EventClassMap = new HashMap<>();
+    private ObjectMapper objectMapper;
+
+    // реестр serde-ов
+    private EventSerializer<BenchEvent> serializer;
+    private EventDeserializer<Event> deserializer;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchTopicProperties.create(format);
+
+        event = new BenchEvent("object-42", 12.5, -7.25, 1_000_000L, "moving");
+
+        topic2EventClassMap.put(TOPIC, BenchEvent.class);
+        objectMapper = ObjectMapperUtils.createWithDefaultDTFormatters();
+        jsonData = objectMapper.writeValueAsBytes(event);
+
+        serializer = new EventSerializer<>();
+        deserializer = new EventDeserializer<>();
+        data = serializer.serialize(TOPIC, event);
+    }
+
+    @Benchmark
+    public Object deserializeObjectMapper() throws IOException {
+        Class<? extends Event> clazz = topic2EventClassMap.get(TOPIC);
+        return objectMapper.readValue(jsonData, clazz);
+    }
+
+    @Benchmark
+    public Object deserializeSerdeRegistry() {
+        return deserializer.deserialize(TOPIC, data);
+    }
+
+    @Benchmark
+    public byte[] serializeObjectMapper() throws IOException {
+        return objectMapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public byte[] serializeSerdeRegistry() {
+        return serializer.serialize(TOPIC, event);
+    }
+}
@@ -0,0 +1,147 @@
+package kafkablocks.benchmarks;
+
+import kafkablocks.events.Event;
+import kafkablocks.publisher.KafkaPublisherImpl;
+import kafkablocks.publisher.KafkaPublisherProperties;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Масштабирование публикации по кол-ву продюсеров (шардов) публикатора при отправке из нескольких потоков.
+ * Вместо настоящих продюсеров используются заглушки без брокера: значение сериализуется в потоке отправки,
+ * а добавление записи в буфер выполняется под блокировкой продюсера, как у KafkaProducer.
+ * Поэтому бенчмарк показывает только выигрыш от снятия конкуренции за продюсер;
+ * результаты имеют смысл на машине, где ядер не меньше, чем потоков.
+ * <p>
+ * Запуск: java -jar benchmarks/target/benchmarks.jar ShardedPublisherBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ShardedPublisherBenchmark {
+    private static final String TOPIC = BenchTopicProperties.TOPIC;
+    private static final int PARTITION_COUNT = 12;
+    private static final int OBJECT_COUNT = 1000;
+
+    @Param({"1", "2", "4", "8"})
+    private int producerCount;
+
+    private KafkaPublisherImpl publisher;
+    private BenchEvent[] events;
+
+    /**
+     * Продюсер-заглушка
+     */
+    private static final class BenchProducer extends MockProducer<String, Event> {
+        private final Serializer<Event> valueSerializer;
+        /**
+         * Буфер записей, аналог буфера (RecordAccumulator) настоящего продюсера
+         */
+        private final byte[] buffer = new byte[1 << 20];
+        private int position;
+        private long offset;
+
+        BenchProducer(Cluster cluster, Serializer<Event> valueSerializer) {
+            super(cluster, true, new DefaultPartitioner(), new StringSerializer(), valueSerializer);
+            this.valueSerializer = valueSerializer;
+        }
+
+        @Override
+        public Future<RecordMetadata> send(ProducerRecord<String, Event> record, Callback callback) {
+            byte[] value = valueSerializer.serialize(record.topic(), record.headers(), record.value());
+
+            RecordMetadata metadata;
+            synchronized (this) {
+                if (position + value.length > buffer.length) {
+                    position = 0;
+                }
+                System.arraycopy(value, 0, buffer, position, value.length);
+                position += value.length;
+                metadata = new RecordMetadata(new TopicPartition(record.topic(), 0), offset++, 0, 0, 0L, 0, value.length);
+            }
+
+            callback.onCompletion(metadata, null);
+            return CompletableFuture.completedFuture(metadata);
+        }
+
+        @Override
+        public void close(Duration timeout) {
+        }
+    }
+
+    @Setup
+    public void setup() {
+        BenchTopicProperties topicProperties = BenchTopicProperties.create("json");
+
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            partitions.add(new PartitionInfo(TOPIC, i, node, null, null));
+        }
+        Cluster cluster = new Cluster("bench", Collections.singletonList(node), partitions,
+                Collections.emptySet(), Collections.emptySet());
+
+        KafkaPublisherProperties publisherProperties = new KafkaPublisherProperties();
+        publisherProperties.setProducerCount(producerCount);
+        publisher = new KafkaPublisherImpl(
+                topicProperties, new KafkaProperties(), publisherProperties,
+                shard -> new DefaultKafkaProducerFactory<>(Collections.emptyMap()) {
+                    @Override
+                    protected Producer<String, Event> createKafkaProducer() {
+                        return new BenchProducer(cluster, getValueSerializerSupplier().get());
+                    }
+                },
+                new KafkaAdmin(Collections.emptyMap()));
+        // логирование каждой отправки заглушило бы разницу
+        publisher.setLogger(NOPLogger.NOP_LOGGER);
+
+        events = new BenchEvent[OBJECT_COUNT];
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            events[i] = new BenchEvent("object-" + i, 12.5, -7.25, i, "moving");
+        }
+    }
+
+    @Benchmark
+    public void publish() {
+        publisher.publishEvent(events[ThreadLocalRandom.current().nextInt(OBJECT_COUNT)]);
+    }
+}
@@ -0,0 +1,139 @@
+package kafkablocks.benchmarks;
+
+import kafkablocks.consumer.KafkaMultipleConsumer;
+import kafkablocks.events.Event;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Потоки и память множественного потребителя: по потребителю на тип события или один общий потребитель
+ * (см. {@link KafkaMultipleConsumer#setSharedConsumer(boolean)}).
+ * Замер - запуск потребителя восьми типов событий (у каждого свой топик); в счетчиках threads и heapBytes -
+ * прирост кол-ва потоков и занятой памяти (после сборки мусора) относительно состояния до запуска.
+ * <p>
+ * Нужен брокер (адрес - в свойстве bootstrap.servers, по умолчанию localhost:9092): без него у потребителей
+ * не запускаются потоки heartbeat-ов и не создаются соединения, поэтому прирост будет занижен.
+ * <p>
+ * Запуск: java -jar benchmarks/target/benchmarks.jar SharedConsumerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SharedConsumerBenchmark {
+    /**
+     * Время, за которое потребители успевают подключиться и получить партиции
+     */
+    private static final long SETTLE_TIME_MS = 3000;
+
+    public static class Event1 extends BenchEvent {
+    }
+
+    public static class Event2 extends BenchEvent {
+    }
+
+    public static class Event3 extends BenchEvent {
+    }
+
+    public static class Event4 extends BenchEvent {
+    }
+
+    public static class Event5 extends BenchEvent {
+    }
+
+    public static class Event6 extends BenchEvent {
+    }
+
+    public static class Event7 extends BenchEvent {
+    }
+
+    public static class Event8 extends BenchEvent {
+    }
+
+    private static final List<Class<? extends Event>> EVENT_TYPES = Arrays.asList(
+            Event1.class, Event2.class, Event3.class, Event4.class,
+            Event5.class, Event6.class, Event7.class, Event8.class);
+
+    @Param({"false", "true"})
+    private boolean shared;
+
+    private BenchTopicProperties topicProperties;
+    private KafkaProperties kafkaProperties;
+
+    /**
+     * Прирост, измеренный в итерации
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long threads;
+        public long heapBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            threads = 0;
+            heapBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        topicProperties = BenchTopicProperties.create("json", EVENT_TYPES);
+
+        kafkaProperties = new KafkaProperties();
+        kafkaProperties.setBootstrapServers(Collections.singletonList(
+                System.getProperty("bootstrap.servers", "localhost:9092")));
+        kafkaProperties.getConsumer().setGroupId("bench-shared-consumer");
+    }
+
+    @Benchmark
+    public void start(Footprint footprint) throws InterruptedException {
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBefore = usedHeap();
+
+        KafkaMultipleConsumer consumer = new KafkaMultipleConsumer(topicProperties, kafkaProperties);
+        consumer.setSharedConsumer(shared);
+        for (Class<? extends Event> eventType : EVENT_TYPES) {
+            setEventHandler(consumer, eventType);
+        }
+        consumer.start();
+        Thread.sleep(SETTLE_TIME_MS);
+
+        footprint.threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+        footprint.heapBytes = usedHeap() - heapBefore;
+
+        consumer.stop();
+    }
+
+    private static <T extends Event> void setEventHandler(KafkaMultipleConsumer consumer, Class<T> eventType) {
+        consumer.setEventHandler((key, event) -> {
+        }, eventType);
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
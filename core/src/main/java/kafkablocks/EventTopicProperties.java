@@ -1,19 +1,36 @@
 package kafkablocks;
 
+import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.util.Assert;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 import kafkablocks.events.Event;
+import kafkablocks.serialization.EventChunk;
+import kafkablocks.serialization.EventCodecs;
+import kafkablocks.serialization.EventEnvelope;
+import kafkablocks.serialization.JsonEventCodec;
+import kafkablocks.serialization.SerdeRegistry;
+import kafkablocks.serialization.claimcheck.BlobStore;
+import kafkablocks.serialization.claimcheck.ClaimChecker;
+import kafkablocks.serialization.claimcheck.LocalFileBlobStore;
+import kafkablocks.serialization.delta.DeltaEventCodec;
+import kafkablocks.serialization.zstd.ZstdDictionaryStore;
 import kafkablocks.utils.ClassUtils;
 import kafkablocks.utils.KafkaUtils;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.Positive;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -41,6 +58,51 @@ public class EventTopicProperties extends AppProperties {
      */
     @Getter
     private final Map<String, String> eventTopic = new HashMap<>();
+    /**
+     * Формат сериализации событий по умолчанию
+     */
+    @Getter
+    @Setter
+    private String defaultFormat = JsonEventCodec.NAME;
+    /**
+     * Таблица: ключ - имя класса события, значение - формат сериализации (json, avro, ...).
+     * Для классов, которых нет в таблице, используется формат по умолчанию.
+     */
+    @Getter
+    private final Map<String, String> eventFormat = new HashMap<>();
+    /**
+     * Параметры сжатия значений событий zstd-ом со словарем, обученным для класса события
+     */
+    @Getter
+    private final DictionaryCompression dictionaryCompression = new DictionaryCompression();
+    /**
+     * Параметры упаковки событий в конверты (см. {@link EventEnvelope})
+     */
+    @Getter
+    private final Envelope envelope = new Envelope();
+    /**
+     * Параметры дельта-кодирования событий (формат {@link DeltaEventCodec#NAME})
+     */
+    @Getter
+    private final Delta delta = new Delta();
+    /**
+     * Параметры публикации больших значений по ссылке (см. {@link ClaimChecker})
+     */
+    @Getter
+    private final ClaimCheck claimCheck = new ClaimCheck();
+    /**
+     * Параметры публикации больших событий частями (см. {@link EventChunk})
+     */
+    @Getter
+    private final Chunking chunking = new Chunking();
+    /**
+     * Читать только зафиксированные события: потребители и Kafka Streams получают isolation.level=read_committed.
+     * Нужно, если события публикуются транзакционно (publisher.transactions): события прерванной транзакции
+     * публикуются повторно, и потребитель, который читает и незафиксированные записи, получит их дважды
+     */
+    @Getter
+    @Setter
+    private boolean readCommitted = false;
     /**
      * Таймаут, в течение которого ждем появления нужных топиков (сек).
      * Дотустимые значения от 1 до 600 (10 мин).
@@ -52,6 +114,115 @@ public class EventTopicProperties extends AppProperties {
     @Setter
     private int waitTopicsExistTimeout = 180;
 
+    @Data
+    public static class DictionaryCompression {
+        /**
+         * Каталог со словарями (см. {@link ZstdDictionaryStore}).
+         * Если не задан, то сжатие не используется и сжатые записи не могут быть прочитаны
+         */
+        private String dir;
+        /**
+         * Имена классов событий, значения которых сжимаются при публикации
+         */
+        private List<String> events = new ArrayList<>();
+        /**
+         * Уровень сжатия zstd
+         */
+        private int level = ZstdDictionaryStore.DEFAULT_LEVEL;
+    }
+
+    @Data
+    public static class Envelope {
+        /**
+         * Имена классов событий, которые публикуются в конвертах: события одного ключа упаковываются в одну запись.
+         * Потребители распаковывают конверты в любом случае, а топология обработки - только для этих классов
+         */
+        private List<String> events = new ArrayList<>();
+        /**
+         * Максимальное кол-во событий в конверте
+         */
+        @Positive
+        private int maxEvents = 500;
+        /**
+         * Максимальный размер конверта; конверт отправляется, как только его размер достиг этого значения
+         */
+        private DataSize maxSize = DataSize.ofKilobytes(64);
+        /**
+         * Максимальное время, в течение которого событие ждет в неполном конверте
+         */
+        private Duration linger = Duration.ofMillis(5);
+    }
+
+    @Data
+    public static class Delta {
+        /**
+         * Интервал опорных кадров: первое событие ключа в каждом интервале (интервалы отсчитываются от начала эпохи)
+         * публикуется целиком, остальные - разницей с предыдущим событием ключа.
+         * Потребитель, начинающий чтение с прошлого времени, начинает с начала интервала
+         */
+        private Duration keyframeInterval = Duration.ofSeconds(10);
+        /**
+         * Максимальное кол-во дельта-кадров ключа между опорными кадрами
+         */
+        @Positive
+        private int maxDeltas = 1000;
+    }
+
+    @Data
+    public static class ClaimCheck {
+        /**
+         * Каталог хранилища значений (см. {@link LocalFileBlobStore}).
+         * Если не задан (и не задан класс хранилища), то значения публикуются как есть
+         * и записи со ссылками не могут быть прочитаны
+         */
+        private String dir;
+        /**
+         * Полное имя класса хранилища - реализации {@link BlobStore} с конструктором,
+         * который принимает эти параметры. Если не задано, то используется {@link LocalFileBlobStore}
+         */
+        private String storeClass;
+        /**
+         * Значения больше этого размера (после сжатия) сохраняются в хранилище, а в запись пишется ссылка
+         */
+        private DataSize threshold = DataSize.ofKilobytes(512);
+        /**
+         * Время хранения значений
+         */
+        private Duration ttl = Duration.ofDays(7);
+        /**
+         * Максимальный суммарный размер значений, прочитанных из хранилища, которые кэшируются потребителями
+         */
+        private DataSize cacheSize = DataSize.ofMegabytes(32);
+    }
+
+    @Data
+    public static class Chunking {
+        /**
+         * Публиковать ли частями события, размер которых больше размера части.
+         * Потребители собирают части в любом случае.
+         * Такие события доставляются "не более одного раза": событие, которое не было собрано к перезапуску
+         * потребителя или перераспределению партиций, теряется (см. ChunkReassembler)
+         */
+        private boolean enabled = false;
+        /**
+         * Размер части
+         */
+        private DataSize chunkSize = DataSize.ofKilobytes(256);
+        /**
+         * Максимальный суммарный размер несобранных событий в памяти потребителя;
+         * части событий сверх этого объема собираются в файлах
+         */
+        private DataSize maxMemory = DataSize.ofMegabytes(64);
+        /**
+         * Каталог файлов для сборки событий; если не задан, то используется временный каталог
+         */
+        private String spillDir;
+        /**
+         * Время, в течение которого должны прийти все части события; несобранное событие пропускается
+         */
+        private Duration timeout = Duration.ofMinutes(1);
+    }
+
     // region трюк с singleton-ом бина
 
     // singleton нужен для того, чтобы до него можно было добраться из классов,
@@ -65,6 +236,10 @@ public class EventTopicProperties extends AppProperties {
         return (EventTopicProperties) instance;
     }
 
+    public static boolean isInitialized() {
+        return instance != null;
+    }
+
     public EventTopicProperties() {
         instance = this;
     }
@@ -81,6 +256,19 @@ public class EventTopicProperties extends AppProperties {
      * Обратная таблица: класс события -> имя топика
      */
     private final Map<Class<? extends Event>, String> eventClass2TopicMap = new HashMap<>();
+    /**
+     * Таблица: класс события -> формат сериализации
+     */
+    private final Map<Class<?>, String> eventClass2FormatMap = new HashMap<>();
+    /**
+     * Реестр serde-ов для классов событий. Создается при инициализации
+     */
+    @Getter
+    private SerdeRegistry serdeRegistry;
+    /**
+     * Классы событий, которые публикуются в конвертах
+     */
+    private final Set<Class<?>> envelopeClasses = new HashSet<>();
 
     @Override
     protected void init() {
@@ -107,9 +295,51 @@ public class EventTopicProperties extends AppProperties {
             eventClass2TopicMap.put(clazz, topic);
         });
 
+        EventCodecs.get(defaultFormat);
+        eventFormat.forEach((eventClassName, format) -> {
+            // проверим, что формат известен
+            EventCodecs.get(format);
+            eventClass2FormatMap.put(loadEventClass(eventClassName), format);
+        });
+
         // перечень всех топиков записываем в св-во
         String topics = String.join(",", getAllTopics());
         System.setProperty(TOPICS_PROPERTY_KEY, topics);
+
+        Set<Class<?>> compressedClasses = new HashSet<>();
+        ZstdDictionaryStore dictionaryStore = null;
+        if (dictionaryCompression.getDir() != null) {
+            dictionaryStore = new ZstdDictionaryStore(dictionaryCompression.getDir(), dictionaryCompression.getLevel());
+            dictionaryCompression.getEvents().forEach(eventClassName -> compressedClasses.add(loadEventClass(eventClassName)));
+        } else {
+            Assert.isTrue(dictionaryCompression.getEvents().isEmpty(), "dictionaryCompression.dir is not set");
+        }
+
+        envelope.getEvents().forEach(eventClassName -> envelopeClasses.add(loadEventClass(eventClassName)));
+
+        ClaimChecker claimChecker = null;
+        if (claimCheck.getDir() != null || claimCheck.getStoreClass() != null) {
+            claimChecker = new ClaimChecker(createBlobStore(),
+                    (int) claimCheck.getThreshold().toBytes(), claimCheck.getCacheSize().toBytes());
+        }
+
+        // serde-ы для всех событий создаем сразу, чтобы не делать этого при обработке записей
+        serdeRegistry = new SerdeRegistry(
+                topic2EventClassMap, this::resolveFormatByClass, dictionaryStore, compressedClasses::contains,
+                claimChecker);
+    }
+
+    private BlobStore createBlobStore() {
+        if (claimCheck.getStoreClass() == null)
+            return new LocalFileBlobStore(claimCheck.getDir(), claimCheck.getTtl());
+
+        try {
+            return ClassUtils.loadClass(claimCheck.getStoreClass(), BlobStore.class)
+                    .getConstructor(ClaimCheck.class)
+                    .newInstance(claimCheck);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Can't create blob store: " + claimCheck.getStoreClass(), e);
+        }
     }
 
     private Class<? extends Event> loadEventClass(String eventClassName) {
@@ -155,6 +385,50 @@ public class EventTopicProperties extends AppProperties {
         return clazz;
     }
 
+    /**
+     * Находит формат сериализации по классу события (или базовому классу).
+     * Если формат для класса не задан, то возвращает формат по умолчанию.
+     */
+    public String resolveFormatByClass(Class<?> clazz) {
+        String format = ClassUtils.getValueFromClassKeyMap(clazz, eventClass2FormatMap);
+        return format != null ? format : defaultFormat;
+    }
+
+    /**
+     * Публикуются ли события класса в конвертах (см. {@link Envelope})
+     */
+    public boolean isEnveloped(Class<?> eventClass) {
+        return envelopeClasses.contains(eventClass);
+    }
+
+    /**
+     * Есть ли классы событий, которые публикуются в конвертах
+     */
+    public boolean hasEnvelopes() {
+        return !envelopeClasses.isEmpty();
+    }
+
+    /**
+     * Публикуются ли большие события частями (см. {@link Chunking})
+     */
+    public boolean isChunkingEnabled() {
+        return chunking.isEnabled();
+    }
+
+    /**
+     * Публикуются ли события класса с дельта-кодированием (см. {@link Delta})
+     */
+    public boolean isDeltaCoded(Class<?> eventClass) {
+        return DeltaEventCodec.NAME.equals(resolveFormatByClass(eventClass));
+    }
+
+    /**
+     * Есть ли классы событий, которые публикуются с дельта-кодированием
+     */
+    public boolean hasDeltaCoded() {
+        return DeltaEventCodec.NAME.equals(defaultFormat) || eventClass2FormatMap.containsValue(DeltaEventCodec.NAME);
+    }
+
     public void ensureTopicsExist(KafkaProperties kafkaProperties) {
         KafkaUtils.ensureTopicsExist(kafkaProperties, getAllTopics(), waitTopicsExistTimeout);
     }
@@ -0,0 +1,34 @@
+package kafkablocks.consumer;
+
+import kafkablocks.events.Event;
+import kafkablocks.serialization.Projection;
+
+/**
+ * Интерфейс обработчика, который получает события пачками, например, чтобы записать их в БД одним запросом.
+ * <p>
+ * В режиме REAL_TIME пачка - все события, полученные одним poll-ом.
+ * В режиме PAST_TIME_INTERVAL пачка - события одного poll-а, время воспроизведения которых уже наступило:
+ * пачка передается обработчику перед ожиданием времени следующего события, поэтому темп воспроизведения соблюдается,
+ * а при высокой скорости воспроизведения пачки получаются большими.
+ * Если у потребителя включено переиспользование экземпляров событий (см. {@link EventPooling}),
+ * то события пачки можно использовать только внутри метода {@link #process}.
+ *
+ * @param <T>
+ */
+public interface BatchEventHandler<T extends Event> {
+    /**
+     * Обработать пачку событий
+     *
+     * @param batch события в порядке их получения
+     */
+    void process(EventBatch<T> batch);
+
+    /**
+     * Проекция событий, т.е. поля, которые использует обработчик (см. {@link Projection}).
+     *
+     * @return проекция или null, если нужны все поля
+     */
+    default Projection getProjection() {
+        return null;
+    }
+}
@@ -0,0 +1,239 @@
+package kafkablocks.consumer;
+
+import kafkablocks.EventTopicProperties;
+import kafkablocks.serialization.EventChunk;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.record.TimestampType;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Сборка больших событий из частей (см. {@link EventChunk}).
+ * <p>
+ * Части события могут перемежаться с другими записями партиции и приходить не по порядку;
+ * повторно полученные части игнорируются. Событие собирается в буфере в памяти, пока суммарный размер
+ * несобранных событий не превышает заданный объем, а сверх него - в файле, поэтому память потребителя
+ * ограничена независимо от размера и кол-ва событий. Событие, части которого не пришли за заданное время,
+ * пропускается.
+ * <p>
+ * Собранное событие становится записью с топиком и партицией события, оффсетом и временной меткой
+ * первой полученной части, т.е. занимает в партиции место, с которого началась его публикация,
+ * и дальше обрабатывается так же, как обычные записи.
+ * <p>
+ * Важно: доставка событий, опубликованных частями, - "не более одного раза". Оффсеты частей фиксируются
+ * потребителем, как только части обработаны этим сборщиком, т.е. до того, как событие собрано.
+ * Поэтому событие, которое не было собрано к перезапуску потребителя или к перераспределению партиций
+ * (см. {@link #clear()}), теряется: уже зафиксированные части повторно не читаются,
+ * а оставшихся частей недостаточно для сборки, и событие пропускается по таймауту. Потокобезопасен
+ */
+final class ChunkReassembler {
+    private final Logger logger;
+    private final long maxMemory;
+    private final Path spillDir;
+    private final long timeout;
+
+    /**
+     * Таблица: ИД события -> несобранное событие
+     */
+    private final Map<UUID, Assembly> assemblies = new HashMap<>();
+    /**
+     * Суммарный размер буферов несобранных событий в памяти
+     */
+    private long memoryUsed;
+
+    /**
+     * Несобранное событие
+     */
+    private static final class Assembly {
+        private final int count;
+        private final int totalSize;
+        private final long startedAt;
+        /**
+         * Оффсет и временная метка первой полученной части
+         */
+        private final long firstOffset;
+        private final long firstTimestamp;
+        private final BitSet received;
+        private int receivedCount;
+        /**
+         * Буфер события или null, если событие собирается в файле
+         */
+        private byte[] buffer;
+        private Path file;
+        private FileChannel channel;
+
+        Assembly(ConsumerRecord<String, byte[]> record, EventChunk chunk, long startedAt) {
+            this.count = chunk.getCount();
+            this.totalSize = chunk.getTotalSize();
+            this.startedAt = startedAt;
+            this.firstOffset = record.offset();
+            this.firstTimestamp = record.timestamp();
+            this.received = new BitSet(count);
+        }
+    }
+
+    ChunkReassembler(EventTopicProperties.Chunking properties, Logger logger) {
+        this.logger = logger;
+        this.maxMemory = properties.getMaxMemory().toBytes();
+        this.spillDir = properties.getSpillDir() != null
+                ? Paths.get(properties.getSpillDir())
+                : Paths.get(System.getProperty("java.io.tmpdir"), "kafkablocks-chunks");
+        this.timeout = properties.getTimeout().toMillis();
+    }
+
+    /**
+     * Добавить часть события
+     *
+     * @return запись собранного события или null, если получены еще не все части
+     * @throws SerializationException если часть не соответствует другим частям события
+     */
+    synchronized ConsumerRecord<String, byte[]> add(ConsumerRecord<String, byte[]> record, EventChunk chunk) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        Assembly assembly = assemblies.get(chunk.getId());
+        if (assembly == null) {
+            assembly = start(record, chunk, now);
+        } else if (assembly.count != chunk.getCount() || assembly.totalSize != chunk.getTotalSize()) {
+            throw new SerializationException("Chunk does not match the previous chunks of the event: " + chunk);
+        }
+
+        byte[] data = record.value();
+        if (chunk.getOffset() + data.length > assembly.totalSize)
+            throw new SerializationException("Chunk is out of the event: " + chunk);
+
+        if (assembly.received.get(chunk.getIndex())) {
+            logger.debug("Duplicate chunk is skipped: {}", chunk);
+            return null;
+        }
+
+        write(assembly, chunk.getOffset(), data);
+        assembly.received.set(chunk.getIndex());
+        assembly.receivedCount++;
+
+        if (assembly.receivedCount < assembly.count)
+            return null;
+
+        assemblies.remove(chunk.getId());
+        byte[] value = finish(assembly);
+        return new ConsumerRecord<>(
+                record.topic(), record.partition(), assembly.firstOffset,
+                assembly.firstTimestamp, TimestampType.CREATE_TIME, null,
+                record.serializedKeySize(), value.length,
+                record.key(), value, EventChunk.valueHeaders(record.headers()));
+    }
+
+    private Assembly start(ConsumerRecord<String, byte[]> record, EventChunk chunk, long now) {
+        Assembly assembly = new Assembly(record, chunk, now);
+        if (memoryUsed + chunk.getTotalSize() <= maxMemory) {
+            assembly.buffer = new byte[chunk.getTotalSize()];
+            memoryUsed += chunk.getTotalSize();
+        } else {
+            try {
+                Files.createDirectories(spillDir);
+                assembly.file = Files.createTempFile(spillDir, chunk.getId().toString(), ".chunks");
+                assembly.channel = FileChannel.open(assembly.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                release(assembly);
+                throw new UncheckedIOException("Can't create file for chunks of event", e);
+            }
+            logger.debug("Event of {} bytes is assembled in file {}", chunk.getTotalSize(), assembly.file);
+        }
+
+        assemblies.put(chunk.getId(), assembly);
+        return assembly;
+    }
+
+    private static void write(Assembly assembly, int offset, byte[] data) {
+        if (assembly.buffer != null) {
+            System.arraycopy(data, 0, assembly.buffer, offset, data.length);
+            return;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += assembly.channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write chunk of event to file " + assembly.file, e);
+        }
+    }
+
+    private byte[] finish(Assembly assembly) {
+        try {
+            if (assembly.buffer != null)
+                return assembly.buffer;
+
+            ByteBuffer buffer = ByteBuffer.allocate(assembly.totalSize);
+            while (buffer.hasRemaining()) {
+                if (assembly.channel.read(buffer, buffer.position()) < 0)
+                    throw new SerializationException("File of chunks of event is truncated: " + assembly.file);
+            }
+            return buffer.array();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read chunks of event from file " + assembly.file, e);
+        } finally {
+            release(assembly);
+        }
+    }
+
+    /**
+     * Пропустить события, части которых не пришли за заданное время
+     */
+    private void expire(long now) {
+        Iterator<Map.Entry<UUID, Assembly>> iterator = assemblies.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Assembly> entry = iterator.next();
+            Assembly assembly = entry.getValue();
+            if (now - assembly.startedAt < timeout)
+                continue;
+
+            logger.warn("Event {} is skipped: only {} of {} chunks were received in {} ms",
+                    entry.getKey(), assembly.receivedCount, assembly.count, timeout);
+            iterator.remove();
+            release(assembly);
+        }
+    }
+
+    private void release(Assembly assembly) {
+        if (assembly.buffer != null) {
+            memoryUsed -= assembly.totalSize;
+            assembly.buffer = null;
+        }
+
+        if (assembly.file != null) {
+            try {
+                if (assembly.channel != null) {
+                    assembly.channel.close();
+                }
+                Files.deleteIfExists(assembly.file);
+            } catch (IOException e) {
+                logger.warn("Can't delete file of chunks of event: " + assembly.file, e);
+            }
+        }
+    }
+
+    /**
+     * Пропустить все несобранные события
+     */
+    synchronized void clear() {
+        assemblies.values().forEach(this::release);
+        assemblies.clear();
+    }
+}
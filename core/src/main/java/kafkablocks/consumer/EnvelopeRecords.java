@@ -0,0 +1,46 @@
+package kafkablocks.consumer;
+
+import kafkablocks.serialization.EventEnvelope;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.record.TimestampType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Распаковка записей-конвертов (см. {@link EventEnvelope}).
+ * Каждое событие конверта становится отдельной записью с тем же топиком, партицией, оффсетом и ключом,
+ * но со своим значением и временной меткой. Поэтому дальнейшая обработка (фильтр, пул экземпляров, flyweight-ы,
+ * соблюдение темпа при воспроизведении) выполняется так же, как для обычных записей
+ */
+final class EnvelopeRecords {
+    private EnvelopeRecords() {
+    }
+
+    static boolean isEnvelope(ConsumerRecord<String, byte[]> record) {
+        return EventEnvelope.isEnvelope(record.headers());
+    }
+
+    /**
+     * Распаковать конверт
+     *
+     * @throws org.apache.kafka.common.errors.SerializationException если конверт поврежден
+     */
+    static List<ConsumerRecord<String, byte[]>> unpack(ConsumerRecord<String, byte[]> record) {
+        EventEnvelope.Reader reader = new EventEnvelope.Reader(record.value());
+        // заголовки у всех событий конверта общие
+        Headers headers = EventEnvelope.innerHeaders(record.headers());
+
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>(reader.getCount());
+        while (reader.next()) {
+            records.add(new ConsumerRecord<>(
+                    record.topic(), record.partition(), record.offset(),
+                    reader.getTimestamp(), TimestampType.CREATE_TIME, null,
+                    record.serializedKeySize(), reader.getLength(),
+                    record.key(), reader.copyValue(), headers));
+        }
+
+        return records;
+    }
+}
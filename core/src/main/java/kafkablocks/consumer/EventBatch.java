@@ -0,0 +1,94 @@
+package kafkablocks.consumer;
+
+import kafkablocks.events.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Пачка событий для {@link BatchEventHandler}: события с их ключами в порядке получения
+ * и индекс событий по ключам
+ *
+ * @param <T>
+ */
+public final class EventBatch<T extends Event> {
+    private final List<String> keys;
+    private final List<T> events;
+    /**
+     * Индекс: ключ -> события ключа; строится при первом обращении
+     */
+    private Map<String, List<T>> eventsByKey;
+
+    EventBatch(int capacity) {
+        this.keys = new ArrayList<>(capacity);
+        this.events = new ArrayList<>(capacity);
+    }
+
+    void add(String key, T event) {
+        keys.add(key);
+        events.add(event);
+        eventsByKey = null;
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * Ключ события с заданным номером
+     */
+    public String getKey(int index) {
+        return keys.get(index);
+    }
+
+    /**
+     * Событие с заданным номером
+     */
+    public T getEvent(int index) {
+        return events.get(index);
+    }
+
+    /**
+     * События в порядке получения
+     */
+    public List<T> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * События, сгруппированные по ключам: ключи в порядке первого получения, события ключа - в порядке получения.
+     * События без ключа - под ключом null
+     */
+    public Map<String, List<T>> getEventsByKey() {
+        Map<String, List<T>> index = eventsByKey;
+        if (index == null) {
+            index = new LinkedHashMap<>();
+            for (int i = 0; i < events.size(); i++) {
+                index.computeIfAbsent(keys.get(i), key -> new ArrayList<>()).add(events.get(i));
+            }
+            eventsByKey = Collections.unmodifiableMap(index);
+            index = eventsByKey;
+        }
+
+        return index;
+    }
+
+    /**
+     * Последние события ключей, например, для записи только последних состояний объектов
+     */
+    public List<T> getLastEvents() {
+        List<T> last = new ArrayList<>(getEventsByKey().size());
+        for (List<T> keyEvents : getEventsByKey().values()) {
+            last.add(keyEvents.get(keyEvents.size() - 1));
+        }
+
+        return last;
+    }
+}
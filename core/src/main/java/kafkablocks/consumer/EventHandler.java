@@ -1,9 +1,12 @@
 package kafkablocks.consumer;
 
 import kafkablocks.events.Event;
+import kafkablocks.serialization.Projection;
 
 /**
- * Интерфейс обработчика событий
+ * Интерфейс обработчика событий.
+ * Если у потребителя включено переиспользование экземпляров событий (см. {@link EventPooling}),
+ * то событие можно использовать только внутри метода {@link #process}.
  * @param <T>
  */
 public interface EventHandler<T extends Event> {
@@ -13,4 +16,31 @@ public interface EventHandler<T extends Event> {
      * @param event экземпляр события
      */
     void process(String key, T event);
+
+    /**
+     * Проекция событий, т.е. поля, которые использует обработчик (см. {@link Projection}).
+     * Потребитель читает из записей только эти поля, остальные поля событий имеют значения по умолчанию.
+     *
+     * @return проекция или null, если нужны все поля
+     */
+    default Projection getProjection() {
+        return null;
+    }
+
+    /**
+     * Создать обработчик, который использует только заданные поля событий
+     */
+    static <T extends Event> EventHandler<T> withProjection(Projection projection, EventHandler<T> handler) {
+        return new EventHandler<T>() {
+            @Override
+            public void process(String key, T event) {
+                handler.process(key, event);
+            }
+
+            @Override
+            public Projection getProjection() {
+                return projection;
+            }
+        };
+    }
 }
@@ -0,0 +1,227 @@
+package kafkablocks.consumer;
+
+import org.slf4j.Logger;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Пул экземпляров событий одного типа для десериализации "на месте" (см. {@link EventPooling}).
+ * <p>
+ * У каждого потока свой пул, поэтому экземпляр должен быть возвращен в пул тем же потоком, который его взял.
+ * При возврате все поля экземпляра сбрасываются, т.к. при заполнении поля, которых нет в записи,
+ * сохраняют свои значения.
+ *
+ * @param <E> тип события
+ */
+final class EventPool<E> {
+    /**
+     * Макс. кол-во экземпляров в пуле одного потока
+     * (обработка выполняется синхронно, поэтому обычно в пуле не больше одного экземпляра)
+     */
+    static final int MAX_POOL_SIZE = 4;
+    /**
+     * Через какое кол-во возвращенных экземпляров проверять их удержание (в режиме DEBUG)
+     */
+    static final int RETENTION_CHECK_INTERVAL = 1000;
+    /**
+     * Макс. кол-во отслеживаемых экземпляров (в режиме DEBUG); при превышении старые перестают отслеживаться
+     */
+    private static final int MAX_TRACKED = 10_000;
+
+    private final Class<E> type;
+    private final EventPooling mode;
+    private final Logger logger;
+    private final Constructor<E> constructor;
+    /**
+     * Поля экземпляра (включая поля базовых классов), которые сбрасываются при возврате в пул
+     */
+    private final Field[] fields;
+    private final ThreadLocal<ArrayDeque<E>> pools = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * Возвращенный экземпляр, который отслеживается в режиме DEBUG
+     */
+    private static final class Released extends WeakReference<Object> {
+        /**
+         * Кол-во сборок мусора на момент возврата
+         */
+        private final long gcCount;
+
+        Released(Object event, long gcCount) {
+            super(event);
+            this.gcCount = gcCount;
+        }
+    }
+
+    private final ArrayDeque<Released> released = new ArrayDeque<>();
+    private int releasedSinceCheck;
+    private long retainedCount;
+
+
+    EventPool(Class<E> type, EventPooling mode, Logger logger) {
+        if (mode == EventPooling.DISABLED)
+            throw new IllegalArgumentException("Pooling is disabled");
+
+        this.type = type;
+        this.mode = mode;
+        this.logger = logger;
+
+        try {
+            this.constructor = type.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Pooled event class must have no-args constructor: " + type.getName());
+        }
+
+        List<Field> list = new ArrayList<>();
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()))
+                    continue;
+
+                field.setAccessible(true);
+                list.add(field);
+            }
+        }
+        this.fields = list.toArray(new Field[0]);
+    }
+
+    /**
+     * Взять экземпляр из пула текущего потока или создать новый, если пул пуст
+     */
+    E acquire() {
+        if (mode == EventPooling.ENABLED) {
+            E event = pools.get().pollLast();
+            if (event != null)
+                return event;
+        }
+
+        return newInstance();
+    }
+
+    /**
+     * Вернуть экземпляр в пул текущего потока.
+     * После вызова экземпляр не должен использоваться вызывающим кодом.
+     */
+    void release(E event) {
+        if (event == null || event.getClass() != type)
+            return;
+
+        reset(event);
+
+        if (mode == EventPooling.DEBUG) {
+            track(event);
+            return;
+        }
+
+        ArrayDeque<E> pool = pools.get();
+        if (pool.size() < MAX_POOL_SIZE) {
+            pool.addLast(event);
+        }
+    }
+
+    private E newInstance() {
+        try {
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't create instance of " + type.getName(), e);
+        }
+    }
+
+    private void reset(E event) {
+        try {
+            for (Field field : fields) {
+                Class<?> fieldType = field.getType();
+                if (!fieldType.isPrimitive()) {
+                    field.set(event, null);
+                } else if (fieldType == boolean.class) {
+                    field.setBoolean(event, false);
+                } else if (fieldType == char.class) {
+                    field.setChar(event, (char) 0);
+                } else if (fieldType == float.class) {
+                    field.setFloat(event, 0);
+                } else if (fieldType == double.class) {
+                    field.setDouble(event, 0);
+                } else {
+                    // byte, short, int, long: значение расширяется до типа поля
+                    field.setByte(event, (byte) 0);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't reset instance of " + type.getName(), e);
+        }
+    }
+
+    //region Retention detection
+
+    private synchronized void track(E event) {
+        if (released.size() >= MAX_TRACKED) {
+            released.pollFirst();
+        }
+        released.addLast(new Released(event, getGcCount()));
+
+        if (++releasedSinceCheck >= RETENTION_CHECK_INTERVAL) {
+            checkRetained();
+        }
+    }
+
+    /**
+     * Проверить, удерживаются ли возвращенные экземпляры.
+     * Экземпляр считается удерживаемым, если после его возврата прошло не менее двух сборок мусора,
+     * а слабая ссылка на него не очищена. Обработка короткая, поэтому к моменту возврата экземпляр
+     * обычно еще в молодом поколении и собирается первой же сборкой, если на него нет ссылок.
+     *
+     * @return кол-во удерживаемых экземпляров, найденных при этой проверке
+     */
+    synchronized int checkRetained() {
+        releasedSinceCheck = 0;
+        long gcCount = getGcCount();
+        int retained = 0;
+
+        for (Iterator<Released> it = released.iterator(); it.hasNext(); ) {
+            Released ref = it.next();
+            if (ref.get() == null) {
+                it.remove();
+            } else if (gcCount - ref.gcCount >= 2) {
+                retained++;
+                it.remove();
+            }
+        }
+
+        if (retained > 0) {
+            retainedCount += retained;
+            logger.warn("{} recycled events of type {} are still referenced after GC: " +
+                            "event handler retains events, so it can't be used with pooling (total retained: {})",
+                    retained, type.getSimpleName(), retainedCount);
+        }
+
+        return retained;
+    }
+
+    /**
+     * Общее кол-во найденных удерживаемых экземпляров (в режиме DEBUG)
+     */
+    synchronized long getRetainedCount() {
+        return retainedCount;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+
+        return count;
+    }
+
+    //endregion
+}
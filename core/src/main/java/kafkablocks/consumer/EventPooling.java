@@ -0,0 +1,40 @@
+package kafkablocks.consumer;
+
+/**
+ * Режим переиспользования экземпляров событий при десериализации
+ * (см. {@link KafkaConsumer#setEventPooling(EventPooling)}).
+ * <p>
+ * Правила владения при включенном переиспользовании:
+ * <ul>
+ * <li>
+ * экземпляр события принадлежит обработчику только на время вызова {@link EventHandler#process};
+ * после возврата из метода экземпляр сбрасывается (все поля - null/0/false) и заполняется следующей записью
+ * </li>
+ * <li>
+ * обработчик не должен сохранять ссылку на событие (в коллекциях, других потоках, лямбдах и т.п.);
+ * если событие нужно после обработки, то нужно сохранить его копию или нужные значения полей
+ * </li>
+ * <li>
+ * класс события должен иметь конструктор без параметров, а его поля не должны быть final
+ * (кроме полей {@link kafkablocks.events.BaseEvent}, которые заполняются через reflection)
+ * </li>
+ * </ul>
+ */
+public enum EventPooling {
+    /**
+     * Для каждой записи создается новый экземпляр события (по умолчанию)
+     */
+    DISABLED,
+    /**
+     * Экземпляры событий берутся из пула потока, который выполняет обработку, и возвращаются в него
+     * после обработки
+     */
+    ENABLED,
+    /**
+     * Режим отладки: для каждой записи создается новый экземпляр, но после обработки он сбрасывается так же,
+     * как в режиме ENABLED, и отслеживается через слабую ссылку. Если экземпляр пережил сборку мусора,
+     * то пишется предупреждение о том, что обработчик удерживает событие
+     * (т.е. с режимом ENABLED он будет работать некорректно)
+     */
+    DEBUG
+}
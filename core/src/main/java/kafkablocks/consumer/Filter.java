@@ -1,11 +1,68 @@
 package kafkablocks.consumer;
 
+import kafkablocks.events.EventMetadata;
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 /**
- * Фильтровать события можно по:
- * - ключу
- * - типу события
- * - делать матчинг (тела события) - например, только Alert-ы с Sevrity = Critical
+ * Фильтр событий, который выполняется до десериализации события,
+ * т.е. только по ключу и метаданным из заголовков записи (см. {@link EventMetadata}).
+ * Записи, которые не прошли фильтр, пропускаются без разбора тела.
+ * <p>
+ * У записей без заголовков метаданные пустые ({@link EventMetadata#EMPTY}),
+ * стандартные фильтры такие записи пропускают.
  */
-public class Filter {
-    //todo
+@FunctionalInterface
+public interface Filter {
+    /**
+     * @param key      ключ события
+     * @param metadata метаданные события
+     * @return true - событие нужно обработать, false - пропустить
+     */
+    boolean accept(String key, EventMetadata metadata);
+
+    default Filter and(Filter other) {
+        Assert.notNull(other, "other is null");
+        return (key, metadata) -> accept(key, metadata) && other.accept(key, metadata);
+    }
+
+    /**
+     * Фильтр по типу события (простому имени класса)
+     */
+    static Filter byType(String... types) {
+        Set<String> typeSet = new HashSet<>(Arrays.asList(types));
+        return (key, metadata) -> !metadata.hasType() || typeSet.contains(metadata.getType());
+    }
+
+    /**
+     * Фильтр по интервалу времени наступления события [fromTs, toTs]
+     */
+    static Filter occurredBetween(long fromTs, long toTs) {
+        return (key, metadata) -> !metadata.hasOccurred()
+                || (fromTs <= metadata.getOccurred() && metadata.getOccurred() <= toTs);
+    }
+
+    /**
+     * Фильтр, который отбрасывает повторно полученные события (с тем же ИД).
+     * Помнит ИД-ы последних capacity событий.
+     */
+    static Filter dedupe(int capacity) {
+        Assert.isTrue(capacity > 0, "capacity must be positive");
+
+        Set<String> lastIds = Collections.newSetFromMap(Collections.synchronizedMap(
+                new LinkedHashMap<String, Boolean>(capacity * 4 / 3 + 1) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                        return size() > capacity;
+                    }
+                }));
+
+        return (key, metadata) -> !metadata.hasId() || lastIds.add(metadata.getId());
+    }
 }
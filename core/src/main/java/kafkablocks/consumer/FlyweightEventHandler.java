@@ -0,0 +1,22 @@
+package kafkablocks.consumer;
+
+import kafkablocks.serialization.flyweight.Flyweight;
+
+/**
+ * Интерфейс обработчика событий, который получает не десериализованное событие,
+ * а flyweight (см. {@link Flyweight}), т.е. представление записи, которое читает поля прямо из ее байт.
+ * <p>
+ * Flyweight переиспользуется для следующих записей, поэтому его можно использовать только внутри метода
+ * {@link #process}; если значения нужны после обработки, то их нужно скопировать.
+ * События должны публиковаться в формате "fixed" без сжатия.
+ *
+ * @param <F> тип flyweight-а, сгенерированного для класса события
+ */
+public interface FlyweightEventHandler<F extends Flyweight> {
+    /**
+     * Обработать событие
+     * @param key ключ события
+     * @param event представление записи события
+     */
+    void process(String key, F event);
+}
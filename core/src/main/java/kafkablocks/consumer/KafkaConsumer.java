@@ -88,6 +88,34 @@ public interface KafkaConsumer {
      */
     <T extends Event> void setEventHandler(EventHandler<T> eventHandler, Class<T> eventType);
 
+    /**
+     * Установить обработчик, который получает события пачками (см. {@link BatchEventHandler}).
+     * Заменяет обработчик событий этого типа, заданный через {@link #setEventHandler}.
+     * Метод должен быть вызван до запуска потребителя (start)
+     */
+    <T extends Event> void setBatchEventHandler(BatchEventHandler<T> eventHandler, Class<T> eventType);
+
+    /**
+     * Установить фильтр событий, который выполняется до десериализации события
+     * (по ключу и метаданным из заголовков записи).
+     * null - фильтр не используется
+     */
+    void setFilter(Filter filter);
+
+    /**
+     * Задать режим переиспользования экземпляров событий (см. {@link EventPooling}).
+     * По умолчанию - DISABLED.
+     * Метод должен быть вызван до запуска потребителя (start)
+     */
+    void setEventPooling(EventPooling eventPooling);
+
+    /**
+     * Задать параметры параллельной обработки записей (см. {@link ParallelProcessing}).
+     * null - записи обрабатываются последовательно потоком чтения (по умолчанию).
+     * Метод должен быть вызван до запуска потребителя (start)
+     */
+    void setParallelProcessing(ParallelProcessing parallelProcessing);
+
     //endregion
 
 }
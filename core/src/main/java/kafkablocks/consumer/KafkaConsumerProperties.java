@@ -31,6 +31,15 @@ public class KafkaConsumerProperties extends AppProperties {
      * По умолчанию, 1.0 - т.е. скорость чтения будет соответствовать той, с которой события поступали в топик.
      */
     private double rate = 1.0;
+    /**
+     * Параллельная обработка записей в режиме REAL_TIME (см. {@link ParallelProcessing})
+     */
+    private final ParallelProcessing parallel = new ParallelProcessing();
+    /**
+     * Читать все топики одним физическим потребителем в режиме REAL_TIME
+     * (см. {@link KafkaMultipleConsumer#setSharedConsumer(boolean)})
+     */
+    private boolean sharedConsumer;
 
     /**
      * Параметры потребления
@@ -32,7 +32,12 @@ public class KafkaConsumerService extends ServiceBase implements KafkaConsumer {
         this.consumerProperties = consumerProperties;
         this.eventTopicProperties = eventTopicProperties;
         this.kafkaProperties = kafkaProperties;
-        internalConsumer = new KafkaMultipleConsumer(eventTopicProperties, kafkaProperties);
+        KafkaMultipleConsumer multipleConsumer = new KafkaMultipleConsumer(eventTopicProperties, kafkaProperties);
+        multipleConsumer.setSharedConsumer(consumerProperties.isSharedConsumer());
+        internalConsumer = multipleConsumer;
+        if (consumerProperties.getParallel().isEnabled()) {
+            internalConsumer.setParallelProcessing(consumerProperties.getParallel());
+        }
     }
 
     @Override
@@ -71,6 +76,26 @@ public class KafkaConsumerService extends ServiceBase implements KafkaConsumer {
         internalConsumer.setEventHandler(eventHandler, eventType);
     }
 
+    @Override
+    public <T extends Event> void setBatchEventHandler(BatchEventHandler<T> eventHandler, Class<T> eventType) {
+        internalConsumer.setBatchEventHandler(eventHandler, eventType);
+    }
+
+    @Override
+    public void setFilter(Filter filter) {
+        internalConsumer.setFilter(filter);
+    }
+
+    @Override
+    public void setEventPooling(EventPooling eventPooling) {
+        internalConsumer.setEventPooling(eventPooling);
+    }
+
+    @Override
+    public void setParallelProcessing(ParallelProcessing parallelProcessing) {
+        internalConsumer.setParallelProcessing(parallelProcessing);
+    }
+
     @Override
     public void setConsumingParams(ConsumingParams params) {
         consumingParams = params;
@@ -3,20 +3,29 @@ package kafkablocks.consumer;
 import kafkablocks.EventTopicProperties;
 import kafkablocks.events.Event;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * "Множественный потребитель" - выполняет прием сообщений разных типов,
  * где для каждого типа сообщения опеределен свой топик.
  * Внутри использует KafkaSingleConsumer для каждого типа сообщения.
+ * <p>
+ * В режиме общего потребителя (см. {@link #setSharedConsumer(boolean)}) все топики читает
+ * один физический потребитель Kafka, а записи передаются потребителям типов по топику.
  */
 public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaConsumer {
     private final EventTopicProperties eventTopicProperties;
@@ -26,6 +35,14 @@ public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaCon
      * ключ - тип события, значение - одиночный потребитель
      */
     private final Map<Class<? extends Event>, KafkaSingleConsumer> consumerMap = new HashMap<>();
+    private Filter filter;
+    private EventPooling eventPooling = EventPooling.DISABLED;
+    private ParallelProcessing parallelProcessing;
+    private boolean sharedConsumer;
+    /**
+     * Контейнер общего потребителя или null, если каждый тип события читает свой потребитель
+     */
+    private volatile KafkaListenerContainer sharedContainer;
 
 
     public KafkaMultipleConsumer(EventTopicProperties eventTopicProperties, KafkaProperties kafkaProperties) {
@@ -43,6 +60,13 @@ public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaCon
         consumer.setEventHandler(eventHandler, eventType);
     }
 
+    @Override
+    public <T extends Event> void setBatchEventHandler(BatchEventHandler<T> eventHandler, Class<T> eventType) {
+        Assert.notNull(eventHandler, "eventHandler is null");
+        KafkaSingleConsumer consumer = getOrCreateConsumer(eventType);
+        consumer.setBatchEventHandler(eventHandler, eventType);
+    }
+
     private KafkaSingleConsumer getOrCreateConsumer(Class<? extends Event> eventType) {
         Assert.notNull(eventType, "eventType is null");
 
@@ -54,6 +78,9 @@ public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaCon
         consumer.setErrorHandler(error -> onError("consumer error: " + consumer.getId(), error));
         // подписка на изменение фаз нужна, чтобы поймать момент, когда потребитель остановится
         consumer.setPhaseChangedHandler(this::onConsumerPhaseChanged);
+        consumer.setFilter(filter);
+        consumer.setEventPooling(eventPooling);
+        consumer.setParallelProcessing(parallelProcessing);
 
         consumerMap.put(eventType, consumer);
 
@@ -77,6 +104,36 @@ public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaCon
         }
     }
 
+    @Override
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+        execForEachConsumer(consumer -> consumer.setFilter(filter));
+    }
+
+    @Override
+    public void setEventPooling(EventPooling eventPooling) {
+        this.eventPooling = eventPooling;
+        execForEachConsumer(consumer -> consumer.setEventPooling(eventPooling));
+    }
+
+    @Override
+    public void setParallelProcessing(ParallelProcessing parallelProcessing) {
+        this.parallelProcessing = parallelProcessing;
+        execForEachConsumer(consumer -> consumer.setParallelProcessing(parallelProcessing));
+    }
+
+    /**
+     * Читать все топики одним физическим потребителем Kafka вместо потребителя на каждый тип события.
+     * Сокращает кол-во потоков чтения, соединений и буферов; ошибки, фазы и приостановка - те же,
+     * что и у отдельных потребителей.
+     * <p>
+     * Применяется только в режиме REAL_TIME: в режиме PAST_TIME_INTERVAL каждый топик
+     * воспроизводится своим потребителем, чтобы соблюдать темп воспроизведения
+     */
+    public void setSharedConsumer(boolean sharedConsumer) {
+        this.sharedConsumer = sharedConsumer;
+    }
+
     @Override
     public void setConsumingParams(ConsumingParams params) {
         super.setConsumingParams(params);
@@ -86,7 +143,9 @@ public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaCon
     @Override
     public void changeRate(double rate) {
         super.changeRate(rate);
-        execForEachNotStoppedConsumer(consumer -> consumer.changeRate(rate));
+        if (sharedContainer == null) {
+            execForEachNotStoppedConsumer(consumer -> consumer.changeRate(rate));
+        }
     }
 
     @Override
@@ -95,18 +154,38 @@ public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaCon
             throw new IllegalStateException("No event handlers set");
         }
 
-        execForEachConsumer(KafkaSingleConsumer::start);
+        if (sharedConsumer && consumingParams.getRegime() == ConsumingRegime.REAL_TIME) {
+            assertNextPhase(KafkaConsumerPhase.RUNNING);
+            sharedContainer = createSharedContainer();
+            sharedContainer.start();
+            logger.info("Shared consumer started; topics = {}", getConsumersByTopic().keySet());
+        } else {
+            execForEachConsumer(KafkaSingleConsumer::start);
+        }
         setPhase(KafkaConsumerPhase.RUNNING);
     }
 
     @Override
     public void stop() {
-        execForEachNotStoppedConsumer(KafkaSingleConsumer::stop);
+        KafkaListenerContainer container = sharedContainer;
+        if (container != null) {
+            sharedContainer = null;
+            container.stop();
+            execForEachConsumer(KafkaSingleConsumer::clearPendingChunks);
+        } else {
+            execForEachNotStoppedConsumer(KafkaSingleConsumer::stop);
+        }
         setPhase(KafkaConsumerPhase.STOPPED);
     }
 
     @Override
     public void pause() {
+        if (sharedContainer != null) {
+            // общий потребитель работает только в режиме REAL_TIME, который не поддерживает приостановку
+            super.pause();
+            return;
+        }
+
         // для данного консюмера базовая реализация pause() не подходит, поэтому переопределяем ее
         execForEachNotStoppedConsumer(KafkaSingleConsumer::pause);
         pauseInternal();
@@ -120,7 +199,9 @@ public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaCon
     @Override
     public void resume() {
         // для данного консюмера базовая реализация resume() не подходит, поэтому переопределяем ее
-        execForEachNotStoppedConsumer(KafkaSingleConsumer::resume);
+        if (sharedContainer == null) {
+            execForEachNotStoppedConsumer(KafkaSingleConsumer::resume);
+        }
         resumeInternal();
     }
 
@@ -129,6 +210,77 @@ public class KafkaMultipleConsumer extends KafkaConsumerBase implements KafkaCon
         setPhase(KafkaConsumerPhase.RUNNING);
     }
 
+    //region Shared consumer
+
+    private KafkaListenerContainer createSharedContainer() {
+        Map<String, List<KafkaSingleConsumer>> consumersByTopic = getConsumersByTopic();
+
+        KafkaSingleConsumer.HandleProxy handleProxy = new KafkaSingleConsumer.HandleProxy(
+                record -> dispatch(Collections.singletonList(record), consumersByTopic),
+                records -> dispatch(records, consumersByTopic),
+                record -> {
+                },
+                (ex, record) -> onError(
+                        "Shared listener container error; record: " + KafkaSingleConsumer.getRecordLogText(record), ex),
+                () -> consumingParams.getRate(),
+                this::isPaused,
+                this::waitForStopOrPause,
+                this::waitForResumeOrStop,
+                container -> {
+                });
+
+        // группа по умолчанию - по типам событий, как у отдельных потребителей
+        String defaultGroupId = consumerMap.values().stream()
+                .map(KafkaSingleConsumer::getId)
+                .sorted()
+                .collect(Collectors.joining("-"));
+
+        return new RealTimeKafkaListenerContainer(
+                logger,
+                handleProxy,
+                KafkaSingleConsumer.getConsumerProperties(eventTopicProperties, kafkaProperties, defaultGroupId),
+                consumersByTopic.keySet(),
+                parallelProcessing);
+    }
+
+    /**
+     * Таблица: топик -> потребители типов событий, которые в нем публикуются
+     */
+    private Map<String, List<KafkaSingleConsumer>> getConsumersByTopic() {
+        Map<String, List<KafkaSingleConsumer>> map = new LinkedHashMap<>();
+        for (KafkaSingleConsumer consumer : consumerMap.values()) {
+            map.computeIfAbsent(consumer.getTopic(), topic -> new ArrayList<>(1)).add(consumer);
+        }
+        return map;
+    }
+
+    /**
+     * Передать записи общего потребителя потребителям типов событий по топику с сохранением порядка записей
+     */
+    private void dispatch(
+            List<ConsumerRecord<String, byte[]>> records,
+            Map<String, List<KafkaSingleConsumer>> consumersByTopic) {
+
+        Map<String, List<ConsumerRecord<String, byte[]>>> recordsByTopic = new LinkedHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            recordsByTopic.computeIfAbsent(record.topic(), topic -> new ArrayList<>()).add(record);
+        }
+
+        recordsByTopic.forEach((topic, topicRecords) -> {
+            List<KafkaSingleConsumer> consumers = consumersByTopic.get(topic);
+            if (consumers == null) {
+                logger.warn("Records of unexpected topic '{}' skipped: {}", topic, topicRecords.size());
+                return;
+            }
+
+            for (KafkaSingleConsumer consumer : consumers) {
+                consumer.onSharedRecords(topicRecords);
+            }
+        });
+    }
+
+    //endregion
+
     private void execForEachNotStoppedConsumer(Consumer<KafkaSingleConsumer> action) {
         execForEachConsumer(action, consumer -> consumer.getPhase() != KafkaConsumerPhase.STOPPED);
     }
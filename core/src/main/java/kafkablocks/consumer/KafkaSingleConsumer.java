@@ -2,15 +2,26 @@ package kafkablocks.consumer;
 
 import kafkablocks.EventTopicProperties;
 import kafkablocks.events.Event;
-import kafkablocks.serialization.EventDeserializer;
+import kafkablocks.serialization.EventChunk;
+import kafkablocks.serialization.EventHeaders;
+import kafkablocks.serialization.EventTypeSerde;
+import kafkablocks.serialization.Projection;
+import kafkablocks.serialization.delta.DeltaDecoder;
+import kafkablocks.serialization.delta.DeltaEventCodec;
+import kafkablocks.serialization.flyweight.Flyweight;
+import kafkablocks.serialization.flyweight.Flyweights;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.With;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.util.Assert;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
@@ -24,8 +35,21 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
 
     private final Class<? extends Event> eventType;
     private final String topic;
+    /**
+     * Serde событий топика. Записи из топика читаются как массивы байт,
+     * а десериализуются уже после фильтрации по заголовкам (см. {@link #setFilter(Filter)})
+     */
+    private final EventTypeSerde<Event> serde;
     private final Map<String, Object> consumerProps;
     private final HandleProxy handleProxy;
+    /**
+     * Интервал опорных кадров (мс), если события публикуются с дельта-кодированием, иначе 0
+     */
+    private final long keyframeInterval;
+    /**
+     * Параметры сборки больших событий из частей
+     */
+    private final EventTopicProperties.Chunking chunking;
 
     /**
      * прокси для передачи "указателей" на разные методы listener container-ам
@@ -33,7 +57,16 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
     @Getter
     @RequiredArgsConstructor
     public static class HandleProxy {
-        private final Consumer<ConsumerRecord<String, Event>> newRecord;
+        private final Consumer<ConsumerRecord<String, byte[]>> newRecord;
+        /**
+         * Обработка записей пачкой (см. {@link BatchEventHandler}) или null, если записи обрабатываются по одной
+         */
+        @With
+        private final Consumer<List<ConsumerRecord<String, byte[]>>> newRecords;
+        /**
+         * Запись, которая прочитана, но не обрабатывается (например, предшествует началу интервала)
+         */
+        private final Consumer<ConsumerRecord<String, byte[]>> skippedRecord;
         private final org.springframework.kafka.listener.ErrorHandler errorHandler;
         private final Supplier<Double> rate;
         private final BooleanSupplier isPaused;
@@ -52,6 +85,7 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
      * @param eventTopicProperties резолвер, который используется для определения топика по типу события
      * @param kafkaProperties      параметры взаимодействия с Kafka
      */
+    @SuppressWarnings("unchecked")
     public KafkaSingleConsumer(
             Class<? extends Event> eventType,
             EventTopicProperties eventTopicProperties,
@@ -61,10 +95,17 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
 
         this.eventType = eventType;
         this.topic = eventTopicProperties.resolveTopicByEventClass(eventType);
-        this.consumerProps = getConsumerProperties(kafkaProperties);
+        this.serde = (EventTypeSerde<Event>) eventTopicProperties.getSerdeRegistry().forTopic(topic);
+        this.consumerProps = getConsumerProperties(eventTopicProperties, kafkaProperties, id);
+        this.keyframeInterval = eventTopicProperties.isDeltaCoded(eventType)
+                ? eventTopicProperties.getDelta().getKeyframeInterval().toMillis()
+                : 0;
+        this.chunking = eventTopicProperties.getChunking();
 
         this.handleProxy = new HandleProxy(
                 this::onNewRecord,
+                null,
+                this::onSkippedRecord,
                 this::onListenerContainerError,
                 () -> consumingParams.getRate(),
                 this::isPaused,
@@ -78,15 +119,24 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
     /**
      * Получить параметры потребителя
      *
-     * @param kafkaProperties параметры взаимодействия с Kafka, который
+     * @param eventTopicProperties параметры событий (см. {@link EventTopicProperties#isReadCommitted()})
+     * @param kafkaProperties      параметры взаимодействия с Kafka, который
+     * @param consumerId           ИД экземпляра потребителя
      * @return таблица с параметрами
      */
-    private Map<String, Object> getConsumerProperties(KafkaProperties kafkaProperties) {
+    static Map<String, Object> getConsumerProperties(
+            EventTopicProperties eventTopicProperties,
+            KafkaProperties kafkaProperties,
+            String consumerId) {
+
         Map<String, Object> map = kafkaProperties.buildConsumerProperties();
+        if (eventTopicProperties.isReadCommitted()) {
+            map.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
 
-        map.put(ConsumerConfig.GROUP_ID_CONFIG, getConsumerGroupId(kafkaProperties));
+        map.put(ConsumerConfig.GROUP_ID_CONFIG, getConsumerGroupId(kafkaProperties, consumerId));
         map.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-        map.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, EventDeserializer.class);
+        map.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
 
         return map;
     }
@@ -113,28 +163,38 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
      * </li>
      * </ol>
      */
-    private String getConsumerGroupId(KafkaProperties kafkaProperties) {
+    private static String getConsumerGroupId(KafkaProperties kafkaProperties, String consumerId) {
         String groupId = kafkaProperties.getConsumer().getGroupId();
         return groupId != null
                 ? groupId
-                : this.id;
+                : consumerId;
     }
 
     //endregion
 
+    String getTopic() {
+        return topic;
+    }
+
     //region Listener container
 
     private volatile KafkaListenerContainer listenerContainer;
 
 
     private KafkaListenerContainer createListenerContainer() {
+        // с обработчиком пачек контейнеры передают записи пачками
+        HandleProxy handleProxy = batchHandler != null
+                ? this.handleProxy.withNewRecords(this::onNewRecords)
+                : this.handleProxy;
+
         switch (consumingParams.getRegime()) {
             case REAL_TIME:
                 return new RealTimeKafkaListenerContainer(
                         logger,
                         handleProxy,
                         consumerProps,
-                        topic);
+                        Collections.singleton(topic),
+                        parallelProcessing);
 
             case PAST_TIME_INTERVAL:
                 return new PastTimeKafkaListenerContainer(
@@ -142,6 +202,7 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
                         handleProxy,
                         consumerProps,
                         topic,
+                        getSeekTs(consumingParams.getFromTs()),
                         consumingParams.getFromTs(),
                         consumingParams.getToTs());
 
@@ -150,15 +211,33 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
         }
     }
 
+    /**
+     * Получить время, с которого начинается чтение в режиме PAST_TIME_INTERVAL.
+     * При дельта-кодировании чтение начинается с начала интервала опорных кадров, чтобы получить опорные кадры
+     * всех ключей; записи до начала интервала воспроизведения только обновляют состояние декодера
+     */
+    private long getSeekTs(long fromTs) {
+        return keyframeInterval > 0
+                ? fromTs - Math.floorMod(fromTs, keyframeInterval)
+                : fromTs;
+    }
+
     private void onListenerContainerError(Exception ex, ConsumerRecord<?, ?> record) {
         onError("Listener container error; record: " + getRecordLogText(record), ex);
     }
 
-    private static String getRecordLogText(ConsumerRecord<?, ?> record) {
+    static String getRecordLogText(ConsumerRecord<?, ?> record) {
         return record == null
                 ? "<null>"
                 : String.format("[%s; p:%d; o:%d; ts:%d] %s = %s",
-                record.topic(), record.partition(), record.offset(), record.timestamp(), record.key(), record.value());
+                record.topic(), record.partition(), record.offset(), record.timestamp(), record.key(),
+                getValueLogText(record.value()));
+    }
+
+    private static Object getValueLogText(Object value) {
+        return value instanceof byte[]
+                ? ((byte[]) value).length + " bytes"
+                : value;
     }
 
     //endregion
@@ -166,12 +245,79 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
     //region Events handling
 
     private EventHandler<Event> eventHandler;
+    /**
+     * Обработчик пачек событий или null, если события обрабатываются по одному (см. {@link #setBatchEventHandler})
+     */
+    private BatchEventHandler<Event> batchHandler;
+    /**
+     * Проекция событий обработчика или null, если читаются все поля
+     */
+    private Projection projection;
+    private volatile Filter filter;
+    /**
+     * Параметры параллельной обработки записей или null, если записи обрабатываются последовательно
+     */
+    private ParallelProcessing parallelProcessing;
+    /**
+     * Пул экземпляров событий или null, если экземпляры не переиспользуются
+     */
+    private EventPool<Event> eventPool;
+    /**
+     * Обработчик flyweight-ов или null, если события десериализуются (см. {@link #setFlyweightEventHandler})
+     */
+    private FlyweightEventHandler<Flyweight> flyweightHandler;
+    /**
+     * Flyweight-ы потоков, которые выполняют обработку
+     */
+    private ThreadLocal<Flyweight> flyweights;
+    /**
+     * Декодер дельта-кадров; создается при получении первого кадра
+     */
+    private volatile DeltaDecoder<Event> deltaDecoder;
+    /**
+     * Сборщик больших событий из частей; создается при получении первой части
+     */
+    private volatile ChunkReassembler chunkReassembler;
 
     @Override
     @SuppressWarnings("unchecked")
     public <E extends Event> void setEventHandler(EventHandler<E> handler, Class<E> eventType) {
         checkEventType(eventType);
         this.eventHandler = (key, event) -> handler.process(key, (E) event);
+        this.projection = handler.getProjection();
+        this.batchHandler = null;
+        this.flyweightHandler = null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E extends Event> void setBatchEventHandler(BatchEventHandler<E> handler, Class<E> eventType) {
+        Assert.notNull(handler, "handler is null");
+        checkEventType(eventType);
+        this.batchHandler = batch -> handler.process((EventBatch<E>) (EventBatch<?>) batch);
+        this.projection = handler.getProjection();
+        this.eventHandler = null;
+        this.flyweightHandler = null;
+    }
+
+    /**
+     * Задать обработчик, который получает вместо событий их flyweight-ы (см. {@link FlyweightEventHandler}).
+     * Заменяет обработчик событий, заданный через {@link #setEventHandler}.
+     *
+     * @param flyweightType тип flyweight-а, сгенерированного для класса события этого потребителя
+     */
+    @SuppressWarnings("unchecked")
+    public <F extends Flyweight> void setFlyweightEventHandler(FlyweightEventHandler<F> handler, Class<F> flyweightType) {
+        Assert.notNull(handler, "handler is null");
+        if (!Flyweights.isFlyweightOf(flyweightType, eventType))
+            throw new IllegalArgumentException(
+                    String.format("Flyweight type must be generated for '%s', but it is '%s'",
+                            eventType.getName(), flyweightType.getName()));
+
+        this.flyweights = ThreadLocal.withInitial(() -> Flyweights.create(flyweightType));
+        this.flyweightHandler = (key, event) -> handler.process(key, (F) event);
+        this.eventHandler = null;
+        this.batchHandler = null;
     }
 
     private void checkEventType(Class<? extends Event> eventType) {
@@ -181,7 +327,71 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
                             this.eventType.getName(), eventType.getName()));
     }
 
-    private void onNewRecord(ConsumerRecord<String, Event> record) {
+    @Override
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public void setParallelProcessing(ParallelProcessing parallelProcessing) {
+        this.parallelProcessing = parallelProcessing;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void setEventPooling(EventPooling eventPooling) {
+        Assert.notNull(eventPooling, "eventPooling is null");
+        this.eventPool = eventPooling == EventPooling.DISABLED
+                ? null
+                : new EventPool<>((Class<Event>) eventType, eventPooling, logger);
+    }
+
+    private void onNewRecord(ConsumerRecord<String, byte[]> record) {
+        forEachEventRecord(record, this::onEventRecord);
+    }
+
+    /**
+     * Обработать записи топика, прочитанные общим потребителем (см. {@link KafkaMultipleConsumer#setSharedConsumer}):
+     * обработчику пачек - пачкой, иначе - по одной
+     */
+    void onSharedRecords(List<ConsumerRecord<String, byte[]>> records) {
+        if (batchHandler != null) {
+            onNewRecords(records);
+        } else {
+            records.forEach(this::onNewRecord);
+        }
+    }
+
+    /**
+     * Обработать записи одного poll-а пачкой
+     */
+    private void onNewRecords(List<ConsumerRecord<String, byte[]>> records) {
+        EventBatch<Event> batch = new EventBatch<>(records.size());
+        EventPool<Event> pool = this.eventPool;
+        try {
+            for (ConsumerRecord<String, byte[]> record : records) {
+                forEachEventRecord(record, eventRecord -> addToBatch(eventRecord, batch, pool));
+            }
+
+            if (!batch.isEmpty()) {
+                processBatch(batch);
+            }
+        } finally {
+            // после обработки экземпляры принадлежат пулу (см. EventPooling)
+            if (pool != null) {
+                batch.getEvents().forEach(pool::release);
+            }
+        }
+    }
+
+    /**
+     * Подготовить запись к обработке: распаковать конверт, собрать большое событие, отфильтровать по заголовкам
+     *
+     * @param action обработка записи одного события
+     */
+    private void forEachEventRecord(
+            ConsumerRecord<String, byte[]> record, Consumer<ConsumerRecord<String, byte[]>> action) {
+
         if (record.value() == null) {
             logger.warn("Record has null value: '{}'. Skip it", record.toString());
             return;
@@ -191,12 +401,205 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
             logger.debug(getRecordLogText(record));
         }
 
-        if (eventHandler != null) {
+        // события конверта обрабатываются как отдельные записи; в режиме PAST_TIME_INTERVAL
+        // конверт распаковывает контейнер партиции, чтобы соблюсти темп каждого события
+        if (EnvelopeRecords.isEnvelope(record)) {
+            List<ConsumerRecord<String, byte[]>> records;
             try {
-                eventHandler.process(record.key(), record.value());
+                records = EnvelopeRecords.unpack(record);
             } catch (Exception e) {
-                onError("EventHandler error while processing record " + getRecordLogText(record), e);
+                onDeserializationError(record, e);
+                return;
             }
+
+            records.forEach(unpacked -> forEachEventRecord(unpacked, action));
+            return;
+        }
+
+        // большое событие обрабатывается, когда получены все его части;
+        // собранная запись уже не содержит заголовка части и проходит этот метод заново
+        if (EventChunk.isChunk(record.headers())) {
+            ConsumerRecord<String, byte[]> assembled;
+            try {
+                assembled = getChunkReassembler().add(record, EventChunk.read(record.headers()));
+            } catch (Exception e) {
+                onDeserializationError(record, e);
+                return;
+            }
+
+            if (assembled != null) {
+                forEachEventRecord(assembled, action);
+            }
+            return;
+        }
+
+        // фильтруем по заголовкам до десериализации, чтобы не разбирать тело отброшенных событий;
+        // части большого события несут заголовки события (в т.ч. ИД), поэтому фильтруется уже собранное событие
+        Filter filter = this.filter;
+        if (filter != null && !filter.accept(record.key(), EventHeaders.read(record.headers()))) {
+            logger.trace("Record is filtered out");
+            onSkippedRecord(record);
+            return;
+        }
+
+        action.accept(record);
+    }
+
+    private void onEventRecord(ConsumerRecord<String, byte[]> record) {
+        if (flyweightHandler != null) {
+            processFlyweight(record);
+            return;
+        }
+
+        if (eventHandler == null)
+            return;
+
+        EventPool<Event> pool = this.eventPool;
+        if (pool == null) {
+            Event event;
+            try {
+                event = deserialize(record, null);
+            } catch (Exception e) {
+                onDeserializationError(record, e);
+                return;
+            }
+
+            process(record, event);
+            return;
+        }
+
+        // экземпляр из пула заполняется на месте; для записей старых версий создается новый экземпляр
+        Event reused = pool.acquire();
+        Event event;
+        try {
+            event = deserialize(record, reused);
+        } catch (Exception e) {
+            pool.release(reused);
+            onDeserializationError(record, e);
+            return;
+        }
+
+        if (event != reused) {
+            pool.release(reused);
+        }
+
+        try {
+            process(record, event);
+        } finally {
+            // после обработки экземпляр принадлежит пулу (см. EventPooling)
+            pool.release(event);
+        }
+    }
+
+    private void addToBatch(ConsumerRecord<String, byte[]> record, EventBatch<Event> batch, EventPool<Event> pool) {
+        Event reused = pool == null ? null : pool.acquire();
+        Event event;
+        try {
+            event = deserialize(record, reused);
+        } catch (Exception e) {
+            if (reused != null) {
+                pool.release(reused);
+            }
+            onDeserializationError(record, e);
+            return;
+        }
+
+        if (reused != null && event != reused) {
+            pool.release(reused);
+        }
+
+        batch.add(record.key(), event);
+    }
+
+    /**
+     * Десериализовать событие записи; дельта-кадры декодируются с учетом предыдущих кадров ключа
+     *
+     * @param reuse экземпляр для заполнения или null
+     */
+    private Event deserialize(ConsumerRecord<String, byte[]> record, Event reuse) {
+        if (DeltaEventCodec.isDelta(record.value()))
+            return getDeltaDecoder().decode(record.key(), record.value(), reuse);
+
+        return serde.deserialize(record.headers(), record.value(), reuse, projection);
+    }
+
+    /**
+     * Запись не обрабатывается, но ее дельта-кадр должен обновить состояние ключа
+     */
+    private void onSkippedRecord(ConsumerRecord<String, byte[]> record) {
+        if (DeltaEventCodec.isDelta(record.value())) {
+            getDeltaDecoder().skip(record.key(), record.value());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private DeltaDecoder<Event> getDeltaDecoder() {
+        DeltaDecoder<Event> decoder = deltaDecoder;
+        if (decoder == null) {
+            synchronized (this) {
+                decoder = deltaDecoder;
+                if (decoder == null) {
+                    decoder = new DeltaDecoder<>((Class<Event>) eventType);
+                    deltaDecoder = decoder;
+                }
+            }
+        }
+
+        return decoder;
+    }
+
+    private ChunkReassembler getChunkReassembler() {
+        ChunkReassembler reassembler = chunkReassembler;
+        if (reassembler == null) {
+            synchronized (this) {
+                reassembler = chunkReassembler;
+                if (reassembler == null) {
+                    reassembler = new ChunkReassembler(chunking, logger);
+                    chunkReassembler = reassembler;
+                }
+            }
+        }
+
+        return reassembler;
+    }
+
+    private void processFlyweight(ConsumerRecord<String, byte[]> record) {
+        Flyweight flyweight = flyweights.get();
+        try {
+            flyweight.wrap(record.value());
+        } catch (Exception e) {
+            onDeserializationError(record, e);
+            return;
+        }
+
+        try {
+            flyweightHandler.process(record.key(), flyweight);
+        } catch (Exception e) {
+            onError("FlyweightEventHandler error while processing record " + getRecordLogText(record), e);
+        } finally {
+            // чтобы flyweight не удерживал запись до прихода следующей
+            flyweight.unwrap();
+        }
+    }
+
+    private void onDeserializationError(ConsumerRecord<String, byte[]> record, Exception e) {
+        // кривое событие пропускаем, чтобы не останавливать потребление
+        logger.error("Error of deserialization event from record " + getRecordLogText(record), e);
+    }
+
+    private void process(ConsumerRecord<String, byte[]> record, Event event) {
+        try {
+            eventHandler.process(record.key(), event);
+        } catch (Exception e) {
+            onError("EventHandler error while processing record " + getRecordLogText(record), e);
+        }
+    }
+
+    private void processBatch(EventBatch<Event> batch) {
+        try {
+            batchHandler.process(batch);
+        } catch (Exception e) {
+            onError("BatchEventHandler error while processing batch of " + batch.size() + " events", e);
         }
     }
 
@@ -276,12 +679,23 @@ public class KafkaSingleConsumer extends KafkaConsumerBase implements KafkaConsu
         }
 
         listenerContainer = null;
+        clearPendingChunks();
 
         logger.info("Consumer stopped; reason: {}; working time: {}",
                 completed ? "consuming completed" : "stop was called",
                 workingTime);
     }
 
+    /**
+     * Пропустить несобранные большие события: их части уже не будут получены
+     */
+    void clearPendingChunks() {
+        ChunkReassembler reassembler = chunkReassembler;
+        if (reassembler != null) {
+            reassembler.clear();
+        }
+    }
+
     @Override
     protected boolean pauseInternal() {
         return setPhase(KafkaConsumerPhase.PAUSED);
@@ -0,0 +1,40 @@
+package kafkablocks.consumer;
+
+import lombok.Data;
+
+import javax.validation.constraints.Positive;
+import java.time.Duration;
+
+/**
+ * Параметры параллельной обработки записей (см. {@link KafkaConsumer#setParallelProcessing(ParallelProcessing)}).
+ * <p>
+ * Записи распределяются между потоками обработки по хэшу ключа, поэтому события одного ключа обрабатываются
+ * по порядку, а события разных ключей - параллельно. У каждого потока своя ограниченная очередь;
+ * когда она заполнена, чтение партиции записи приостанавливается, а поток чтения не блокируется.
+ * Оффсет партиции фиксируется только до первой необработанной записи, поэтому после перезапуска
+ * или перебалансировки необработанные записи будут получены снова (а обработанные после нее - повторно).
+ * <p>
+ * Применяется только в режиме REAL_TIME: в режиме PAST_TIME_INTERVAL темп воспроизведения
+ * соблюдается при последовательной обработке записей партиции
+ */
+@Data
+public class ParallelProcessing {
+    /**
+     * Включена ли параллельная обработка (для настройки через параметры приложения)
+     */
+    private boolean enabled;
+    /**
+     * Кол-во потоков обработки
+     */
+    @Positive
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Максимальное кол-во записей в очереди одного потока
+     */
+    @Positive
+    private int queueCapacity = 1000;
+    /**
+     * Как часто проверять, можно ли возобновить чтение приостановленных партиций, если записей нет
+     */
+    private Duration resumeCheckInterval = Duration.ofMillis(100);
+}
@@ -0,0 +1,314 @@
+package kafkablocks.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+
+/**
+ * Параллельная обработка записей с сохранением порядка по ключам (см. {@link ParallelProcessing}).
+ * <p>
+ * Методы {@link #onPoll}, {@link #onIdle} и {@link #onPartitionsRevoked} вызываются потоком чтения контейнера:
+ * только в нем можно приостанавливать и возобновлять партиции и фиксировать оффсеты.
+ * Потоки обработки только отмечают обработанные записи
+ */
+final class ParallelRecordProcessor {
+    private final Logger logger;
+    private final Consumer<ConsumerRecord<String, byte[]>> recordHandler;
+    /**
+     * Обработчик пачки записей или null, если записи обрабатываются по одной
+     */
+    private final Consumer<List<ConsumerRecord<String, byte[]>>> batchHandler;
+    private final int queueCapacity;
+    private final Worker[] workers;
+    private int nextWorker;
+
+    /**
+     * Таблица: партиция -> ее состояние
+     */
+    private final Map<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+    /**
+     * Таблица: партиция -> последний оффсет, фиксация которого выполнена или выполняется
+     * (используется только потоком чтения: в нем же вызываются обработчики завершения фиксации)
+     */
+    private final Map<TopicPartition, Long> committed = new HashMap<>();
+
+    /**
+     * Состояние партиции
+     */
+    private static final class PartitionState {
+        /**
+         * Оффсеты записей, которые переданы в потоки обработки, но еще не обработаны
+         */
+        private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+        /**
+         * Оффсет, следующий за последней переданной в обработку записью, или -1
+         */
+        private volatile long nextOffset = -1;
+        /**
+         * Записи, которые не поместились в очереди; пока они есть, чтение партиции приостановлено
+         * (используется только потоком чтения)
+         */
+        private final ArrayDeque<ConsumerRecord<String, byte[]>> held = new ArrayDeque<>();
+
+        /**
+         * Оффсет, до которого все записи обработаны, или -1
+         */
+        long getCommittableOffset() {
+            Long lowest = inFlight.ceiling(Long.MIN_VALUE);
+            return lowest != null ? lowest : nextOffset;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final BlockingQueue<ConsumerRecord<String, byte[]>> queue;
+        private final Thread thread;
+        private volatile boolean stopped;
+
+        Worker(String name, int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+            while (!stopped) {
+                try {
+                    records.add(queue.take());
+                } catch (InterruptedException e) {
+                    // необработанные записи не зафиксированы и будут получены снова
+                    return;
+                }
+
+                queue.drainTo(records, queueCapacity);
+                process(records);
+                records.clear();
+            }
+        }
+
+        private void process(List<ConsumerRecord<String, byte[]>> records) {
+            if (batchHandler != null) {
+                handle(() -> batchHandler.accept(records));
+                records.forEach(ParallelRecordProcessor.this::complete);
+                return;
+            }
+
+            for (ConsumerRecord<String, byte[]> record : records) {
+                handle(() -> recordHandler.accept(record));
+                complete(record);
+            }
+        }
+
+        private void handle(Runnable action) {
+            try {
+                action.run();
+            } catch (Exception e) {
+                // ошибки обработчиков событий обрабатывает потребитель, сюда попадают только непредвиденные
+                logger.error("Error while processing records in {}", thread.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * @param batchHandler обработчик пачки записей или null, если записи обрабатываются по одной
+     */
+    ParallelRecordProcessor(
+            ParallelProcessing properties,
+            Consumer<ConsumerRecord<String, byte[]>> recordHandler,
+            Consumer<List<ConsumerRecord<String, byte[]>>> batchHandler,
+            String name,
+            Logger logger) {
+
+        this.logger = logger;
+        this.recordHandler = recordHandler;
+        this.batchHandler = batchHandler;
+        this.queueCapacity = properties.getQueueCapacity();
+        this.workers = new Worker[properties.getThreads()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(name + "-" + i, queueCapacity);
+        }
+    }
+
+    void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Остановить потоки обработки; записи, которые еще в очередях, не обрабатываются
+     */
+    void stop() {
+        for (Worker worker : workers) {
+            worker.stopped = true;
+            worker.thread.interrupt();
+        }
+
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Передать в обработку записи poll-а
+     *
+     * @param consumer потребитель контейнера
+     */
+    void onPoll(List<ConsumerRecord<String, byte[]>> records, org.apache.kafka.clients.consumer.Consumer<?, ?> consumer) {
+        dispatchHeld(consumer);
+
+        for (ConsumerRecord<String, byte[]> record : records) {
+            PartitionState state = partitions.computeIfAbsent(
+                    new TopicPartition(record.topic(), record.partition()), tp -> new PartitionState());
+
+            // пока у партиции есть отложенные записи, новые встают за ними, чтобы сохранить порядок ключей
+            if (state.held.isEmpty() && dispatch(record, state))
+                continue;
+
+            if (state.held.isEmpty()) {
+                TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                logger.debug("Processing queue is full, partition {} is paused", partition);
+                consumer.pause(Collections.singleton(partition));
+            }
+            state.held.add(record);
+        }
+
+        commit(consumer);
+    }
+
+    /**
+     * Записей нет: возобновить чтение партиций, записи которых уже переданы в обработку,
+     * и зафиксировать оффсеты обработанных записей
+     */
+    void onIdle(org.apache.kafka.clients.consumer.Consumer<?, ?> consumer) {
+        dispatchHeld(consumer);
+        commit(consumer);
+    }
+
+    /**
+     * Партиции отзываются при перебалансировке: фиксируем оффсеты обработанных записей,
+     * а отложенные записи получит новый владелец партиции
+     */
+    void onPartitionsRevoked(
+            org.apache.kafka.clients.consumer.Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = getOffsetsToCommit(revoked);
+        if (!offsets.isEmpty()) {
+            try {
+                consumer.commitSync(offsets);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to commit offsets of revoked partitions: {}", e.toString());
+            }
+        }
+
+        for (TopicPartition partition : revoked) {
+            partitions.remove(partition);
+            committed.remove(partition);
+        }
+    }
+
+    private void dispatchHeld(org.apache.kafka.clients.consumer.Consumer<?, ?> consumer) {
+        for (Map.Entry<TopicPartition, PartitionState> entry : partitions.entrySet()) {
+            PartitionState state = entry.getValue();
+            if (state.held.isEmpty())
+                continue;
+
+            while (!state.held.isEmpty() && dispatch(state.held.peek(), state)) {
+                state.held.poll();
+            }
+
+            if (state.held.isEmpty()) {
+                logger.debug("Partition {} is resumed", entry.getKey());
+                consumer.resume(Collections.singleton(entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Передать запись в очередь потока обработки по хэшу ключа
+     *
+     * @return false - если очередь заполнена
+     */
+    private boolean dispatch(ConsumerRecord<String, byte[]> record, PartitionState state) {
+        Worker worker = getWorker(record.key());
+        // оффсет отмечается до передачи записи, чтобы поток обработки не снял отметку раньше
+        state.inFlight.add(record.offset());
+        if (!worker.queue.offer(record)) {
+            state.inFlight.remove(record.offset());
+            return false;
+        }
+
+        state.nextOffset = record.offset() + 1;
+        return true;
+    }
+
+    private Worker getWorker(String key) {
+        int index = key == null
+                ? nextWorker++
+                : key.hashCode() ^ (key.hashCode() >>> 16);
+        return workers[Math.floorMod(index, workers.length)];
+    }
+
+    private void complete(ConsumerRecord<String, byte[]> record) {
+        PartitionState state = partitions.get(new TopicPartition(record.topic(), record.partition()));
+        // партиция могла быть отозвана
+        if (state != null) {
+            state.inFlight.remove(record.offset());
+        }
+    }
+
+    private void commit(org.apache.kafka.clients.consumer.Consumer<?, ?> consumer) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = getOffsetsToCommit(partitions.keySet());
+        if (offsets.isEmpty())
+            return;
+
+        consumer.commitAsync(offsets, (committedOffsets, e) -> {
+            if (e != null) {
+                logger.warn("Unable to commit offsets {}: {}", committedOffsets, e.toString());
+                // неудавшаяся фиксация повторяется при следующей проверке, даже если новых записей в партиции нет
+                offsets.forEach((partition, offset) -> committed.remove(partition, offset.offset()));
+            }
+        });
+    }
+
+    /**
+     * Получить оффсеты партиций, до которых все записи обработаны, если они еще не зафиксированы
+     */
+    private Map<TopicPartition, OffsetAndMetadata> getOffsetsToCommit(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            PartitionState state = this.partitions.get(partition);
+            if (state == null)
+                continue;
+
+            long offset = state.getCommittableOffset();
+            Long last = committed.get(partition);
+            if (offset >= 0 && (last == null || last < offset)) {
+                offsets.put(partition, new OffsetAndMetadata(offset));
+                committed.put(partition, offset);
+            }
+        }
+
+        return offsets;
+    }
+}
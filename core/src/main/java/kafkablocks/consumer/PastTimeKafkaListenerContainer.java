@@ -1,6 +1,5 @@
 package kafkablocks.consumer;
 
-import kafkablocks.events.Event;
 import kafkablocks.utils.ThreadUtils;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -46,6 +45,7 @@ class PastTimeKafkaListenerContainer implements KafkaListenerContainer {
             KafkaSingleConsumer.HandleProxy handleProxy,
             Map<String, Object> consumerProps,
             String topic,
+            long seekTs,
             long fromTs, long toTs
     ) {
         this.logger = logger;
@@ -58,7 +58,8 @@ class PastTimeKafkaListenerContainer implements KafkaListenerContainer {
         KafkaSingleConsumer.HandleProxy handleProxyForContainers =
                 handleProxy.withComplete(this::onListenerContainerComplete);
 
-        List<Offsets> offsets = findOffsets(consumerProps, topic, fromTs);
+        // чтение может начинаться раньше начала интервала (см. KafkaSingleConsumer#getSeekTs)
+        List<Offsets> offsets = findOffsets(consumerProps, topic, seekTs);
         for (Offsets offset : offsets) {
             PastTimeKafkaPartitionListenerContainer listener = new PastTimeKafkaPartitionListenerContainer(
                     logger,
@@ -73,7 +74,7 @@ class PastTimeKafkaListenerContainer implements KafkaListenerContainer {
     private List<Offsets> findOffsets(
             Map<String, Object> consumerProps, String topic, long timestamp
     ) {
-        try (org.apache.kafka.clients.consumer.KafkaConsumer<String, Event> consumer =
+        try (org.apache.kafka.clients.consumer.KafkaConsumer<String, byte[]> consumer =
                      new org.apache.kafka.clients.consumer.KafkaConsumer<>(consumerProps)
         ) {
             List<PartitionInfo> partitions = consumer.partitionsFor(topic);
@@ -1,18 +1,21 @@
 package kafkablocks.consumer;
 
 import kafkablocks.concurrent.WaitHandle;
-import kafkablocks.events.Event;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.BatchMessageListener;
 import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.listener.ErrorHandler;
 import org.springframework.kafka.listener.KafkaMessageListenerContainer;
 import org.springframework.kafka.listener.MessageListener;
 import org.springframework.kafka.support.TopicPartitionOffset;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer {
@@ -21,7 +24,15 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
     private final KafkaSingleConsumer.HandleProxy handleProxy;
     private final long fromTs;
     private final long toTs;
-    private final KafkaMessageListenerContainer<String, Event> container;
+    private final KafkaMessageListenerContainer<String, byte[]> container;
+    /**
+     * Передаются ли записи обработчику пачками (см. {@link BatchEventHandler})
+     */
+    private final boolean batch;
+    /**
+     * Записи poll-а, время воспроизведения которых настало, но которые еще не переданы обработчику пачкой
+     */
+    private final List<ConsumerRecord<String, byte[]>> pending = new ArrayList<>();
     /**
      * Последний оффсет в топике (на момент создания лисенера)
      */
@@ -50,8 +61,9 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
         this.fromTs = fromTs;
         this.toTs = toTs;
         this.lastOffset = offsets.getLast();
+        this.batch = handleProxy.getNewRecords() != null;
 
-        ConsumerFactory<String, Event> factory = new DefaultKafkaConsumerFactory<>(consumerProps);
+        ConsumerFactory<String, byte[]> factory = new DefaultKafkaConsumerFactory<>(consumerProps);
         ContainerProperties containerProps = getContainerProperties(offsets.getFrom());
         this.container = createListenerContainer(factory, containerProps, handleProxy.getErrorHandler());
     }
@@ -64,7 +76,11 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
     private ContainerProperties getContainerProperties(TopicPartitionOffset partitionOffset) {
         ContainerProperties props = new ContainerProperties(partitionOffset);
 
-        props.setMessageListener((MessageListener<String, Event>) this::processRecord);
+        if (batch) {
+            props.setMessageListener((BatchMessageListener<String, byte[]>) this::processRecords);
+        } else {
+            props.setMessageListener((MessageListener<String, byte[]>) this::processRecord);
+        }
         // зададим таймаут, в течение которого вызов метода stop() будет блокироваться,
         // ожидая остановки контейнера. Нужно установить такой маленький таймаут, т.к.
         // метод stop() может вызываться изнутри данного класса и его блокирование не целесообразно.
@@ -73,14 +89,18 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
         return props;
     }
 
-    private KafkaMessageListenerContainer<String, Event> createListenerContainer(
-            ConsumerFactory<String, Event> factory,
+    private KafkaMessageListenerContainer<String, byte[]> createListenerContainer(
+            ConsumerFactory<String, byte[]> factory,
             ContainerProperties containerProps,
             ErrorHandler errorHandler) {
-        KafkaMessageListenerContainer<String, Event> listenerContainer =
+        KafkaMessageListenerContainer<String, byte[]> listenerContainer =
                 new KafkaMessageListenerContainer<>(factory, containerProps);
 
-        listenerContainer.setErrorHandler(errorHandler);
+        if (batch) {
+            listenerContainer.setBatchErrorHandler((e, records) -> errorHandler.handle(e, null));
+        } else {
+            listenerContainer.setErrorHandler(errorHandler);
+        }
         listenerContainer.setEmergencyStop(
                 () -> errorHandler.handle(new IllegalStateException("container emergency stop!"), null));
 
@@ -110,8 +130,24 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
         recordPlaybackStartedAt = System.currentTimeMillis();
     }
 
-    private void handleRecord(ConsumerRecord<String, Event> record) {
-        handleProxy.getNewRecord().accept(record);
+    private void handleRecord(ConsumerRecord<String, byte[]> record) {
+        if (batch) {
+            pending.add(record);
+        } else {
+            handleProxy.getNewRecord().accept(record);
+        }
+    }
+
+    /**
+     * Передать обработчику пачкой записи, время воспроизведения которых уже настало
+     */
+    private void flushBatch() {
+        if (pending.isEmpty())
+            return;
+
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>(pending);
+        pending.clear();
+        handleProxy.getNewRecords().accept(records);
     }
 
     private double getRate() {
@@ -119,6 +155,7 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
     }
 
     private void complete() {
+        flushBatch();
         handleProxy.getComplete().accept(this);
     }
 
@@ -136,13 +173,64 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
 
     //region record processing
 
-    private void processRecord(ConsumerRecord<String, Event> record) {
+    /**
+     * Обработать записи poll-а; записи, время которых настало, передаются обработчику пачками
+     */
+    private void processRecords(List<ConsumerRecord<String, byte[]>> records) {
+        for (ConsumerRecord<String, byte[]> record : records) {
+            if (!processRecord(record))
+                break;
+        }
+
+        flushBatch();
+    }
+
+    /**
+     * Обработать запись Kafka
+     *
+     * @return false - если обработку записей нужно прекратить
+     */
+    private boolean processRecord(ConsumerRecord<String, byte[]> record) {
+        if (!EnvelopeRecords.isEnvelope(record))
+            return processRecord(record, true);
+
+        // у каждого события конверта своя временная метка, поэтому темп соблюдается для каждого из них
+        List<ConsumerRecord<String, byte[]>> records;
+        try {
+            records = EnvelopeRecords.unpack(record);
+        } catch (Exception e) {
+            logger.error("Error of unpacking envelope from record with offset " + record.offset(), e);
+            // конверт пропускаем, но завершение по последнему оффсету должно сработать
+            records = Collections.emptyList();
+        }
+
+        for (int i = 0; i < records.size(); i++) {
+            if (!processRecord(records.get(i), i == records.size() - 1))
+                return false;
+        }
+
+        if (records.isEmpty() && container.isRunning() && record.offset() >= lastOffset) {
+            complete();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Обработать запись
+     *
+     * @param lastInRecord является ли запись последней в записи Kafka (запись не из конверта всегда последняя),
+     *                     т.е. можно ли завершать обработку, если достигнут последний оффсет
+     * @return false - если обработку записей нужно прекратить
+     */
+    private boolean processRecord(ConsumerRecord<String, byte[]> record, boolean lastInRecord) {
         // если контейнер уже остановлен, то ничего не делаем.
         // проверка нужна потому, что даже после остановки этот метод будет продолжать вызываться
         // для оставшихся событий из прочитанной пачки (внутренний kafkaConsumer читаем события пачками)
         if (!container.isRunning()) {
             logger.debug("skip the record because container is not running");
-            return;
+            return false;
         }
 
         long recordTs = record.timestamp();
@@ -154,7 +242,10 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
             logger.debug(
                     "Skip the record because its timestamp '{}' is less then the From interval boundary '{}'",
                     recordTs, fromTs);
-            return;
+            // пропущенный дельта-кадр обновляет состояние ключа, поэтому предыдущие записи должны быть уже обработаны
+            flushBatch();
+            handleProxy.getSkippedRecord().accept(record);
+            return true;
         }
 
         // если это событие с оффсетом больше, чем правая граница интервала,
@@ -164,12 +255,12 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
                     "Reached the record with timestamp '{}' exceeding the To interval boundary '{}'",
                     recordTs, toTs);
             complete();
-            return;
+            return false;
         }
 
         if (!waitForRecordTime(recordTs)) {
             logger.debug("consumer was stopped while sleeping -> interrupt processing");
-            return;
+            return false;
         }
         // время для обработки записи настало!
 
@@ -177,10 +268,11 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
         // т.к. не успевали из-за быстрой скорости поступления записей и/или большого времени их обработки
         if (isPaused()) {
             logger.debug("consumer was paused -> suspend processing until resume or stop");
+            flushBatch();
 
             if (!waitForResumeOrStop()) {
                 logger.debug("consumer was stopped after pause -> interrupt processing");
-                return;
+                return false;
             }
 
             logger.debug("consumer was resumed -> continue processing");
@@ -196,10 +288,13 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
         handleRecord(record);
 
         // эта проверка нужна для того, чтобы завершить обработку, если в топике больше нет событий вообще
-        if (record.offset() >= lastOffset) {
+        if (lastInRecord && record.offset() >= lastOffset) {
             logger.debug("Reached the record with offset '{}' that equals to the last offset", lastOffset);
             complete();
+            return false;
         }
+
+        return true;
     }
 
     /**
@@ -263,6 +358,17 @@ class PastTimeKafkaPartitionListenerContainer implements KafkaListenerContainer
                 return true;
             }
 
+            // прежде чем ждать, передаем обработчику накопленную пачку; время ее обработки входит в ожидание
+            if (!pending.isEmpty()) {
+                long flushStartedAt = System.currentTimeMillis();
+                flushBatch();
+                delta -= System.currentTimeMillis() - flushStartedAt;
+                if (delta <= 0) {
+                    logger.debug("no need to sleep after batch processing, delta = {}", delta);
+                    return true;
+                }
+            }
+
             // sleep for delta but wake up when stop or pause event happens
             logger.debug("sleep for delta = {}", delta);
             int eventIndex = waitForStopOrPause(delta);
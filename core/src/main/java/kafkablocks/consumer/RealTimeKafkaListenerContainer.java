@@ -1,55 +1,133 @@
 package kafkablocks.consumer;
 
-import kafkablocks.events.Event;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.BatchAcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.listener.KafkaMessageListenerContainer;
 import org.springframework.kafka.listener.MessageListener;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
 class RealTimeKafkaListenerContainer implements KafkaListenerContainer {
 
     private final Logger logger;
-    private final KafkaMessageListenerContainer<String, Event> container;
+    private final KafkaMessageListenerContainer<String, byte[]> container;
+    /**
+     * Параллельная обработка записей или null, если записи обрабатывает поток чтения контейнера
+     */
+    private final ParallelRecordProcessor parallelProcessor;
 
+    /**
+     * @param parallel параметры параллельной обработки записей или null, если записи обрабатываются последовательно
+     */
     RealTimeKafkaListenerContainer(
             Logger logger,
             KafkaSingleConsumer.HandleProxy handleProxy,
             Map<String, Object> consumerProps,
-            String topic
+            Collection<String> topics,
+            ParallelProcessing parallel
     ) {
         this.logger = logger;
-        ConsumerFactory<String, Event> factory = new DefaultKafkaConsumerFactory<>(consumerProps);
-        ContainerProperties containerProps = getContainerProperties(topic, handleProxy.getNewRecord());
+        this.parallelProcessor = parallel != null
+                ? new ParallelRecordProcessor(parallel, handleProxy.getNewRecord(), handleProxy.getNewRecords(),
+                "consumer-" + String.join(",", topics), logger)
+                : null;
+
+        ConsumerFactory<String, byte[]> factory = new DefaultKafkaConsumerFactory<>(
+                parallelProcessor != null ? getParallelConsumerProperties(consumerProps) : consumerProps);
+        ContainerProperties containerProps = parallelProcessor != null
+                ? getParallelContainerProperties(topics, parallel)
+                : getContainerProperties(topics, handleProxy);
         this.container = createListenerContainer(factory, containerProps, handleProxy.getErrorHandler());
+
+        if (parallelProcessor != null) {
+            // события контейнера публикуются в потоке чтения; событие простоя используется,
+            // чтобы возобновлять приостановленные партиции, когда записей нет
+            container.setApplicationEventPublisher(event -> {
+                if (event instanceof ListenerContainerIdleEvent) {
+                    parallelProcessor.onIdle(((ListenerContainerIdleEvent) event).getConsumer());
+                }
+            });
+        }
     }
 
     private ContainerProperties getContainerProperties(
-            String topic,
-            Consumer<ConsumerRecord<String, Event>> recordConsumer
+            Collection<String> topics,
+            KafkaSingleConsumer.HandleProxy handleProxy
     ) {
-        ContainerProperties props = new ContainerProperties(topic);
+        ContainerProperties props = new ContainerProperties(topics.toArray(new String[0]));
 
-        props.setMessageListener((MessageListener<String, Event>) recordConsumer::accept);
+        // с обработчиком пачек все записи poll-а передаются одной пачкой
+        Consumer<List<ConsumerRecord<String, byte[]>>> recordsConsumer = handleProxy.getNewRecords();
+        Consumer<ConsumerRecord<String, byte[]>> recordConsumer = handleProxy.getNewRecord();
+        if (recordsConsumer != null) {
+            props.setMessageListener((BatchMessageListener<String, byte[]>) recordsConsumer::accept);
+        } else {
+            props.setMessageListener((MessageListener<String, byte[]>) recordConsumer::accept);
+        }
         props.setShutdownTimeout(100);
 
         return props;
     }
 
-    private KafkaMessageListenerContainer<String, Event> createListenerContainer(
-            ConsumerFactory<String, Event> factory,
+    /**
+     * Оффсеты фиксирует обработчик параллельной обработки, поэтому автоматическая фиксация выключается
+     */
+    private static Map<String, Object> getParallelConsumerProperties(Map<String, Object> consumerProps) {
+        Map<String, Object> props = new HashMap<>(consumerProps);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        return props;
+    }
+
+    private ContainerProperties getParallelContainerProperties(Collection<String> topics, ParallelProcessing parallel) {
+        ContainerProperties props = new ContainerProperties(topics.toArray(new String[0]));
+
+        // контейнер не фиксирует оффсеты сам: записи poll-а еще не обработаны
+        props.setAckMode(ContainerProperties.AckMode.MANUAL);
+        props.setMessageListener((BatchAcknowledgingConsumerAwareMessageListener<String, byte[]>)
+                (records, acknowledgment, consumer) -> parallelProcessor.onPoll(records, consumer));
+        props.setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(
+                    org.apache.kafka.clients.consumer.Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                parallelProcessor.onPartitionsRevoked(consumer, partitions);
+            }
+        });
+
+        long resumeCheckInterval = parallel.getResumeCheckInterval().toMillis();
+        props.setIdleEventInterval(resumeCheckInterval);
+        // пока все партиции приостановлены, poll ждет не дольше интервала проверки
+        props.setPollTimeout(resumeCheckInterval);
+        props.setShutdownTimeout(100);
+
+        return props;
+    }
+
+    private KafkaMessageListenerContainer<String, byte[]> createListenerContainer(
+            ConsumerFactory<String, byte[]> factory,
             ContainerProperties containerProps,
             org.springframework.kafka.listener.ErrorHandler errorHandler
     ) {
-        KafkaMessageListenerContainer<String, Event> listenerContainer =
+        KafkaMessageListenerContainer<String, byte[]> listenerContainer =
                 new KafkaMessageListenerContainer<>(factory, containerProps);
 
-        listenerContainer.setErrorHandler(errorHandler);
+        if (containerProps.getMessageListener() instanceof BatchMessageListener) {
+            listenerContainer.setBatchErrorHandler((e, records) -> errorHandler.handle(e, null));
+        } else {
+            listenerContainer.setErrorHandler(errorHandler);
+        }
         listenerContainer.setEmergencyStop(
                 () -> errorHandler.handle(new IllegalStateException("container emergency stop!"), null));
 
@@ -58,12 +136,20 @@ class RealTimeKafkaListenerContainer implements KafkaListenerContainer {
 
     @Override
     public void start() {
+        if (parallelProcessor != null) {
+            parallelProcessor.start();
+        }
+
         this.container.start();
     }
 
     @Override
     public void stop() {
-        this.container.start();
+        this.container.stop();
+
+        if (parallelProcessor != null) {
+            parallelProcessor.stop();
+        }
     }
 
     @Override
@@ -0,0 +1,53 @@
+package kafkablocks.events;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Метаданные события, которые публикуются в заголовках записи Kafka (см. {@link kafkablocks.serialization.EventHeaders}).
+ * Позволяют фильтровать, маршрутизировать и дедуплицировать события без десериализации их тела.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public final class EventMetadata {
+    public static final long NO_TIMESTAMP = -1;
+    /**
+     * Метаданные записи, у которой нет заголовков (например, опубликованной до появления заголовков)
+     */
+    public static final EventMetadata EMPTY = new EventMetadata(null, null, NO_TIMESTAMP, null);
+
+    /**
+     * Тип события (простое имя класса) или null, если не задан
+     */
+    private final String type;
+    /**
+     * Идентификатор события или null, если не задан
+     */
+    private final String id;
+    /**
+     * Время наступления события (epoch millis) или {@link #NO_TIMESTAMP}, если не задано
+     */
+    private final long occurred;
+    /**
+     * Версия схемы события (см. {@link EventVersion}) или null, если не задана
+     */
+    private final String schemaVersion;
+
+    public boolean hasType() {
+        return type != null;
+    }
+
+    public boolean hasId() {
+        return id != null;
+    }
+
+    public boolean hasOccurred() {
+        return occurred != NO_TIMESTAMP;
+    }
+
+    public boolean hasSchemaVersion() {
+        return schemaVersion != null;
+    }
+}
@@ -0,0 +1,20 @@
+package kafkablocks.events;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Версия схемы класса события (в формате {@link kafkablocks.versioning.ComparableVersion}, например "2" или "1.1").
+ * Публикуется в заголовке записи, по ней выбираются upcaster-ы для записей старых версий
+ * (см. {@link kafkablocks.versioning.EventUpcasters}).
+ * Если аннотации нет, то версия класса - {@link kafkablocks.versioning.EventVersions#DEFAULT_VERSION}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface EventVersion {
+    String value();
+}
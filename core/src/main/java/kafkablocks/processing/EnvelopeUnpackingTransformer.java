@@ -0,0 +1,88 @@
+package kafkablocks.processing;
+
+import kafkablocks.events.Event;
+import kafkablocks.serialization.EventEnvelope;
+import kafkablocks.serialization.EventTypeSerde;
+import kafkablocks.serialization.Projection;
+import kafkablocks.serialization.SerdeRegistry;
+import kafkablocks.serialization.delta.DeltaDecoder;
+import kafkablocks.serialization.delta.DeltaEventCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.To;
+
+import java.util.Collections;
+
+/**
+ * Десериализует записи топика событий и распаковывает конверты (см. {@link EventEnvelope}).
+ * События конверта передаются дальше по отдельности, каждое со своей временной меткой.
+ * Дельта-кадры (см. {@link DeltaEventCodec}) декодируются с учетом предыдущих кадров ключа:
+ * экземпляр создается на задачу, а ключи партиции читает одна задача.
+ * Записи, которые не удалось разобрать, пропускаются, как и в потребителях.
+ *
+ * @param <E> тип событий
+ */
+@Slf4j
+class EnvelopeUnpackingTransformer<E extends Event>
+        implements Transformer<String, byte[], Iterable<KeyValue<String, E>>> {
+
+    private final EventTypeSerde<E> serde;
+    private final Projection projection;
+    /**
+     * Декодер дельта-кадров или null, если события публикуются без дельта-кодирования
+     */
+    private final DeltaDecoder<E> deltaDecoder;
+    private ProcessorContext context;
+
+    /**
+     * @param deltaCoded публикуются ли события с дельта-кодированием
+     */
+    EnvelopeUnpackingTransformer(Class<E> eventType, Projection projection, boolean deltaCoded) {
+        this.serde = SerdeRegistry.getInstance().forType(eventType);
+        this.projection = projection;
+        this.deltaDecoder = deltaCoded ? new DeltaDecoder<>(eventType) : null;
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public Iterable<KeyValue<String, E>> transform(String key, byte[] value) {
+        if (value == null)
+            return Collections.emptyList();
+
+        Headers headers = context.headers();
+        try {
+            if (!EventEnvelope.isEnvelope(headers))
+                return Collections.singletonList(KeyValue.pair(key, deserialize(key, headers, value)));
+
+            EventEnvelope.Reader reader = new EventEnvelope.Reader(value);
+            Headers innerHeaders = EventEnvelope.innerHeaders(headers);
+            while (reader.next()) {
+                E event = serde.deserialize(innerHeaders, reader.copyValue(), null, projection);
+                context.forward(key, event, To.all().withTimestamp(reader.getTimestamp()));
+            }
+        } catch (Exception e) {
+            log.error(String.format("Error of deserialization event from record [%s; p:%d; o:%d]",
+                    context.topic(), context.partition(), context.offset()), e);
+        }
+
+        return Collections.emptyList();
+    }
+
+    private E deserialize(String key, Headers headers, byte[] value) {
+        if (deltaDecoder != null && DeltaEventCodec.isDelta(value))
+            return deltaDecoder.decode(key, value, null);
+
+        return serde.deserialize(headers, value, null, projection);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,8 +1,20 @@
 package kafkablocks.processing;
 
 import kafkablocks.events.Event;
+import kafkablocks.serialization.Projection;
 
 public interface EventProcessor<EventToProcess extends Event> {
 
     Class<EventToProcess> getEventToProcessType();
+
+    /**
+     * Проекция обрабатываемых событий, т.е. поля, которые использует процессор (см. {@link Projection}).
+     * Применяется, если процессор читает события из топика (а не из результатов другого процессора).
+     * События с неполным набором полей не нужно передавать дальше по топологии.
+     *
+     * @return проекция или null, если нужны все поля
+     */
+    default Projection getProjection() {
+        return null;
+    }
 }
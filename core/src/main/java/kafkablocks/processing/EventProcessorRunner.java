@@ -2,6 +2,7 @@ package kafkablocks.processing;
 
 import kafkablocks.EventTopicProperties;
 import kafkablocks.ServiceBase;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.streams.KafkaStreams;
 import org.apache.kafka.streams.StreamsConfig;
 import org.apache.kafka.streams.Topology;
@@ -112,6 +113,19 @@ public class EventProcessorRunner extends ServiceBase {
                 StreamsConfig.NUM_STREAM_THREADS_CONFIG,
                 runnerProperties.getStreamsThreadNumber());
 
+        // события транзакционной публикации читаем только после фиксации (при exactly_once Kafka Streams делает это сам)
+        if (eventTopicProperties.isReadCommitted()) {
+            props.put(
+                    StreamsConfig.consumerPrefix(ConsumerConfig.ISOLATION_LEVEL_CONFIG),
+                    "read_committed");
+        }
+
+        if (runnerProperties.isUseEventTimestamp()) {
+            props.put(
+                    StreamsConfig.DEFAULT_TIMESTAMP_EXTRACTOR_CLASS_CONFIG,
+                    EventTimestampExtractor.class);
+        }
+
         return props;
     }
 
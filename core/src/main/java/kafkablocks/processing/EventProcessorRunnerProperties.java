@@ -21,4 +21,9 @@ public class EventProcessorRunnerProperties extends AppProperties {
      */
     @Positive
     private int streamsThreadNumber = 1;
+    /**
+     * Использовать в качестве временной метки записи время наступления события из заголовка записи
+     * (см. {@link EventTimestampExtractor}), а не время публикации записи
+     */
+    private boolean useEventTimestamp = false;
 }
@@ -0,0 +1,21 @@
+package kafkablocks.processing;
+
+import kafkablocks.events.EventMetadata;
+import kafkablocks.serialization.EventHeaders;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.streams.processor.TimestampExtractor;
+
+/**
+ * Извлекает временную метку записи из заголовка с временем наступления события,
+ * т.е. без десериализации значения записи.
+ * Если заголовка нет, то используется временная метка самой записи.
+ */
+public class EventTimestampExtractor implements TimestampExtractor {
+    @Override
+    public long extract(ConsumerRecord<Object, Object> record, long partitionTime) {
+        long occurred = EventHeaders.readOccurred(record.headers());
+        return occurred != EventMetadata.NO_TIMESTAMP
+                ? occurred
+                : record.timestamp();
+    }
+}
@@ -1,6 +1,7 @@
 package kafkablocks.processing;
 
 import kafkablocks.EventTopicProperties;
+import kafkablocks.serialization.Projection;
 import kafkablocks.serialization.SerdeProvider;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -37,10 +38,7 @@ public class TopologyBuilder {
 
         for (TopologyNode node : rootNode.children) {
             String topic = eventTopicProperties.resolveTopicByEventClass(node.getInputEventType());
-            Consumed<String, ? extends Event> consumed = Consumed.with(Serdes.String(), SerdeProvider.getSerde(node.getInputEventType()));
-
-            KStream<String, ? extends Event> stream = builder.stream(topic, consumed);
-            node.setInputStream(stream);
+            node.setInputStream(createInputStream(builder, topic, node));
 
             buildNode(builder, node);
         }
@@ -54,6 +52,27 @@ public class TopologyBuilder {
         return topology;
     }
 
+    /**
+     * Создать входной поток узла.
+     * Если события публикуются в конвертах (см. {@link EventTopicProperties#isEnveloped}) или с дельта-кодированием
+     * (см. {@link EventTopicProperties#isDeltaCoded}), то записи читаются как массивы байт и распаковываются
+     * (декодируются), иначе значения десериализуются serde-ом источника
+     */
+    @SuppressWarnings("unchecked")
+    private KStream<String, ? extends Event> createInputStream(StreamsBuilder builder, String topic, TopologyNode node) {
+        Class<Event> eventType = (Class<Event>) node.getInputEventType();
+        Projection projection = node.getProcessor().getProjection();
+
+        // serde источника не хранит состояние ключей, поэтому дельта-кадры декодирует трансформер задачи
+        boolean deltaCoded = eventTopicProperties.isDeltaCoded(eventType);
+        if (deltaCoded || eventTopicProperties.isEnveloped(eventType)) {
+            return builder.stream(topic, Consumed.with(Serdes.String(), Serdes.ByteArray()))
+                    .flatTransform(() -> new EnvelopeUnpackingTransformer<>(eventType, projection, deltaCoded));
+        }
+
+        return builder.stream(topic, Consumed.with(Serdes.String(), SerdeProvider.getSerde(eventType, projection)));
+    }
+
     @SuppressWarnings("unchecked")
     private void buildNode(StreamsBuilder builder, TopologyNode node) {
         EventProcessor<? extends Event> processor = node.getProcessor();
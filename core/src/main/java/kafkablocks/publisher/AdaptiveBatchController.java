@@ -0,0 +1,161 @@
+package kafkablocks.publisher;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Регулятор частоты отправки записей, накопленных продюсерами публикатора.
+ * <p>
+ * Продюсеры настраиваются с большим linger.ms, а регулятор сам отправляет накопленные записи (flush)
+ * с интервалом, который подстраивается по правилу AIMD под целевую задержку отправки:
+ * пока средняя задержка меньше целевой, интервал увеличивается на шаг (батчи крупнее, запросов меньше),
+ * а если задержка превысила целевую, то интервал уменьшается в несколько раз.
+ * Если батчи продюсеров и так заполнены, то интервал не увеличивается: это только добавило бы задержку.
+ */
+final class AdaptiveBatchController {
+    private final KafkaPublisherProperties.AdaptiveBatching properties;
+    private final Runnable flushAction;
+    /**
+     * Средняя доля заполнения батчей продюсеров или NaN, если она неизвестна
+     */
+    private final DoubleSupplier batchFillRatio;
+    /**
+     * Частота запросов продюсеров к брокеру (запросов в секунду) или NaN, если она неизвестна
+     */
+    private final DoubleSupplier requestRate;
+    private final Logger logger;
+    private final ScheduledExecutorService executor;
+
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final long increaseStepNanos;
+    private final long latencyTargetNanos;
+
+    private volatile long intervalNanos;
+
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+
+    // последние наблюдения и счетчики подстроек; пишутся только потоком регулятора
+    private volatile double lastLatencyMillis = Double.NaN;
+    private volatile double lastBatchFillRatio = Double.NaN;
+    private volatile double lastRequestRate = Double.NaN;
+    private volatile long increaseCount;
+    private volatile long decreaseCount;
+
+    AdaptiveBatchController(
+            KafkaPublisherProperties.AdaptiveBatching properties,
+            Runnable flushAction,
+            DoubleSupplier batchFillRatio,
+            DoubleSupplier requestRate,
+            Logger logger) {
+
+        this.properties = properties;
+        this.flushAction = flushAction;
+        this.batchFillRatio = batchFillRatio;
+        this.requestRate = requestRate;
+        this.logger = logger;
+
+        this.minIntervalNanos = Math.max(1, properties.getMinInterval().toNanos());
+        this.maxIntervalNanos = Math.max(minIntervalNanos, properties.getMaxInterval().toNanos());
+        this.increaseStepNanos = properties.getIncreaseStep().toNanos();
+        this.latencyTargetNanos = properties.getLatencyTarget().toNanos();
+        // начинаем с минимальной задержки и наращиваем батчи, пока позволяет целевая задержка
+        this.intervalNanos = minIntervalNanos;
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(AdaptiveBatchController::newThread);
+    }
+
+    private static Thread newThread(Runnable target) {
+        Thread thread = new Thread(target, "publisher-batching");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    void start() {
+        executor.schedule(this::flush, intervalNanos, TimeUnit.NANOSECONDS);
+        long adjustPeriod = properties.getAdjustPeriod().toNanos();
+        executor.scheduleAtFixedRate(this::adjust, adjustPeriod, adjustPeriod, TimeUnit.NANOSECONDS);
+    }
+
+    void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Учесть задержку отправки записи (от публикации до подтверждения брокером)
+     */
+    void recordLatency(long nanos) {
+        latencySum.add(nanos);
+        latencyCount.increment();
+    }
+
+    private void flush() {
+        try {
+            flushAction.run();
+        } catch (RuntimeException e) {
+            logger.error("Flush of producers failed", e);
+        }
+
+        if (!executor.isShutdown()) {
+            executor.schedule(this::flush, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void adjust() {
+        try {
+            long count = latencyCount.sumThenReset();
+            long sum = latencySum.sumThenReset();
+            lastRequestRate = requestRate.getAsDouble();
+            if (count == 0)
+                return;
+
+            adjust(sum / count, batchFillRatio.getAsDouble());
+        } catch (RuntimeException e) {
+            logger.error("Adjustment of flush interval failed", e);
+        }
+    }
+
+    /**
+     * Подстроить интервал по наблюдениям за период
+     *
+     * @param latencyNanos   средняя задержка отправки
+     * @param batchFillRatio средняя доля заполнения батчей или NaN, если она неизвестна
+     */
+    void adjust(long latencyNanos, double batchFillRatio) {
+        lastLatencyMillis = latencyNanos / 1e6;
+        lastBatchFillRatio = batchFillRatio;
+
+        long oldInterval = intervalNanos;
+        long newInterval;
+        if (latencyNanos > latencyTargetNanos) {
+            newInterval = Math.max(minIntervalNanos, (long) (oldInterval * properties.getDecreaseFactor()));
+            if (newInterval < oldInterval) {
+                decreaseCount++;
+            }
+        } else if (!(batchFillRatio >= properties.getFullBatchRatio())) {
+            newInterval = Math.min(maxIntervalNanos, oldInterval + increaseStepNanos);
+            if (newInterval > oldInterval) {
+                increaseCount++;
+            }
+        } else {
+            newInterval = oldInterval;
+        }
+
+        if (newInterval != oldInterval) {
+            intervalNanos = newInterval;
+            logger.debug("Flush interval adjusted: {} -> {} us (latency={} ms, batch fill ratio={})",
+                    oldInterval / 1000, newInterval / 1000, lastLatencyMillis, batchFillRatio);
+        }
+    }
+
+    BatchingMetrics getMetrics() {
+        return new BatchingMetrics(intervalNanos / 1e6, lastLatencyMillis, lastBatchFillRatio, lastRequestRate,
+                increaseCount, decreaseCount);
+    }
+}
@@ -0,0 +1,24 @@
+package kafkablocks.publisher;
+
+/**
+ * Событие не опубликовано из-за превышения лимита событий "в полете" (см. {@link BackpressurePolicy})
+ */
+public class BackpressureException extends RuntimeException {
+    /**
+     * Событие вытеснено более новым событием с тем же ключом
+     */
+    private final boolean superseded;
+
+    public BackpressureException(String message) {
+        this(message, false);
+    }
+
+    public BackpressureException(String message, boolean superseded) {
+        super(message);
+        this.superseded = superseded;
+    }
+
+    public boolean isSuperseded() {
+        return superseded;
+    }
+}
@@ -0,0 +1,24 @@
+package kafkablocks.publisher;
+
+/**
+ * Поведение публикатора, когда достигнут лимит событий "в полете", т.е. отправленных, но еще не подтвержденных
+ * брокером (см. {@link KafkaPublisherProperties.Backpressure})
+ */
+public enum BackpressurePolicy {
+    /**
+     * Публикация ждет, пока не освободится место, но не дольше таймаута;
+     * по истечении таймаута публикация завершается ошибкой {@link BackpressureException}
+     */
+    BLOCK,
+    /**
+     * Публикация сразу завершается ошибкой {@link BackpressureException}
+     */
+    FAIL,
+    /**
+     * Событие ставится в очередь ожидания и отправляется, когда освободится место.
+     * Если в очереди уже есть событие с тем же ключом, то старое событие выбрасывается
+     * (его future завершается ошибкой {@link BackpressureException}).
+     * При переполнении очереди выбрасывается самое старое событие в ней
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,47 @@
+package kafkablocks.publisher;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Метрики адаптивной подстройки отправки (см. {@link AdaptiveBatchController})
+ */
+@Getter
+@ToString
+public class BatchingMetrics {
+    /**
+     * Текущий интервал отправки накопленных записей (мс)
+     */
+    private final double intervalMillis;
+    /**
+     * Средняя задержка отправки за последний период (мс)
+     */
+    private final double latencyMillis;
+    /**
+     * Средняя доля заполнения батчей продюсеров за последний период
+     */
+    private final double batchFillRatio;
+    /**
+     * Частота запросов продюсеров к брокеру (запросов в секунду)
+     */
+    private final double requestRate;
+    /**
+     * Кол-во увеличений интервала
+     */
+    private final long increaseCount;
+    /**
+     * Кол-во уменьшений интервала
+     */
+    private final long decreaseCount;
+
+    BatchingMetrics(
+            double intervalMillis, double latencyMillis, double batchFillRatio, double requestRate,
+            long increaseCount, long decreaseCount) {
+        this.intervalMillis = intervalMillis;
+        this.latencyMillis = latencyMillis;
+        this.batchFillRatio = batchFillRatio;
+        this.requestRate = requestRate;
+        this.increaseCount = increaseCount;
+        this.decreaseCount = decreaseCount;
+    }
+}
@@ -0,0 +1,353 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.Event;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Публикатор, который схлопывает частые события с одинаковым ключом:
+ * из событий ключа, накопленных за интервал, публикуется только последнее.
+ * Подходит для событий-состояний (например, положения объекта), когда новое событие полностью заменяет предыдущее.
+ * <p>
+ * Схлопывание настраивается по классам событий (см. {@link KafkaPublisherProperties.Coalescing});
+ * события остальных классов и события без ключа сразу передаются основному публикатору.
+ * Ожидающие события хранятся в таблице, разбитой на сегменты со своими блокировками,
+ * поэтому публикующие потоки почти не мешают друг другу. Сегменты отправляются пулом потоков раз в интервал
+ * или раньше, если в сегменте накопилось слишком много ключей, поэтому событие ждет отправки не дольше интервала.
+ * Порядок событий одного ключа сохраняется.
+ * <p>
+ * Подключается явно аннотацией {@link EnableEventCoalescing}: тогда этот публикатор внедряется вместо основного.
+ * Если схлопывание не настроено ни для одного класса событий, потоки отправки не создаются
+ */
+public class CoalescingKafkaPublisher implements KafkaPublisher {
+    private Logger logger = LoggerFactory.getLogger(CoalescingKafkaPublisher.class);
+    /**
+     * Основной публикатор, которому передаются события для отправки
+     */
+    private final KafkaPublisher publisher;
+    /**
+     * Таблица: имя класса события -> схлопыватель событий этого класса
+     */
+    private final Map<String, Coalescer> coalescers = new HashMap<>();
+    /**
+     * Потоки отправки накопленных событий или null, если схлопывание не настроено
+     */
+    private final ScheduledExecutorService flushExecutor;
+
+
+    public CoalescingKafkaPublisher(KafkaPublisherImpl publisher, KafkaPublisherProperties properties) {
+        this((KafkaPublisher) publisher, properties.getCoalescing());
+    }
+
+    public CoalescingKafkaPublisher(KafkaPublisher publisher, KafkaPublisherProperties.Coalescing properties) {
+        Assert.notNull(publisher, "publisher must not be null");
+        this.publisher = publisher;
+
+        if (properties.getEvents().isEmpty()) {
+            this.flushExecutor = null;
+            return;
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.flushExecutor = Executors.newScheduledThreadPool(properties.getThreads(), target -> {
+            Thread thread = new Thread(target, "publisher-coalescing-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        properties.getEvents().forEach((eventClassName, rule) ->
+                coalescers.put(eventClassName, new Coalescer(rule, properties.getStripes())));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (flushExecutor == null)
+            return;
+
+        flushExecutor.shutdown();
+        // накопленные события не теряем
+        flushPending();
+    }
+
+    @Override
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+        publisher.setLogger(logger);
+    }
+
+    @Override
+    public void publishEvent(Event event) {
+        publishEvent(event, null, false);
+    }
+
+    @Override
+    public void publishEvent(Event event, String topic) {
+        Assert.notNull(topic, "topic is null");
+        publishEvent(event, topic, false);
+    }
+
+    @Override
+    public CompletableFuture<RecordMetadata> publishEventAsync(Event event) {
+        return publishEvent(event, null, true);
+    }
+
+    @Override
+    public CompletableFuture<RecordMetadata> publishEventAsync(Event event, String topic) {
+        Assert.notNull(topic, "topic is null");
+        return publishEvent(event, topic, true);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<CompletableFuture<RecordMetadata>> publishEvents(Collection<? extends Event> events) {
+        Assert.notNull(events, "events is null");
+
+        CompletableFuture<RecordMetadata>[] futures = new CompletableFuture[events.size()];
+        List<Event> passed = new ArrayList<>();
+        List<Integer> passedIndexes = new ArrayList<>();
+
+        int index = 0;
+        for (Event event : events) {
+            Coalescer coalescer = getCoalescer(event);
+            if (coalescer != null) {
+                futures[index] = coalescer.add(event, null, true);
+            } else {
+                passed.add(event);
+                passedIndexes.add(index);
+            }
+            index++;
+        }
+
+        if (!passed.isEmpty()) {
+            List<CompletableFuture<RecordMetadata>> passedFutures = publisher.publishEvents(passed);
+            for (int i = 0; i < passedFutures.size(); i++) {
+                futures[passedIndexes.get(i)] = passedFutures.get(i);
+            }
+        }
+
+        return Arrays.asList(futures);
+    }
+
+    /**
+     * События транзакции не схлопываются: все они должны быть опубликованы
+     */
+    @Override
+    public CompletableFuture<List<RecordMetadata>> publishTransactionally(Collection<? extends Event> events) {
+        return publisher.publishTransactionally(events);
+    }
+
+    @Override
+    public CompletableFuture<List<RecordMetadata>> inTransaction(Consumer<EventTransaction> callback) {
+        return publisher.inTransaction(callback);
+    }
+
+    /**
+     * Отправить накопленные события и дождаться завершения отправки всех ранее опубликованных событий
+     */
+    @Override
+    public void flush() {
+        flushPending();
+        publisher.flush();
+    }
+
+    @Override
+    public double getPressure() {
+        return publisher.getPressure();
+    }
+
+    @Override
+    public double getPressure(String topic) {
+        return publisher.getPressure(topic);
+    }
+
+    /**
+     * @param topic топик или null, если топик вычисляется по классу события
+     * @param async нужен ли результат отправки
+     * @return future результата отправки или null, если результат не нужен
+     */
+    private CompletableFuture<RecordMetadata> publishEvent(Event event, String topic, boolean async) {
+        Assert.notNull(event, "event is null");
+
+        Coalescer coalescer = getCoalescer(event);
+        if (coalescer != null)
+            return coalescer.add(event, topic, async);
+
+        if (async)
+            return topic == null ? publisher.publishEventAsync(event) : publisher.publishEventAsync(event, topic);
+
+        if (topic == null) {
+            publisher.publishEvent(event);
+        } else {
+            publisher.publishEvent(event, topic);
+        }
+        return null;
+    }
+
+    /**
+     * Получить схлопыватель для события или null, если событие нужно опубликовать сразу
+     */
+    private Coalescer getCoalescer(Event event) {
+        if (coalescers.isEmpty() || event.getKey() == null)
+            return null;
+
+        Class<?> eventClass = event.getClass();
+        Coalescer coalescer = coalescers.get(eventClass.getSimpleName());
+        return coalescer != null ? coalescer : coalescers.get(eventClass.getName());
+    }
+
+    private void flushPending() {
+        for (Coalescer coalescer : coalescers.values()) {
+            for (Stripe stripe : coalescer.stripes) {
+                flush(stripe);
+            }
+        }
+    }
+
+    /**
+     * Отправить события, накопленные в сегменте
+     */
+    private void flush(Stripe stripe) {
+        // сегмент отправляется одним потоком за раз, чтобы сохранить порядок событий одного ключа
+        synchronized (stripe.flushLock) {
+            Map<Object, Pending> pending;
+            synchronized (stripe) {
+                stripe.flushRequested = false;
+                if (stripe.pending.isEmpty())
+                    return;
+
+                pending = stripe.pending;
+                stripe.pending = new HashMap<>();
+            }
+
+            for (Pending p : pending.values()) {
+                send(p);
+            }
+        }
+    }
+
+    private void send(Pending pending) {
+        CompletableFuture<RecordMetadata> result;
+        try {
+            result = pending.topic == null
+                    ? publisher.publishEventAsync(pending.event)
+                    : publisher.publishEventAsync(pending.event, pending.topic);
+        } catch (RuntimeException e) {
+            logger.error("[{}] Unable to send event", pending.event.getId(), e);
+            if (pending.future != null) {
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        if (pending.future != null) {
+            result.whenComplete((recordMetadata, e) -> {
+                if (e != null) {
+                    pending.future.completeExceptionally(e);
+                } else {
+                    pending.future.complete(recordMetadata);
+                }
+            });
+        }
+    }
+
+    private void flushSafely(Stripe stripe) {
+        try {
+            flush(stripe);
+        } catch (RuntimeException e) {
+            // исключение отменило бы периодическую отправку сегмента
+            logger.error("Flush of coalesced events failed", e);
+        }
+    }
+
+    /**
+     * Событие, ожидающее отправки
+     */
+    private static final class Pending {
+        private Event event;
+        private String topic;
+        /**
+         * Общий результат отправки для всех схлопнутых событий ключа; создается, только если он кому-то нужен
+         */
+        private CompletableFuture<RecordMetadata> future;
+    }
+
+    /**
+     * Сегмент таблицы ожидающих событий
+     */
+    private static final class Stripe {
+        /**
+         * Таблица: ключ события (с топиком, если он задан явно) -> событие
+         */
+        private Map<Object, Pending> pending = new HashMap<>();
+        private boolean flushRequested;
+        private final Object flushLock = new Object();
+    }
+
+    /**
+     * Схлопыватель событий одного класса
+     */
+    private final class Coalescer {
+        private final Stripe[] stripes;
+        private final int stripeMaxKeys;
+
+        Coalescer(KafkaPublisherProperties.CoalescingRule rule, int stripeCount) {
+            long intervalNanos = rule.getInterval().toNanos();
+            Assert.isTrue(intervalNanos > 0, "interval must be greater than 0");
+
+            this.stripes = new Stripe[stripeCount];
+            this.stripeMaxKeys = Math.max(1, rule.getMaxKeys() / stripeCount);
+
+            for (int i = 0; i < stripeCount; i++) {
+                Stripe stripe = new Stripe();
+                stripes[i] = stripe;
+                // сдвигаем отправку сегментов друг относительно друга, чтобы распределить нагрузку по интервалу
+                long initialDelay = intervalNanos * (i + 1) / stripeCount;
+                flushExecutor.scheduleAtFixedRate(
+                        () -> flushSafely(stripe), initialDelay, intervalNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        CompletableFuture<RecordMetadata> add(Event event, String topic, boolean async) {
+            String key = event.getKey();
+            int hash = key.hashCode();
+            Stripe stripe = stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+            Object pendingKey = topic == null ? key : new TopicKey(topic, key);
+
+            synchronized (stripe) {
+                Pending pending = stripe.pending.get(pendingKey);
+                if (pending == null) {
+                    pending = new Pending();
+                    stripe.pending.put(pendingKey, pending);
+                }
+                pending.event = event;
+                pending.topic = topic;
+                if (async && pending.future == null) {
+                    pending.future = new CompletableFuture<>();
+                }
+
+                if (stripe.pending.size() >= stripeMaxKeys && !stripe.flushRequested) {
+                    stripe.flushRequested = true;
+                    flushExecutor.execute(() -> flushSafely(stripe));
+                }
+
+                return pending.future;
+            }
+        }
+    }
+}
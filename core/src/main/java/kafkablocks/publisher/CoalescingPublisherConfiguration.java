@@ -0,0 +1,25 @@
+package kafkablocks.publisher;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * @see EnableEventCoalescing
+ */
+@Configuration
+@Import(KafkaPublisherImpl.class)
+public class CoalescingPublisherConfiguration {
+
+    /**
+     * Публикатор со схлопыванием внедряется вместо основного, т.к. подключен явно
+     */
+    @Bean
+    @Primary
+    public CoalescingKafkaPublisher coalescingKafkaPublisher(
+            KafkaPublisherImpl publisher,
+            KafkaPublisherProperties publisherProperties) {
+        return new CoalescingKafkaPublisher(publisher, publisherProperties);
+    }
+}
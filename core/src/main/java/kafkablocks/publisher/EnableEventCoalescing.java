@@ -0,0 +1,19 @@
+package kafkablocks.publisher;
+
+import org.springframework.context.annotation.Import;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Enable coalescing publisher (see {@link CoalescingKafkaPublisher}) for application
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Import(CoalescingPublisherConfiguration.class)
+public @interface EnableEventCoalescing {
+}
@@ -0,0 +1,258 @@
+package kafkablocks.publisher;
+
+import kafkablocks.EventTopicProperties;
+import kafkablocks.events.Event;
+import kafkablocks.serialization.EventEnvelope;
+import kafkablocks.serialization.EventTypeSerde;
+import kafkablocks.serialization.SerdeRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Накопитель конвертов событий (см. {@link EventEnvelope}).
+ * <p>
+ * События одного ключа (и топика) сериализуются и дописываются в общий конверт, который отправляется одной записью,
+ * когда в нем набралось заданное кол-во событий или байт либо истекло время ожидания первого события конверта.
+ * Временная метка каждого события - время его публикации, т.е. та же, что была бы у его отдельной записи.
+ * Таблица незавершенных конвертов разбита на сегменты по ключу со своими блокировками; под блокировкой
+ * конверт только извлекается из таблицы, а отправляется уже без нее, поэтому заблокированная отправка
+ * не останавливает добавление событий других ключей. Конверты сегмента отправляются в порядке извлечения,
+ * поэтому порядок событий ключа сохраняется.
+ * Все события конверта получают общий результат отправки.
+ */
+final class EnvelopeAccumulator {
+    private final EventTopicProperties.Envelope properties;
+    private final Function<ProducerRecord<String, Event>, CompletableFuture<RecordMetadata>> sender;
+    private final Logger logger;
+    private final long maxSize;
+    private final ScheduledExecutorService executor;
+
+    private static final int STRIPE_COUNT = 16;
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+    /**
+     * Сегмент таблицы незавершенных конвертов
+     */
+    private static final class Stripe {
+        /**
+         * Таблица: ключ события в топике -> незавершенный конверт
+         */
+        private final Map<TopicKey, Batch> batches = new HashMap<>();
+        /**
+         * Номер очереди, который получат следующие извлеченные конверты
+         */
+        private long nextTicket;
+        /**
+         * Номер очереди конвертов, которые отправляются сейчас
+         */
+        private long sendingTicket;
+    }
+
+    /**
+     * Незавершенный конверт
+     */
+    private static final class Batch {
+        private final TopicKey topicKey;
+        private final String topic;
+        private final String key;
+        private final Class<? extends Event> eventType;
+        private final EventEnvelope.Builder builder;
+        private final CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+        private ScheduledFuture<?> timer;
+
+        Batch(TopicKey topicKey, String topic, String key, Class<? extends Event> eventType, int initialCapacity) {
+            this.topicKey = topicKey;
+            this.topic = topic;
+            this.key = key;
+            this.eventType = eventType;
+            this.builder = new EventEnvelope.Builder(initialCapacity);
+        }
+    }
+
+    EnvelopeAccumulator(
+            EventTopicProperties.Envelope properties,
+            Function<ProducerRecord<String, Event>, CompletableFuture<RecordMetadata>> sender,
+            Logger logger) {
+
+        this.properties = properties;
+        this.sender = sender;
+        this.logger = logger;
+        this.maxSize = properties.getMaxSize().toBytes();
+        this.executor = Executors.newSingleThreadScheduledExecutor(EnvelopeAccumulator::newThread);
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe getStripe(TopicKey topicKey) {
+        int hash = topicKey.hashCode();
+        return stripes[Math.floorMod(hash ^ (hash >>> 16), STRIPE_COUNT)];
+    }
+
+    private static Thread newThread(Runnable target) {
+        Thread thread = new Thread(target, "publisher-envelope");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Добавить событие с ключом в конверт
+     *
+     * @return future, которое завершится после отправки конверта
+     */
+    @SuppressWarnings("unchecked")
+    CompletableFuture<RecordMetadata> add(Event event, String topic) {
+        EventTypeSerde<Event> serde = SerdeRegistry.getInstance().forType((Class<Event>) event.getClass());
+        byte[] value = serde.serialize(event);
+        long timestamp = System.currentTimeMillis();
+        TopicKey topicKey = new TopicKey(topic, event.getKey());
+        Stripe stripe = getStripe(topicKey);
+
+        List<Batch> completed = new ArrayList<>(2);
+        CompletableFuture<RecordMetadata> future;
+        long ticket = 0;
+
+        synchronized (stripe) {
+            Batch batch = stripe.batches.get(topicKey);
+            if (batch != null && batch.eventType != event.getClass()) {
+                // в одном конверте события только одного класса
+                completed.add(stripe.batches.remove(topicKey));
+                batch = null;
+            }
+
+            if (batch == null) {
+                batch = new Batch(topicKey, topic, event.getKey(), event.getClass(),
+                        (int) Math.min(maxSize, 16 * value.length));
+                Batch created = batch;
+                batch.timer = executor.schedule(
+                        () -> sendOnTimeout(created), properties.getLinger().toNanos(), TimeUnit.NANOSECONDS);
+                stripe.batches.put(topicKey, batch);
+            }
+
+            batch.builder.add(timestamp, value);
+            future = batch.future;
+
+            if (batch.builder.getCount() >= properties.getMaxEvents() || batch.builder.getSize() >= maxSize) {
+                completed.add(stripe.batches.remove(topicKey));
+            }
+
+            if (!completed.isEmpty()) {
+                ticket = stripe.nextTicket++;
+            }
+        }
+
+        if (!completed.isEmpty()) {
+            sendInOrder(stripe, ticket, completed);
+        }
+        return future;
+    }
+
+    /**
+     * Отправить все незавершенные конверты
+     */
+    void flush() {
+        for (Stripe stripe : stripes) {
+            List<Batch> pending;
+            long ticket;
+            synchronized (stripe) {
+                if (stripe.batches.isEmpty())
+                    continue;
+
+                pending = new ArrayList<>(stripe.batches.values());
+                stripe.batches.clear();
+                ticket = stripe.nextTicket++;
+            }
+
+            sendInOrder(stripe, ticket, pending);
+        }
+    }
+
+    void close() {
+        flush();
+        executor.shutdown();
+    }
+
+    private void sendOnTimeout(Batch batch) {
+        Stripe stripe = getStripe(batch.topicKey);
+        long ticket;
+        synchronized (stripe) {
+            // конверт мог быть уже отправлен по размеру
+            if (stripe.batches.get(batch.topicKey) != batch)
+                return;
+
+            stripe.batches.remove(batch.topicKey);
+            ticket = stripe.nextTicket++;
+        }
+
+        sendInOrder(stripe, ticket, Collections.singletonList(batch));
+    }
+
+    /**
+     * Отправить извлеченные конверты без блокировки сегмента, но после конвертов, извлеченных из него раньше
+     *
+     * @param ticket номер очереди, полученный при извлечении конвертов
+     */
+    private void sendInOrder(Stripe stripe, long ticket, List<Batch> batches) {
+        boolean interrupted = false;
+        synchronized (stripe) {
+            while (stripe.sendingTicket != ticket) {
+                try {
+                    stripe.wait();
+                } catch (InterruptedException e) {
+                    // очередь нужно дождаться в любом случае, иначе остановятся следующие отправки сегмента
+                    interrupted = true;
+                }
+            }
+        }
+
+        try {
+            batches.forEach(this::send);
+        } finally {
+            synchronized (stripe) {
+                stripe.sendingTicket++;
+                stripe.notifyAll();
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void send(Batch batch) {
+        batch.timer.cancel(false);
+
+        try {
+            EventEnvelope envelope = batch.builder.build(batch.key);
+            ProducerRecord<String, Event> record = new ProducerRecord<>(
+                    batch.topic, null, envelope.getLastTimestamp(), batch.key, envelope);
+            EventEnvelope.writeHeaders(record.headers(), batch.eventType, envelope.getCount());
+
+            logger.debug("Sending envelope of {} events {} to topic '{}'",
+                    envelope.getCount(), batch.eventType.getSimpleName(), batch.topic);
+            sender.apply(record).whenComplete((recordMetadata, e) -> {
+                if (e == null) {
+                    batch.future.complete(recordMetadata);
+                } else {
+                    batch.future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.error("Unable to send envelope of events to topic '{}'", batch.topic, e);
+            batch.future.completeExceptionally(e);
+        }
+    }
+}
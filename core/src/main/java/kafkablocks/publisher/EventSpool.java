@@ -0,0 +1,469 @@
+package kafkablocks.publisher;
+
+import kafkablocks.utils.FileUtils;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Локальный спул (журнал упреждающей записи) неотправленных записей: каталог с сегментами фиксированного размера,
+ * которые отображаются в память. Записи добавляются в конец последнего сегмента и читаются в порядке добавления.
+ * <p>
+ * Формат записи в сегменте: длина (int), CRC32 (int), данные. Нулевая длина означает конец данных сегмента.
+ * Позиция прочитанных и подтвержденных записей хранится в файле "checkpoint"; полностью подтвержденные
+ * сегменты удаляются. При открытии спула конец данных ищется по длинам и контрольным суммам,
+ * поэтому оборванная при аварии запись отбрасывается.
+ * <p>
+ * Данные в отображенной памяти сохраняются ОС при падении процесса; от потери питания защищает только
+ * синхронный сброс на диск при каждом добавлении (см. {@link KafkaPublisherProperties.Spool#isForceOnAppend()}).
+ */
+final class EventSpool {
+    private static final String SEGMENT_EXTENSION = "spool";
+    private static final Pattern SEGMENT_NAME_PATTERN = Pattern.compile("(\\d{20})\\." + SEGMENT_EXTENSION);
+    private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final boolean forceOnAppend;
+
+    /**
+     * Открытые сегменты: номер -> отображение файла
+     */
+    private final NavigableMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    /**
+     * Позиция, с которой добавляются записи
+     */
+    private Position writePosition;
+    /**
+     * Позиция первой неподтвержденной записи
+     */
+    private Position checkpoint;
+    /**
+     * Есть ли неподтвержденные записи; читается без блокировки
+     */
+    private volatile boolean pending;
+
+    /**
+     * Позиция в спуле
+     */
+    static final class Position {
+        private final long segment;
+        private final int offset;
+
+        Position(long segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        int getOffset() {
+            return offset;
+        }
+
+        boolean isSame(Position other) {
+            return segment == other.segment && offset == other.offset;
+        }
+
+        @Override
+        public String toString() {
+            return segment + ":" + offset;
+        }
+    }
+
+    /**
+     * Запись спула
+     */
+    static final class Entry {
+        private final String topic;
+        private final String key;
+        private final String eventClassName;
+        private final Headers headers;
+        private final byte[] value;
+        /**
+         * Позиция за этой записью; устанавливается при чтении
+         */
+        private Position end;
+
+        Entry(String topic, String key, String eventClassName, Headers headers, byte[] value) {
+            this.topic = topic;
+            this.key = key;
+            this.eventClassName = eventClassName;
+            this.headers = headers;
+            this.value = value;
+        }
+
+        String getTopic() {
+            return topic;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        String getEventClassName() {
+            return eventClassName;
+        }
+
+        Headers getHeaders() {
+            return headers;
+        }
+
+        byte[] getValue() {
+            return value;
+        }
+
+        Position getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * Открыть спул; если в каталоге есть записи, оставшиеся от предыдущего запуска, то они будут прочитаны
+     *
+     * @param segmentSize размер файла сегмента (байт)
+     */
+    EventSpool(String dir, int segmentSize, boolean forceOnAppend) {
+        FileUtils.ensureDirectoryExists(dir);
+        this.dir = Paths.get(dir);
+        this.segmentSize = segmentSize;
+        this.forceOnAppend = forceOnAppend;
+
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open spool in " + dir, e);
+        }
+    }
+
+    //region Opening
+
+    private void open() throws IOException {
+        List<Long> segmentNumbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME_PATTERN.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segmentNumbers.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        segmentNumbers.sort(null);
+
+        checkpoint = readCheckpoint();
+        if (checkpoint == null) {
+            checkpoint = new Position(segmentNumbers.isEmpty() ? 0 : segmentNumbers.get(0), 0);
+        }
+
+        for (long number : segmentNumbers) {
+            if (number < checkpoint.segment) {
+                Files.deleteIfExists(getSegmentPath(number));
+            } else {
+                segments.put(number, map(number));
+            }
+        }
+
+        if (segments.isEmpty()) {
+            segments.put(checkpoint.segment, map(checkpoint.segment));
+        }
+
+        long lastNumber = segments.lastKey();
+        int start = lastNumber == checkpoint.segment ? checkpoint.offset : 0;
+        int end = findEnd(segments.get(lastNumber), start);
+        // обнуляем оборванную запись, чтобы ее остатки не были приняты за данные после следующих записей
+        MappedByteBuffer last = segments.get(lastNumber);
+        for (int i = end; i < segmentSize; i++) {
+            if (last.get(i) != 0) {
+                last.put(i, (byte) 0);
+            }
+        }
+        writePosition = new Position(lastNumber, end);
+
+        checkpoint = skipSegmentEnds(checkpoint);
+        pending = !checkpoint.isSame(writePosition);
+    }
+
+    /**
+     * Найти конец корректных данных сегмента
+     */
+    private int findEnd(ByteBuffer segment, int offset) {
+        while (true) {
+            byte[] payload = readPayload(segment, offset);
+            if (payload == null)
+                return offset;
+
+            offset += RECORD_HEADER_SIZE + payload.length;
+        }
+    }
+
+    private MappedByteBuffer map(long number) throws IOException {
+        try (FileChannel channel = FileChannel.open(getSegmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private Path getSegmentPath(long number) {
+        return dir.resolve(String.format("%020d.%s", number, SEGMENT_EXTENSION));
+    }
+
+    private Position readCheckpoint() throws IOException {
+        Path path = dir.resolve(CHECKPOINT_FILE_NAME);
+        if (!Files.exists(path))
+            return null;
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        return new Position(buffer.getLong(), buffer.getInt());
+    }
+
+    private void writeCheckpoint(Position position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        buffer.putLong(position.segment).putInt(position.offset);
+
+        // через временный файл, чтобы не оставить поврежденную позицию при аварии
+        Path tmp = dir.resolve(CHECKPOINT_FILE_NAME + ".tmp");
+        Files.write(tmp, buffer.array());
+        Files.move(tmp, dir.resolve(CHECKPOINT_FILE_NAME),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //endregion
+
+    /**
+     * Есть ли в спуле неподтвержденные записи
+     */
+    boolean hasPending() {
+        return pending;
+    }
+
+    /**
+     * Добавить запись в конец спула
+     *
+     * @throws IllegalArgumentException если запись не помещается в сегмент
+     */
+    void append(Entry entry) {
+        byte[] payload = encode(entry);
+        int size = RECORD_HEADER_SIZE + payload.length;
+        if (size > segmentSize)
+            throw new IllegalArgumentException(String.format(
+                    "Record of %d bytes is too large for spool segment of %d bytes", size, segmentSize));
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        synchronized (this) {
+            try {
+                if (writePosition.offset + size > segmentSize) {
+                    long next = writePosition.segment + 1;
+                    segments.put(next, map(next));
+                    writePosition = new Position(next, 0);
+                }
+
+                MappedByteBuffer segment = segments.get(writePosition.segment);
+                int offset = writePosition.offset;
+                // длину пишем последней: до этого запись не видна ни читателю, ни восстановлению
+                segment.putInt(offset + Integer.BYTES, (int) crc.getValue());
+                ByteBuffer data = segment.duplicate();
+                data.position(offset + RECORD_HEADER_SIZE);
+                data.put(payload);
+                segment.putInt(offset, payload.length);
+                if (forceOnAppend) {
+                    segment.force();
+                }
+
+                writePosition = new Position(writePosition.segment, offset + size);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't append record to spool", e);
+            }
+
+            pending = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Дождаться появления неподтвержденных записей
+     *
+     * @return есть ли неподтвержденные записи
+     */
+    synchronized boolean awaitPending(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!pending) {
+            unit.timedWait(this, timeout);
+        }
+        return pending;
+    }
+
+    /**
+     * Прочитать неподтвержденные записи, начиная с первой.
+     * Пока записи не подтверждены (см. {@link #commit}), повторное чтение возвращает их же
+     */
+    synchronized List<Entry> read(int maxCount) {
+        List<Entry> entries = new ArrayList<>(Math.min(maxCount, 1024));
+        Position position = checkpoint;
+        while (entries.size() < maxCount && !position.isSame(writePosition)) {
+            position = skipSegmentEnds(position);
+            byte[] payload = readPayload(segments.get(position.segment), position.offset);
+            if (payload == null)
+                break;
+
+            Entry entry = decode(payload);
+            position = new Position(position.segment, position.offset + RECORD_HEADER_SIZE + payload.length);
+            entry.end = position;
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Подтвердить отправку записей до заданной позиции включительно
+     */
+    synchronized void commit(Position position) {
+        Position newCheckpoint = skipSegmentEnds(position);
+        try {
+            writeCheckpoint(newCheckpoint);
+
+            while (segments.firstKey() < newCheckpoint.segment) {
+                long number = segments.pollFirstEntry().getKey();
+                Files.deleteIfExists(getSegmentPath(number));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write spool checkpoint", e);
+        }
+
+        checkpoint = newCheckpoint;
+        pending = !checkpoint.isSame(writePosition);
+    }
+
+    /**
+     * Сбросить данные на диск
+     */
+    synchronized void close() {
+        segments.values().forEach(MappedByteBuffer::force);
+    }
+
+    /**
+     * Перейти к началу следующего сегмента, если в текущем сегменте больше нет записей
+     */
+    private Position skipSegmentEnds(Position position) {
+        while (position.segment < writePosition.segment
+                && readPayload(segments.get(position.segment), position.offset) == null) {
+            position = new Position(position.segment + 1, 0);
+        }
+        return position;
+    }
+
+    //region Encoding
+
+    /**
+     * Прочитать данные записи или null, если по смещению нет корректной записи
+     */
+    private byte[] readPayload(ByteBuffer segment, int offset) {
+        if (offset + RECORD_HEADER_SIZE > segmentSize)
+            return null;
+
+        int length = segment.getInt(offset);
+        if (length <= 0 || offset + RECORD_HEADER_SIZE + length > segmentSize)
+            return null;
+
+        byte[] payload = new byte[length];
+        ByteBuffer data = segment.duplicate();
+        data.position(offset + RECORD_HEADER_SIZE);
+        data.get(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == segment.getInt(offset + Integer.BYTES) ? payload : null;
+    }
+
+    private static byte[] encode(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.value.length + 256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeBytes(out, entry.topic.getBytes(StandardCharsets.UTF_8));
+            writeBytes(out, entry.key == null ? null : entry.key.getBytes(StandardCharsets.UTF_8));
+            writeBytes(out, entry.eventClassName.getBytes(StandardCharsets.UTF_8));
+
+            Header[] headers = entry.headers.toArray();
+            out.writeInt(headers.length);
+            for (Header header : headers) {
+                writeBytes(out, header.key().getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, header.value());
+            }
+
+            writeBytes(out, entry.value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            String topic = readString(in);
+            String key = readString(in);
+            String eventClassName = readString(in);
+
+            Headers headers = new RecordHeaders();
+            int headerCount = in.readInt();
+            for (int i = 0; i < headerCount; i++) {
+                headers.add(readString(in), readBytes(in));
+            }
+
+            return new Entry(topic, key, eventClassName, headers, readBytes(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //endregion
+}
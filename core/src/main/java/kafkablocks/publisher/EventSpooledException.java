@@ -0,0 +1,11 @@
+package kafkablocks.publisher;
+
+/**
+ * Событие не отправлено, но сохранено в локальный спул (см. {@link KafkaPublisherProperties.Spool})
+ * и будет отправлено после восстановления связи с брокером
+ */
+public class EventSpooledException extends RuntimeException {
+    public EventSpooledException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,19 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.Event;
+
+/**
+ * Транзакция публикации: события, которые публикуются атомарно (см. {@link KafkaPublisher#inTransaction})
+ */
+public interface EventTransaction {
+    /**
+     * Добавить событие в транзакцию.
+     * Топик, в который будет опубликовано событие, вычисляется автоматически по классу события.
+     */
+    void publishEvent(Event event);
+
+    /**
+     * Добавить в транзакцию событие для публикации в заданный топик.
+     */
+    void publishEvent(Event event, String topic);
+}
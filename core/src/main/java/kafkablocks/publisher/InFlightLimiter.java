@@ -0,0 +1,401 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.Event;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Ограничитель событий "в полете", т.е. отправленных продюсеру, но еще не подтвержденных брокером
+ * (см. {@link KafkaPublisherProperties.Backpressure}).
+ * <p>
+ * Счетчики ведутся общие и по топикам, для которых заданы лимиты. Событие занимает место до завершения его отправки.
+ * Объем события становится известен только после сериализации, поэтому лимит по объему проверяется
+ * по уже отправленным событиям.
+ * Все изменения счетчиков выполняются под одной блокировкой; future-ы событий завершаются вне ее,
+ * т.к. их обработчики (в т.ч. пользовательские) могут выполняться долго.
+ */
+final class InFlightLimiter {
+    private final Logger logger;
+    private final BackpressurePolicy policy;
+    private final long blockTimeoutNanos;
+    private final int maxPending;
+
+    private final Counter global;
+    /**
+     * Таблица: топик -> счетчик; только для топиков с лимитами
+     */
+    private final Map<String, Counter> topics = new HashMap<>();
+    /**
+     * Очередь ожидания при политике DROP_OLDEST: топик и ключ -> событие
+     */
+    private final LinkedHashMap<Object, Pending> pending = new LinkedHashMap<>();
+    /**
+     * Поток, который отправляет события из очереди ожидания; создается при политике DROP_OLDEST
+     */
+    private final ExecutorService drainExecutor;
+    private boolean draining;
+
+    private final Object lock = new Object();
+
+    /**
+     * Функция, которая отправляет запись продюсеру
+     */
+    interface Sender {
+        /**
+         * @param sentBytes получает объем каждой отправленной продюсеру записи (событие может быть отправлено
+         *                  несколькими записями, см. {@link kafkablocks.serialization.EventChunk})
+         */
+        CompletableFuture<RecordMetadata> send(ProducerRecord<String, Event> record, IntConsumer sentBytes);
+    }
+
+    /**
+     * Счетчик событий в полете
+     */
+    private static final class Counter {
+        private final KafkaPublisherProperties.Limits limits;
+        private long events;
+        private long bytes;
+
+        Counter(KafkaPublisherProperties.Limits limits) {
+            this.limits = limits;
+        }
+
+        boolean hasRoom() {
+            return (limits.getMaxEvents() <= 0 || events < limits.getMaxEvents())
+                    && (limits.getMaxBytes() <= 0 || bytes < limits.getMaxBytes());
+        }
+
+        double getPressure() {
+            double pressure = 0;
+            if (limits.getMaxEvents() > 0) {
+                pressure = (double) events / limits.getMaxEvents();
+            }
+            if (limits.getMaxBytes() > 0) {
+                pressure = Math.max(pressure, (double) bytes / limits.getMaxBytes());
+            }
+
+            return Math.min(pressure, 1.0);
+        }
+    }
+
+    /**
+     * Событие в полете
+     */
+    private static final class InFlight {
+        private final Counter topicCounter;
+        private long bytes;
+        private boolean released;
+
+        InFlight(Counter topicCounter) {
+            this.topicCounter = topicCounter;
+        }
+    }
+
+    /**
+     * Событие в очереди ожидания
+     */
+    private static final class Pending {
+        private final ProducerRecord<String, Event> record;
+        private final Sender sender;
+        private final CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+
+        Pending(ProducerRecord<String, Event> record, Sender sender) {
+            this.record = record;
+            this.sender = sender;
+        }
+    }
+
+    InFlightLimiter(KafkaPublisherProperties.Backpressure properties, Logger logger) {
+        this.logger = logger;
+        this.policy = properties.getPolicy();
+        this.blockTimeoutNanos = properties.getBlockTimeout().toNanos();
+        this.maxPending = properties.getMaxPending();
+        this.global = new Counter(properties.getGlobal());
+
+        properties.getTopics().forEach((topic, limits) -> {
+            if (limits.isEnabled()) {
+                topics.put(topic, new Counter(limits));
+            }
+        });
+
+        this.drainExecutor = policy == BackpressurePolicy.DROP_OLDEST
+                ? Executors.newSingleThreadExecutor(InFlightLimiter::newDrainThread)
+                : null;
+    }
+
+    private static Thread newDrainThread(Runnable target) {
+        Thread thread = new Thread(target, "publisher-backpressure");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Отправить запись с учетом лимитов
+     *
+     * @param sender функция, которая отправляет запись продюсеру
+     * @throws BackpressureException если событие не может быть отправлено (при политиках BLOCK и FAIL)
+     */
+    CompletableFuture<RecordMetadata> send(ProducerRecord<String, Event> record, Sender sender) {
+        Counter topicCounter = topics.get(record.topic());
+        switch (policy) {
+            case BLOCK:
+                acquire(record.topic(), topicCounter);
+                break;
+
+            case FAIL:
+                synchronized (lock) {
+                    if (!hasRoom(topicCounter))
+                        throw new BackpressureException("Too many events in flight to topic " + record.topic());
+
+                    acquireLocked(topicCounter);
+                }
+                break;
+
+            case DROP_OLDEST:
+                List<Runnable> drops = new ArrayList<>(2);
+                CompletableFuture<RecordMetadata> queued = null;
+                synchronized (lock) {
+                    // пока в очереди есть события, новые события встают за ними, чтобы сохранить порядок
+                    if (!pending.isEmpty() || !hasRoom(topicCounter)) {
+                        queued = enqueue(record, sender, drops);
+                    } else {
+                        acquireLocked(topicCounter);
+                    }
+                }
+
+                drops.forEach(Runnable::run);
+                if (queued != null)
+                    return queued;
+                break;
+        }
+
+        return sendAcquired(record, sender, topicCounter);
+    }
+
+    private void acquire(String topic, Counter topicCounter) {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        synchronized (lock) {
+            while (!hasRoom(topicCounter)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    throw new BackpressureException("Timeout of waiting for room in flight to topic " + topic);
+
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BackpressureException("Interrupted while waiting for room in flight to topic " + topic);
+                }
+            }
+
+            acquireLocked(topicCounter);
+        }
+    }
+
+    private boolean hasRoom(Counter topicCounter) {
+        return global.hasRoom() && (topicCounter == null || topicCounter.hasRoom());
+    }
+
+    private void acquireLocked(Counter topicCounter) {
+        global.events++;
+        if (topicCounter != null) {
+            topicCounter.events++;
+        }
+    }
+
+    private CompletableFuture<RecordMetadata> sendAcquired(
+            ProducerRecord<String, Event> record,
+            Sender sender,
+            Counter topicCounter) {
+
+        InFlight inFlight = new InFlight(topicCounter);
+        CompletableFuture<RecordMetadata> future;
+        try {
+            future = sender.send(record, bytes -> addBytes(inFlight, bytes));
+        } catch (RuntimeException e) {
+            release(inFlight);
+            throw e;
+        }
+
+        future.whenComplete((recordMetadata, e) -> release(inFlight));
+        return future;
+    }
+
+    private void addBytes(InFlight inFlight, int bytes) {
+        synchronized (lock) {
+            // отправка могла уже завершиться
+            if (inFlight.released)
+                return;
+
+            inFlight.bytes += bytes;
+            global.bytes += bytes;
+            if (inFlight.topicCounter != null) {
+                inFlight.topicCounter.bytes += bytes;
+            }
+        }
+    }
+
+    private void release(InFlight inFlight) {
+        synchronized (lock) {
+            inFlight.released = true;
+            global.events--;
+            global.bytes -= inFlight.bytes;
+            if (inFlight.topicCounter != null) {
+                inFlight.topicCounter.events--;
+                inFlight.topicCounter.bytes -= inFlight.bytes;
+            }
+
+            lock.notifyAll();
+
+            // отправку из очереди выполняем в отдельном потоке, т.к. здесь может быть поток ввода-вывода продюсера
+            if (!pending.isEmpty() && !draining) {
+                draining = true;
+                drainExecutor.execute(this::drain);
+            }
+        }
+    }
+
+    //region Queue of DROP_OLDEST
+
+    /**
+     * Поставить событие в очередь ожидания (под блокировкой)
+     *
+     * @param drops получает отбрасывание вытесненных событий, которое нужно выполнить после снятия блокировки
+     */
+    private CompletableFuture<RecordMetadata> enqueue(
+            ProducerRecord<String, Event> record,
+            Sender sender,
+            List<Runnable> drops) {
+
+        // события без ключа не вытесняют друг друга
+        Object pendingKey = record.key() == null
+                ? new Object()
+                : new TopicKey(record.topic(), record.key());
+
+        Pending replaced = pending.remove(pendingKey);
+        if (replaced != null) {
+            drops.add(() -> drop(replaced, "Event was replaced by a newer event with the same key", true));
+        }
+
+        Pending newPending = new Pending(record, sender);
+        pending.put(pendingKey, newPending);
+
+        if (pending.size() > maxPending) {
+            Iterator<Pending> iterator = pending.values().iterator();
+            Pending oldest = iterator.next();
+            iterator.remove();
+            drops.add(() -> drop(oldest, "Event was dropped, because the queue of pending events is full", false));
+        }
+
+        // если в полете ничего нет, то освобождения места не будет, и очередь нужно разобрать сразу
+        if (global.events == 0 && !draining) {
+            draining = true;
+            drainExecutor.execute(this::drain);
+        }
+
+        return newPending.future;
+    }
+
+    private void drop(Pending dropped, String reason, boolean superseded) {
+        logger.debug("[{}] {}", dropped.record.value().getId(), reason);
+        dropped.future.completeExceptionally(new BackpressureException(reason, superseded));
+    }
+
+    /**
+     * Отправить события из очереди, пока есть место
+     */
+    private void drain() {
+        while (true) {
+            Pending next;
+            Counter topicCounter;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+
+                Map.Entry<Object, Pending> head = pending.entrySet().iterator().next();
+                next = head.getValue();
+                topicCounter = topics.get(next.record.topic());
+                if (!hasRoom(topicCounter)) {
+                    // продолжим при освобождении места
+                    draining = false;
+                    return;
+                }
+
+                pending.remove(head.getKey());
+                acquireLocked(topicCounter);
+            }
+
+            try {
+                sendAcquired(next.record, next.sender, topicCounter).whenComplete((recordMetadata, e) -> {
+                    if (e != null) {
+                        next.future.completeExceptionally(e);
+                    } else {
+                        next.future.complete(recordMetadata);
+                    }
+                });
+            } catch (RuntimeException e) {
+                next.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    //endregion
+
+    //region Pressure
+
+    /**
+     * Текущая загрузка: от 0 (нет событий в полете) до 1 (лимит достигнут или есть очередь ожидания)
+     */
+    double getPressure() {
+        synchronized (lock) {
+            return pending.isEmpty() ? global.getPressure() : 1.0;
+        }
+    }
+
+    /**
+     * Текущая загрузка с учетом лимитов топика
+     */
+    double getPressure(String topic) {
+        Counter topicCounter = topics.get(topic);
+        synchronized (lock) {
+            if (!pending.isEmpty())
+                return 1.0;
+
+            return topicCounter == null
+                    ? global.getPressure()
+                    : Math.max(global.getPressure(), topicCounter.getPressure());
+        }
+    }
+
+    /**
+     * Количество событий в очереди ожидания
+     */
+    int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    //endregion
+
+    void close() {
+        if (drainExecutor != null) {
+            drainExecutor.shutdown();
+        }
+    }
+}
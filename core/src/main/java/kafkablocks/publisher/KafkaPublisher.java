@@ -1,8 +1,14 @@
 package kafkablocks.publisher;
 
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.slf4j.Logger;
 import kafkablocks.events.Event;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 /**
  * Интерфейс для публикации событий в кафку
  */
@@ -22,4 +28,71 @@ public interface KafkaPublisher {
      * Опубликовать событие в заданный топик.
      */
     void publishEvent(Event event, String topic);
+
+    /**
+     * Опубликовать событие и получить результат отправки.
+     * Топик, в который будет опубликовано событие, вычисляется автоматически по классу события.
+     *
+     * @return future, которое завершается после подтверждения записи брокером или с ошибкой отправки
+     */
+    CompletableFuture<RecordMetadata> publishEventAsync(Event event);
+
+    /**
+     * Опубликовать событие в заданный топик и получить результат отправки.
+     *
+     * @return future, которое завершается после подтверждения записи брокером или с ошибкой отправки
+     */
+    CompletableFuture<RecordMetadata> publishEventAsync(Event event, String topic);
+
+    /**
+     * Опубликовать пачку событий.
+     * Топики вычисляются по классам событий; записи отправляются сгруппированными по топикам и партициям,
+     * чтобы они попадали в одни и те же батчи продюсера. Порядок событий с одинаковым ключом сохраняется.
+     * Метод не ждет завершения отправки.
+     *
+     * @return future-ы результатов отправки в порядке событий в коллекции
+     */
+    List<CompletableFuture<RecordMetadata>> publishEvents(Collection<? extends Event> events);
+
+    /**
+     * Опубликовать события атомарно: потребители с isolation.level=read_committed получат либо все события, либо ни одного.
+     * Топики вычисляются по классам событий.
+     * Транзакции разных вызовов, поступившие в течение окна (см. {@link KafkaPublisherProperties.Transactions}),
+     * фиксируются одной транзакцией кафки, поэтому фиксация не выполняется на каждый вызов.
+     * Порядок событий транзакции относительно событий, опубликованных без транзакции, не гарантируется.
+     * Если транзакция кафки прервана, то ее транзакции публикуются повторно по отдельности, поэтому потребители
+     * должны читать только зафиксированные события (см. {@link kafkablocks.EventTopicProperties#isReadCommitted()}).
+     *
+     * @return future, которое завершается результатами отправки в порядке событий после фиксации транзакции
+     * или с ошибкой, если транзакция не зафиксирована
+     * @throws IllegalStateException если транзакционная публикация не включена
+     */
+    CompletableFuture<List<RecordMetadata>> publishTransactionally(Collection<? extends Event> events);
+
+    /**
+     * Опубликовать атомарно события, которые добавлены в транзакцию в callback-е
+     * (см. {@link #publishTransactionally(Collection)}).
+     * Если callback выбросил исключение, то события не публикуются, а исключение выбрасывается из метода
+     *
+     * @return future, которое завершается результатами отправки в порядке добавления событий
+     */
+    CompletableFuture<List<RecordMetadata>> inTransaction(Consumer<EventTransaction> callback);
+
+    /**
+     * Отправить все накопленные продюсером записи и дождаться завершения их отправки
+     * (future-ы всех ранее опубликованных событий будут завершены)
+     */
+    void flush();
+
+    /**
+     * Текущая загрузка публикатора по общим лимитам событий "в полете" (см. {@link KafkaPublisherProperties.Backpressure}):
+     * от 0 (нет событий в полете или лимиты не заданы) до 1 (лимит достигнут).
+     * Генераторы событий могут использовать ее, чтобы плавно снижать темп публикации.
+     */
+    double getPressure();
+
+    /**
+     * Текущая загрузка публикатора с учетом лимитов топика
+     */
+    double getPressure(String topic);
 }
@@ -1,10 +1,21 @@
 package kafkablocks.publisher;
 
 import lombok.Setter;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -14,45 +25,295 @@ import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
-import org.springframework.util.concurrent.ListenableFuture;
-import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.Assert;
 import kafkablocks.events.Event;
 import kafkablocks.EventTopicProperties;
+import kafkablocks.serialization.EventChunk;
+import kafkablocks.serialization.EventEnvelope;
+import kafkablocks.serialization.EventHeaders;
 import kafkablocks.serialization.SerdeProvider;
+import kafkablocks.serialization.SerdeRegistry;
+import kafkablocks.serialization.SerializedEvent;
+import kafkablocks.serialization.delta.DeltaEncoder;
+import kafkablocks.utils.ClassUtils;
 
 import javax.annotation.PostConstruct;
-import java.util.UUID;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
 
 @Component
-@EnableConfigurationProperties(EventTopicProperties.class)
+@EnableConfigurationProperties({EventTopicProperties.class, KafkaPublisherProperties.class})
 public class KafkaPublisherImpl implements KafkaPublisher {
     @Setter
     private Logger logger = LoggerFactory.getLogger(KafkaPublisherImpl.class);
     private final EventTopicProperties eventTopicProperties;
     private final KafkaProperties kafkaProperties;
     /**
-     * Обертка для отправки сообщений в Кафку
+     * Сериализатор значений
      */
-    private final KafkaTemplate<String, Event> kafkaTemplate;
+    private final Serializer<Event> valueSerializer = SerdeProvider.getSerializer();
+    /**
+     * Обертки для отправки сообщений в Кафку: по одной на каждый продюсер (шард)
+     */
+    private final KafkaTemplate<String, Event>[] shards;
+    /**
+     * Счетчики отправки по шардам
+     */
+    private final ProducerShardMetrics.Counters[] shardCounters;
+    /**
+     * Фабрики продюсеров шардов, которые создал публикатор и которые он должен закрыть
+     */
+    private final List<ProducerFactory<String, Event>> ownedFactories = new ArrayList<>();
+    /**
+     * Таблица: топик -> кол-во его партиций
+     */
+    private final Map<String, Integer> partitionCounts = new ConcurrentHashMap<>();
+    /**
+     * Счетчик для распределения по шардам записей без ключа
+     */
+    private final AtomicInteger nextShard = new AtomicInteger();
+    /**
+     * Ограничитель событий в полете или null, если лимиты не заданы
+     */
+    private final InFlightLimiter inFlightLimiter;
+    /**
+     * Спул неотправленных событий или null, если спул не используется
+     */
+    private final EventSpool spool;
+    private final SpoolReplayer spoolReplayer;
+    /**
+     * Регулятор частоты отправки накопленных записей или null, если подстройка выключена
+     */
+    private final AdaptiveBatchController batchController;
+    /**
+     * Максимальный размер батча продюсера (байт)
+     */
+    private final int batchSize;
+    /**
+     * Накопитель конвертов событий или null, если события не публикуются в конвертах
+     */
+    private final EnvelopeAccumulator envelopeAccumulator;
+    /**
+     * Кодировщик дельта-кадров или null, если события не публикуются с дельта-кодированием
+     */
+    private final DeltaEncoder deltaEncoder;
+    /**
+     * Размер части больших событий (байт) или 0, если события не публикуются частями
+     */
+    private final int chunkSize;
+    /**
+     * Конвейер сериализации событий или null, если события сериализует продюсер
+     */
+    private final SerializationPipeline serializationPipeline;
+    /**
+     * Транзакционный продюсер или null, если транзакционная публикация не включена
+     */
+    private final KafkaTemplate<String, Event> transactionalTemplate;
+    /**
+     * Групповой фиксатор транзакций или null, если транзакционная публикация не включена
+     */
+    private final TransactionBatcher transactionBatcher;
 
+    public KafkaPublisherImpl(
+            EventTopicProperties eventTopicProperties,
+            KafkaProperties kafkaProperties,
+            ProducerFactory<String, Event> producerFactory,
+            KafkaAdmin admin) {
+        this(eventTopicProperties, kafkaProperties, new KafkaPublisherProperties(), producerFactory, admin);
+    }
 
     @Autowired
     public KafkaPublisherImpl(
             EventTopicProperties eventTopicProperties,
             KafkaProperties kafkaProperties,
+            KafkaPublisherProperties publisherProperties,
             ProducerFactory<String, Event> producerFactory,
             KafkaAdmin admin) {
+        this(eventTopicProperties, kafkaProperties, publisherProperties,
+                shard -> shard == 0 ? producerFactory : copyProducerFactory(producerFactory, shard), admin);
+    }
+
+    /**
+     * @param shardFactories функция, которая возвращает фабрику продюсеров для шарда по его номеру
+     *                       (от 0 до {@link KafkaPublisherProperties#getProducerCount()} - 1).
+     *                       Фабрики шардов, кроме нулевого, закрываются публикатором
+     */
+    @SuppressWarnings("unchecked")
+    public KafkaPublisherImpl(
+            EventTopicProperties eventTopicProperties,
+            KafkaProperties kafkaProperties,
+            KafkaPublisherProperties publisherProperties,
+            IntFunction<ProducerFactory<String, Event>> shardFactories,
+            KafkaAdmin admin) {
 
         this.eventTopicProperties = eventTopicProperties;
         this.kafkaProperties = kafkaProperties;
-        this.kafkaTemplate = initKafkaTemplate(producerFactory);
 
-        admin.setFatalIfBrokerNotAvailable(true);
+        KafkaPublisherProperties.AdaptiveBatching adaptiveBatching = publisherProperties.getAdaptiveBatching();
+        int producerCount = publisherProperties.getProducerCount();
+        Map<String, Object> mainConfigs = null;
+        this.shards = new KafkaTemplate[producerCount];
+        this.shardCounters = new ProducerShardMetrics.Counters[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            ProducerFactory<String, Event> producerFactory = shardFactories.apply(i);
+            if (i > 0) {
+                ownedFactories.add(producerFactory);
+            } else {
+                mainConfigs = producerFactory.getConfigurationProperties();
+            }
+            shards[i] = initKafkaTemplate(producerFactory);
+            shardCounters[i] = new ProducerShardMetrics.Counters();
+        }
+
+        KafkaPublisherProperties.Backpressure backpressure = publisherProperties.getBackpressure();
+        this.inFlightLimiter = backpressure.isEnabled()
+                ? new InFlightLimiter(backpressure, logger)
+                : null;
+
+        KafkaPublisherProperties.Spool spoolProperties = publisherProperties.getSpool();
+        if (spoolProperties.isEnabled()) {
+            this.spool = new EventSpool(spoolProperties.getDir(),
+                    (int) spoolProperties.getSegmentSize().toBytes(), spoolProperties.isForceOnAppend());
+            this.spoolReplayer = new SpoolReplayer(spool, this::replay, spoolProperties, logger);
+        } else {
+            this.spool = null;
+            this.spoolReplayer = null;
+        }
+
+        this.batchSize = getIntConfig(mainConfigs, ProducerConfig.BATCH_SIZE_CONFIG, 16384);
+        if (adaptiveBatching.isEnabled()) {
+            checkLinger(mainConfigs, adaptiveBatching);
+            this.batchController = new AdaptiveBatchController(
+                    adaptiveBatching, this::flush, this::getBatchFillRatio, this::getRequestRate, logger);
+            batchController.start();
+        } else {
+            this.batchController = null;
+        }
+
+        this.envelopeAccumulator = eventTopicProperties.hasEnvelopes()
+                ? new EnvelopeAccumulator(eventTopicProperties.getEnvelope(), this::send, logger)
+                : null;
+
+        EventTopicProperties.Delta delta = eventTopicProperties.getDelta();
+        this.deltaEncoder = eventTopicProperties.hasDeltaCoded()
+                ? new DeltaEncoder(delta.getKeyframeInterval(), delta.getMaxDeltas())
+                : null;
+
+        this.chunkSize = eventTopicProperties.isChunkingEnabled()
+                ? (int) eventTopicProperties.getChunking().getChunkSize().toBytes()
+                : 0;
+
+        this.serializationPipeline = publisherProperties.getSerialization().isEnabled()
+                ? new SerializationPipeline(publisherProperties.getSerialization(), this::preSerialize, this::send, logger)
+                : null;
+
+        KafkaPublisherProperties.Transactions transactions = publisherProperties.getTransactions();
+        if (transactions.isEnabled()) {
+            this.transactionalTemplate = initKafkaTemplate(createTransactionalFactory(mainConfigs, transactions));
+            this.transactionBatcher = new TransactionBatcher(transactions, this::sendInTransaction, logger);
+            if (!eventTopicProperties.isReadCommitted()) {
+                logger.warn("Transactional publishing is enabled, but consumers read uncommitted events: "
+                        + "events of aborted transactions will be received twice (see read-committed property)");
+            }
+        } else {
+            this.transactionalTemplate = null;
+            this.transactionBatcher = null;
+        }
+
+        // со спулом публикатор может работать и без брокера: события будут отправлены, когда брокер станет доступен
+        admin.setFatalIfBrokerNotAvailable(spool == null);
     }
 
     @PostConstruct
     private void init() {
-        eventTopicProperties.ensureTopicsExist(kafkaProperties);
+        try {
+            eventTopicProperties.ensureTopicsExist(kafkaProperties);
+        } catch (RuntimeException e) {
+            if (spool == null)
+                throw e;
+
+            logger.warn("Unable to check that topics exist, events will be spooled until broker is available", e);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() throws Exception {
+        if (envelopeAccumulator != null) {
+            envelopeAccumulator.close();
+        }
+
+        if (serializationPipeline != null) {
+            serializationPipeline.close();
+        }
+
+        if (transactionBatcher != null) {
+            transactionBatcher.close();
+        }
+
+        if (inFlightLimiter != null) {
+            inFlightLimiter.close();
+        }
+
+        if (spool != null) {
+            spoolReplayer.stop();
+            spool.close();
+        }
+
+        if (batchController != null) {
+            batchController.close();
+        }
+
+        for (ProducerFactory<String, Event> producerFactory : ownedFactories) {
+            if (producerFactory instanceof DisposableBean) {
+                ((DisposableBean) producerFactory).destroy();
+            }
+        }
+    }
+
+    /**
+     * Создать фабрику продюсеров для шарда с теми же настройками, что и у основной фабрики
+     */
+    private static ProducerFactory<String, Event> copyProducerFactory(
+            ProducerFactory<String, Event> producerFactory, int shard) {
+
+        Map<String, Object> configs = new HashMap<>(producerFactory.getConfigurationProperties());
+        // у каждого продюсера должен быть свой client.id, иначе их JMX-метрики конфликтуют
+        Object clientId = configs.getOrDefault(ProducerConfig.CLIENT_ID_CONFIG, "kafkablocks-publisher");
+        configs.put(ProducerConfig.CLIENT_ID_CONFIG, clientId + "-" + shard);
+        return new DefaultKafkaProducerFactory<>(configs);
+    }
+
+    /**
+     * Создать фабрику транзакционных продюсеров с теми же настройками, что и у основной фабрики
+     */
+    private ProducerFactory<String, Event> createTransactionalFactory(
+            Map<String, Object> mainConfigs, KafkaPublisherProperties.Transactions transactions) {
+
+        Assert.hasText(transactions.getTransactionIdPrefix(), "transactionIdPrefix must be set for transactions");
+        Map<String, Object> configs = new HashMap<>(mainConfigs);
+        Object clientId = configs.getOrDefault(ProducerConfig.CLIENT_ID_CONFIG, "kafkablocks-publisher");
+        configs.put(ProducerConfig.CLIENT_ID_CONFIG, clientId + "-tx");
+
+        DefaultKafkaProducerFactory<String, Event> producerFactory = new DefaultKafkaProducerFactory<>(configs);
+        producerFactory.setTransactionIdPrefix(transactions.getTransactionIdPrefix());
+        ownedFactories.add(producerFactory);
+        return producerFactory;
     }
 
     private KafkaTemplate<String, Event> initKafkaTemplate(ProducerFactory<String, Event> producerFactory) {
@@ -60,7 +321,7 @@ public class KafkaPublisherImpl implements KafkaPublisher {
         DefaultKafkaProducerFactory<String, Event> defaultKafkaProducerFactory =
                 (DefaultKafkaProducerFactory<String, Event>) producerFactory;
         defaultKafkaProducerFactory.setKeySerializer(new StringSerializer());
-        defaultKafkaProducerFactory.setValueSerializer(SerdeProvider.getSerializer());
+        defaultKafkaProducerFactory.setValueSerializer(valueSerializer);
 
         return new KafkaTemplate<>(producerFactory);
     }
@@ -68,45 +329,627 @@ public class KafkaPublisherImpl implements KafkaPublisher {
     @Override
     public void publishEvent(Event event) {
         assertEvent(event);
-        publishEvent(event, eventTopicProperties.resolveTopicByEvent(event), false);
+        String topic = eventTopicProperties.resolveTopicByEvent(event);
+        if (isEnveloped(event)) {
+            envelopeAccumulator.add(event, topic);
+        } else {
+            submit(createRecord(event, topic, false));
+        }
     }
 
     @Override
     public void publishEvent(Event event, String topic) {
         assertEvent(event);
-        publishEvent(event, topic, true);
+        if (isEnveloped(event)) {
+            envelopeAccumulator.add(event, topic);
+        } else {
+            submit(createRecord(event, topic, true));
+        }
+    }
+
+    @Override
+    public CompletableFuture<RecordMetadata> publishEventAsync(Event event) {
+        assertEvent(event);
+        return sendAsync(createRecord(event, eventTopicProperties.resolveTopicByEvent(event), false));
+    }
+
+    @Override
+    public CompletableFuture<RecordMetadata> publishEventAsync(Event event, String topic) {
+        assertEvent(event);
+        return sendAsync(createRecord(event, topic, true));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<CompletableFuture<RecordMetadata>> publishEvents(Collection<? extends Event> events) {
+        Assert.notNull(events, "events is null");
+
+        List<ProducerRecord<String, Event>> records = new ArrayList<>(events.size());
+        for (Event event : events) {
+            assertEvent(event);
+            records.add(createRecord(event, eventTopicProperties.resolveTopicByEvent(event), false));
+        }
+
+        CompletableFuture<RecordMetadata>[] futures = new CompletableFuture[records.size()];
+        for (List<Integer> group : groupByPartition(records)) {
+            for (int index : group) {
+                futures[index] = sendAsync(records.get(index));
+            }
+        }
+
+        return Arrays.asList(futures);
+    }
+
+    @Override
+    public CompletableFuture<List<RecordMetadata>> publishTransactionally(Collection<? extends Event> events) {
+        Assert.notNull(events, "events is null");
+
+        List<ProducerRecord<String, Event>> records = new ArrayList<>(events.size());
+        for (Event event : events) {
+            assertEvent(event);
+            records.add(createRecord(event, eventTopicProperties.resolveTopicByEvent(event), false));
+        }
+
+        return submitTransaction(records);
+    }
+
+    @Override
+    public CompletableFuture<List<RecordMetadata>> inTransaction(Consumer<EventTransaction> callback) {
+        Assert.notNull(callback, "callback is null");
+
+        List<ProducerRecord<String, Event>> records = new ArrayList<>();
+        callback.accept(new EventTransaction() {
+            @Override
+            public void publishEvent(Event event) {
+                assertEvent(event);
+                records.add(createRecord(event, eventTopicProperties.resolveTopicByEvent(event), false));
+            }
+
+            @Override
+            public void publishEvent(Event event, String topic) {
+                assertEvent(event);
+                records.add(createRecord(event, topic, true));
+            }
+        });
+
+        return submitTransaction(records);
+    }
+
+    private CompletableFuture<List<RecordMetadata>> submitTransaction(List<ProducerRecord<String, Event>> records) {
+        if (transactionBatcher == null)
+            throw new IllegalStateException("Transactions are not enabled");
+
+        return transactionBatcher.submit(records);
+    }
+
+    /**
+     * Отправить записи одной транзакцией кафки (выполняется в потоке группового фиксатора транзакций).
+     * Записи отправляются как есть: без конвертов, дельта-кодирования, частей и спула
+     *
+     * @return результаты отправки в порядке записей
+     */
+    private List<RecordMetadata> sendInTransaction(List<ProducerRecord<String, Event>> records) {
+        return transactionalTemplate.executeInTransaction(operations -> {
+            List<CompletableFuture<SendResult<String, Event>>> futures = new ArrayList<>(records.size());
+            for (ProducerRecord<String, Event> record : records) {
+                futures.add(operations.send(record).completable());
+            }
+
+            // не ждем linger.ms: транзакция фиксируется, только если все записи отправлены
+            operations.flush();
+            List<RecordMetadata> result = new ArrayList<>(records.size());
+            for (CompletableFuture<SendResult<String, Event>> future : futures) {
+                result.add(future.join().getRecordMetadata());
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public void flush() {
+        if (envelopeAccumulator != null) {
+            envelopeAccumulator.flush();
+        }
+
+        if (serializationPipeline != null) {
+            serializationPipeline.drain();
+        }
+
+        for (KafkaTemplate<String, Event> shard : shards) {
+            shard.flush();
+        }
     }
 
-    private void publishEvent(Event event, String topic, boolean checkTopicExistence) {
+    @Override
+    public double getPressure() {
+        return inFlightLimiter == null ? 0 : inFlightLimiter.getPressure();
+    }
+
+    @Override
+    public double getPressure(String topic) {
+        return inFlightLimiter == null ? 0 : inFlightLimiter.getPressure(topic);
+    }
+
+    /**
+     * Получить метрики продюсеров (шардов) публикатора
+     */
+    public List<ProducerShardMetrics> getShardMetrics() {
+        List<ProducerShardMetrics> metrics = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            metrics.add(new ProducerShardMetrics(i, shardCounters[i], shards[i].metrics()));
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Получить метрики адаптивной подстройки отправки или null, если подстройка выключена
+     */
+    public BatchingMetrics getBatchingMetrics() {
+        return batchController == null ? null : batchController.getMetrics();
+    }
+
+    /**
+     * Средняя доля заполнения батчей продюсеров
+     */
+    private double getBatchFillRatio() {
+        double sum = 0;
+        int count = 0;
+        for (KafkaTemplate<String, Event> shard : shards) {
+            double batchSizeAvg = getProducerMetric(shard, "batch-size-avg");
+            if (!Double.isNaN(batchSizeAvg)) {
+                sum += batchSizeAvg;
+                count++;
+            }
+        }
+
+        return count == 0 ? Double.NaN : sum / count / batchSize;
+    }
+
+    /**
+     * Суммарная частота запросов продюсеров к брокеру
+     */
+    private double getRequestRate() {
+        double sum = 0;
+        for (KafkaTemplate<String, Event> shard : shards) {
+            double requestRate = getProducerMetric(shard, "request-rate");
+            if (!Double.isNaN(requestRate)) {
+                sum += requestRate;
+            }
+        }
+
+        return sum;
+    }
+
+    private static double getProducerMetric(KafkaTemplate<String, Event> shard, String name) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : shard.metrics().entrySet()) {
+            MetricName metricName = metric.getKey();
+            if (metricName.name().equals(name) && metricName.group().equals("producer-metrics")) {
+                Object value = metric.getValue().metricValue();
+                return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+            }
+        }
+
+        return Double.NaN;
+    }
+
+    private void checkLinger(Map<String, Object> configs, KafkaPublisherProperties.AdaptiveBatching adaptiveBatching) {
+        int lingerMs = getIntConfig(configs, ProducerConfig.LINGER_MS_CONFIG, 0);
+        if (lingerMs < adaptiveBatching.getMaxInterval().toMillis()) {
+            logger.warn("Producer linger.ms ({}) is less than max interval of adaptive batching ({} ms), "
+                    + "so the producer sends batches before the publisher does", lingerMs,
+                    adaptiveBatching.getMaxInterval().toMillis());
+        }
+    }
+
+    private static int getIntConfig(Map<String, Object> configs, String name, int defaultValue) {
+        Object value = configs == null ? null : configs.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value.toString());
+    }
+
+    /**
+     * Сгруппировать записи по топикам и партициям, в которые их отправит продюсер.
+     * Партиция вычисляется так же, как это делает партиционер по умолчанию для строковых ключей;
+     * записи без ключа группируются по топику.
+     * Сама партиция в записях не задается, поэтому, если настроен другой партиционер, то меняется только порядок отправки.
+     *
+     * @return группы индексов записей; порядок записей внутри группы сохраняется
+     */
+    private Collection<List<Integer>> groupByPartition(List<ProducerRecord<String, Event>> records) {
+        Map<TopicPartition, List<Integer>> groups = new LinkedHashMap<>();
+
+        for (int i = 0; i < records.size(); i++) {
+            ProducerRecord<String, Event> record = records.get(i);
+            int partition = record.key() == null ? -1 : getPartition(record);
+            groups.computeIfAbsent(new TopicPartition(record.topic(), partition), tp -> new ArrayList<>()).add(i);
+        }
+
+        return groups.values();
+    }
+
+    /**
+     * Вычислить партицию записи с ключом так же, как это делает партиционер по умолчанию
+     * (если партиция записи задана явно, то она и возвращается).
+     * Кол-во партиций топика запоминается при первом обращении
+     */
+    private int getPartition(ProducerRecord<String, Event> record) {
+        if (record.partition() != null)
+            return record.partition();
+
+        int partitionCount = getPartitionCount(record.topic());
+        return Utils.toPositive(Utils.murmur2(record.key().getBytes(StandardCharsets.UTF_8))) % partitionCount;
+    }
+
+    private int getPartitionCount(String topic) {
+        return partitionCounts.computeIfAbsent(topic, t -> shards[0].partitionsFor(t).size());
+    }
+
+    /**
+     * Выбрать шард для записи.
+     * Записи одной партиции всегда отправляет один и тот же продюсер: так сохраняется порядок событий ключа,
+     * а батчи партиции не дробятся между продюсерами. Записи без ключа и партиции распределяются по очереди
+     */
+    private int getShard(ProducerRecord<String, Event> record) {
+        if (shards.length == 1)
+            return 0;
+
+        if (record.key() == null && record.partition() == null)
+            return Math.floorMod(nextShard.getAndIncrement(), shards.length);
+
+        int hash = 31 * record.topic().hashCode() + getPartition(record);
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    private ProducerRecord<String, Event> createRecord(Event event, String topic, boolean checkTopicExistence) {
         if (checkTopicExistence) {
             // todo проверять наличие топика.
             //  результаты проверки запоминать, чтобы не проверять постоянно
             //  и в эти результаты добавить топики, которые вычисляем автоматически
         }
 
+        ProducerRecord<String, Event> record = new ProducerRecord<>(topic, event.getKey(), event);
+        // метаданные события пишем в заголовки, чтобы потребители могли фильтровать события без их десериализации
+        EventHeaders.write(record.headers(), event);
+        return record;
+    }
+
+    /**
+     * Отправить запись: через конвейер сериализации, если он используется, иначе сразу
+     */
+    private CompletableFuture<RecordMetadata> submit(ProducerRecord<String, Event> record) {
+        return serializationPipeline == null
+                ? send(record)
+                : serializationPipeline.submit(record);
+    }
+
+    /**
+     * Сериализовать событие записи (выполняется в потоке конвейера сериализации).
+     * Событие с дельта-кодированием кодируется при отправке, т.к. кадр зависит от предыдущих кадров ключа
+     *
+     * @return запись с сериализованным событием и заголовками, которые добавлены при сериализации
+     */
+    private ProducerRecord<String, Event> preSerialize(ProducerRecord<String, Event> record) {
+        if (isDeltaCoded(record) || record.value() instanceof EventEnvelope)
+            return record;
+
+        byte[] data = valueSerializer.serialize(record.topic(), record.headers(), record.value());
+        return new ProducerRecord<>(record.topic(), record.partition(), record.timestamp(), record.key(),
+                new SerializedEvent(record.value(), data), record.headers());
+    }
+
+    /**
+     * Отправить запись с учетом лимитов событий в полете.
+     * Ошибки, которые возникли до отправки (например, при сериализации или из-за лимитов), выбрасываются из метода.
+     * Если используется спул, то записи, которые не удалось отправить, сохраняются в него
+     */
+    private CompletableFuture<RecordMetadata> send(ProducerRecord<String, Event> record) {
+        Event event = record.value();
         String id = event.getId();
-        logger.debug("[{}] Sending event to topic '{}': {}", id, topic, event);
+        logger.debug("[{}] Sending event to topic '{}': {}", id, record.topic(), event);
 
-        // TODO: проанализировать результат и вернуть из текущего метода признак успешности отправки сообщения
-        ListenableFuture<SendResult<String, Event>> future = kafkaTemplate.send(topic, event.getKey(), event);
+        CompletableFuture<RecordMetadata> future;
+        if (spool == null) {
+            future = sendLimited(record);
+        } else if (spool.hasPending()) {
+            // пока в спуле есть неотправленные события, новые события встают за ними, чтобы сохранить порядок
+            future = spoolRecord(record, null);
+        } else {
+            CompletableFuture<RecordMetadata> sent;
+            try {
+                sent = sendLimited(record);
+            } catch (BackpressureException e) {
+                sent = new CompletableFuture<>();
+                sent.completeExceptionally(e);
+            }
 
-        future.addCallback(new ListenableFutureCallback<SendResult<String, Event>>() {
-            @Override
-            public void onSuccess(final SendResult<String, Event> message) {
-                RecordMetadata recordMetadata = message.getRecordMetadata();
-                logger.debug("[{}#{}] Event was successfully sent: partition={}, offset={}, key={}",
-                        id,
-                        event.getClass().getSimpleName(),
-                        recordMetadata.partition(),
-                        recordMetadata.offset(),
-                        event.getKey());
+            CompletableFuture<RecordMetadata> result = sent;
+            future = sent
+                    .handle((recordMetadata, e) -> e == null || !isSpoolable(e) ? result : spoolRecord(record, e))
+                    .thenCompose(Function.identity());
+        }
+
+        future.whenComplete((recordMetadata, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof EventSpooledException) {
+                    logger.warn("[{}] Event was not sent and was saved to spool: {}", id,
+                            cause.getCause() == null ? "spool is not empty" : cause.getCause().getMessage());
+                } else if (cause instanceof BackpressureException) {
+                    logger.warn("[{}] Event was not sent: {}", id, cause.getMessage());
+                } else {
+                    logger.error("[{}] Unable to send event", id, cause);
+                }
+                return;
             }
 
-            @Override
-            public void onFailure(final Throwable throwable) {
-                logger.error("[{}] Unable to send event", id, throwable);
+            logger.debug("[{}#{}] Event was successfully sent: partition={}, offset={}, key={}",
+                    id,
+                    event.getClass().getSimpleName(),
+                    recordMetadata.partition(),
+                    recordMetadata.offset(),
+                    event.getKey());
+        });
+
+        return future;
+    }
+
+    private CompletableFuture<RecordMetadata> sendLimited(ProducerRecord<String, Event> record) {
+        return inFlightLimiter == null
+                ? sendToProducer(record, null)
+                : inFlightLimiter.send(record, this::sendToProducer);
+    }
+
+    /**
+     * Отправить запись продюсеру
+     *
+     * @param sentBytes получает объем каждой отправленной записи или null, если объем не нужен
+     */
+    private CompletableFuture<RecordMetadata> sendToProducer(ProducerRecord<String, Event> record, IntConsumer sentBytes) {
+        if (isDeltaCoded(record))
+            return sendDeltaFrame(record, sentBytes);
+
+        if (chunkSize > 0 && !(record.value() instanceof EventEnvelope))
+            return sendChunked(record, sentBytes);
+
+        return sendToShard(record, sentBytes);
+    }
+
+    /**
+     * Отправить событие дельта-кадром.
+     * События кодируются здесь, т.е. в порядке отправки: кадр ключа кодируется и отправляется под блокировкой ключа,
+     * а если отправка не удалась, то следующий кадр ключа будет опорным
+     */
+    private CompletableFuture<RecordMetadata> sendDeltaFrame(ProducerRecord<String, Event> record, IntConsumer sentBytes) {
+        String topic = record.topic();
+        String key = record.key();
+        synchronized (deltaEncoder.getLock(topic, key)) {
+            CompletableFuture<RecordMetadata> future;
+            try {
+                long timestamp = record.timestamp() != null ? record.timestamp() : System.currentTimeMillis();
+                byte[] frame = deltaEncoder.encode(topic, key, record.value(), timestamp);
+                future = sendToShard(new ProducerRecord<>(topic, record.partition(), timestamp, key,
+                        new SerializedEvent(record.value(), frame), record.headers()), sentBytes);
+            } catch (RuntimeException e) {
+                deltaEncoder.reset(topic, key);
+                throw e;
+            }
+
+            future.whenComplete((recordMetadata, e) -> {
+                if (e != null) {
+                    synchronized (deltaEncoder.getLock(topic, key)) {
+                        deltaEncoder.reset(topic, key);
+                    }
+                }
+            });
+            return future;
+        }
+    }
+
+    private boolean isDeltaCoded(ProducerRecord<String, Event> record) {
+        return deltaEncoder != null
+                && record.key() != null
+                && !(record.value() instanceof EventEnvelope)
+                && eventTopicProperties.isDeltaCoded(record.value().getClass());
+    }
+
+    /**
+     * Отправить событие, которое больше размера части, несколькими записями (см. {@link EventChunk}).
+     * Событие сериализуется здесь, чтобы узнать его размер (если оно еще не сериализовано);
+     * события меньшего размера отправляются как есть
+     */
+    private CompletableFuture<RecordMetadata> sendChunked(ProducerRecord<String, Event> record, IntConsumer sentBytes) {
+        String topic = record.topic();
+        String key = record.key();
+        Event event = record.value();
+        Headers headers = new RecordHeaders(record.headers().toArray());
+        byte[] data = valueSerializer.serialize(topic, headers, event);
+        if (data == null || data.length <= chunkSize)
+            return sendToShard(new ProducerRecord<>(
+                    topic, record.partition(), record.timestamp(), key, new SerializedEvent(event, data), headers),
+                    sentBytes);
+
+        // все части отправляются в одну партицию (а значит, и одним продюсером) с одной временной меткой
+        Integer partition = record.partition() != null || key != null
+                ? record.partition()
+                : (Integer) ThreadLocalRandom.current().nextInt(getPartitionCount(topic));
+        long timestamp = record.timestamp() != null ? record.timestamp() : System.currentTimeMillis();
+
+        List<EventChunk.Chunked> chunks = EventChunk.split(data, headers, chunkSize);
+        logger.debug("[{}] Sending event of {} bytes to topic '{}' in {} chunks",
+                event.getId(), data.length, topic, chunks.size());
+
+        CompletableFuture<?>[] futures = new CompletableFuture[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            EventChunk.Chunked chunk = chunks.get(i);
+            futures[i] = sendToShard(new ProducerRecord<>(
+                    topic, partition, timestamp, key, new SerializedEvent(event, chunk.getData()), chunk.getHeaders()),
+                    sentBytes);
+        }
+
+        @SuppressWarnings("unchecked")
+        CompletableFuture<RecordMetadata> last = (CompletableFuture<RecordMetadata>) futures[futures.length - 1];
+        return CompletableFuture.allOf(futures).thenCompose(v -> last);
+    }
+
+    /**
+     * @param sentBytes получает объем записи или null, если объем не нужен;
+     *                  чтобы узнать объем, значение сериализуется до передачи продюсеру
+     */
+    private CompletableFuture<RecordMetadata> sendToShard(ProducerRecord<String, Event> record, IntConsumer sentBytes) {
+        if (sentBytes != null) {
+            record = serialize(record);
+            sentBytes.accept(getSerializedSize(record.value()));
+        }
+
+        int shard = getShard(record);
+        long startTime = System.nanoTime();
+        CompletableFuture<RecordMetadata> future = shards[shard].send(record)
+                .completable()
+                .thenApply(SendResult::getRecordMetadata);
+
+        ProducerShardMetrics.Counters counters = shardCounters[shard];
+        counters.onSend();
+        future.whenComplete((recordMetadata, e) -> {
+            counters.onComplete(e == null);
+            if (e == null && batchController != null) {
+                batchController.recordLatency(System.nanoTime() - startTime);
             }
         });
+        return future;
+    }
+
+    /**
+     * Сериализовать значение записи, если оно еще не сериализовано
+     */
+    private ProducerRecord<String, Event> serialize(ProducerRecord<String, Event> record) {
+        Event value = record.value();
+        if (value instanceof SerializedEvent || value instanceof EventEnvelope)
+            return record;
+
+        byte[] data = valueSerializer.serialize(record.topic(), record.headers(), value);
+        return new ProducerRecord<>(record.topic(), record.partition(), record.timestamp(), record.key(),
+                new SerializedEvent(value, data), record.headers());
+    }
+
+    private static int getSerializedSize(Event value) {
+        byte[] data = value instanceof EventEnvelope
+                ? ((EventEnvelope) value).getData()
+                : ((SerializedEvent) value).getData();
+        return data == null ? 0 : data.length;
+    }
+
+    //region Spool
+
+    /**
+     * Можно ли отправить событие позже, т.е. отправка не удалась из-за временной недоступности брокера или лимитов
+     */
+    private static boolean isSpoolable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BackpressureException)
+                // событие, вытесненное более новым событием ключа, отправлять уже не нужно
+                return !((BackpressureException) cause).isSuperseded();
+            if (cause instanceof RetriableException)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Сохранить запись в спул
+     *
+     * @param cause причина, по которой запись не отправлена, или null, если в спуле есть неотправленные записи
+     * @return future, завершенное с {@link EventSpooledException} или с ошибкой сохранения
+     */
+    private CompletableFuture<RecordMetadata> spoolRecord(ProducerRecord<String, Event> record, Throwable cause) {
+        CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+        try {
+            Headers headers = new RecordHeaders(record.headers().toArray());
+            byte[] value = valueSerializer.serialize(record.topic(), headers, record.value());
+            Event event = record.value() instanceof SerializedEvent
+                    ? ((SerializedEvent) record.value()).getEvent()
+                    : record.value();
+            spool.append(new EventSpool.Entry(
+                    record.topic(), record.key(), event.getClass().getName(), headers, value));
+
+            future.completeExceptionally(new EventSpooledException("Event was saved to spool", cause));
+        } catch (RuntimeException e) {
+            if (cause != null) {
+                e.addSuppressed(cause);
+            }
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Отправить запись из спула
+     */
+    private CompletableFuture<RecordMetadata> replay(EventSpool.Entry entry) {
+        if (EventEnvelope.isEnvelope(entry.getHeaders()))
+            return replayEnvelope(entry);
+
+        Event event;
+        try {
+            Class<? extends Event> eventClass = ClassUtils.loadClass(entry.getEventClassName(), Event.class);
+            event = SerdeRegistry.getInstance().forType(eventClass).deserialize(entry.getHeaders(), entry.getValue());
+        } catch (RuntimeException e) {
+            // повторять отправку такой записи бесполезно, поэтому пропускаем ее
+            logger.error("Unable to read event from spool, the event is skipped", e);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        logger.debug("[{}] Replaying event from spool to topic '{}'", event.getId(), entry.getTopic());
+        return sendLimited(createRecord(event, entry.getTopic(), false));
+    }
+
+    /**
+     * Отправить конверт событий из спула как есть
+     */
+    private CompletableFuture<RecordMetadata> replayEnvelope(EventSpool.Entry entry) {
+        EventEnvelope envelope;
+        try {
+            envelope = EventEnvelope.wrap(entry.getKey(), entry.getValue());
+        } catch (RuntimeException e) {
+            logger.error("Unable to read envelope of events from spool, the envelope is skipped", e);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        logger.debug("Replaying envelope of {} events from spool to topic '{}'", envelope.getCount(), entry.getTopic());
+        return sendLimited(new ProducerRecord<>(
+                entry.getTopic(), null, envelope.getLastTimestamp(), entry.getKey(), envelope, entry.getHeaders()));
+    }
+
+    //endregion
+
+    /**
+     * Публикуется ли событие в конверте (см. {@link EnvelopeAccumulator}).
+     * События без ключа всегда публикуются отдельными записями
+     */
+    private boolean isEnveloped(Event event) {
+        return envelopeAccumulator != null
+                && event.getKey() != null
+                && eventTopicProperties.isEnveloped(event.getClass());
+    }
+
+    /**
+     * Отправить запись (событие записи в конверте, если события ее класса публикуются в конвертах);
+     * ошибки, которые возникли до отправки, возвращаются через future
+     */
+    private CompletableFuture<RecordMetadata> sendAsync(ProducerRecord<String, Event> record) {
+        try {
+            if (isEnveloped(record.value()))
+                return envelopeAccumulator.add(record.value(), record.topic());
+
+            return submit(record);
+        } catch (Exception e) {
+            logger.error("[{}] Unable to send event", record.value().getId(), e);
+
+            CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
     }
 
     private static void assertEvent(Event event) {
@@ -0,0 +1,258 @@
+package kafkablocks.publisher;
+
+import kafkablocks.AppProperties;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Параметры Публикатора
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@Validated
+@ConfigurationProperties(prefix = "kafkablocks.publisher")
+public class KafkaPublisherProperties extends AppProperties {
+    /**
+     * Ограничение событий "в полете", т.е. отправленных, но еще не подтвержденных брокером
+     */
+    private final Backpressure backpressure = new Backpressure();
+    /**
+     * Схлопывание частых событий с одинаковым ключом (см. {@link CoalescingKafkaPublisher})
+     */
+    private final Coalescing coalescing = new Coalescing();
+    /**
+     * Кол-во продюсеров, между которыми распределяется отправка событий.
+     * Каждый продюсер отправляет записи своих партиций (см. {@link KafkaPublisherImpl}).
+     * Больше одного продюсера нужно только при очень интенсивной публикации,
+     * когда узким местом становится поток отправки и буфер единственного продюсера
+     */
+    @Positive
+    private int producerCount = 1;
+    /**
+     * Локальный спул для событий, которые не удалось отправить (см. {@link EventSpool})
+     */
+    private final Spool spool = new Spool();
+    /**
+     * Адаптивная подстройка частоты отправки накопленных продюсером записей (см. {@link AdaptiveBatchController})
+     */
+    private final AdaptiveBatching adaptiveBatching = new AdaptiveBatching();
+    /**
+     * Сериализация событий в пуле потоков до передачи продюсеру (см. {@link SerializationPipeline})
+     */
+    private final Serialization serialization = new Serialization();
+    /**
+     * Транзакционная публикация событий (см. {@link KafkaPublisher#publishTransactionally})
+     */
+    private final Transactions transactions = new Transactions();
+
+    @Data
+    public static class Backpressure {
+        /**
+         * Поведение при достижении лимита
+         */
+        private BackpressurePolicy policy = BackpressurePolicy.BLOCK;
+        /**
+         * Общие лимиты для всех топиков
+         */
+        private final Limits global = new Limits();
+        /**
+         * Таблица: имя топика -> лимиты событий этого топика
+         */
+        private final Map<String, Limits> topics = new HashMap<>();
+        /**
+         * Максимальное время ожидания места при политике BLOCK
+         */
+        private Duration blockTimeout = Duration.ofSeconds(30);
+        /**
+         * Максимальный размер очереди ожидания при политике DROP_OLDEST
+         */
+        @PositiveOrZero
+        private int maxPending = 10_000;
+
+        /**
+         * Задан ли хотя бы один лимит
+         */
+        public boolean isEnabled() {
+            return global.isEnabled() || topics.values().stream().anyMatch(Limits::isEnabled);
+        }
+    }
+
+    @Data
+    public static class Limits {
+        /**
+         * Максимальное кол-во событий в полете; 0 - без ограничения
+         */
+        @PositiveOrZero
+        private int maxEvents;
+        /**
+         * Максимальный объем сериализованных значений событий в полете (байт); 0 - без ограничения.
+         * Лимит "мягкий": событие отправляется, если лимит еще не достигнут, даже если с ним лимит будет превышен
+         */
+        @PositiveOrZero
+        private long maxBytes;
+
+        public boolean isEnabled() {
+            return maxEvents > 0 || maxBytes > 0;
+        }
+    }
+
+    @Data
+    public static class Coalescing {
+        /**
+         * Таблица: имя класса события (простое или полное) -> параметры схлопывания событий этого класса.
+         * События остальных классов публикуются сразу
+         */
+        private final Map<String, CoalescingRule> events = new HashMap<>();
+        /**
+         * Кол-во сегментов таблицы ожидающих событий каждого класса; у каждого сегмента своя блокировка
+         */
+        @Positive
+        private int stripes = 16;
+        /**
+         * Кол-во потоков, которые отправляют накопленные события
+         */
+        @Positive
+        private int threads = 2;
+    }
+
+    @Data
+    public static class CoalescingRule {
+        /**
+         * Интервал отправки накопленных событий, т.е. максимальная задержка публикации события
+         */
+        private Duration interval = Duration.ofMillis(100);
+        /**
+         * Максимальное кол-во ключей, ожидающих отправки; при его достижении события отправляются раньше интервала
+         */
+        @Positive
+        private int maxKeys = 10_000;
+    }
+
+    @Data
+    public static class Spool {
+        /**
+         * Каталог спула; если не задан, то спул не используется
+         */
+        private String dir;
+        /**
+         * Размер файла сегмента спула
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        /**
+         * Сбрасывать ли сегмент на диск после каждого добавления записи.
+         * Без сброса записи переживают падение процесса, но не ОС
+         */
+        private boolean forceOnAppend;
+        /**
+         * Максимальное кол-во записей, которые отправляются из спула за раз
+         */
+        @Positive
+        private int replayBatchSize = 500;
+        /**
+         * Максимальный темп отправки из спула (событий в секунду)
+         */
+        @Positive
+        private int replayRate = 5_000;
+        /**
+         * Пауза перед повторной попыткой после неудачной отправки из спула; удваивается с каждой неудачей
+         */
+        private Duration retryBackoff = Duration.ofSeconds(1);
+        /**
+         * Максимальная пауза перед повторной попыткой
+         */
+        private Duration maxRetryBackoff = Duration.ofMinutes(1);
+
+        public boolean isEnabled() {
+            return dir != null;
+        }
+    }
+
+    @Data
+    public static class AdaptiveBatching {
+        /**
+         * Включена ли подстройка. Продюсеру нужно задать linger.ms не меньше max-interval,
+         * чтобы записи отправлялись по команде публикатора, а не по таймеру продюсера
+         */
+        private boolean enabled;
+        /**
+         * Целевая средняя задержка отправки, т.е. время от публикации до подтверждения брокером
+         */
+        private Duration latencyTarget = Duration.ofMillis(50);
+        /**
+         * Минимальный интервал отправки накопленных записей
+         */
+        private Duration minInterval = Duration.ofMillis(1);
+        /**
+         * Максимальный интервал отправки накопленных записей
+         */
+        private Duration maxInterval = Duration.ofMillis(200);
+        /**
+         * Шаг увеличения интервала, пока задержка меньше целевой
+         */
+        private Duration increaseStep = Duration.ofMillis(2);
+        /**
+         * Множитель уменьшения интервала, если задержка больше целевой
+         */
+        private double decreaseFactor = 0.5;
+        /**
+         * Доля заполнения батчей продюсера, при которой интервал больше не увеличивается: батчи и так полные
+         */
+        private double fullBatchRatio = 0.9;
+        /**
+         * Период, за который усредняются наблюдения и после которого интервал подстраивается
+         */
+        private Duration adjustPeriod = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Serialization {
+        /**
+         * Включена ли сериализация в пуле потоков. Если выключена, то события сериализует продюсер
+         * в потоке, который их публикует
+         */
+        private boolean enabled;
+        /**
+         * Кол-во потоков сериализации
+         */
+        @Positive
+        private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        /**
+         * Максимальное кол-во событий в очереди на сериализацию (на все потоки);
+         * когда очередь заполнена, публикация блокируется
+         */
+        @Positive
+        private int queueCapacity = 10_000;
+    }
+
+    @Data
+    public static class Transactions {
+        /**
+         * Включена ли транзакционная публикация. Для нее создается отдельный транзакционный продюсер
+         */
+        private boolean enabled;
+        /**
+         * Префикс transactional.id продюсера; должен быть уникальным для каждого экземпляра приложения,
+         * иначе продюсеры экземпляров будут вытеснять друг друга
+         */
+        private String transactionIdPrefix;
+        /**
+         * Сколько ждать другие транзакции, чтобы зафиксировать их вместе одной транзакцией кафки.
+         * Чем больше окно, тем реже фиксация и тем больше задержка публикации
+         */
+        private Duration window = Duration.ofMillis(10);
+        /**
+         * Максимальное кол-во событий в одной транзакции кафки; транзакция больше этого размера фиксируется отдельно
+         */
+        @Positive
+        private int maxEvents = 1000;
+    }
+}
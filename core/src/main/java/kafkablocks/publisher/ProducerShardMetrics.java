@@ -0,0 +1,72 @@
+package kafkablocks.publisher;
+
+import lombok.Getter;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики одного продюсера (шарда) публикатора
+ */
+@Getter
+public class ProducerShardMetrics {
+    /**
+     * Номер шарда
+     */
+    private final int shard;
+    /**
+     * Кол-во записей, переданных продюсеру
+     */
+    private final long sent;
+    /**
+     * Кол-во записей, отправка которых подтверждена брокером
+     */
+    private final long acknowledged;
+    /**
+     * Кол-во записей, которые не удалось отправить
+     */
+    private final long failed;
+    /**
+     * Метрики самого продюсера (record-send-rate, batch-size-avg, buffer-available-bytes и т.д.)
+     */
+    private final Map<MetricName, ? extends Metric> producerMetrics;
+
+    ProducerShardMetrics(int shard, Counters counters, Map<MetricName, ? extends Metric> producerMetrics) {
+        this.shard = shard;
+        // завершенные читаем раньше отправленных, чтобы кол-во записей в полете не было отрицательным
+        this.failed = counters.failed.sum();
+        this.acknowledged = counters.acknowledged.sum();
+        this.sent = counters.sent.sum();
+        this.producerMetrics = producerMetrics;
+    }
+
+    /**
+     * Кол-во записей, отправка которых еще не завершена
+     */
+    public long getInFlight() {
+        return sent - acknowledged - failed;
+    }
+
+    /**
+     * Счетчики шарда; обновляются из разных потоков
+     */
+    static final class Counters {
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder acknowledged = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        void onSend() {
+            sent.increment();
+        }
+
+        void onComplete(boolean success) {
+            if (success) {
+                acknowledged.increment();
+            } else {
+                failed.increment();
+            }
+        }
+    }
+}
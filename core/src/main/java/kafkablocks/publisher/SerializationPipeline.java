@@ -0,0 +1,185 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.Event;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Конвейер сериализации: события сериализуются в пуле потоков, а продюсеру передаются уже сериализованные записи,
+ * поэтому потоки, которые публикуют события, не тратят время на сериализацию.
+ * <p>
+ * У каждого потока своя ограниченная очередь, в которую пишут все публикующие потоки.
+ * Записи одного ключа всегда попадают в одну очередь, поэтому их порядок сохраняется;
+ * записи без ключа распределяются по очереди. Когда очередь заполнена, публикация блокируется
+ */
+final class SerializationPipeline {
+    private final UnaryOperator<ProducerRecord<String, Event>> serializer;
+    private final Function<ProducerRecord<String, Event>, CompletableFuture<RecordMetadata>> sender;
+    private final Logger logger;
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    /**
+     * Запись для сериализации и ее результат; задача без записи - метка для ожидания обработки предыдущих задач
+     */
+    private static final class Task {
+        private final ProducerRecord<String, Event> record;
+        private final CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+
+        Task(ProducerRecord<String, Event> record) {
+            this.record = record;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final BlockingQueue<Task> queue;
+        private final Thread thread;
+        private volatile boolean stopped;
+
+        Worker(int number, int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this, "publisher-serializer-" + number);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped || !queue.isEmpty()) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    // при остановке дорабатываем очередь
+                    stopped = true;
+                    continue;
+                }
+
+                process(task);
+            }
+        }
+
+        private void process(Task task) {
+            if (task.record == null) {
+                task.future.complete(null);
+                return;
+            }
+
+            try {
+                sender.apply(serializer.apply(task.record)).whenComplete((recordMetadata, e) -> {
+                    if (e == null) {
+                        task.future.complete(recordMetadata);
+                    } else {
+                        task.future.completeExceptionally(e);
+                    }
+                });
+            } catch (Throwable e) {
+                logger.error("[{}] Unable to send event", task.record.value().getId(), e);
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @param serializer функция, которая возвращает запись с сериализованным событием
+     * @param sender     функция отправки сериализованной записи
+     */
+    SerializationPipeline(
+            KafkaPublisherProperties.Serialization properties,
+            UnaryOperator<ProducerRecord<String, Event>> serializer,
+            Function<ProducerRecord<String, Event>, CompletableFuture<RecordMetadata>> sender,
+            Logger logger) {
+
+        this.serializer = serializer;
+        this.sender = sender;
+        this.logger = logger;
+
+        int threads = properties.getThreads();
+        int capacity = Math.max(1, properties.getQueueCapacity() / threads);
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, capacity);
+            workers[i].thread.start();
+        }
+    }
+
+    /**
+     * Поставить запись в очередь на сериализацию и отправку.
+     * Если очередь заполнена, то ждет, пока в ней появится место
+     *
+     * @return future, которое завершится после отправки записи
+     */
+    CompletableFuture<RecordMetadata> submit(ProducerRecord<String, Event> record) {
+        Task task = new Task(record);
+        put(getWorker(record.key()), task);
+        return task.future;
+    }
+
+    private Worker getWorker(String key) {
+        int index = key == null
+                ? nextWorker.getAndIncrement()
+                : key.hashCode() ^ (key.hashCode() >>> 16);
+        return workers[Math.floorMod(index, workers.length)];
+    }
+
+    private static void put(Worker worker, Task task) {
+        if (worker.stopped)
+            throw new IllegalStateException("Publisher is closed");
+
+        try {
+            worker.queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BackpressureException("Interrupted while waiting for room in serialization queue");
+        }
+    }
+
+    /**
+     * Дождаться, пока будут сериализованы и переданы продюсеру все записи, поставленные в очередь до вызова
+     */
+    void drain() {
+        CompletableFuture<?>[] barriers = new CompletableFuture[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            Task barrier = new Task(null);
+            put(workers[i], barrier);
+            barriers[i] = barrier.future;
+        }
+
+        try {
+            CompletableFuture.allOf(barriers).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Остановить потоки; записи, которые уже в очереди, отправляются
+     */
+    void close() {
+        drain();
+
+        for (Worker worker : workers) {
+            worker.stopped = true;
+            worker.thread.interrupt();
+        }
+
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package kafkablocks.publisher;
+
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Поток, который отправляет записи из спула (см. {@link EventSpool}) в порядке их добавления.
+ * <p>
+ * Записи отправляются пачками с ограничением темпа; позиция в спуле сдвигается только после подтверждения
+ * всей пачки, поэтому после сбоя записи пачки могут быть отправлены повторно (at least once).
+ * После неудачной отправки поток делает паузу, которая удваивается с каждой неудачей, и затем проверяет
+ * связь одной записью; обычные пачки отправляются только после ее успешной отправки.
+ * Так долгий простой брокера не приводит к лавине отправок при его восстановлении.
+ */
+final class SpoolReplayer {
+    private final EventSpool spool;
+    private final Function<EventSpool.Entry, CompletableFuture<RecordMetadata>> sender;
+    private final KafkaPublisherProperties.Spool properties;
+    private final Logger logger;
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    SpoolReplayer(
+            EventSpool spool,
+            Function<EventSpool.Entry, CompletableFuture<RecordMetadata>> sender,
+            KafkaPublisherProperties.Spool properties,
+            Logger logger) {
+
+        this.spool = spool;
+        this.sender = sender;
+        this.properties = properties;
+        this.logger = logger;
+
+        thread = new Thread(this::run, "publisher-spool");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long backoffNanos = 0;
+        boolean probing = false;
+
+        while (!stopped) {
+            try {
+                if (!spool.awaitPending(1, TimeUnit.SECONDS))
+                    continue;
+
+                List<EventSpool.Entry> batch = spool.read(probing ? 1 : properties.getReplayBatchSize());
+                if (batch.isEmpty())
+                    continue;
+
+                long startTime = System.nanoTime();
+                if (replay(batch)) {
+                    spool.commit(batch.get(batch.size() - 1).getEnd());
+                    if (probing) {
+                        logger.info("Connection restored, replaying events from spool");
+                    }
+                    probing = false;
+                    backoffNanos = 0;
+
+                    // ограничиваем темп отправки
+                    long minDuration = TimeUnit.SECONDS.toNanos(batch.size()) / properties.getReplayRate();
+                    TimeUnit.NANOSECONDS.sleep(minDuration - (System.nanoTime() - startTime));
+                } else {
+                    probing = true;
+                    backoffNanos = backoffNanos == 0
+                            ? properties.getRetryBackoff().toNanos()
+                            : Math.min(backoffNanos * 2, properties.getMaxRetryBackoff().toNanos());
+                    // случайная добавка, чтобы публикаторы разных процессов не повторяли попытки одновременно
+                    long jitter = ThreadLocalRandom.current().nextLong(backoffNanos / 4 + 1);
+                    TimeUnit.NANOSECONDS.sleep(backoffNanos + jitter);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Replay of events from spool failed", e);
+            }
+        }
+    }
+
+    /**
+     * Отправить пачку и дождаться подтверждения всех ее записей
+     *
+     * @return отправлены ли все записи
+     */
+    private boolean replay(List<EventSpool.Entry> batch) throws InterruptedException {
+        List<CompletableFuture<RecordMetadata>> futures = new ArrayList<>(batch.size());
+        try {
+            for (EventSpool.Entry entry : batch) {
+                futures.add(sender.apply(entry));
+            }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            return true;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.warn("Unable to replay events from spool: {}", e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package kafkablocks.publisher;
+
+/**
+ * Ключ события в пределах топика
+ */
+final class TopicKey {
+    private final String topic;
+    private final String key;
+
+    TopicKey(String topic, String key) {
+        this.topic = topic;
+        this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof TopicKey))
+            return false;
+
+        TopicKey other = (TopicKey) o;
+        return topic.equals(other.topic) && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * topic.hashCode() + key.hashCode();
+    }
+}
@@ -0,0 +1,199 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.Event;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Групповая фиксация транзакций публикации.
+ * <p>
+ * Транзакции, поступившие в течение окна, отправляются одной транзакцией кафки, поэтому стоимость фиксации
+ * (запросы к координатору транзакций и запись маркеров во все партиции) делится между ними.
+ * Группа фиксируется, когда истекло окно с момента поступления ее первой транзакции или набралось
+ * максимальное кол-во событий; транзакция никогда не разбивается между группами.
+ * <p>
+ * Если транзакция кафки не зафиксирована, то ее транзакции фиксируются по отдельности:
+ * события прерванной транзакции потребители не получают, поэтому повторная отправка не дублирует события,
+ * а ошибка одной транзакции (например, сериализации) не отменяет остальные
+ */
+final class TransactionBatcher {
+    private final Function<List<ProducerRecord<String, Event>>, List<RecordMetadata>> transaction;
+    private final Logger logger;
+    private final long window;
+    private final int maxEvents;
+    private final Thread thread;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    /**
+     * Кол-во событий в ожидающих транзакциях
+     */
+    private int pendingEvents;
+    /**
+     * Время поступления первой ожидающей транзакции (нс)
+     */
+    private long firstPendingTime;
+    private boolean closed;
+
+    /**
+     * Транзакция, ожидающая фиксации
+     */
+    private static final class Pending {
+        private final List<ProducerRecord<String, Event>> records;
+        private final CompletableFuture<List<RecordMetadata>> future = new CompletableFuture<>();
+
+        Pending(List<ProducerRecord<String, Event>> records) {
+            this.records = records;
+        }
+    }
+
+    /**
+     * @param transaction функция, которая отправляет записи одной транзакцией кафки и возвращает результаты отправки
+     *                    в порядке записей; если транзакция не зафиксирована, то выбрасывает исключение
+     */
+    TransactionBatcher(
+            KafkaPublisherProperties.Transactions properties,
+            Function<List<ProducerRecord<String, Event>>, List<RecordMetadata>> transaction,
+            Logger logger) {
+
+        this.transaction = transaction;
+        this.logger = logger;
+        this.window = properties.getWindow().toNanos();
+        this.maxEvents = properties.getMaxEvents();
+
+        this.thread = new Thread(this::run, "publisher-transactions");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Поставить транзакцию в очередь на фиксацию
+     *
+     * @return future, которое завершится результатами отправки записей после фиксации транзакции
+     */
+    CompletableFuture<List<RecordMetadata>> submit(List<ProducerRecord<String, Event>> records) {
+        Pending transaction = new Pending(records);
+        if (records.isEmpty()) {
+            transaction.future.complete(Collections.emptyList());
+            return transaction.future;
+        }
+
+        synchronized (lock) {
+            if (closed)
+                throw new IllegalStateException("Publisher is closed");
+
+            if (pending.isEmpty()) {
+                firstPendingTime = System.nanoTime();
+            }
+            pending.add(transaction);
+            pendingEvents += records.size();
+            lock.notifyAll();
+        }
+
+        return transaction.future;
+    }
+
+    /**
+     * Зафиксировать ожидающие транзакции и остановить поток фиксации
+     */
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Pending> group;
+        while ((group = takeGroup()) != null) {
+            commit(group);
+        }
+    }
+
+    /**
+     * Дождаться и забрать группу транзакций для фиксации
+     *
+     * @return транзакции группы или null, если фиксатор остановлен и ожидающих транзакций нет
+     */
+    private List<Pending> takeGroup() {
+        synchronized (lock) {
+            try {
+                while (pending.isEmpty()) {
+                    if (closed)
+                        return null;
+                    lock.wait();
+                }
+
+                long remaining;
+                while (!closed && pendingEvents < maxEvents
+                        && (remaining = firstPendingTime + window - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+            } catch (InterruptedException e) {
+                // фиксируем то, что уже набрано, и останавливаемся
+                closed = true;
+            }
+
+            List<Pending> group = new ArrayList<>();
+            int events = 0;
+            while (!pending.isEmpty()
+                    && (group.isEmpty() || events + pending.peek().records.size() <= maxEvents)) {
+                Pending transaction = pending.poll();
+                group.add(transaction);
+                events += transaction.records.size();
+            }
+            // оставшиеся транзакции уже прождали окно, поэтому их время поступления не меняем
+            pendingEvents -= events;
+            return group;
+        }
+    }
+
+    private void commit(List<Pending> group) {
+        List<ProducerRecord<String, Event>> records = new ArrayList<>();
+        for (Pending transaction : group) {
+            records.addAll(transaction.records);
+        }
+
+        List<RecordMetadata> metadata;
+        try {
+            metadata = transaction.apply(records);
+        } catch (RuntimeException e) {
+            if (group.size() == 1) {
+                logger.error("Unable to commit transaction of {} events", records.size(), e);
+                group.get(0).future.completeExceptionally(e);
+                return;
+            }
+
+            // записи прерванной транзакции не видны только потребителям с isolation.level=read_committed
+            logger.warn("Unable to commit transaction of {} events, committing its {} transactions one by one: {}",
+                    records.size(), group.size(), e.toString());
+            for (Pending transaction : group) {
+                commit(Collections.singletonList(transaction));
+            }
+            return;
+        }
+
+        logger.debug("Committed transaction of {} events ({} transactions)", records.size(), group.size());
+        int from = 0;
+        for (Pending transaction : group) {
+            int to = from + transaction.records.size();
+            transaction.future.complete(new ArrayList<>(metadata.subList(from, to)));
+            from = to;
+        }
+    }
+}
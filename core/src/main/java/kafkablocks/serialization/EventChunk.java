@@ -0,0 +1,173 @@
+package kafkablocks.serialization;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Chunk of a large serialized event, which is published as several records.
+ * <p>
+ * The chunk records have the headers of the event and the {@link EventHeaders#CHUNK} header:
+ * <pre>
+ * id          16 bytes, UUID of the chunked value
+ * index       int32, number of the chunk
+ * count       int32, number of the chunks
+ * offset      int32, offset of the chunk in the value
+ * total size  int32, size of the value
+ * </pre>
+ * All the chunks of a value are published to the same partition with the same timestamp,
+ * but may be interleaved with other records and, on retries, reordered.
+ */
+public final class EventChunk {
+    private static final int HEADER_SIZE = 2 * Long.BYTES + 4 * Integer.BYTES;
+
+    private final UUID id;
+    private final int index;
+    private final int count;
+    private final int offset;
+    private final int totalSize;
+
+    public EventChunk(UUID id, int index, int count, int offset, int totalSize) {
+        this.id = id;
+        this.index = index;
+        this.count = count;
+        this.offset = offset;
+        this.totalSize = totalSize;
+    }
+
+    /**
+     * Whether the record with the headers is a chunk
+     */
+    public static boolean isChunk(Headers headers) {
+        return headers != null && headers.lastHeader(EventHeaders.CHUNK) != null;
+    }
+
+    /**
+     * Read the chunk header
+     *
+     * @return the chunk or null, if the record is not a chunk
+     * @throws SerializationException if the header is invalid
+     */
+    public static EventChunk read(Headers headers) {
+        Header header = headers == null ? null : headers.lastHeader(EventHeaders.CHUNK);
+        if (header == null)
+            return null;
+
+        byte[] value = header.value();
+        if (value == null || value.length != HEADER_SIZE)
+            throw new SerializationException("Invalid chunk header");
+
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        EventChunk chunk = new EventChunk(
+                new UUID(buffer.getLong(), buffer.getLong()),
+                buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+        if (chunk.count <= 0 || chunk.index < 0 || chunk.index >= chunk.count
+                || chunk.offset < 0 || chunk.offset > chunk.totalSize)
+            throw new SerializationException("Invalid chunk header: " + chunk);
+
+        return chunk;
+    }
+
+    /**
+     * Split the value into the chunks
+     *
+     * @param headers   headers of the value; every chunk gets their copy with the chunk header
+     * @param chunkSize max size of a chunk
+     * @return pairs of the chunk headers and the chunk data
+     */
+    public static List<Chunked> split(byte[] data, Headers headers, int chunkSize) {
+        UUID id = UUID.randomUUID();
+        int count = (data.length + chunkSize - 1) / chunkSize;
+        Header[] valueHeaders = headers.toArray();
+
+        List<Chunked> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int offset = i * chunkSize;
+            Headers chunkHeaders = new RecordHeaders(valueHeaders);
+            chunkHeaders.add(EventHeaders.CHUNK, new EventChunk(id, i, count, offset, data.length).toBytes());
+            chunks.add(new Chunked(chunkHeaders,
+                    Arrays.copyOfRange(data, offset, Math.min(data.length, offset + chunkSize))));
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Copy the headers of a chunk without the chunk header, i.e. get the headers of the value
+     */
+    public static Headers valueHeaders(Headers headers) {
+        RecordHeaders value = new RecordHeaders();
+        for (Header header : headers) {
+            if (!EventHeaders.CHUNK.equals(header.key())) {
+                value.add(header);
+            }
+        }
+
+        return value;
+    }
+
+    private byte[] toBytes() {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .putInt(index)
+                .putInt(count)
+                .putInt(offset)
+                .putInt(totalSize)
+                .array();
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getTotalSize() {
+        return totalSize;
+    }
+
+    @Override
+    public String toString() {
+        return "EventChunk{id=" + id + ", index=" + index + ", count=" + count
+                + ", offset=" + offset + ", totalSize=" + totalSize + "}";
+    }
+
+    /**
+     * Chunk to publish: its record headers and data
+     */
+    public static final class Chunked {
+        private final Headers headers;
+        private final byte[] data;
+
+        Chunked(Headers headers, byte[] data) {
+            this.headers = headers;
+            this.data = data;
+        }
+
+        public Headers getHeaders() {
+            return headers;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package kafkablocks.serialization;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SPI of an event serialization format.
+ * <p>
+ * Binary formats prefix the data with their magic byte, so that a consumer is able to detect the format
+ * of each record and to read topics, which contain records of different formats (e.g. during a migration).
+ * Data without a known magic byte is treated as JSON.
+ * <p>
+ * Implementations must be thread-safe.
+ * Additional codecs can be registered with {@link EventCodecs#register(EventCodec)}
+ * or via {@link java.util.ServiceLoader} (META-INF/services/kafkablocks.serialization.EventCodec).
+ */
+public interface EventCodec {
+    /**
+     * Format name, which is used in the "kafkablocks.event-format" configuration
+     */
+    String getName();
+
+    /**
+     * Magic byte, with which the data written by the codec begins.
+     * Must be in the range [1; 31] excluding the JSON whitespace bytes 0x09, 0x0A and 0x0D,
+     * so that it can not be confused with the beginning of a JSON text.
+     * The JSON codec returns {@link EventCodecs#NO_MAGIC_BYTE}, because it writes the data as is.
+     */
+    byte getMagicByte();
+
+    /**
+     * Serialize the value
+     *
+     * @param value value to serialize, not null
+     * @return serialized value including the magic byte (if any)
+     */
+    byte[] serialize(Object value);
+
+    /**
+     * Deserialize the value
+     *
+     * @param data   buffer with serialized value (including the magic byte, if any)
+     * @param offset offset of the value in the buffer
+     * @param length length of the value
+     * @param type   class of the value
+     */
+    <T> T deserialize(byte[] data, int offset, int length, Class<T> type);
+
+    /**
+     * Deserialize the value from the remaining bytes of the buffer.
+     * The position of the buffer is not changed.
+     * <p>
+     * Heap buffers are parsed in place; for direct buffers the default implementation copies the data,
+     * so the codecs, which can read from a stream, should override the method.
+     */
+    default <T> T deserialize(ByteBuffer data, Class<T> type) {
+        if (data.hasArray())
+            return deserialize(data.array(), data.arrayOffset() + data.position(), data.remaining(), type);
+
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return deserialize(bytes, 0, bytes.length, type);
+    }
+
+    /**
+     * Create the codec bound to the type.
+     * Implementations should override the method to prepare everything, what is needed for the type, in advance.
+     */
+    default <T> TypedCodec<T> bind(Class<T> type) {
+        EventCodec codec = this;
+
+        return new TypedCodec<T>() {
+            @Override
+            public EventCodec getCodec() {
+                return codec;
+            }
+
+            @Override
+            public byte[] serialize(T value) {
+                return codec.serialize(value);
+            }
+
+            @Override
+            public T deserialize(byte[] data, int offset, int length) {
+                return codec.deserialize(data, offset, length, type);
+            }
+
+            @Override
+            public T deserialize(ByteBuffer data) {
+                return codec.deserialize(data, type);
+            }
+        };
+    }
+}
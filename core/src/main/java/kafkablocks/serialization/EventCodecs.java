@@ -0,0 +1,103 @@
+package kafkablocks.serialization;
+
+import kafkablocks.serialization.avro.AvroEventCodec;
+import kafkablocks.serialization.delta.DeltaEventCodec;
+import kafkablocks.serialization.flyweight.FixedLayoutEventCodec;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the event codecs.
+ * Contains the JSON, Avro, fixed layout and delta codecs and the codecs, which are provided via {@link ServiceLoader}.
+ */
+public final class EventCodecs {
+    private EventCodecs() {
+    }
+
+    /**
+     * Magic byte of the codecs, which write the data without any prefix
+     */
+    public static final byte NO_MAGIC_BYTE = 0;
+    static final int MAX_MAGIC_BYTE = 31;
+
+    private static final Map<String, EventCodec> codecsByName = new ConcurrentHashMap<>();
+    private static final EventCodec[] codecsByMagicByte = new EventCodec[MAX_MAGIC_BYTE + 1];
+    private static final EventCodec jsonCodec = new JsonEventCodec();
+
+    static {
+        register(jsonCodec);
+        register(new AvroEventCodec());
+        register(new FixedLayoutEventCodec());
+        register(new DeltaEventCodec());
+        ServiceLoader.load(EventCodec.class).forEach(EventCodecs::register);
+    }
+
+    /**
+     * Register the codec.
+     * A codec with the same name will be replaced.
+     */
+    public static synchronized void register(EventCodec codec) {
+        Assert.notNull(codec, "codec is null");
+
+        byte magicByte = codec.getMagicByte();
+        Assert.isTrue(0 <= magicByte && magicByte <= MAX_MAGIC_BYTE,
+                "Magic byte must be from 0 to " + MAX_MAGIC_BYTE + ": " + codec.getName());
+        Assert.isTrue(!isJsonWhitespace(magicByte),
+                "Magic byte must not be a JSON whitespace (9, 10, 13): " + codec.getName());
+
+        EventCodec prevCodec = codecsByName.put(codec.getName(), codec);
+        if (prevCodec != null && prevCodec.getMagicByte() != NO_MAGIC_BYTE) {
+            codecsByMagicByte[prevCodec.getMagicByte()] = null;
+        }
+
+        if (magicByte != NO_MAGIC_BYTE) {
+            EventCodec existing = codecsByMagicByte[magicByte];
+            Assert.isNull(existing, () -> String.format("Codecs '%s' and '%s' have the same magic byte %d",
+                    existing.getName(), codec.getName(), magicByte));
+            codecsByMagicByte[magicByte] = codec;
+        }
+    }
+
+    /**
+     * Get the codec by the format name
+     */
+    public static EventCodec get(String name) {
+        EventCodec codec = codecsByName.get(name);
+        if (codec == null)
+            throw new IllegalArgumentException("Unknown event format: " + name);
+
+        return codec;
+    }
+
+    /**
+     * Get the codec, with which the data was written, by its first byte
+     */
+    public static EventCodec resolve(byte firstByte) {
+        if (0 < firstByte && firstByte <= MAX_MAGIC_BYTE && !isJsonWhitespace(firstByte)) {
+            EventCodec codec = codecsByMagicByte[firstByte];
+            if (codec != null)
+                return codec;
+        }
+
+        return jsonCodec;
+    }
+
+    /**
+     * Tab, line feed and carriage return may begin a JSON text, so they can not be used as magic bytes
+     */
+    private static boolean isJsonWhitespace(byte b) {
+        return b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Get all the registered codecs
+     */
+    public static Collection<EventCodec> getAll() {
+        return new ArrayList<>(codecsByName.values());
+    }
+}
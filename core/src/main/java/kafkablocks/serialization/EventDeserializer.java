@@ -1,64 +1,227 @@
 package kafkablocks.serialization;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import kafkablocks.events.EventMetadata;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import kafkablocks.events.Event;
-import kafkablocks.EventTopicProperties;
-import kafkablocks.utils.ObjectMapperUtils;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.function.Predicate;
 
 
 /**
- * Десериализатор для событий, который вычисляет тип события по имени топика с помощью EventTypeResolver-а
+ * Десериализатор для событий.
+ * Тип события либо задается явно, либо вычисляется по имени топика с помощью EventTopicProperties.
+ * Формат данных определяется по первому байту записи (см. {@link EventCodec}),
+ * поэтому в одном топике могут быть записи в разных форматах.
  * @param <T>
  */
-public class EventDeserializer<T extends Event> implements Deserializer<T> {
+public class EventDeserializer<T> implements Deserializer<T> {
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     /**
-     * JSON-десериализатор
-     * с включенным применением метаинформации для объектов типа Object и абстрактных классов
+     * Заданный тип события или null, если тип нужно вычислять по имени топика
      */
-    private final ObjectMapper objectMapper = ObjectMapperUtils
-            .createWithDefaultDTFormatters();
+    private final Class<T> type;
+    /**
+     * Serde заданного типа события.
+     * Реестр serde-ов определяется при десериализации, а не в конструкторе: десериализатор может быть создан
+     * до инициализации параметров приложения, и тогда заданные в них кодеки и словари не применялись бы
+     */
+    private volatile RegistrySerde<T> typeSerde;
+    /**
+     * Serde последнего топика, из которого были десериализованы события.
+     * Обычно десериализатор используется для одного топика, поэтому поиск serde-а по топику выполняется один раз
+     */
+    private volatile TopicSerde<T> lastTopicSerde;
+    /**
+     * Фильтр по метаданным из заголовков записи или null, если фильтр не используется
+     */
+    private volatile Predicate<EventMetadata> filter;
+    /**
+     * Проекция, т.е. поля, которые читаются из записи, или null, если читаются все поля
+     */
+    private final Projection projection;
+
+    private static class RegistrySerde<T> {
+        final SerdeRegistry registry;
+        final EventTypeSerde<T> serde;
+
+        RegistrySerde(SerdeRegistry registry, EventTypeSerde<T> serde) {
+            this.registry = registry;
+            this.serde = serde;
+        }
+    }
+
+    private static class TopicSerde<T> extends RegistrySerde<T> {
+        private final String topic;
+
+        TopicSerde(SerdeRegistry registry, String topic, EventTypeSerde<T> serde) {
+            super(registry, serde);
+            this.topic = topic;
+        }
+    }
+
+
+    /**
+     * Конструктор десериализатора, который вычисляет тип события по имени топика.
+     * Используется при создании десериализатора по имени класса (см. ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG)
+     */
+    public EventDeserializer() {
+        this.type = null;
+        this.projection = null;
+    }
 
+    /**
+     * Конструктор десериализатора для значений заданного типа
+     */
+    public EventDeserializer(Class<T> type) {
+        this(type, null);
+    }
+
+    /**
+     * Конструктор десериализатора для значений заданного типа, который читает из записей только поля проекции
+     * (см. {@link Projection}); остальные поля событий имеют значения, которые задает их конструктор
+     *
+     * @param projection проекция или null, если нужно читать все поля
+     */
+    public EventDeserializer(Class<T> type, Projection projection) {
+        this.type = type;
+        this.projection = projection;
+    }
 
     @Override
     public void configure(Map<String, ?> configs, boolean isKey) {
     }
 
     /**
-     * todo: заменить json-сериализацию на Avro
-     * вообще тогда надо делать так:
-     * - при сериализации первые N байтов использовать как ИД Avro-схемы, которая и тип определяет и версию типа
-     * - при десериализации читать эти первые N байтов и по ним в регистре находить avro-схему, которую использовать
+     * Установить фильтр по метаданным события из заголовков записи (см. {@link EventHeaders}).
+     * Для записей, которые не прошли фильтр, тело не разбирается и десериализатор возвращает null
+     */
+    public void setFilter(Predicate<EventMetadata> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Прочитать метаданные события из заголовков записи без десериализации значения
      */
+    public static EventMetadata readMetadata(Headers headers) {
+        return EventHeaders.read(headers);
+    }
+
+    @Override
+    public T deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null || !accept(headers))
+            return null;
+
+        if (type != null) {
+            assertNotEnvelope(headers);
+            return getTypeSerde().deserialize(headers, data, null, projection);
+        }
+
+        try {
+            assertNotEnvelope(headers);
+            return getTopicSerde(topic).deserialize(headers, data);
+        } catch (Throwable e) {
+            return onTopicDeserializationError(topic, e);
+        }
+    }
+
     @Override
-    @SuppressWarnings("unchecked")
     public T deserialize(String topic, byte[] data) {
         if (data == null)
             return null;
 
+        if (type != null)
+            return projection == null
+                    ? getTypeSerde().deserialize(data)
+                    : getTypeSerde().deserialize(null, data, null, projection);
+
         try {
-            Class<T> clazz = (Class<T>) EventTopicProperties.getInstance().resolveEventClassByTopic(topic);
-            return objectMapper.readValue(data, clazz);
+            return getTopicSerde(topic).deserialize(data);
         } catch (Throwable e) {
-            String eMsg = e.getMessage();
-            String msg = String.format("Error of deserialization event from topic '%s': %s",
-                    topic, eMsg == null ? e : eMsg);
-            logger.error(msg, e);
-
-            //todo: если мы здесь пульнем исключение, то KafkaConsumer зависнет -
-            //  будет пытаться бесконечно обработать это кривое событие.
-            // поэтому возвращаем null и в потребителе делаем проверку на null!
-            //throw new SerializationException(msg, e);
+            return onTopicDeserializationError(topic, e);
+        }
+    }
+
+    /**
+     * Десериализовать событие из оставшихся байт буфера без их копирования в отдельный массив
+     * (например, из общего буфера, в который прочитана пачка записей).
+     * Позиция буфера не изменяется.
+     */
+    public T deserialize(String topic, Headers headers, ByteBuffer data) {
+        if (data == null || !accept(headers))
             return null;
+
+        if (type != null) {
+            assertNotEnvelope(headers);
+            return getTypeSerde().deserialize(headers, data, null, projection);
+        }
+
+        try {
+            assertNotEnvelope(headers);
+            return getTopicSerde(topic).deserialize(headers, data);
+        } catch (Throwable e) {
+            return onTopicDeserializationError(topic, e);
         }
     }
 
+    /**
+     * Конверт с несколькими событиями (см. {@link EventEnvelope}) нельзя вернуть как одно значение:
+     * его разбирают потребители и топология обработки
+     */
+    private static void assertNotEnvelope(Headers headers) {
+        if (EventEnvelope.isEnvelope(headers))
+            throw new SerializationException(
+                    "Record is an envelope of events, it must be unpacked with EventEnvelope.Reader");
+    }
+
+    private boolean accept(Headers headers) {
+        Predicate<EventMetadata> filter = this.filter;
+        return filter == null || filter.test(EventHeaders.read(headers));
+    }
+
+    private T onTopicDeserializationError(String topic, Throwable e) {
+        String eMsg = e.getMessage();
+        String msg = String.format("Error of deserialization event from topic '%s': %s",
+                topic, eMsg == null ? e : eMsg);
+        logger.error(msg, e);
+
+        //todo: если мы здесь пульнем исключение, то KafkaConsumer зависнет -
+        //  будет пытаться бесконечно обработать это кривое событие.
+        // поэтому возвращаем null и в потребителе делаем проверку на null!
+        //throw new SerializationException(msg, e);
+        return null;
+    }
+
+    private EventTypeSerde<T> getTypeSerde() {
+        SerdeRegistry registry = SerdeRegistry.getInstance();
+        RegistrySerde<T> typeSerde = this.typeSerde;
+        if (typeSerde != null && typeSerde.registry == registry)
+            return typeSerde.serde;
+
+        EventTypeSerde<T> serde = registry.forType(type);
+        this.typeSerde = new RegistrySerde<>(registry, serde);
+        return serde;
+    }
+
+    @SuppressWarnings("unchecked")
+    private EventTypeSerde<T> getTopicSerde(String topic) {
+        SerdeRegistry registry = SerdeRegistry.getInstance();
+        TopicSerde<T> topicSerde = lastTopicSerde;
+        // имя топика обычно один и тот же экземпляр строки, поэтому сначала сравниваем ссылки
+        if (topicSerde != null && topicSerde.registry == registry
+                && (topicSerde.topic == topic || topicSerde.topic.equals(topic)))
+            return topicSerde.serde;
+
+        EventTypeSerde<T> serde = (EventTypeSerde<T>) registry.forTopic(topic);
+        lastTopicSerde = new TopicSerde<>(registry, topic, serde);
+        return serde;
+    }
+
     @Override
     public void close() {
     }
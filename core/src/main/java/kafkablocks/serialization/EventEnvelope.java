@@ -0,0 +1,333 @@
+package kafkablocks.serialization;
+
+import kafkablocks.events.Event;
+import kafkablocks.versioning.EventVersions;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+
+/**
+ * Envelope: many serialized events of one type and one key packed into a single record.
+ * <p>
+ * The envelope records are marked with the {@link EventHeaders#ENVELOPE} header (its value is the number of events)
+ * and have the type and version headers of the inner events; the id and the occurrence time of the inner events
+ * are not written. The value is framed as follows:
+ * <pre>
+ * count          varint
+ * base timestamp int64 (big-endian), epoch millis
+ * frame * count:
+ *     timestamp  zigzag varint, delta from the previous frame's timestamp (or from the base one)
+ *     length     varint
+ *     value      serialized event (see {@link EventTypeSerde#serialize(Object)})
+ * </pre>
+ * The values of the inner events are not compressed with the zstd dictionaries.
+ * <p>
+ * Is passed to the producer as an event: {@link EventSerializer} writes its data as is.
+ */
+public final class EventEnvelope implements Event {
+    private final String key;
+    private final int count;
+    private final long lastTimestamp;
+    private final byte[] data;
+
+    private EventEnvelope(String key, int count, long lastTimestamp, byte[] data) {
+        this.key = key;
+        this.count = count;
+        this.lastTimestamp = lastTimestamp;
+        this.data = data;
+    }
+
+    /**
+     * Wrap the data of an envelope record
+     *
+     * @throws SerializationException if the data is not an envelope
+     */
+    public static EventEnvelope wrap(String key, byte[] data) {
+        Reader reader = new Reader(data);
+        long lastTimestamp = reader.timestamp;
+        while (reader.next()) {
+            lastTimestamp = reader.getTimestamp();
+        }
+
+        return new EventEnvelope(key, reader.count, lastTimestamp, data);
+    }
+
+    /**
+     * Whether the record with the headers is an envelope
+     */
+    public static boolean isEnvelope(Headers headers) {
+        return headers != null && headers.lastHeader(EventHeaders.ENVELOPE) != null;
+    }
+
+    /**
+     * Write the headers of the envelope record: the envelope marker and the type and version of the inner events
+     */
+    public static void writeHeaders(Headers headers, Class<? extends Event> eventType, int count) {
+        headers.add(EventHeaders.TYPE, eventType.getSimpleName().getBytes(StandardCharsets.UTF_8));
+        headers.add(EventHeaders.SCHEMA_VERSION, EventVersions.bytesOf(eventType));
+        headers.add(EventHeaders.ENVELOPE, EventHeaders.toBytes(count));
+    }
+
+    /**
+     * Copy the headers of the envelope record without the envelope marker, i.e. get the headers of the inner events
+     */
+    public static Headers innerHeaders(Headers headers) {
+        RecordHeaders inner = new RecordHeaders();
+        for (Header header : headers) {
+            if (!EventHeaders.ENVELOPE.equals(header.key())) {
+                inner.add(header);
+            }
+        }
+
+        return inner;
+    }
+
+    @Override
+    public String getId() {
+        return null;
+    }
+
+    @Override
+    public OffsetDateTime getOccurred() {
+        return null;
+    }
+
+    @Override
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Number of the inner events
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Timestamp of the last inner event (epoch millis), which is used as the timestamp of the record,
+     * so that the lookup of the offsets by time finds the envelopes with the events of the later time
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "EventEnvelope{key=" + key + ", count=" + count + ", bytes=" + data.length + "}";
+    }
+
+    /**
+     * Builder of an envelope. Is not thread-safe
+     */
+    public static final class Builder {
+        private byte[] buffer;
+        private int size;
+        private int count;
+        private long baseTimestamp;
+        private long lastTimestamp;
+
+        public Builder(int initialCapacity) {
+            this.buffer = new byte[Math.max(16, initialCapacity)];
+        }
+
+        /**
+         * Add the serialized event
+         *
+         * @param timestamp time of the event (epoch millis), which the consumers see as the timestamp of its record
+         */
+        public Builder add(long timestamp, byte[] value) {
+            if (count == 0) {
+                baseTimestamp = timestamp;
+                lastTimestamp = timestamp;
+            }
+
+            ensureCapacity(2 * MAX_VARINT_SIZE + value.length);
+            size = writeVarint(buffer, size, zigzag(timestamp - lastTimestamp));
+            size = writeVarint(buffer, size, value.length);
+            System.arraycopy(value, 0, buffer, size, value.length);
+            size += value.length;
+
+            lastTimestamp = timestamp;
+            count++;
+            return this;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Size of the frames written so far (bytes)
+         */
+        public int getSize() {
+            return size;
+        }
+
+        public EventEnvelope build(String key) {
+            if (count == 0)
+                throw new IllegalStateException("Envelope is empty");
+
+            byte[] data = new byte[varintSize(count) + Long.BYTES + size];
+            int position = writeVarint(data, 0, count);
+            for (int i = Long.BYTES - 1; i >= 0; i--) {
+                data[position + i] = (byte) (baseTimestamp >>> (8 * (Long.BYTES - 1 - i)));
+            }
+            System.arraycopy(buffer, 0, data, position + Long.BYTES, size);
+
+            return new EventEnvelope(key, count, lastTimestamp, data);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Reader of the frames of an envelope. The values are not copied: a frame is a range of the record's data.
+     * Is not thread-safe
+     */
+    public static final class Reader {
+        private final byte[] data;
+        private final int count;
+        private int index;
+        private int position;
+        private long timestamp;
+        private int offset;
+        private int length;
+
+        /**
+         * @throws SerializationException if the data is not an envelope
+         */
+        public Reader(byte[] data) {
+            this.data = data;
+            try {
+                long count = readVarint();
+                if (count < 0 || count > data.length)
+                    throw new SerializationException("Invalid envelope size: " + count);
+
+                this.count = (int) count;
+                long base = 0;
+                for (int i = 0; i < Long.BYTES; i++) {
+                    base = (base << 8) | (data[position++] & 0xFF);
+                }
+                this.timestamp = base;
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new SerializationException("Envelope is truncated", e);
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Move to the next frame
+         *
+         * @return false if there are no more frames
+         * @throws SerializationException if the envelope is corrupted
+         */
+        public boolean next() {
+            if (index == count)
+                return false;
+
+            try {
+                timestamp += unzigzag(readVarint());
+                long length = readVarint();
+                if (length < 0 || position + length > data.length)
+                    throw new SerializationException("Envelope frame " + index + " exceeds the data");
+
+                this.offset = position;
+                this.length = (int) length;
+                position += this.length;
+                index++;
+                return true;
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new SerializationException("Envelope is truncated", e);
+            }
+        }
+
+        /**
+         * Timestamp of the current frame's event (epoch millis)
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Offset of the current frame's value in {@link #getData()}
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Length of the current frame's value
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Copy the value of the current frame
+         */
+        public byte[] copyValue() {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+
+            throw new SerializationException("Invalid varint in envelope");
+        }
+    }
+
+    private static final int MAX_VARINT_SIZE = 10;
+
+    private static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,208 @@
+package kafkablocks.serialization;
+
+import kafkablocks.events.Event;
+import kafkablocks.events.EventMetadata;
+import kafkablocks.versioning.EventVersions;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Заголовки записи Kafka с метаданными события.
+ * <p>
+ * Значения пишутся компактно:
+ * <ul>
+ * <li>тип - простое имя класса события в UTF-8;</li>
+ * <li>ИД - нулевой байт и 16 байт UUID, если ИД - это UUID в каноническом виде, иначе строка в UTF-8;</li>
+ * <li>время наступления - epoch millis, 8 байт (big-endian);</li>
+ * <li>версия схемы - строка в UTF-8 (см. {@link kafkablocks.events.EventVersion}).</li>
+ * </ul>
+ */
+public final class EventHeaders {
+    private EventHeaders() {
+    }
+
+    public static final String TYPE = "kb.type";
+    public static final String ID = "kb.id";
+    public static final String OCCURRED = "kb.occurred";
+    public static final String SCHEMA_VERSION = "kb.version";
+    /**
+     * Версия словаря zstd, которым сжато значение записи (см. {@link kafkablocks.serialization.zstd.ZstdDictionaryCompressor})
+     */
+    public static final String DICTIONARY_VERSION = "kb.dict";
+    /**
+     * Признак записи-конверта с несколькими событиями (см. {@link EventEnvelope}); значение - кол-во событий
+     */
+    public static final String ENVELOPE = "kb.envelope";
+    /**
+     * Признак записи со ссылкой на значение, сохраненное в хранилище
+     * (см. {@link kafkablocks.serialization.claimcheck.ClaimChecker}); значение - размер сохраненного значения
+     */
+    public static final String CLAIM_CHECK = "kb.claim";
+    /**
+     * Признак записи-части большого события (см. {@link EventChunk}); значение - заголовок части
+     */
+    public static final String CHUNK = "kb.chunk";
+
+    /**
+     * Размер ИД-а, записанного как UUID: признак (нулевой байт) и 16 байт UUID-а
+     */
+    private static final int UUID_ID_SIZE = 1 + 2 * Long.BYTES;
+
+    /**
+     * Записать метаданные события в заголовки
+     */
+    public static void write(Headers headers, Event event) {
+        headers.add(TYPE, event.getClass().getSimpleName().getBytes(StandardCharsets.UTF_8));
+
+        String id = event.getId();
+        if (id != null) {
+            headers.add(ID, encodeId(id));
+        }
+
+        OffsetDateTime occurred = event.getOccurred();
+        if (occurred != null) {
+            headers.add(OCCURRED, toBytes(occurred.toInstant().toEpochMilli(), Long.BYTES));
+        }
+
+        headers.add(SCHEMA_VERSION, EventVersions.bytesOf(event.getClass()));
+    }
+
+    /**
+     * Прочитать метаданные события из заголовков.
+     * Если в заголовках нет ни одного из заголовков с метаданными, то возвращает {@link EventMetadata#EMPTY}
+     */
+    public static EventMetadata read(Headers headers) {
+        if (headers == null)
+            return EventMetadata.EMPTY;
+
+        String type = null;
+        String id = null;
+        long occurred = EventMetadata.NO_TIMESTAMP;
+        String schemaVersion = null;
+        boolean found = false;
+
+        // заголовков у записи обычно немного, поэтому один проход по ним дешевле,
+        // чем поиск каждого заголовка по имени (Headers.lastHeader каждый раз проходит по всем заголовкам)
+        for (Header header : headers) {
+            byte[] value = header.value();
+            if (value == null)
+                continue;
+
+            switch (header.key()) {
+                case TYPE:
+                    type = new String(value, StandardCharsets.UTF_8);
+                    break;
+                case ID:
+                    id = decodeId(value);
+                    break;
+                case OCCURRED:
+                    occurred = fromBytes(value, Long.BYTES);
+                    break;
+                case SCHEMA_VERSION:
+                    schemaVersion = new String(value, StandardCharsets.UTF_8);
+                    break;
+                default:
+                    continue;
+            }
+
+            found = true;
+        }
+
+        return found
+                ? new EventMetadata(type, id, occurred, schemaVersion)
+                : EventMetadata.EMPTY;
+    }
+
+    /**
+     * Прочитать из заголовков только время наступления события
+     *
+     * @return время наступления события (epoch millis) или {@link EventMetadata#NO_TIMESTAMP}, если заголовка нет
+     */
+    public static long readOccurred(Headers headers) {
+        if (headers == null)
+            return EventMetadata.NO_TIMESTAMP;
+
+        Header header = headers.lastHeader(OCCURRED);
+        return header == null || header.value() == null
+                ? EventMetadata.NO_TIMESTAMP
+                : fromBytes(header.value(), Long.BYTES);
+    }
+
+    /**
+     * Значение int-заголовка
+     */
+    public static byte[] toBytes(int value) {
+        return toBytes(value, Integer.BYTES);
+    }
+
+    /**
+     * Прочитать значение int-заголовка
+     */
+    public static int toInt(byte[] value) {
+        return (int) fromBytes(value, Integer.BYTES);
+    }
+
+    private static byte[] encodeId(String id) {
+        if (id.length() == 36) {
+            try {
+                UUID uuid = UUID.fromString(id);
+                // UUID.fromString допускает и неканонические строки, а их нужно сохранить как есть
+                if (uuid.toString().equals(id)) {
+                    byte[] bytes = new byte[UUID_ID_SIZE];
+                    putLong(bytes, 1, uuid.getMostSignificantBits());
+                    putLong(bytes, 1 + Long.BYTES, uuid.getLeastSignificantBits());
+                    return bytes;
+                }
+            } catch (IllegalArgumentException ignored) {
+                // не UUID - пишем как строку
+            }
+        }
+
+        return id.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decodeId(byte[] value) {
+        if (value.length == UUID_ID_SIZE && value[0] == 0)
+            return new UUID(getLong(value, 1, Long.BYTES), getLong(value, 1 + Long.BYTES, Long.BYTES)).toString();
+
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toBytes(long value, int size) {
+        byte[] bytes = new byte[size];
+        putLong(bytes, 0, value, size);
+        return bytes;
+    }
+
+    private static long fromBytes(byte[] bytes, int size) {
+        if (bytes.length != size)
+            throw new IllegalArgumentException("Invalid header value size: " + bytes.length);
+
+        long value = getLong(bytes, 0, size);
+        // для int-а восстанавливаем знак
+        return size == Integer.BYTES ? (int) value : value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        putLong(bytes, offset, value, Long.BYTES);
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value, int size) {
+        for (int i = size - 1; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] bytes, int offset, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,85 @@
+package kafkablocks.serialization;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Map;
+
+
+/**
+ * Сериализатор для событий, который выбирает формат по классу сериализуемого значения
+ * (см. {@link kafkablocks.EventTopicProperties#getEventFormat()}).
+ * Serde для класса берется из {@link SerdeRegistry} и запоминается,
+ * т.к. обычно через сериализатор подряд проходят значения одного и того же класса.
+ * Конверты событий (см. {@link EventEnvelope}) и события, сериализованные публикатором (см. {@link SerializedEvent}),
+ * уже сериализованы, поэтому пишутся как есть.
+ *
+ * @param <T>
+ */
+public class EventSerializer<T> implements Serializer<T> {
+    /**
+     * Serde класса последнего сериализованного значения
+     */
+    private volatile LastSerde<T> lastSerde;
+
+    private static class LastSerde<T> {
+        private final SerdeRegistry registry;
+        private final EventTypeSerde<T> serde;
+
+        LastSerde(SerdeRegistry registry, EventTypeSerde<T> serde) {
+            this.registry = registry;
+            this.serde = serde;
+        }
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public byte[] serialize(String topic, T data) {
+        if (data == null)
+            return null;
+        if (data instanceof EventEnvelope)
+            return ((EventEnvelope) data).getData();
+        if (data instanceof SerializedEvent)
+            return ((SerializedEvent) data).getData();
+
+        return getSerde(data).serialize(data);
+    }
+
+    /**
+     * Сериализовать значение; если для класса значения задано сжатие со словарем,
+     * то значение сжимается и в заголовки добавляется версия словаря.
+     * Значение больше порога публикации по ссылке сохраняется в хранилище, а в запись пишется ссылка на него
+     * (см. {@link kafkablocks.serialization.claimcheck.ClaimChecker})
+     */
+    @Override
+    public byte[] serialize(String topic, Headers headers, T data) {
+        if (data == null)
+            return null;
+        if (data instanceof EventEnvelope)
+            return ((EventEnvelope) data).getData();
+        if (data instanceof SerializedEvent)
+            return ((SerializedEvent) data).getData();
+
+        return getSerde(data).serialize(data, headers);
+    }
+
+    @SuppressWarnings("unchecked")
+    private EventTypeSerde<T> getSerde(T data) {
+        // реестр определяется при каждом вызове: сериализатор может быть создан до инициализации параметров
+        SerdeRegistry registry = SerdeRegistry.getInstance();
+        LastSerde<T> last = lastSerde;
+        if (last != null && last.registry == registry && last.serde.getType() == data.getClass())
+            return last.serde;
+
+        EventTypeSerde<T> serde = registry.forType((Class<T>) data.getClass());
+        lastSerde = new LastSerde<>(registry, serde);
+        return serde;
+    }
+
+    @Override
+    public void close() {
+    }
+}
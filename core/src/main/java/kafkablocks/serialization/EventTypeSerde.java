@@ -0,0 +1,313 @@
+package kafkablocks.serialization;
+
+import kafkablocks.serialization.claimcheck.ClaimChecker;
+import kafkablocks.serialization.zstd.ZstdDictionaryCompressor;
+import kafkablocks.versioning.EventUpcasters;
+import kafkablocks.versioning.EventVersions;
+import kafkablocks.versioning.UpcastChain;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializer and deserializer of values of one type.
+ * <p>
+ * Contains the codec of the type's configured format, which is used for writing,
+ * and the codecs of all registered formats bound to the type, which are used for reading
+ * depending on the magic byte of a record. Optionally the serialized values are compressed
+ * with a zstd dictionary (see {@link ZstdDictionaryCompressor}) and the large values are offloaded
+ * to a blob store (see {@link ClaimChecker}).
+ * The records of the older versions of the type (see {@link kafkablocks.events.EventVersion})
+ * are converted by the upcasters registered in {@link EventUpcasters}. Is thread-safe.
+ *
+ * @param <T> type of values
+ */
+public final class EventTypeSerde<T> {
+    private final Class<T> type;
+    private final TypedCodec<T> writeCodec;
+    /**
+     * Codecs for reading; index - magic byte
+     */
+    private final TypedCodec<T>[] readCodecs;
+    /**
+     * Compressor of the values or null, if the zstd dictionaries are not used
+     */
+    private final ZstdDictionaryCompressor compressor;
+    /**
+     * Claim checker of the large values or null, if the values are not offloaded
+     */
+    private final ClaimChecker claimChecker;
+    /**
+     * Version of the type as the record header value
+     */
+    private final byte[] versionBytes;
+    /**
+     * Whether the version of the type is the default one, i.e. the records without the version header are current
+     */
+    private final boolean defaultVersion;
+    /**
+     * Readers of the records of the other versions: version -> reader
+     */
+    private final Map<String, VersionReader<T>> versionReaders = new ConcurrentHashMap<>();
+    private volatile int upcastersGeneration = -1;
+
+    /**
+     * Reader of the records of an older version: reads the value of the source type and upcasts it
+     */
+    private static final class VersionReader<T> {
+        private final UpcastChain<T> chain;
+        private final EventTypeSerde<?> sourceSerde;
+
+        VersionReader(UpcastChain<T> chain, EventTypeSerde<?> sourceSerde) {
+            this.chain = chain;
+            this.sourceSerde = sourceSerde;
+        }
+
+        T read(byte[] data) {
+            return chain.upcast(sourceSerde.deserialize(data));
+        }
+
+        T read(ByteBuffer data) {
+            return chain.upcast(sourceSerde.deserialize(data));
+        }
+    }
+
+    /**
+     * Reader of the versions, which need not be upcasted
+     */
+    private static final VersionReader<?> NO_UPCAST = new VersionReader<>(null, null);
+
+    EventTypeSerde(
+            Class<T> type,
+            TypedCodec<T> writeCodec,
+            TypedCodec<T>[] readCodecs,
+            ZstdDictionaryCompressor compressor,
+            ClaimChecker claimChecker) {
+        this.type = type;
+        this.writeCodec = writeCodec;
+        this.readCodecs = readCodecs;
+        this.compressor = compressor;
+        this.claimChecker = claimChecker;
+        this.versionBytes = EventVersions.bytesOf(type);
+        this.defaultVersion = EventVersions.DEFAULT_VERSION.equals(EventVersions.of(type));
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Codec of the configured format
+     */
+    public EventCodec getCodec() {
+        return writeCodec.getCodec();
+    }
+
+    public byte[] serialize(T value) {
+        return writeCodec.serialize(value);
+    }
+
+    /**
+     * Serialize the value and compress it, if the compression is enabled for the type
+     * (the record headers get the dictionary version); the value larger than the claim check threshold
+     * is offloaded to the blob store and replaced with the reference
+     */
+    public byte[] serialize(T value, Headers headers) {
+        byte[] data = writeCodec.serialize(value);
+        if (compressor != null) {
+            data = compressor.compress(data, headers);
+        }
+
+        return claimChecker == null
+                ? data
+                : claimChecker.offload(data, headers);
+    }
+
+    public T deserialize(byte[] data) {
+        return deserialize(data, 0, data.length);
+    }
+
+    public T deserialize(byte[] data, int offset, int length) {
+        if (length == 0)
+            throw new SerializationException("Data is empty");
+
+        return getReadCodec(data[offset]).deserialize(data, offset, length);
+    }
+
+    /**
+     * Deserialize the value of the record, decompressing it if the record headers have the dictionary version
+     */
+    public T deserialize(Headers headers, byte[] data) {
+        data = resolve(headers, data);
+        if (compressor != null) {
+            data = compressor.decompress(data, headers);
+        }
+
+        VersionReader<T> versionReader = getVersionReader(headers);
+        return versionReader == null
+                ? deserialize(data)
+                : versionReader.read(data);
+    }
+
+    /**
+     * Deserialize the value of the record filling the given instance in place
+     * (see {@link TypedCodec#deserialize(byte[], int, int, Object)}).
+     * The records of the older versions are upcasted, so for them a new instance is returned.
+     *
+     * @param reuse instance to fill or null
+     * @return the filled instance or a new one
+     */
+    public T deserialize(Headers headers, byte[] data, T reuse) {
+        return deserialize(headers, data, reuse, null);
+    }
+
+    /**
+     * Deserialize the fields of the projection of the record (see {@link Projection})
+     * filling the given instance in place. The records of the older versions are read completely and upcasted.
+     *
+     * @param reuse      instance to fill or null
+     * @param projection fields to read or null to read all the fields
+     * @return the filled instance or a new one
+     */
+    public T deserialize(Headers headers, byte[] data, T reuse, Projection projection) {
+        data = resolve(headers, data);
+        if (compressor != null) {
+            data = compressor.decompress(data, headers);
+        }
+
+        VersionReader<T> versionReader = getVersionReader(headers);
+        if (versionReader != null)
+            return versionReader.read(data);
+
+        if (data.length == 0)
+            throw new SerializationException("Data is empty");
+
+        return getReadCodec(data[0]).deserialize(data, 0, data.length, reuse, projection);
+    }
+
+    /**
+     * Deserialize the value from the remaining bytes of the buffer without copying them
+     * (the position of the buffer is not changed)
+     */
+    public T deserialize(ByteBuffer data) {
+        if (!data.hasRemaining())
+            throw new SerializationException("Data is empty");
+
+        return getReadCodec(data.get(data.position())).deserialize(data);
+    }
+
+    /**
+     * Deserialize the value of the record from the buffer.
+     * The compressed and offloaded values are copied and decompressed or resolved, the other ones are read in place.
+     */
+    public T deserialize(Headers headers, ByteBuffer data) {
+        if (compressor != null && compressor.isCompressed(headers) || ClaimChecker.isReference(headers)) {
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            return deserialize(headers, bytes);
+        }
+
+        VersionReader<T> versionReader = getVersionReader(headers);
+        return versionReader == null
+                ? deserialize(data)
+                : versionReader.read(data);
+    }
+
+    /**
+     * Deserialize the fields of the projection of the record from the buffer
+     * (see {@link #deserialize(Headers, byte[], Object, Projection)}).
+     * The values of the heap buffers are read in place, the other ones are copied.
+     *
+     * @param reuse      instance to fill or null
+     * @param projection fields to read or null to read all the fields
+     */
+    public T deserialize(Headers headers, ByteBuffer data, T reuse, Projection projection) {
+        if (reuse == null && projection == null)
+            return deserialize(headers, data);
+
+        if (!data.hasArray()
+                || compressor != null && compressor.isCompressed(headers)
+                || ClaimChecker.isReference(headers)
+                || getVersionReader(headers) != null) {
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            return deserialize(headers, bytes, reuse, projection);
+        }
+
+        if (!data.hasRemaining())
+            throw new SerializationException("Data is empty");
+
+        return getReadCodec(data.get(data.position())).deserialize(
+                data.array(), data.arrayOffset() + data.position(), data.remaining(), reuse, projection);
+    }
+
+    /**
+     * Get the value of the record, which may be offloaded to the blob store
+     */
+    private byte[] resolve(Headers headers, byte[] data) {
+        if (claimChecker != null)
+            return claimChecker.resolve(data, headers);
+        if (ClaimChecker.isReference(headers))
+            throw new SerializationException("Record refers to an offloaded value, but the claim check is not configured");
+
+        return data;
+    }
+
+    /**
+     * Get the reader for the version of the record
+     *
+     * @return reader or null, if the record is of the current version or there are no upcasters for its version
+     */
+    private VersionReader<T> getVersionReader(Headers headers) {
+        if (headers == null)
+            return null;
+
+        Header header = headers.lastHeader(EventHeaders.SCHEMA_VERSION);
+        byte[] version = header == null ? null : header.value();
+        // the records of the current version (the usual case) are read without any lookups
+        if (version == null ? defaultVersion : Arrays.equals(version, versionBytes))
+            return null;
+
+        int generation = EventUpcasters.getGeneration();
+        if (generation != upcastersGeneration) {
+            versionReaders.clear();
+            upcastersGeneration = generation;
+        }
+
+        // the records without the version header were published before the versioning, i.e. have the default version
+        String versionString = version == null
+                ? EventVersions.DEFAULT_VERSION
+                : new String(version, StandardCharsets.UTF_8);
+        VersionReader<T> versionReader = versionReaders.computeIfAbsent(versionString, this::createVersionReader);
+
+        return versionReader == NO_UPCAST ? null : versionReader;
+    }
+
+    @SuppressWarnings("unchecked")
+    private VersionReader<T> createVersionReader(String version) {
+        UpcastChain<T> chain = EventUpcasters.getChain(type, version);
+        if (chain == null)
+            return (VersionReader<T>) NO_UPCAST;
+
+        EventTypeSerde<?> sourceSerde = chain.getSourceType() == type
+                ? this
+                : SerdeRegistry.getInstance().forType(chain.getSourceType());
+        return new VersionReader<>(chain, sourceSerde);
+    }
+
+    private TypedCodec<T> getReadCodec(byte firstByte) {
+        int magicByte = EventCodecs.resolve(firstByte).getMagicByte();
+        TypedCodec<T> codec = readCodecs[magicByte];
+        if (codec == null)
+            throw new SerializationException(String.format(
+                    "Format with magic byte %d is not supported for type %s", magicByte, type.getName()));
+
+        return codec;
+    }
+}
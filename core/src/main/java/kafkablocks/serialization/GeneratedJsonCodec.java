@@ -0,0 +1,36 @@
+package kafkablocks.serialization;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+
+/**
+ * Streaming JSON reader and writer of one event class, which is generated at compile time
+ * by {@link kafkablocks.serialization.codegen.JsonCodecProcessor}.
+ * <p>
+ * The generated codec writes and reads the same JSON as the ObjectMapper
+ * of {@link kafkablocks.utils.ObjectMapperUtils#createWithDefaultDTFormatters()},
+ * but accesses the properties directly instead of Jackson's bean introspection.
+ * The properties of the types, which the generated code does not handle itself,
+ * are delegated to the ObjectMapper, which is passed to the codec constructor.
+ * <p>
+ * Implementations are thread-safe.
+ *
+ * @param <T> event class
+ */
+public interface GeneratedJsonCodec<T> {
+    /**
+     * Suffix of the name of the generated codec class
+     */
+    String CLASS_NAME_SUFFIX = "_JsonCodec";
+
+    void write(JsonGenerator generator, T value) throws IOException;
+
+    /**
+     * Read the value starting from the next token of the parser
+     *
+     * @param reuse instance to fill in place or null to create a new one
+     */
+    T read(JsonParser parser, T reuse) throws IOException;
+}
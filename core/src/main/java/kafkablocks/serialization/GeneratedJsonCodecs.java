@@ -0,0 +1,134 @@
+package kafkablocks.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Lookup of the generated JSON codecs and the support methods for the generated code.
+ * <p>
+ * The codec of the class {@code a.b.Outer$Event} is the class {@code a.b.Outer_Event_JsonCodec}
+ * with a public constructor, which takes the ObjectMapper.
+ */
+@Slf4j
+public final class GeneratedJsonCodecs {
+    private GeneratedJsonCodecs() {
+    }
+
+    /**
+     * Get the name of the generated codec class for the binary name of the event class
+     */
+    public static String getCodecClassName(String binaryName) {
+        int packageEnd = binaryName.lastIndexOf('.');
+        return binaryName.substring(0, packageEnd + 1)
+                + binaryName.substring(packageEnd + 1).replace('$', '_')
+                + GeneratedJsonCodec.CLASS_NAME_SUFFIX;
+    }
+
+    /**
+     * Create the generated codec of the type
+     *
+     * @return codec or null, if the codec was not generated for the type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> GeneratedJsonCodec<T> find(Class<T> type, ObjectMapper objectMapper) {
+        Class<?> codecClass;
+        try {
+            codecClass = Class.forName(getCodecClassName(type.getName()), true, type.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+
+        try {
+            return (GeneratedJsonCodec<T>) codecClass.getConstructor(ObjectMapper.class).newInstance(objectMapper);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Can't create generated JSON codec for type {}: {}", type.getName(), e.toString());
+            return null;
+        }
+    }
+
+    //region Support of the generated code
+
+    /**
+     * Get the handle, which reads the field: (owner) -> field type
+     */
+    public static MethodHandle getter(Class<?> owner, Class<?> declaringClass, String name) {
+        Field field = getField(declaringClass, name);
+        try {
+            MethodHandle handle = MethodHandles.lookup().unreflectGetter(field);
+            return handle.asType(MethodType.methodType(field.getType(), owner));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't access field " + name + " of " + declaringClass.getName(), e);
+        }
+    }
+
+    /**
+     * Get the handle, which writes the field (even a final one): (owner, field type) -> void
+     */
+    public static MethodHandle setter(Class<?> owner, Class<?> declaringClass, String name) {
+        Field field = getField(declaringClass, name);
+        try {
+            MethodHandle handle = MethodHandles.lookup().unreflectSetter(field);
+            return handle.asType(MethodType.methodType(void.class, owner, field.getType()));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't access field " + name + " of " + declaringClass.getName(), e);
+        }
+    }
+
+    private static Field getField(Class<?> declaringClass, String name) {
+        try {
+            Field field = declaringClass.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Field " + name + " not found in " + declaringClass.getName(), e);
+        }
+    }
+
+    /**
+     * Parse the value as the ObjectMapper with JavaTimeModule does (ISO format with offset)
+     */
+    public static OffsetDateTime offsetDateTime(String text) {
+        String trimmed = text.trim();
+        return trimmed.isEmpty()
+                ? null
+                : OffsetDateTime.parse(trimmed, DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    }
+
+    /**
+     * Get the enum constant by the name of the current token;
+     * unknown names are handled by the ObjectMapper (which reports the error)
+     */
+    public static <E extends Enum<E>> E enumValue(JsonParser parser, Class<E> type, ObjectMapper objectMapper)
+            throws IOException {
+        try {
+            return Enum.valueOf(type, parser.getText());
+        } catch (IllegalArgumentException e) {
+            return objectMapper.readValue(parser, type);
+        }
+    }
+
+    /**
+     * Rethrow the exception of a method handle invocation
+     */
+    public static IOException rethrow(Throwable e) throws IOException {
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+
+        throw new IllegalStateException(e);
+    }
+
+    //endregion
+}
@@ -0,0 +1,260 @@
+package kafkablocks.serialization;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import kafkablocks.utils.ObjectMapperUtils;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * JSON format.
+ * Writes the data without a magic byte, so it stays compatible with the consumers of the previous versions.
+ * <p>
+ * The codec with the default ObjectMapper uses the generated codecs of the event classes
+ * (see {@link GeneratedJsonCodec}), if they are present, instead of Jackson's data binding.
+ */
+public class JsonEventCodec implements EventCodec {
+    public static final String NAME = "json";
+
+    private final ObjectMapper objectMapper;
+    /**
+     * Whether the generated codecs are used: they produce the JSON of the default ObjectMapper only
+     */
+    private final boolean useGeneratedCodecs;
+
+    public JsonEventCodec() {
+        this(ObjectMapperUtils.createWithDefaultDTFormatters(), true);
+    }
+
+    /**
+     * Codec with the custom ObjectMapper; the generated codecs are not used
+     */
+    public JsonEventCodec(ObjectMapper objectMapper) {
+        this(objectMapper, false);
+    }
+
+    private JsonEventCodec(ObjectMapper objectMapper, boolean useGeneratedCodecs) {
+        this.objectMapper = objectMapper;
+        this.useGeneratedCodecs = useGeneratedCodecs;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte getMagicByte() {
+        return EventCodecs.NO_MAGIC_BYTE;
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new SerializationException("Can't serialize value of type " + value.getClass().getName(), e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, int offset, int length, Class<T> type) {
+        try {
+            return objectMapper.readValue(data, offset, length, type);
+        } catch (IOException e) {
+            throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer data, Class<T> type) {
+        if (data.hasArray())
+            return deserialize(data.array(), data.arrayOffset() + data.position(), data.remaining(), type);
+
+        try {
+            return objectMapper.readValue(new ByteBufferBackedInputStream(data.duplicate()), type);
+        } catch (IOException e) {
+            throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Binds the codec to the type using the generated codec of the type, if it is present,
+     * or immutable type-bound ObjectReader and ObjectWriter,
+     * so the serializer and the deserializer for the type are resolved only once.
+     */
+    @Override
+    public <T> TypedCodec<T> bind(Class<T> type) {
+        JsonTypedCodec<T> typedCodec = new JsonTypedCodec<>(
+                type, objectMapper.readerFor(type), objectMapper.writerFor(type));
+        if (!useGeneratedCodecs)
+            return typedCodec;
+
+        GeneratedJsonCodec<T> generatedCodec = GeneratedJsonCodecs.find(type, objectMapper);
+        return generatedCodec == null
+                ? typedCodec
+                : new GeneratedJsonTypedCodec<>(typedCodec, generatedCodec);
+    }
+
+    private class JsonTypedCodec<T> implements TypedCodec<T> {
+        private final Class<T> type;
+        private final ObjectReader reader;
+        private final ObjectWriter writer;
+
+        JsonTypedCodec(Class<T> type, ObjectReader reader, ObjectWriter writer) {
+            this.type = type;
+            this.reader = reader;
+            this.writer = writer;
+        }
+
+        @Override
+        public EventCodec getCodec() {
+            return JsonEventCodec.this;
+        }
+
+        @Override
+        public byte[] serialize(T value) {
+            // the writer is bound to the exact type and would lose the properties of a subclass
+            if (value.getClass() != type)
+                return JsonEventCodec.this.serialize(value);
+
+            try {
+                return writer.writeValueAsBytes(value);
+            } catch (IOException e) {
+                throw new SerializationException("Can't serialize value of type " + type.getName(), e);
+            }
+        }
+
+        @Override
+        public T deserialize(byte[] data, int offset, int length) {
+            try {
+                return reader.readValue(data, offset, length);
+            } catch (IOException e) {
+                throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+            }
+        }
+
+        /**
+         * Fills the instance by the reader bound to it (the reader for updating is cheap to create,
+         * as it shares the resolved deserializers with the type-bound reader)
+         */
+        @Override
+        public T deserialize(byte[] data, int offset, int length, T reuse) {
+            if (reuse == null)
+                return deserialize(data, offset, length);
+
+            try {
+                return reader.withValueToUpdate(reuse).readValue(data, offset, length);
+            } catch (IOException e) {
+                throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+            }
+        }
+
+        @Override
+        public T deserialize(byte[] data, int offset, int length, T reuse, Projection projection) {
+            if (projection == null)
+                return deserialize(data, offset, length, reuse);
+
+            try (JsonParser parser = projection.apply(objectMapper.getFactory().createParser(data, offset, length))) {
+                return reuse == null
+                        ? reader.readValue(parser)
+                        : reader.withValueToUpdate(reuse).readValue(parser);
+            } catch (IOException e) {
+                throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+            }
+        }
+
+        @Override
+        public T deserialize(ByteBuffer data) {
+            if (data.hasArray())
+                return deserialize(data.array(), data.arrayOffset() + data.position(), data.remaining());
+
+            try {
+                return reader.readValue(new ByteBufferBackedInputStream(data.duplicate()));
+            } catch (IOException e) {
+                throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Typed codec, which writes and reads the values of the exact type by the generated codec
+     * with the parsers and generators of the ObjectMapper's factory
+     */
+    private class GeneratedJsonTypedCodec<T> implements TypedCodec<T> {
+        private final JsonTypedCodec<T> typedCodec;
+        private final GeneratedJsonCodec<T> generatedCodec;
+        private final JsonFactory factory;
+
+        GeneratedJsonTypedCodec(JsonTypedCodec<T> typedCodec, GeneratedJsonCodec<T> generatedCodec) {
+            this.typedCodec = typedCodec;
+            this.generatedCodec = generatedCodec;
+            this.factory = objectMapper.getFactory();
+        }
+
+        @Override
+        public EventCodec getCodec() {
+            return JsonEventCodec.this;
+        }
+
+        @Override
+        public byte[] serialize(T value) {
+            // the generated codec writes only the properties of the exact type
+            if (value.getClass() != typedCodec.type)
+                return typedCodec.serialize(value);
+
+            ByteArrayBuilder buffer = new ByteArrayBuilder(factory._getBufferRecycler());
+            try (JsonGenerator generator = factory.createGenerator(buffer, JsonEncoding.UTF8)) {
+                generatedCodec.write(generator, value);
+            } catch (IOException | RuntimeException e) {
+                throw new SerializationException("Can't serialize value of type " + typedCodec.type.getName(), e);
+            }
+
+            byte[] data = buffer.toByteArray();
+            buffer.release();
+            return data;
+        }
+
+        @Override
+        public T deserialize(byte[] data, int offset, int length) {
+            return deserialize(data, offset, length, null);
+        }
+
+        @Override
+        public T deserialize(byte[] data, int offset, int length, T reuse) {
+            return deserialize(data, offset, length, reuse, null);
+        }
+
+        @Override
+        public T deserialize(byte[] data, int offset, int length, T reuse, Projection projection) {
+            try (JsonParser parser = projection == null
+                    ? factory.createParser(data, offset, length)
+                    : projection.apply(factory.createParser(data, offset, length))) {
+                return generatedCodec.read(parser, reuse);
+            } catch (IOException | RuntimeException e) {
+                throw new SerializationException("Can't deserialize value of type " + typedCodec.type.getName(), e);
+            }
+        }
+
+        @Override
+        public T deserialize(ByteBuffer data) {
+            if (data.hasArray())
+                return deserialize(data.array(), data.arrayOffset() + data.position(), data.remaining());
+
+            try (JsonParser parser = factory.createParser(new ByteBufferBackedInputStream(data.duplicate()))) {
+                return generatedCodec.read(parser, null);
+            } catch (IOException | RuntimeException e) {
+                throw new SerializationException("Can't deserialize value of type " + typedCodec.type.getName(), e);
+            }
+        }
+    }
+}
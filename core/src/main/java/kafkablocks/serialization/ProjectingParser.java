@@ -0,0 +1,113 @@
+package kafkablocks.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.JsonTokenId;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Parser, which skips the properties not included in the projection (see {@link Projection}):
+ * the reader does not see them at all, so their values are not created.
+ * <p>
+ * Every open object or array has the projection node, which applies to its properties or elements.
+ */
+final class ProjectingParser extends JsonParserDelegate {
+    private final Projection root;
+    /**
+     * Nodes of the open objects and arrays
+     */
+    private Projection[] nodes = new Projection[8];
+    private boolean[] arrays = new boolean[8];
+    private int depth;
+    /**
+     * Node of the value of the current property
+     */
+    private Projection valueNode;
+
+    ProjectingParser(JsonParser parser, Projection root) {
+        super(parser);
+        this.root = root;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        for (; ; ) {
+            JsonToken token = delegate.nextToken();
+            if (token == null)
+                return null;
+
+            switch (token.id()) {
+                case JsonTokenId.ID_START_OBJECT:
+                    push(getValueNode(), false);
+                    return token;
+
+                case JsonTokenId.ID_START_ARRAY:
+                    push(getValueNode(), true);
+                    return token;
+
+                case JsonTokenId.ID_END_OBJECT:
+                case JsonTokenId.ID_END_ARRAY:
+                    depth--;
+                    return token;
+
+                case JsonTokenId.ID_FIELD_NAME:
+                    Projection node = nodes[depth - 1];
+                    valueNode = node.isAll() ? node : node.getChild(delegate.getCurrentName());
+                    if (valueNode != null)
+                        return token;
+
+                    // the property is not in the projection: skip its value
+                    delegate.nextToken();
+                    delegate.skipChildren();
+                    break;
+
+                default:
+                    return token;
+            }
+        }
+    }
+
+    @Override
+    public JsonToken nextValue() throws IOException {
+        JsonToken token = nextToken();
+        return token == JsonToken.FIELD_NAME
+                ? nextToken()
+                : token;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        JsonToken token = delegate.currentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            delegate.skipChildren();
+            depth--;
+        }
+
+        return this;
+    }
+
+    /**
+     * Node of the value, which is started by the current token
+     */
+    private Projection getValueNode() {
+        if (depth == 0)
+            return root;
+
+        // the elements of an array have the node of the array
+        return arrays[depth - 1] ? nodes[depth - 1] : valueNode;
+    }
+
+    private void push(Projection node, boolean array) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            arrays = Arrays.copyOf(arrays, depth * 2);
+        }
+
+        nodes[depth] = node;
+        arrays[depth] = array;
+        depth++;
+    }
+}
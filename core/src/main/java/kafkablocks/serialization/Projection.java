@@ -0,0 +1,141 @@
+package kafkablocks.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Projection of an event: set of paths of the fields, which are read on deserialization.
+ * <p>
+ * A path is a dot-separated sequence of property names, e.g. {@code "objectId"} or {@code "position.x"};
+ * the path through an array applies to all its elements. A path includes the whole value of its last property.
+ * The other fields are skipped by the parser without creating their values, and the corresponding fields of the
+ * event keep the values set by its constructor.
+ * <p>
+ * Projection is applied to the records in the JSON format; the records in the other formats are read completely.
+ * Is immutable.
+ */
+public final class Projection {
+    /**
+     * Node of the tree of paths, which includes the whole value
+     */
+    static final Projection ALL = new Projection(null, Collections.emptySet());
+
+    /**
+     * Nested nodes: property name -> node; null - the whole value is included
+     */
+    private final Map<String, Projection> children;
+    private final Set<String> paths;
+
+    private Projection(Map<String, Projection> children, Set<String> paths) {
+        this.children = children;
+        this.paths = paths;
+    }
+
+    public static Projection of(String... paths) {
+        return of(Arrays.asList(paths));
+    }
+
+    public static Projection of(Collection<String> paths) {
+        Assert.notEmpty(paths, "paths are empty");
+
+        Map<String, Object> tree = new HashMap<>();
+        for (String path : paths) {
+            Assert.hasText(path, "path is empty");
+            addPath(tree, path.split("\\.", -1), 0, path);
+        }
+
+        return new Projection(toNodes(tree), Collections.unmodifiableSet(new TreeSet<>(paths)));
+    }
+
+    /**
+     * Add the path to the tree: name -> subtree or ALL
+     */
+    @SuppressWarnings("unchecked")
+    private static void addPath(Map<String, Object> tree, String[] names, int index, String path) {
+        String name = names[index];
+        Assert.hasText(name, () -> "Invalid path: " + path);
+
+        if (index == names.length - 1) {
+            tree.put(name, ALL);
+            return;
+        }
+
+        Object subtree = tree.computeIfAbsent(name, key -> new HashMap<String, Object>());
+        // the whole value is already included by a shorter path
+        if (subtree == ALL)
+            return;
+
+        addPath((Map<String, Object>) subtree, names, index + 1, path);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Projection> toNodes(Map<String, Object> tree) {
+        Map<String, Projection> nodes = new HashMap<>();
+        tree.forEach((name, subtree) -> nodes.put(name, subtree == ALL
+                ? ALL
+                : new Projection(toNodes((Map<String, Object>) subtree), Collections.emptySet())));
+
+        return nodes;
+    }
+
+    /**
+     * Paths of the projection
+     */
+    public Set<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Whether the node includes the whole value
+     */
+    boolean isAll() {
+        return children == null;
+    }
+
+    /**
+     * Get the node of the property or null, if the property is not included.
+     * The names are matched case-insensitively as well (see {@link kafkablocks.utils.ObjectMapperUtils}).
+     */
+    Projection getChild(String name) {
+        Projection child = children.get(name);
+        if (child != null)
+            return child;
+
+        for (Map.Entry<String, Projection> entry : children.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name))
+                return entry.getValue();
+        }
+
+        return null;
+    }
+
+    /**
+     * Wrap the parser, so that it returns only the tokens of the projection
+     */
+    JsonParser apply(JsonParser parser) {
+        return new ProjectingParser(parser, this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Projection && paths.equals(((Projection) o).paths);
+    }
+
+    @Override
+    public int hashCode() {
+        return paths.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Projection" + paths;
+    }
+}
@@ -1,32 +1,39 @@
 package kafkablocks.serialization;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.common.serialization.Serializer;
-import org.springframework.kafka.support.serializer.JsonDeserializer;
-import org.springframework.kafka.support.serializer.JsonSerializer;
-import kafkablocks.utils.ObjectMapperUtils;
 
 
 /**
- * Factory for creating serializers / deserializers
+ * Factory for creating serializers / deserializers.
+ * The serialization format is selected per event type (see {@link kafkablocks.EventTopicProperties#getEventFormat()}),
+ * the deserializers detect the format of each record by its magic byte.
  */
 public class SerdeProvider {
-    private static final ObjectMapper objectMapper = ObjectMapperUtils
-            .createWithDefaultDTFormatters();
 
-    // todo: заменить Json-сериализаторы на более производительные (см. KafkaAvroSerializer)
     public static <T> Serializer<T> getSerializer(){
-        return new JsonSerializer<>(objectMapper);
+        return new EventSerializer<>();
     }
 
     public static <T> Deserializer<T> getDeserializer(Class<T> type){
-        return new JsonDeserializer<>(type, objectMapper);
+        return new EventDeserializer<>(type);
+    }
+
+    /**
+     * Get the deserializer, which reads only the fields of the projection
+     * (see {@link Projection}; null - all the fields are read)
+     */
+    public static <T> Deserializer<T> getDeserializer(Class<T> type, Projection projection) {
+        return new EventDeserializer<>(type, projection);
     }
 
     public static <T> Serde<T> getSerde(Class<T> type) {
         return Serdes.serdeFrom(getSerializer(), getDeserializer(type));
     }
+
+    public static <T> Serde<T> getSerde(Class<T> type, Projection projection) {
+        return Serdes.serdeFrom(getSerializer(), getDeserializer(type, projection));
+    }
 }
@@ -0,0 +1,163 @@
+package kafkablocks.serialization;
+
+import kafkablocks.EventTopicProperties;
+import kafkablocks.events.Event;
+import kafkablocks.serialization.claimcheck.ClaimChecker;
+import kafkablocks.serialization.zstd.ZstdDictionaryCompressor;
+import kafkablocks.serialization.zstd.ZstdDictionaryStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Registry of serdes of the event types.
+ * <p>
+ * The serdes of all the event types, which are bound to topics, are created in advance (at startup),
+ * and then are shared by the publisher, the consumers and the stream tasks.
+ * The serdes of other types (e.g. states of the processors) are created on the first request.
+ */
+@Slf4j
+public final class SerdeRegistry {
+    /**
+     * Registry for the case, when EventTopicProperties are not initialized: JSON for all types and no topics
+     */
+    private static final SerdeRegistry DEFAULT = new SerdeRegistry(Collections.emptyMap(), type -> JsonEventCodec.NAME);
+
+    private final Function<Class<?>, String> formatResolver;
+    /**
+     * Store of the zstd dictionaries or null, if the values are not compressed
+     */
+    private final ZstdDictionaryStore dictionaryStore;
+    /**
+     * Whether the values of a type are compressed with the type's dictionary
+     */
+    private final Predicate<Class<?>> compressionResolver;
+    /**
+     * Claim checker of the large values or null, if the values are not offloaded
+     */
+    private final ClaimChecker claimChecker;
+    /**
+     * Table: topic -> serde of the topic events. Is not changed after creation
+     */
+    private final Map<String, EventTypeSerde<? extends Event>> topicSerdes;
+    private final Map<Class<?>, EventTypeSerde<?>> typeSerdes = new ConcurrentHashMap<>();
+
+
+    /**
+     * @param topicEventClasses table: topic -> event class
+     * @param formatResolver    resolver of format name by type
+     */
+    public SerdeRegistry(
+            Map<String, Class<? extends Event>> topicEventClasses,
+            Function<Class<?>, String> formatResolver) {
+        this(topicEventClasses, formatResolver, null, type -> false);
+    }
+
+    /**
+     * @param topicEventClasses   table: topic -> event class
+     * @param formatResolver      resolver of format name by type
+     * @param dictionaryStore     store of the zstd dictionaries or null, if the values are not compressed
+     * @param compressionResolver whether the values of the type are compressed on writing
+     */
+    public SerdeRegistry(
+            Map<String, Class<? extends Event>> topicEventClasses,
+            Function<Class<?>, String> formatResolver,
+            ZstdDictionaryStore dictionaryStore,
+            Predicate<Class<?>> compressionResolver) {
+        this(topicEventClasses, formatResolver, dictionaryStore, compressionResolver, null);
+    }
+
+    /**
+     * @param topicEventClasses   table: topic -> event class
+     * @param formatResolver      resolver of format name by type
+     * @param dictionaryStore     store of the zstd dictionaries or null, if the values are not compressed
+     * @param compressionResolver whether the values of the type are compressed on writing
+     * @param claimChecker        claim checker of the large values or null, if the values are not offloaded
+     */
+    public SerdeRegistry(
+            Map<String, Class<? extends Event>> topicEventClasses,
+            Function<Class<?>, String> formatResolver,
+            ZstdDictionaryStore dictionaryStore,
+            Predicate<Class<?>> compressionResolver,
+            ClaimChecker claimChecker) {
+
+        this.formatResolver = formatResolver;
+        this.dictionaryStore = dictionaryStore;
+        this.compressionResolver = compressionResolver;
+        this.claimChecker = claimChecker;
+
+        Map<String, EventTypeSerde<? extends Event>> map = new HashMap<>();
+        topicEventClasses.forEach((topic, eventClass) -> map.put(topic, forType(eventClass)));
+        this.topicSerdes = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Get the registry of the application (see {@link EventTopicProperties#getSerdeRegistry()})
+     * or the default registry, if the application properties are not initialized
+     */
+    public static SerdeRegistry getInstance() {
+        if (EventTopicProperties.isInitialized()) {
+            SerdeRegistry registry = EventTopicProperties.getInstance().getSerdeRegistry();
+            if (registry != null)
+                return registry;
+        }
+
+        return DEFAULT;
+    }
+
+    /**
+     * Get the serde of events of the topic
+     *
+     * @throws IllegalArgumentException if event class is not defined for the topic
+     */
+    public EventTypeSerde<? extends Event> forTopic(String topic) {
+        EventTypeSerde<? extends Event> serde = topicSerdes.get(topic);
+        if (serde == null)
+            throw new IllegalArgumentException("Event class not defined for topic: " + topic);
+
+        return serde;
+    }
+
+    /**
+     * Get the serde of values of the type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> EventTypeSerde<T> forType(Class<T> type) {
+        return (EventTypeSerde<T>) typeSerdes.computeIfAbsent(type, this::createSerde);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> EventTypeSerde<T> createSerde(Class<T> type) {
+        String format = formatResolver.apply(type);
+        TypedCodec<T> writeCodec = EventCodecs.get(format).bind(type);
+
+        TypedCodec<T>[] readCodecs = new TypedCodec[EventCodecs.MAX_MAGIC_BYTE + 1];
+        for (EventCodec codec : EventCodecs.getAll()) {
+            if (codec == writeCodec.getCodec()) {
+                readCodecs[codec.getMagicByte()] = writeCodec;
+                continue;
+            }
+
+            try {
+                readCodecs[codec.getMagicByte()] = codec.bind(type);
+            } catch (RuntimeException e) {
+                log.warn("Format '{}' is not applicable for reading type {}: {}",
+                        codec.getName(), type.getName(), e.toString());
+            }
+        }
+
+        ZstdDictionaryCompressor compressor = null;
+        if (dictionaryStore != null) {
+            compressor = new ZstdDictionaryCompressor(dictionaryStore, type, compressionResolver.test(type));
+        }
+
+        log.debug("Serde created for type {}: format = {}; compression = {}",
+                type.getName(), format, compressor != null && compressionResolver.test(type));
+        return new EventTypeSerde<>(type, writeCodec, readCodecs, compressor, claimChecker);
+    }
+}
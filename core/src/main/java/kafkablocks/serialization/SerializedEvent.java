@@ -0,0 +1,58 @@
+package kafkablocks.serialization;
+
+import kafkablocks.events.Event;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Event, which is already serialized by the publisher (e.g. a delta frame, see
+ * {@link kafkablocks.serialization.delta.DeltaEncoder}, or a chunk, see {@link EventChunk}).
+ * Keeps the original event for its metadata.
+ * <p>
+ * Is passed to the producer as an event: {@link EventSerializer} writes its data as is.
+ */
+public final class SerializedEvent implements Event {
+    private final Event event;
+    private final byte[] data;
+
+    /**
+     * @param event original event
+     * @param data  serialized event (or its part)
+     */
+    public SerializedEvent(Event event, byte[] data) {
+        this.event = event instanceof SerializedEvent ? ((SerializedEvent) event).event : event;
+        this.data = data;
+    }
+
+    @Override
+    public String getId() {
+        return event.getId();
+    }
+
+    @Override
+    public OffsetDateTime getOccurred() {
+        return event.getOccurred();
+    }
+
+    @Override
+    public String getKey() {
+        return event.getKey();
+    }
+
+    /**
+     * Original event
+     */
+    public Event getEvent() {
+        return event;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "SerializedEvent{event=" + event.getClass().getSimpleName() + ", id=" + event.getId()
+                + ", bytes=" + data.length + "}";
+    }
+}
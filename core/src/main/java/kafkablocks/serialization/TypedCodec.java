@@ -0,0 +1,59 @@
+package kafkablocks.serialization;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec bound to a type.
+ * Is created once per type (see {@link EventCodec#bind(Class)}), so all the type-specific preparations
+ * (e.g. resolving of Jackson serializers or Avro schemas) are done in advance, not for each record.
+ * <p>
+ * Implementations must be immutable and thread-safe.
+ *
+ * @param <T> type of values
+ */
+public interface TypedCodec<T> {
+    /**
+     * Codec, to which this typed codec is bound
+     */
+    EventCodec getCodec();
+
+    byte[] serialize(T value);
+
+    T deserialize(byte[] data, int offset, int length);
+
+    /**
+     * Deserialize the value filling the given instance in place, if the format supports it.
+     * The fields absent in the data keep their values, so the instance must be reset beforehand.
+     * By default a new instance is created.
+     *
+     * @param reuse instance to fill or null
+     * @return the filled instance or a new one
+     */
+    default T deserialize(byte[] data, int offset, int length, T reuse) {
+        return deserialize(data, offset, length);
+    }
+
+    /**
+     * Deserialize only the fields of the projection, if the format supports it (see {@link Projection}).
+     * By default the value is read completely.
+     *
+     * @param reuse      instance to fill or null
+     * @param projection fields to read or null to read all the fields
+     */
+    default T deserialize(byte[] data, int offset, int length, T reuse, Projection projection) {
+        return deserialize(data, offset, length, reuse);
+    }
+
+    /**
+     * Deserialize the value from the remaining bytes of the buffer without changing its position
+     * (see {@link EventCodec#deserialize(ByteBuffer, Class)})
+     */
+    default T deserialize(ByteBuffer data) {
+        if (data.hasArray())
+            return deserialize(data.array(), data.arrayOffset() + data.position(), data.remaining());
+
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return deserialize(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,244 @@
+package kafkablocks.serialization.avro;
+
+import kafkablocks.serialization.EventCodec;
+import kafkablocks.serialization.TypedCodec;
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.reflect.ReflectData;
+import org.apache.avro.reflect.ReflectDatumReader;
+import org.apache.avro.reflect.ReflectDatumWriter;
+import org.apache.avro.util.ByteBufferInputStream;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary format based on Avro.
+ * <p>
+ * Schemas are derived from the classes by reflection (all non-primitive fields are nullable).
+ * Record layout: magic byte (1 byte), schema id (8 bytes, big-endian), Avro binary data.
+ * The reader resolves the schema of the record against the schema of the requested class,
+ * so the classes can evolve according to the Avro schema resolution rules.
+ */
+public class AvroEventCodec implements EventCodec {
+    public static final String NAME = "avro";
+    public static final byte MAGIC_BYTE = 0x01;
+    private static final int HEADER_SIZE = 1 + Long.BYTES;
+
+    private final SchemaRegistry schemaRegistry;
+    private final ReflectData reflectData;
+
+    /**
+     * Writer for a class: id of the class schema and the datum writer
+     */
+    private static class TypeWriter {
+        private final long schemaId;
+        private final DatumWriter<Object> datumWriter;
+
+        TypeWriter(long schemaId, DatumWriter<Object> datumWriter) {
+            this.schemaId = schemaId;
+            this.datumWriter = datumWriter;
+        }
+    }
+
+    private final Map<Class<?>, TypeWriter> writers = new ConcurrentHashMap<>();
+    /**
+     * Readers: class -> writer schema id -> reader
+     */
+    private final Map<Class<?>, Map<Long, DatumReader<?>>> readers = new ConcurrentHashMap<>();
+    /**
+     * Decoders are reused within a thread, so that a decoder is not allocated for each record
+     */
+    private static final ThreadLocal<BinaryDecoder> arrayDecoders = new ThreadLocal<>();
+    private static final ThreadLocal<BinaryDecoder> bufferDecoders = new ThreadLocal<>();
+
+    public AvroEventCodec() {
+        this(new InMemorySchemaRegistry());
+    }
+
+    public AvroEventCodec(SchemaRegistry schemaRegistry) {
+        this.schemaRegistry = schemaRegistry;
+        this.reflectData = new ReflectData.AllowNull();
+        this.reflectData.addLogicalTypeConversion(new OffsetDateTimeConversion());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte getMagicByte() {
+        return MAGIC_BYTE;
+    }
+
+    /**
+     * Get the schema of the class and register it in the registry
+     */
+    public Schema getSchema(Class<?> type) {
+        Schema schema = reflectData.getSchema(type);
+        schemaRegistry.register(schema);
+        return schema;
+    }
+
+    private TypeWriter createWriter(Class<?> type) {
+        Schema schema = getSchema(type);
+        long schemaId = schemaRegistry.register(schema);
+        return new TypeWriter(schemaId, new ReflectDatumWriter<>(schema, reflectData));
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        return serialize(value, writers.computeIfAbsent(value.getClass(), this::createWriter));
+    }
+
+    private byte[] serialize(Object value, TypeWriter writer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(MAGIC_BYTE);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (writer.schemaId >>> shift));
+        }
+
+        try {
+            BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+            writer.datumWriter.write(value, encoder);
+            encoder.flush();
+        } catch (IOException | RuntimeException e) {
+            throw new SerializationException("Can't serialize value of type " + value.getClass().getName(), e);
+        }
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, int offset, int length, Class<T> type) {
+        return deserialize(data, offset, length, type, null, readers.computeIfAbsent(type, key -> new ConcurrentHashMap<>()));
+    }
+
+    private <T> T deserialize(
+            byte[] data, int offset, int length, Class<T> type, T reuse, Map<Long, DatumReader<?>> typeReaders) {
+        if (length < HEADER_SIZE || data[offset] != MAGIC_BYTE)
+            throw new SerializationException("Data is not in the Avro format");
+
+        long schemaId = 0;
+        for (int i = 1; i < HEADER_SIZE; i++) {
+            schemaId = (schemaId << 8) | (data[offset + i] & 0xFF);
+        }
+
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(
+                data, offset + HEADER_SIZE, length - HEADER_SIZE, arrayDecoders.get());
+        arrayDecoders.set(decoder);
+
+        return read(decoder, type, reuse, schemaId, typeReaders);
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer data, Class<T> type) {
+        if (data.hasArray())
+            return deserialize(data.array(), data.arrayOffset() + data.position(), data.remaining(), type);
+
+        return deserialize(data, type, readers.computeIfAbsent(type, key -> new ConcurrentHashMap<>()));
+    }
+
+    /**
+     * Deserialize the value from a direct buffer: the data is decoded from the buffer without copying
+     */
+    private <T> T deserialize(ByteBuffer data, Class<T> type, Map<Long, DatumReader<?>> typeReaders) {
+        int position = data.position();
+        if (data.remaining() < HEADER_SIZE || data.get(position) != MAGIC_BYTE)
+            throw new SerializationException("Data is not in the Avro format");
+
+        long schemaId = 0;
+        for (int i = 1; i < HEADER_SIZE; i++) {
+            schemaId = (schemaId << 8) | (data.get(position + i) & 0xFF);
+        }
+
+        ByteBuffer body = data.duplicate();
+        body.position(position + HEADER_SIZE);
+        BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(
+                new ByteBufferInputStream(Collections.singletonList(body)), bufferDecoders.get());
+        bufferDecoders.set(decoder);
+
+        return read(decoder, type, null, schemaId, typeReaders);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(
+            BinaryDecoder decoder, Class<T> type, T reuse, long schemaId, Map<Long, DatumReader<?>> typeReaders) {
+        DatumReader<T> reader = (DatumReader<T>) getReader(type, schemaId, typeReaders);
+
+        try {
+            // the reflect reader fills the fields of the reused instance in place
+            return reader.read(reuse, decoder);
+        } catch (IOException | RuntimeException e) {
+            throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+        }
+    }
+
+    private DatumReader<?> getReader(Class<?> type, long writerSchemaId, Map<Long, DatumReader<?>> typeReaders) {
+        return typeReaders.computeIfAbsent(writerSchemaId, key -> {
+            // the reader schema is registered before looking for the writer schema,
+            // because usually they are the same
+            Schema readerSchema = getSchema(type);
+            Schema writerSchema = schemaRegistry.getSchema(writerSchemaId);
+            if (writerSchema == null)
+                throw new SerializationException(String.format(
+                        "Unknown schema id %d of value of type %s", writerSchemaId, type.getName()));
+
+            return new ReflectDatumReader<>(writerSchema, readerSchema, reflectData);
+        });
+    }
+
+    /**
+     * Binds the codec to the type: the schema of the type is derived and registered in advance,
+     * and the writer and the readers of the type are looked up without the per-record class lookups.
+     */
+    @Override
+    public <T> TypedCodec<T> bind(Class<T> type) {
+        TypeWriter writer = writers.computeIfAbsent(type, this::createWriter);
+        Map<Long, DatumReader<?>> typeReaders = readers.computeIfAbsent(type, key -> new ConcurrentHashMap<>());
+        // prepare the reader for the own schema of the type
+        getReader(type, writer.schemaId, typeReaders);
+
+        return new TypedCodec<T>() {
+            @Override
+            public EventCodec getCodec() {
+                return AvroEventCodec.this;
+            }
+
+            @Override
+            public byte[] serialize(T value) {
+                return value.getClass() == type
+                        ? AvroEventCodec.this.serialize(value, writer)
+                        : AvroEventCodec.this.serialize(value);
+            }
+
+            @Override
+            public T deserialize(byte[] data, int offset, int length) {
+                return AvroEventCodec.this.deserialize(data, offset, length, type, null, typeReaders);
+            }
+
+            @Override
+            public T deserialize(byte[] data, int offset, int length, T reuse) {
+                return AvroEventCodec.this.deserialize(data, offset, length, type, reuse, typeReaders);
+            }
+
+            @Override
+            public T deserialize(ByteBuffer data) {
+                return data.hasArray()
+                        ? deserialize(data.array(), data.arrayOffset() + data.position(), data.remaining())
+                        : AvroEventCodec.this.deserialize(data, type, typeReaders);
+            }
+        };
+    }
+}
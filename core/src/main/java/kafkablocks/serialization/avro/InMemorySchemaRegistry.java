@@ -0,0 +1,30 @@
+package kafkablocks.serialization.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process schema registry.
+ * <p>
+ * The id of a schema is its 64-bit parsing fingerprint, so different processes, which have the same event classes,
+ * assign the same ids without any coordination. To read records written with a schema, which is unknown
+ * to the current process (e.g. by a newer version of the producer), a shared registry implementation is needed.
+ */
+public class InMemorySchemaRegistry implements SchemaRegistry {
+    private final Map<Long, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public long register(Schema schema) {
+        long id = SchemaNormalization.parsingFingerprint64(schema);
+        schemas.putIfAbsent(id, schema);
+        return id;
+    }
+
+    @Override
+    public Schema getSchema(long id) {
+        return schemas.get(id);
+    }
+}
@@ -0,0 +1,75 @@
+package kafkablocks.serialization.avro;
+
+import org.apache.avro.Conversion;
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericFixed;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Conversion of OffsetDateTime, which is not supported by Avro out of the box.
+ * <p>
+ * The value is stored without losses as fixed(16): epoch seconds (8 bytes), nanos (4 bytes), offset seconds (4 bytes).
+ */
+class OffsetDateTimeConversion extends Conversion<OffsetDateTime> {
+    static final String LOGICAL_TYPE_NAME = "offset-date-time";
+    private static final int SIZE = 16;
+
+    static {
+        LogicalTypes.register(LOGICAL_TYPE_NAME, schema -> new OffsetDateTimeLogicalType());
+    }
+
+    private static class OffsetDateTimeLogicalType extends LogicalType {
+        OffsetDateTimeLogicalType() {
+            super(LOGICAL_TYPE_NAME);
+        }
+
+        @Override
+        public void validate(Schema schema) {
+            super.validate(schema);
+            if (schema.getType() != Schema.Type.FIXED || schema.getFixedSize() != SIZE)
+                throw new IllegalArgumentException(LOGICAL_TYPE_NAME + " can only be used with fixed(" + SIZE + ")");
+        }
+    }
+
+    private final Schema schema = new OffsetDateTimeLogicalType().addToSchema(
+            Schema.createFixed("OffsetDateTime", null, "java.time", SIZE));
+
+    @Override
+    public Class<OffsetDateTime> getConvertedType() {
+        return OffsetDateTime.class;
+    }
+
+    @Override
+    public String getLogicalTypeName() {
+        return LOGICAL_TYPE_NAME;
+    }
+
+    @Override
+    public Schema getRecommendedSchema() {
+        return schema;
+    }
+
+    @Override
+    public GenericFixed toFixed(OffsetDateTime value, Schema schema, LogicalType type) {
+        Instant instant = value.toInstant();
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE)
+                .putLong(instant.getEpochSecond())
+                .putInt(instant.getNano())
+                .putInt(value.getOffset().getTotalSeconds());
+        return new GenericData.Fixed(schema, buffer.array());
+    }
+
+    @Override
+    public OffsetDateTime fromFixed(GenericFixed value, Schema schema, LogicalType type) {
+        ByteBuffer buffer = ByteBuffer.wrap(value.bytes());
+        Instant instant = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+        return OffsetDateTime.ofInstant(instant, ZoneOffset.ofTotalSeconds(buffer.getInt()));
+    }
+}
@@ -0,0 +1,24 @@
+package kafkablocks.serialization.avro;
+
+import org.apache.avro.Schema;
+
+/**
+ * Registry of Avro schemas.
+ * The id of a schema is written to each record, so the reader is able to find the schema, with which
+ * the record was written, and to resolve it against the schema of its own class.
+ */
+public interface SchemaRegistry {
+    /**
+     * Register the schema (if it has not been registered yet)
+     *
+     * @return id of the schema
+     */
+    long register(Schema schema);
+
+    /**
+     * Find the schema by its id
+     *
+     * @return the schema or null, if the schema is unknown
+     */
+    Schema getSchema(long id);
+}
@@ -0,0 +1,23 @@
+package kafkablocks.serialization.claimcheck;
+
+/**
+ * Store of the large values, which are published as references (see {@link ClaimChecker}).
+ * <p>
+ * The store must be shared by all the publishers and consumers of the offloaded values.
+ * Implementations must be thread-safe.
+ */
+public interface BlobStore {
+    /**
+     * Save the value
+     *
+     * @return reference, by which the value can be read; ASCII string
+     */
+    String put(byte[] data);
+
+    /**
+     * Read the value by the reference
+     *
+     * @throws java.util.NoSuchElementException if the value is not found (e.g. it is expired)
+     */
+    byte[] get(String reference);
+}
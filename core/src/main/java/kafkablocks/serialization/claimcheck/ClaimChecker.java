@@ -0,0 +1,124 @@
+package kafkablocks.serialization.claimcheck;
+
+import kafkablocks.serialization.EventHeaders;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Claim check of the large values: a serialized value, which is larger than the threshold, is saved to the
+ * {@link BlobStore} and the record gets only the reference to it, so the large values do not occupy
+ * the batches and the requests of the producer, which the small events wait behind.
+ * <p>
+ * The reference records are marked with the {@link EventHeaders#CLAIM_CHECK} header (its value is the size
+ * of the offloaded value); their value is the reference in ASCII. The consumers read the offloaded value
+ * only when the record is deserialized, i.e. after the filtering by the headers.
+ * The values read recently are cached (LRU, limited by the total size), as the same record is often read
+ * by several consumers of the application. Is thread-safe.
+ */
+public class ClaimChecker {
+    private final BlobStore store;
+    private final int threshold;
+    private final long cacheSize;
+
+    private final Object cacheLock = new Object();
+    /**
+     * Cache: reference -> value, in the order of access
+     */
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    /**
+     * @param store     store of the values
+     * @param threshold max size of the value, which is written to the record as is (bytes)
+     * @param cacheSize max total size of the cached values (bytes); 0 - the values are not cached
+     */
+    public ClaimChecker(BlobStore store, int threshold, long cacheSize) {
+        this.store = store;
+        this.threshold = threshold;
+        this.cacheSize = cacheSize;
+    }
+
+    public BlobStore getStore() {
+        return store;
+    }
+
+    /**
+     * Whether the record with the headers is a reference to an offloaded value
+     */
+    public static boolean isReference(Headers headers) {
+        return headers != null && headers.lastHeader(EventHeaders.CLAIM_CHECK) != null;
+    }
+
+    /**
+     * Save the value to the store, if it is larger than the threshold
+     *
+     * @param headers headers of the record, which get the claim check header, if the value is saved
+     * @return the reference or the value as is
+     */
+    public byte[] offload(byte[] data, Headers headers) {
+        if (data == null || headers == null || data.length <= threshold || isReference(headers))
+            return data;
+
+        String reference = store.put(data);
+        headers.add(EventHeaders.CLAIM_CHECK, EventHeaders.toBytes(data.length));
+        return reference.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Get the value of the record: read it from the store (or the cache), if the record is a reference
+     *
+     * @throws SerializationException if the offloaded value can't be read
+     */
+    public byte[] resolve(byte[] data, Headers headers) {
+        if (!isReference(headers))
+            return data;
+
+        String reference = new String(data, StandardCharsets.US_ASCII);
+        byte[] value = getCached(reference);
+        if (value != null)
+            return value;
+
+        try {
+            value = store.get(reference);
+        } catch (RuntimeException e) {
+            throw new SerializationException("Can't read offloaded value: " + reference, e);
+        }
+
+        Header header = headers.lastHeader(EventHeaders.CLAIM_CHECK);
+        if (value.length != EventHeaders.toInt(header.value()))
+            throw new SerializationException(String.format(
+                    "Offloaded value %s has size %d, expected = %d",
+                    reference, value.length, EventHeaders.toInt(header.value())));
+
+        putCached(reference, value);
+        return value;
+    }
+
+    private byte[] getCached(String reference) {
+        synchronized (cacheLock) {
+            return cache.get(reference);
+        }
+    }
+
+    private void putCached(String reference, byte[] value) {
+        if (value.length > cacheSize)
+            return;
+
+        synchronized (cacheLock) {
+            byte[] previous = cache.put(reference, value);
+            cachedBytes += value.length - (previous == null ? 0 : previous.length);
+
+            Iterator<Map.Entry<String, byte[]>> iterator = cache.entrySet().iterator();
+            while (cachedBytes > cacheSize && iterator.hasNext()) {
+                cachedBytes -= iterator.next().getValue().length;
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package kafkablocks.serialization.claimcheck;
+
+import kafkablocks.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed store of the values in a directory: a value is saved to the file "{sha-256 of value}.blob",
+ * so the equal values are saved once.
+ * <p>
+ * The files are deleted, when they were not written for the TTL; saving a value, which is already in the store,
+ * prolongs its TTL. The expired files are deleted by the writers, not more often than once per 1/10 of the TTL.
+ * The directory must be shared by (or replicated to) all the publishers and consumers.
+ */
+@Slf4j
+public class LocalFileBlobStore implements BlobStore {
+    private static final String FILE_EXTENSION = ".blob";
+    private static final Pattern REFERENCE_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path dir;
+    private final long ttl;
+    private final long purgeInterval;
+    private volatile long lastPurgeTime;
+
+    /**
+     * @param dir directory of the values; is created if not exists
+     * @param ttl time to live of the values
+     */
+    public LocalFileBlobStore(String dir, Duration ttl) {
+        if (ttl.toMillis() <= 0)
+            throw new IllegalArgumentException("TTL must be positive");
+
+        FileUtils.ensureDirectoryExists(dir);
+        this.dir = Paths.get(dir);
+        this.ttl = ttl.toMillis();
+        this.purgeInterval = Math.max(1000, this.ttl / 10);
+    }
+
+    @Override
+    public String put(byte[] data) {
+        String reference = hash(data);
+        Path file = dir.resolve(reference + FILE_EXTENSION);
+        try {
+            if (Files.exists(file)) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } else {
+                // the file appears under its name only when it is completely written
+                Path tmpFile = Files.createTempFile(dir, reference, ".tmp");
+                Files.write(tmpFile, data);
+                Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't save value to file: " + file, e);
+        }
+
+        purgeExpiredIfNeeded();
+        return reference;
+    }
+
+    @Override
+    public byte[] get(String reference) {
+        if (!REFERENCE_PATTERN.matcher(reference).matches())
+            throw new IllegalArgumentException("Invalid reference: " + reference);
+
+        Path file = dir.resolve(reference + FILE_EXTENSION);
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            throw new NoSuchElementException("Value not found (it may be expired): " + reference);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read value from file: " + file, e);
+        }
+    }
+
+    private void purgeExpiredIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now - lastPurgeTime < purgeInterval)
+            return;
+
+        synchronized (this) {
+            if (now - lastPurgeTime < purgeInterval)
+                return;
+
+            lastPurgeTime = now;
+            purgeExpired();
+        }
+    }
+
+    /**
+     * Delete the values, which were not written for the TTL
+     */
+    public void purgeExpired() {
+        File[] files = dir.toFile().listFiles((d, name) -> name.endsWith(FILE_EXTENSION));
+        if (files == null)
+            return;
+
+        long expiredBefore = System.currentTimeMillis() - ttl;
+        int count = 0;
+        for (File file : files) {
+            if (file.lastModified() < expiredBefore && file.delete()) {
+                count++;
+            }
+        }
+
+        if (count > 0) {
+            log.info("{} expired values deleted from '{}'", count, dir);
+        }
+    }
+
+    private static String hash(byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] hash = digest.digest(data);
+        StringBuilder sb = new StringBuilder(2 * hash.length);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,282 @@
+package kafkablocks.serialization.codegen;
+
+import kafkablocks.serialization.flyweight.EventLayout;
+import kafkablocks.serialization.flyweight.FieldKind;
+import kafkablocks.serialization.flyweight.FixedLayout;
+import kafkablocks.serialization.flyweight.Flyweight;
+import kafkablocks.serialization.flyweight.Flyweights;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor, which generates a {@link Flyweight} for each class annotated with {@link FixedLayout}.
+ * <p>
+ * The slots of the fields are arranged by {@link EventLayout}, i.e. the same way as the codec does at runtime,
+ * and the offsets are compiled into the getters. A field of a type not supported by the fixed layout
+ * is a compilation error.
+ */
+@SupportedAnnotationTypes("kafkablocks.serialization.flyweight.FixedLayout")
+public class FlyweightProcessor extends AbstractProcessor {
+
+    /**
+     * The class can't have a flyweight
+     */
+    private static final class NotApplicableException extends Exception {
+        NotApplicableException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(FixedLayout.class))) {
+            try {
+                checkType(type);
+                Map<String, String> fieldTypes = new HashMap<>();
+                EventLayout layout = EventLayout.arrange(getSlots(type, fieldTypes));
+                writeFlyweight(type, layout, fieldTypes);
+            } catch (NotApplicableException | IllegalArgumentException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Flyweight can't be generated: " + e.getMessage(), type);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Can't write flyweight: " + e, type);
+            }
+        }
+
+        return false;
+    }
+
+    private static void checkType(TypeElement type) throws NotApplicableException {
+        if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT))
+            throw new NotApplicableException("class must be concrete");
+
+        // the enums of the fields are referenced from the flyweight in the same package
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE))
+                throw new NotApplicableException("class must not be private");
+        }
+    }
+
+    /**
+     * Get the slots of the instance fields of the class and its superclasses
+     *
+     * @param fieldTypes table to fill: field name -> type name of the enum fields
+     */
+    private List<EventLayout.Slot> getSlots(TypeElement type, Map<String, String> fieldTypes)
+            throws NotApplicableException {
+
+        List<EventLayout.Slot> slots = new ArrayList<>();
+        for (TypeElement c = type; c != null && !isObject(c); c = getSuperclass(c)) {
+            for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+                    continue;
+
+                String name = field.getSimpleName().toString();
+                TypeMirror fieldType = field.asType();
+                FieldKind kind = getKind(fieldType);
+                if (kind == null)
+                    throw new NotApplicableException(String.format(
+                            "type %s of field %s is not supported", fieldType, name));
+
+                List<String> constants = null;
+                if (kind == FieldKind.ENUM) {
+                    TypeElement enumType = (TypeElement) ((DeclaredType) fieldType).asElement();
+                    if (enumType.getModifiers().contains(Modifier.PRIVATE))
+                        throw new NotApplicableException("enum of field " + name + " must not be private");
+
+                    constants = new ArrayList<>();
+                    for (Element e : enumType.getEnclosedElements()) {
+                        if (e.getKind() == ElementKind.ENUM_CONSTANT) {
+                            constants.add(e.getSimpleName().toString());
+                        }
+                    }
+                    fieldTypes.put(name, enumType.getQualifiedName().toString());
+                }
+
+                slots.add(new EventLayout.Slot(name, kind, constants));
+            }
+        }
+
+        return slots;
+    }
+
+    private static FieldKind getKind(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return FieldKind.BOOLEAN;
+            case BYTE:
+                return FieldKind.BYTE;
+            case SHORT:
+                return FieldKind.SHORT;
+            case CHAR:
+                return FieldKind.CHAR;
+            case INT:
+                return FieldKind.INT;
+            case FLOAT:
+                return FieldKind.FLOAT;
+            case LONG:
+                return FieldKind.LONG;
+            case DOUBLE:
+                return FieldKind.DOUBLE;
+            case DECLARED:
+                TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+                if (element.getKind() == ElementKind.ENUM)
+                    return FieldKind.ENUM;
+
+                String name = element.getQualifiedName().toString();
+                if (name.equals("java.lang.String"))
+                    return FieldKind.STRING;
+                if (name.equals("java.time.OffsetDateTime"))
+                    return FieldKind.OFFSET_DATE_TIME;
+
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isObject(TypeElement type) {
+        return type.getQualifiedName().contentEquals("java.lang.Object");
+    }
+
+    private TypeElement getSuperclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED
+                ? (TypeElement) ((DeclaredType) superclass).asElement()
+                : null;
+    }
+
+    //region Generation
+
+    private void writeFlyweight(TypeElement type, EventLayout layout, Map<String, String> enumTypes)
+            throws IOException {
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String flyweightName = Flyweights.getFlyweightClassName(binaryName);
+        String simpleName = flyweightName.substring(flyweightName.lastIndexOf('.') + 1);
+
+        StringBuilder sb = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            line(sb, "package %s;", packageName);
+            line(sb, "");
+        }
+        line(sb, "import kafkablocks.serialization.flyweight.Flyweight;");
+        line(sb, "");
+        line(sb, "/**");
+        line(sb, " * Flyweight of {@link %s}", type.getQualifiedName());
+        line(sb, " */");
+        line(sb, "@javax.annotation.processing.Generated(\"%s\")", FlyweightProcessor.class.getName());
+        line(sb, "public final class %s extends Flyweight {", simpleName);
+        line(sb, "    public static final int LAYOUT_HASH = %d;", layout.getHash());
+        line(sb, "    public static final int FIXED_SIZE = %d;", layout.getFixedSize());
+        for (int i = 0; i < layout.getSlots().size(); i++) {
+            EventLayout.Slot slot = layout.getSlots().get(i);
+            if (slot.getKind() == FieldKind.ENUM) {
+                String enumType = enumTypes.get(slot.getName());
+                line(sb, "    private static final %s[] CONSTANTS_%d = %s.values();", enumType, i, enumType);
+            }
+        }
+        line(sb, "");
+        line(sb, "    public %s() {", simpleName);
+        line(sb, "        super(LAYOUT_HASH, FIXED_SIZE);");
+        line(sb, "    }");
+
+        for (int i = 0; i < layout.getSlots().size(); i++) {
+            writeGetter(sb, layout.getSlots().get(i), i, enumTypes);
+        }
+        line(sb, "}");
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(flyweightName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    private static void writeGetter(StringBuilder sb, EventLayout.Slot slot, int index, Map<String, String> enumTypes) {
+        String name = Character.toTitleCase(slot.getName().charAt(0)) + slot.getName().substring(1);
+        int offset = slot.getOffset();
+        line(sb, "");
+
+        switch (slot.getKind()) {
+            case BOOLEAN:
+                getter(sb, "boolean", "is" + name, "getBoolean(%d)", offset);
+                break;
+            case BYTE:
+                getter(sb, "byte", "get" + name, "getByte(%d)", offset);
+                break;
+            case SHORT:
+                getter(sb, "short", "get" + name, "getShort(%d)", offset);
+                break;
+            case CHAR:
+                getter(sb, "char", "get" + name, "getChar(%d)", offset);
+                break;
+            case INT:
+                getter(sb, "int", "get" + name, "getInt(%d)", offset);
+                break;
+            case FLOAT:
+                getter(sb, "float", "get" + name, "getFloat(%d)", offset);
+                break;
+            case ENUM:
+                getter(sb, enumTypes.get(slot.getName()), "get" + name, "getEnum(%d, CONSTANTS_" + index + ")", offset);
+                break;
+            case LONG:
+                getter(sb, "long", "get" + name, "getLong(%d)", offset);
+                break;
+            case DOUBLE:
+                getter(sb, "double", "get" + name, "getDouble(%d)", offset);
+                break;
+            case STRING:
+                getter(sb, "String", "get" + name, "getString(%d)", offset);
+                break;
+            case OFFSET_DATE_TIME:
+                getter(sb, "java.time.OffsetDateTime", "get" + name, "getOffsetDateTime(%d)", offset);
+                line(sb, "");
+                line(sb, "    /**");
+                line(sb, "     * @return milliseconds since the epoch or Long.MIN_VALUE, if the value is null");
+                line(sb, "     */");
+                getter(sb, "long", "get" + name + "EpochMilli", "getEpochMilli(%d)", offset);
+                break;
+        }
+    }
+
+    private static void getter(StringBuilder sb, String type, String name, String read, int offset) {
+        line(sb, "    public %s %s() {", type, name);
+        line(sb, "        return " + read + ";", offset);
+        line(sb, "    }");
+    }
+
+    private static void line(StringBuilder sb, String format, Object... args) {
+        sb.append(args.length == 0 ? format : String.format(format, args)).append('\n');
+    }
+
+    //endregion
+}
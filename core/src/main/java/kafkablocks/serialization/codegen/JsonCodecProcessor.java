@@ -0,0 +1,864 @@
+package kafkablocks.serialization.codegen;
+
+import kafkablocks.serialization.GeneratedJsonCodec;
+import kafkablocks.serialization.GeneratedJsonCodecs;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor, which generates a {@link GeneratedJsonCodec} for each concrete event class
+ * of the compiled sources (the processor is registered as a service, so it runs for all the modules,
+ * which depend on core).
+ * <p>
+ * The codec is generated only if the JSON of the class is fully determined by its fields, i.e. it is the same
+ * as Jackson produces for the class: the properties are the fields with public getters (explicit or Lombok),
+ * and there are no Jackson annotations (except {@code @JsonIgnore}), computed getters, setter-only properties
+ * and transient fields. Otherwise the class is skipped with a note, and is serialized by Jackson as before.
+ * The fields are accessed by the explicit accessors or by the method handles, which are created once.
+ */
+@SupportedAnnotationTypes("*")
+public class JsonCodecProcessor extends AbstractProcessor {
+    private static final String EVENT_CLASS = "kafkablocks.events.Event";
+    private static final String JACKSON_PREFIX = "com.fasterxml.jackson.";
+    private static final String JSON_IGNORE = "com.fasterxml.jackson.annotation.JsonIgnore";
+    private static final String LOMBOK_GETTER = "lombok.Getter";
+    private static final String LOMBOK_DATA = "lombok.Data";
+    private static final String LOMBOK_VALUE = "lombok.Value";
+    private static final String LOMBOK_NO_ARGS_CONSTRUCTOR = "lombok.NoArgsConstructor";
+    private static final String LOMBOK_ACCESSORS = "lombok.experimental.Accessors";
+
+    /**
+     * Kind of property value, which defines the generated reading and writing code
+     */
+    enum Kind {
+        INT, LONG, DOUBLE, FLOAT, BOOLEAN,
+        BOXED_INT, BOXED_LONG, BOXED_DOUBLE, BOXED_FLOAT, BOXED_BOOLEAN,
+        STRING, ENUM, OFFSET_DATE_TIME,
+        /**
+         * Value is written and read by the ObjectMapper
+         */
+        OTHER
+    }
+
+    /**
+     * Property of the event class
+     */
+    static final class Property {
+        String name;
+        String fieldName;
+        /**
+         * Canonical name of the class declaring the field
+         */
+        String declaringClass;
+        /**
+         * Type of the value in the source code form
+         */
+        String typeName;
+        boolean primitive;
+        Kind kind;
+        /**
+         * Name of the explicit getter or null, if the field is read by the method handle
+         */
+        String getter;
+        /**
+         * Name of the explicit setter or null, if the field is written by the method handle
+         */
+        String setter;
+    }
+
+    /**
+     * The class can't have a generated codec
+     */
+    private static final class NotApplicableException extends Exception {
+        NotApplicableException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final Set<String> processed = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement eventElement = processingEnv.getElementUtils().getTypeElement(EVENT_CLASS);
+        if (eventElement == null)
+            return false;
+
+        TypeMirror eventType = processingEnv.getTypeUtils().erasure(eventElement.asType());
+        List<TypeElement> types = new ArrayList<>();
+        for (TypeElement root : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            collectTypes(root, types);
+        }
+
+        for (TypeElement type : types) {
+            if (!isCandidate(type, eventType) || !processed.add(type.getQualifiedName().toString()))
+                continue;
+
+            try {
+                writeCodec(type, getProperties(type));
+            } catch (NotApplicableException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "JSON codec is not generated: " + e.getMessage(), type);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Can't write JSON codec: " + e, type);
+            }
+        }
+
+        return false;
+    }
+
+    private static void collectTypes(TypeElement type, List<TypeElement> types) {
+        types.add(type);
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collectTypes(nested, types);
+        }
+    }
+
+    private boolean isCandidate(TypeElement type, TypeMirror eventType) {
+        if (type.getKind() != ElementKind.CLASS
+                || type.getModifiers().contains(Modifier.ABSTRACT)
+                || !type.getTypeParameters().isEmpty()
+                || !processingEnv.getTypeUtils().isAssignable(type.asType(), eventType))
+            return false;
+
+        // the class must be accessible from the codec in the same package, and the nested classes must be static
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE))
+                return false;
+            if (e.getEnclosingElement() instanceof TypeElement && !e.getModifiers().contains(Modifier.STATIC))
+                return false;
+        }
+
+        return true;
+    }
+
+    //region Analysis
+
+    private List<Property> getProperties(TypeElement type) throws NotApplicableException {
+        checkNoArgsConstructor(type);
+
+        // hierarchy from the top superclass
+        List<TypeElement> classes = new ArrayList<>();
+        for (TypeElement c = type; c != null && !isObject(c); c = getSuperclass(c)) {
+            classes.add(0, c);
+        }
+
+        String packageName = getPackageName(type);
+        List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+        Set<String> ignoredMethods = getIgnoredMethods(type);
+        List<Property> properties = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        Set<String> ignoredNames = new HashSet<>();
+
+        for (TypeElement c : classes) {
+            checkNoJacksonAnnotations(c);
+            if (hasAnnotation(c, LOMBOK_ACCESSORS))
+                throw new NotApplicableException("Lombok @Accessors are used");
+
+            for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                if (field.getModifiers().contains(Modifier.STATIC))
+                    continue;
+                if (field.getModifiers().contains(Modifier.TRANSIENT))
+                    throw new NotApplicableException("transient field " + field.getSimpleName());
+
+                String fieldName = field.getSimpleName().toString();
+                if (hasAnnotation(field, JSON_IGNORE)) {
+                    ignoredNames.add(fieldName);
+                    continue;
+                }
+                checkNoJacksonAnnotations(field);
+
+                Property property = getProperty(c, field, methods, ignoredMethods, packageName);
+                if (property == null) {
+                    ignoredNames.add(fieldName);
+                    continue;
+                }
+
+                if (!names.add(property.name))
+                    throw new NotApplicableException("duplicate property " + property.name);
+                properties.add(property);
+            }
+        }
+
+        checkAccessors(methods, names, ignoredNames, ignoredMethods);
+        return properties;
+    }
+
+    /**
+     * Get the property of the field or null, if the field is not visible for Jackson or is ignored
+     */
+    private Property getProperty(
+            TypeElement declaringClass,
+            VariableElement field,
+            List<ExecutableElement> methods,
+            Set<String> ignoredMethods,
+            String packageName) throws NotApplicableException {
+
+        String fieldName = field.getSimpleName().toString();
+        TypeMirror fieldType = field.asType();
+        boolean primitiveBoolean = fieldType.getKind() == TypeKind.BOOLEAN;
+
+        String getterName = getLombokGetterName(fieldName, primitiveBoolean);
+        ExecutableElement getter = findMethod(methods, getterName, 0);
+        boolean lombokGetter = isLombokPublicGetter(declaringClass, field);
+        boolean publicField = field.getModifiers().contains(Modifier.PUBLIC);
+        String setterName = "set" + capitalize(fieldName);
+        ExecutableElement setter = findMethod(methods, setterName, 1);
+
+        // @JsonIgnore on an accessor ignores the whole property
+        if (ignoredMethods.contains(methodKey(getterName, 0)) || ignoredMethods.contains(methodKey(setterName, 1)))
+            return null;
+
+        if (getter == null && !lombokGetter && !publicField) {
+            if (setter != null)
+                throw new NotApplicableException("setter-only property " + fieldName);
+            // the field is not visible for Jackson
+            return null;
+        }
+
+        String name = publicField && getter == null && !lombokGetter
+                ? fieldName
+                : mangle(getterName.substring(getterName.startsWith("is") ? 2 : 3));
+        if (!name.equals(fieldName))
+            throw new NotApplicableException(String.format(
+                    "property name '%s' differs from field name '%s'", name, fieldName));
+
+        if (getter != null && !processingEnv.getTypeUtils().isSameType(getter.getReturnType(), fieldType))
+            throw new NotApplicableException("getter type differs from field type: " + fieldName);
+        if (setter != null && !processingEnv.getTypeUtils().isSameType(setter.getParameters().get(0).asType(), fieldType))
+            throw new NotApplicableException("setter type differs from field type: " + fieldName);
+
+        if (!isAccessible(declaringClass, packageName))
+            throw new NotApplicableException("class is not accessible: " + declaringClass.getQualifiedName());
+
+        Property property = new Property();
+        property.name = name;
+        property.fieldName = fieldName;
+        property.declaringClass = declaringClass.getQualifiedName().toString();
+        property.typeName = getTypeName(fieldType, packageName);
+        property.primitive = fieldType.getKind().isPrimitive();
+        property.kind = getKind(fieldType);
+        property.getter = getter == null ? null : getterName;
+        property.setter = setter == null ? null : setter.getSimpleName().toString();
+        return property;
+    }
+
+    /**
+     * Check that there are no other properties, which Jackson would find by the public accessors
+     */
+    private void checkAccessors(
+            List<ExecutableElement> methods,
+            Set<String> names,
+            Set<String> ignoredNames,
+            Set<String> ignoredMethods) throws NotApplicableException {
+
+        for (ExecutableElement method : methods) {
+            if (!method.getModifiers().contains(Modifier.PUBLIC)
+                    || method.getModifiers().contains(Modifier.STATIC)
+                    || isObject((TypeElement) method.getEnclosingElement()))
+                continue;
+
+            String methodName = method.getSimpleName().toString();
+            int paramCount = method.getParameters().size();
+            String name;
+            if (paramCount == 0 && methodName.length() > 3 && methodName.startsWith("get")
+                    && method.getReturnType().getKind() != TypeKind.VOID) {
+                name = mangle(methodName.substring(3));
+            } else if (paramCount == 0 && methodName.length() > 2 && methodName.startsWith("is")
+                    && method.getReturnType().getKind() == TypeKind.BOOLEAN) {
+                name = mangle(methodName.substring(2));
+            } else if (paramCount == 1 && methodName.length() > 3 && methodName.startsWith("set")) {
+                name = mangle(methodName.substring(3));
+            } else {
+                continue;
+            }
+
+            if (names.contains(name) || ignoredNames.contains(name)
+                    || ignoredMethods.contains(methodKey(methodName, paramCount)))
+                continue;
+
+            throw new NotApplicableException("accessor without field: " + methodName);
+        }
+    }
+
+    /**
+     * Get the methods of the class and its supertypes, which are annotated with @JsonIgnore
+     * (the annotation is inherited by the overriding methods). Other Jackson annotations on the methods
+     * make the codec not applicable.
+     *
+     * @return set of method keys (see {@link #methodKey(String, int)})
+     */
+    private Set<String> getIgnoredMethods(TypeElement type) throws NotApplicableException {
+        Set<TypeElement> types = new HashSet<>();
+        collectSupertypes(type, types);
+
+        Set<String> ignored = new HashSet<>();
+        for (TypeElement t : types) {
+            if (isObject(t))
+                continue;
+
+            for (ExecutableElement method : ElementFilter.methodsIn(t.getEnclosedElements())) {
+                if (hasAnnotation(method, JSON_IGNORE)) {
+                    ignored.add(methodKey(method.getSimpleName().toString(), method.getParameters().size()));
+                } else {
+                    checkNoJacksonAnnotations(method);
+                }
+            }
+        }
+
+        return ignored;
+    }
+
+    private static String methodKey(String name, int paramCount) {
+        return name + "/" + paramCount;
+    }
+
+    private void collectSupertypes(TypeElement type, Set<TypeElement> types) {
+        if (!types.add(type))
+            return;
+
+        for (TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type.asType())) {
+            collectSupertypes((TypeElement) processingEnv.getTypeUtils().asElement(supertype), types);
+        }
+    }
+
+    private static boolean isObject(TypeElement type) {
+        return type.getQualifiedName().contentEquals("java.lang.Object");
+    }
+
+    private void checkNoArgsConstructor(TypeElement type) throws NotApplicableException {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+                return;
+        }
+
+        // Lombok may have not generated the constructor yet
+        AnnotationMirror noArgs = getAnnotation(type, LOMBOK_NO_ARGS_CONSTRUCTOR);
+        if (noArgs != null && !"PRIVATE".equals(getEnumValue(noArgs, "access")))
+            return;
+
+        throw new NotApplicableException("no accessible no-args constructor");
+    }
+
+    private static void checkNoJacksonAnnotations(Element element) throws NotApplicableException {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            String name = annotationName(annotation);
+            if (name.startsWith(JACKSON_PREFIX) && !name.equals(JSON_IGNORE))
+                throw new NotApplicableException("Jackson annotation @" + name + " on " + element.getSimpleName());
+        }
+    }
+
+    private boolean isLombokPublicGetter(TypeElement declaringClass, VariableElement field) {
+        AnnotationMirror fieldGetter = getAnnotation(field, LOMBOK_GETTER);
+        if (fieldGetter != null)
+            return isPublicAccessLevel(fieldGetter);
+
+        AnnotationMirror classGetter = getAnnotation(declaringClass, LOMBOK_GETTER);
+        if (classGetter != null)
+            return isPublicAccessLevel(classGetter);
+
+        return hasAnnotation(declaringClass, LOMBOK_DATA) || hasAnnotation(declaringClass, LOMBOK_VALUE);
+    }
+
+    private static boolean isPublicAccessLevel(AnnotationMirror annotation) {
+        String level = getEnumValue(annotation, "value");
+        return level == null || level.equals("PUBLIC");
+    }
+
+    private Kind getKind(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return Kind.INT;
+            case LONG:
+                return Kind.LONG;
+            case DOUBLE:
+                return Kind.DOUBLE;
+            case FLOAT:
+                return Kind.FLOAT;
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+            case DECLARED:
+                break;
+            default:
+                return Kind.OTHER;
+        }
+
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        switch (element.getQualifiedName().toString()) {
+            case "java.lang.Integer":
+                return Kind.BOXED_INT;
+            case "java.lang.Long":
+                return Kind.BOXED_LONG;
+            case "java.lang.Double":
+                return Kind.BOXED_DOUBLE;
+            case "java.lang.Float":
+                return Kind.BOXED_FLOAT;
+            case "java.lang.Boolean":
+                return Kind.BOXED_BOOLEAN;
+            case "java.lang.String":
+                return Kind.STRING;
+            case "java.time.OffsetDateTime":
+                return Kind.OFFSET_DATE_TIME;
+            default:
+                return element.getKind() == ElementKind.ENUM && !hasJacksonAnnotations(element)
+                        ? Kind.ENUM
+                        : Kind.OTHER;
+        }
+    }
+
+    private static boolean hasJacksonAnnotations(TypeElement type) {
+        if (hasJacksonAnnotation(type))
+            return true;
+
+        for (Element member : type.getEnclosedElements()) {
+            if (hasJacksonAnnotation(member))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean hasJacksonAnnotation(Element element) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (annotationName(annotation).startsWith(JACKSON_PREFIX))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the type in the source code form; the type must be accessible from the package of the codec
+     */
+    private String getTypeName(TypeMirror type, String packageName) throws NotApplicableException {
+        if (type.getKind().isPrimitive())
+            return type.getKind().name().toLowerCase();
+
+        if (type.getKind() == TypeKind.ARRAY)
+            return getTypeName(((ArrayType) type).getComponentType(), packageName) + "[]";
+
+        if (type.getKind() != TypeKind.DECLARED)
+            throw new NotApplicableException("unsupported field type " + type);
+
+        DeclaredType declaredType = (DeclaredType) type;
+        TypeElement element = (TypeElement) declaredType.asElement();
+        if (!isAccessible(element, packageName))
+            throw new NotApplicableException("type is not accessible: " + element.getQualifiedName());
+
+        StringBuilder sb = new StringBuilder(element.getQualifiedName());
+        List<? extends TypeMirror> args = declaredType.getTypeArguments();
+        if (!args.isEmpty()) {
+            sb.append('<');
+            for (int i = 0; i < args.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(getTypeName(args.get(i), packageName));
+            }
+            sb.append('>');
+        }
+
+        return sb.toString();
+    }
+
+    private boolean isAccessible(TypeElement type, String packageName) {
+        boolean samePackage = getPackageName(type).equals(packageName);
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE))
+                return false;
+            if (!samePackage && !modifiers.contains(Modifier.PUBLIC))
+                return false;
+        }
+
+        return true;
+    }
+
+    private String getPackageName(TypeElement type) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        return packageElement.getQualifiedName().toString();
+    }
+
+    private TypeElement getSuperclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED
+                ? (TypeElement) ((DeclaredType) superclass).asElement()
+                : null;
+    }
+
+    private static ExecutableElement findMethod(List<ExecutableElement> methods, String name, int paramCount) {
+        for (ExecutableElement method : methods) {
+            if (method.getSimpleName().contentEquals(name)
+                    && method.getParameters().size() == paramCount
+                    && method.getModifiers().contains(Modifier.PUBLIC)
+                    && !method.getModifiers().contains(Modifier.STATIC))
+                return method;
+        }
+
+        return null;
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, String name) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (annotationName(annotation).equals(name))
+                return annotation;
+        }
+
+        return null;
+    }
+
+    private static boolean hasAnnotation(Element element, String name) {
+        return getAnnotation(element, name) != null;
+    }
+
+    private static String annotationName(AnnotationMirror annotation) {
+        return ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    private static String getEnumValue(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name))
+                return String.valueOf(entry.getValue().getValue());
+        }
+
+        return null;
+    }
+
+    /**
+     * Name of the getter, which Lombok generates for the field
+     */
+    static String getLombokGetterName(String fieldName, boolean primitiveBoolean) {
+        if (primitiveBoolean && fieldName.length() > 2 && fieldName.startsWith("is")
+                && Character.isUpperCase(fieldName.charAt(2)))
+            return fieldName;
+
+        return (primitiveBoolean ? "is" : "get") + capitalize(fieldName);
+    }
+
+    private static String capitalize(String name) {
+        return Character.toTitleCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Property name of the accessor as Jackson derives it by default: the leading upper-case chars are lower-cased
+     */
+    static String mangle(String basename) {
+        StringBuilder sb = new StringBuilder(basename);
+        for (int i = 0; i < sb.length(); i++) {
+            char c = sb.charAt(i);
+            char lower = Character.toLowerCase(c);
+            if (c == lower)
+                break;
+            sb.setCharAt(i, lower);
+        }
+
+        return sb.toString();
+    }
+
+    //endregion
+
+    //region Generation
+
+    private void writeCodec(TypeElement type, List<Property> properties) throws IOException {
+        String packageName = getPackageName(type);
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String codecName = GeneratedJsonCodecs.getCodecClassName(binaryName);
+        String simpleName = codecName.substring(codecName.lastIndexOf('.') + 1);
+        String typeName = type.getQualifiedName().toString();
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(codecName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(new CodecWriter(packageName, simpleName, typeName, properties).write());
+        }
+    }
+
+    /**
+     * Writer of the codec source
+     */
+    private static final class CodecWriter {
+        private final String packageName;
+        private final String simpleName;
+        private final String typeName;
+        private final List<Property> properties;
+        private final StringBuilder sb = new StringBuilder();
+
+        CodecWriter(String packageName, String simpleName, String typeName, List<Property> properties) {
+            this.packageName = packageName;
+            this.simpleName = simpleName;
+            this.typeName = typeName;
+            this.properties = properties;
+        }
+
+        String write() {
+            if (!packageName.isEmpty()) {
+                line("package %s;", packageName);
+                line("");
+            }
+            line("import com.fasterxml.jackson.core.JsonGenerator;");
+            line("import com.fasterxml.jackson.core.JsonParser;");
+            line("import com.fasterxml.jackson.core.JsonToken;");
+            line("import com.fasterxml.jackson.core.io.SerializedString;");
+            line("import com.fasterxml.jackson.databind.JavaType;");
+            line("import com.fasterxml.jackson.databind.ObjectMapper;");
+            line("import kafkablocks.serialization.GeneratedJsonCodec;");
+            line("import kafkablocks.serialization.GeneratedJsonCodecs;");
+            line("");
+            line("import java.io.IOException;");
+            line("import java.lang.invoke.MethodHandle;");
+            line("");
+            line("@javax.annotation.processing.Generated(\"%s\")", JsonCodecProcessor.class.getName());
+            line("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            line("public final class %s implements GeneratedJsonCodec<%s> {", simpleName, typeName);
+
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                line("    private static final SerializedString NAME_%d = new SerializedString(\"%s\");", i, p.name);
+                if (p.getter == null) {
+                    line("    private static final MethodHandle GET_%d = GeneratedJsonCodecs.getter(%s.class, %s.class, \"%s\");",
+                            i, typeName, p.declaringClass, p.fieldName);
+                }
+                if (p.setter == null) {
+                    line("    private static final MethodHandle SET_%d = GeneratedJsonCodecs.setter(%s.class, %s.class, \"%s\");",
+                            i, typeName, p.declaringClass, p.fieldName);
+                }
+            }
+            line("");
+            line("    private final ObjectMapper mapper;");
+            for (int i = 0; i < properties.size(); i++) {
+                if (properties.get(i).kind == Kind.OTHER) {
+                    line("    private final JavaType type%d;", i);
+                }
+            }
+            line("");
+            line("    public %s(ObjectMapper mapper) {", simpleName);
+            line("        this.mapper = mapper;");
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                if (p.kind != Kind.OTHER)
+                    continue;
+
+                if (p.primitive || !p.typeName.contains("<")) {
+                    line("        this.type%d = mapper.constructType(%s.class);", i, p.typeName);
+                } else {
+                    line("        this.type%d = mapper.getTypeFactory().constructType(" +
+                            "new com.fasterxml.jackson.core.type.TypeReference<%s>() {});", i, p.typeName);
+                }
+            }
+            line("    }");
+
+            writeWrite();
+            writeRead();
+
+            line("}");
+            return sb.toString();
+        }
+
+        private void writeWrite() {
+            line("");
+            line("    @Override");
+            line("    public void write(JsonGenerator gen, %s value) throws IOException {", typeName);
+            line("        try {");
+            line("            gen.writeStartObject();");
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                String get = p.getter != null
+                        ? "value." + p.getter + "()"
+                        : String.format("(%s) GET_%d.invokeExact(value)", erasure(p.typeName), i);
+                line("            %s v%d = %s;", p.typeName, i, get);
+
+                String v = "v" + i;
+                if (!p.primitive) {
+                    line("            if (%s != null) {", v);
+                }
+                String indent = p.primitive ? "            " : "                ";
+                line("%sgen.writeFieldName(NAME_%d);", indent, i);
+                line("%s%s;", indent, writeValue(p, v));
+                if (!p.primitive) {
+                    line("            }");
+                }
+            }
+            line("            gen.writeEndObject();");
+            line("        } catch (Throwable e) {");
+            line("            throw GeneratedJsonCodecs.rethrow(e);");
+            line("        }");
+            line("    }");
+        }
+
+        private static String writeValue(Property p, String v) {
+            switch (p.kind) {
+                case INT:
+                case LONG:
+                case DOUBLE:
+                case FLOAT:
+                case BOXED_INT:
+                case BOXED_LONG:
+                case BOXED_DOUBLE:
+                case BOXED_FLOAT:
+                    return "gen.writeNumber(" + v + ")";
+                case BOOLEAN:
+                case BOXED_BOOLEAN:
+                    return "gen.writeBoolean(" + v + ")";
+                case STRING:
+                    return "gen.writeString(" + v + ")";
+                case ENUM:
+                    return "gen.writeString(" + v + ".name())";
+                case OFFSET_DATE_TIME:
+                    return "gen.writeString(java.time.format.DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(" + v + "))";
+                default:
+                    return "mapper.writeValue(gen, (Object) " + v + ")";
+            }
+        }
+
+        private void writeRead() {
+            line("");
+            line("    @Override");
+            line("    public %s read(JsonParser p, %s reuse) throws IOException {", typeName, typeName);
+            line("        try {");
+            line("            JsonToken t = p.nextToken();");
+            line("            if (t == JsonToken.VALUE_NULL)");
+            line("                return null;");
+            line("            if (t != JsonToken.START_OBJECT)");
+            line("                return mapper.readValue(p, %s.class);", typeName);
+            line("");
+            line("            %s value = reuse != null ? reuse : new %s();", typeName, typeName);
+            line("            while (p.nextToken() == JsonToken.FIELD_NAME) {");
+            line("                String name = p.getCurrentName();");
+            line("                p.nextToken();");
+            line("                switch (name) {");
+            for (int i = 0; i < properties.size(); i++) {
+                line("                    case \"%s\":", properties.get(i).name);
+                line("                        read%d(p, value);", i);
+                line("                        break;");
+            }
+            line("                    default:");
+            line("                        readIgnoreCase(p, value, name);");
+            line("                }");
+            line("            }");
+            line("");
+            line("            return value;");
+            line("        } catch (Throwable e) {");
+            line("            throw GeneratedJsonCodecs.rethrow(e);");
+            line("        }");
+            line("    }");
+
+            // the names are case-insensitive (see ObjectMapperUtils)
+            line("");
+            line("    private void readIgnoreCase(JsonParser p, %s value, String name) throws Throwable {", typeName);
+            for (int i = 0; i < properties.size(); i++) {
+                line("        %sif (name.equalsIgnoreCase(\"%s\")) {", i == 0 ? "" : "} else ", properties.get(i).name);
+                line("            read%d(p, value);", i);
+            }
+            if (properties.isEmpty()) {
+                line("        p.skipChildren();");
+            } else {
+                line("        } else {");
+                line("            p.skipChildren();");
+                line("        }");
+            }
+            line("    }");
+
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                line("");
+                line("    private void read%d(JsonParser p, %s value) throws Throwable {", i, typeName);
+                line("        JsonToken t = p.currentToken();");
+                line("        %s v = %s;", p.typeName, readValue(p, i));
+                if (p.setter != null) {
+                    line("        value.%s(v);", p.setter);
+                } else {
+                    line("        SET_%d.invokeExact(value, v);", i);
+                }
+                line("    }");
+            }
+        }
+
+        private static String readValue(Property p, int i) {
+            String fallback = p.kind == Kind.OTHER
+                    ? "mapper.readValue(p, type" + i + ")"
+                    : "mapper.readValue(p, " + p.typeName + ".class)";
+            String nullCheck = "t == JsonToken.VALUE_NULL ? null : ";
+
+            switch (p.kind) {
+                case INT:
+                    return "t == JsonToken.VALUE_NUMBER_INT ? p.getIntValue() : " + fallback;
+                case LONG:
+                    return "t == JsonToken.VALUE_NUMBER_INT ? p.getLongValue() : " + fallback;
+                case DOUBLE:
+                    return "t == JsonToken.VALUE_NUMBER_FLOAT || t == JsonToken.VALUE_NUMBER_INT ? p.getDoubleValue() : " + fallback;
+                case FLOAT:
+                    return "t == JsonToken.VALUE_NUMBER_FLOAT || t == JsonToken.VALUE_NUMBER_INT ? p.getFloatValue() : " + fallback;
+                case BOOLEAN:
+                    return "t == JsonToken.VALUE_TRUE || t == JsonToken.VALUE_FALSE ? t == JsonToken.VALUE_TRUE : " + fallback;
+                case BOXED_INT:
+                    return nullCheck + "t == JsonToken.VALUE_NUMBER_INT ? Integer.valueOf(p.getIntValue()) : " + fallback;
+                case BOXED_LONG:
+                    return nullCheck + "t == JsonToken.VALUE_NUMBER_INT ? Long.valueOf(p.getLongValue()) : " + fallback;
+                case BOXED_DOUBLE:
+                    return nullCheck + "t == JsonToken.VALUE_NUMBER_FLOAT || t == JsonToken.VALUE_NUMBER_INT " +
+                            "? Double.valueOf(p.getDoubleValue()) : " + fallback;
+                case BOXED_FLOAT:
+                    return nullCheck + "t == JsonToken.VALUE_NUMBER_FLOAT || t == JsonToken.VALUE_NUMBER_INT " +
+                            "? Float.valueOf(p.getFloatValue()) : " + fallback;
+                case BOXED_BOOLEAN:
+                    return nullCheck + "t == JsonToken.VALUE_TRUE || t == JsonToken.VALUE_FALSE " +
+                            "? Boolean.valueOf(t == JsonToken.VALUE_TRUE) : " + fallback;
+                case STRING:
+                    return nullCheck + "t == JsonToken.VALUE_STRING ? p.getText() : " + fallback;
+                case ENUM:
+                    return nullCheck + "t == JsonToken.VALUE_STRING " +
+                            "? GeneratedJsonCodecs.enumValue(p, " + p.typeName + ".class, mapper) : " + fallback;
+                case OFFSET_DATE_TIME:
+                    return nullCheck + "t == JsonToken.VALUE_STRING " +
+                            "? GeneratedJsonCodecs.offsetDateTime(p.getText()) : " + fallback;
+                default:
+                    return fallback;
+            }
+        }
+
+        private static String erasure(String typeName) {
+            String erased = typeName;
+            while (erased.indexOf('<') >= 0) {
+                erased = erased.replaceAll("<[^<>]*>", "");
+            }
+            return erased;
+        }
+
+        private void line(String format, Object... args) {
+            sb.append(args.length == 0 ? format : String.format(format, args)).append('\n');
+        }
+    }
+
+    //endregion
+}
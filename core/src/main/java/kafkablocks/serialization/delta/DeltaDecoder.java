@@ -0,0 +1,106 @@
+package kafkablocks.serialization.delta;
+
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-key decoder of the delta frames (see {@link DeltaEventCodec}).
+ * <p>
+ * A delta frame is applied to the values of the previous frame of the key, so the frames of a key must be read
+ * in the order of the partition without gaps. A delta frame, which does not follow the previous frame of the key
+ * (e.g. the consumer started in the middle of the keyframe interval), is rejected until the next keyframe.
+ * <p>
+ * The frames of a key must be decoded by one thread at a time (the keys of a partition are read by its thread),
+ * the frames of different keys can be decoded concurrently.
+ *
+ * @param <T> type of the events
+ */
+public class DeltaDecoder<T> {
+    private final DeltaLayout<T> layout;
+    /**
+     * Table: key -> state of the key
+     */
+    private final Map<String, KeyState> states = new ConcurrentHashMap<>();
+
+    /**
+     * State of a key: the values of the previous frame
+     */
+    private static final class KeyState {
+        private final long[] components;
+        private final String[] strings;
+        private long sequence;
+
+        KeyState(int componentCount, int stringCount) {
+            this.components = new long[componentCount];
+            this.strings = new String[stringCount];
+        }
+    }
+
+    public DeltaDecoder(Class<T> type) {
+        this.layout = DeltaEventCodec.getLayout(type);
+    }
+
+    /**
+     * Decode the frame of the key
+     *
+     * @param reuse instance to fill or null
+     * @throws SerializationException if the frame does not follow the previous frame of the key
+     */
+    public T decode(String key, byte[] data, T reuse) {
+        KeyState state = apply(key, data);
+        return layout.create(state.components, state.strings, reuse);
+    }
+
+    /**
+     * Update the state of the key with the frame without creation of the event
+     * (for the records, which are not handled, e.g. filtered out)
+     */
+    public void skip(String key, byte[] data) {
+        try {
+            apply(key, data);
+        } catch (SerializationException e) {
+            // the key will be read from its next keyframe
+        }
+    }
+
+    /**
+     * Apply the frame to the state of the key
+     *
+     * @return the state of the key or, for a standalone keyframe, the values of the frame
+     */
+    private KeyState apply(String key, byte[] data) {
+        DeltaLayout<T>.FrameReader reader = layout.new FrameReader(data, 0, data.length);
+
+        if ((DeltaLayout.flags(data, 0, data.length) & DeltaLayout.STANDALONE) != 0) {
+            // standalone keyframes are written without the encoder state, so they do not change the state of the key
+            KeyState standalone = new KeyState(layout.getComponentCount(), layout.getStringCount());
+            reader.read(standalone.components, standalone.strings);
+            return standalone;
+        }
+
+        KeyState state = states.get(key);
+        if (reader.isKeyframe()) {
+            if (state == null) {
+                state = new KeyState(layout.getComponentCount(), layout.getStringCount());
+                states.put(key, state);
+            }
+        } else if (state == null || reader.getSequence() != state.sequence + 1) {
+            states.remove(key);
+            throw new SerializationException(String.format(
+                    "Delta frame %d of key '%s' does not follow the previous frame %s",
+                    reader.getSequence(), key, state == null ? "(none)" : String.valueOf(state.sequence)));
+        }
+
+        try {
+            reader.read(state.components, state.strings);
+        } catch (SerializationException e) {
+            states.remove(key);
+            throw e;
+        }
+        state.sequence = reader.getSequence();
+
+        return state;
+    }
+}
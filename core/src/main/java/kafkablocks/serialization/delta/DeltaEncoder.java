@@ -0,0 +1,116 @@
+package kafkablocks.serialization.delta;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-key encoder of the delta frames (see {@link DeltaEventCodec}).
+ * <p>
+ * The first event of a key is written as a keyframe, the next ones as the differences from the previous event.
+ * A new keyframe is written when the timestamp enters the next keyframe interval
+ * (the intervals are aligned to the epoch, so a consumer, which starts reading at the beginning of an interval,
+ * gets a keyframe of each key first), after the maximum number of delta frames,
+ * and when the class of the events of the key changes.
+ * <p>
+ * Frames of a key must be sent in the order of encoding, so the caller encodes and sends them
+ * under the lock of the key (see {@link #getLock(String, String)}).
+ * If a frame was not sent, the state of the key must be reset (see {@link #reset(String, String)}),
+ * so that the next frame is a keyframe.
+ */
+public class DeltaEncoder {
+    private static final int LOCK_STRIPES = 64;
+
+    private final long keyframeInterval;
+    private final int maxDeltas;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    /**
+     * Table: topic -> (key -> state of the key)
+     */
+    private final Map<String, Map<String, KeyState>> states = new ConcurrentHashMap<>();
+
+    /**
+     * State of a key: the values of the previous frame
+     */
+    private static final class KeyState {
+        private final DeltaLayout<?> layout;
+        private final long[] components;
+        private final String[] strings;
+        private final long window;
+        private long sequence;
+        private int deltas;
+
+        KeyState(DeltaLayout<?> layout, long[] components, String[] strings, long window) {
+            this.layout = layout;
+            this.components = components;
+            this.strings = strings;
+            this.window = window;
+        }
+    }
+
+    /**
+     * @param keyframeInterval interval of the keyframes
+     * @param maxDeltas        max number of the delta frames between the keyframes
+     */
+    public DeltaEncoder(Duration keyframeInterval, int maxDeltas) {
+        if (keyframeInterval.toMillis() <= 0)
+            throw new IllegalArgumentException("Keyframe interval must be positive");
+        if (maxDeltas < 0)
+            throw new IllegalArgumentException("Max deltas must not be negative");
+
+        this.keyframeInterval = keyframeInterval.toMillis();
+        this.maxDeltas = maxDeltas;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Get the lock, under which the frames of the key are encoded and sent
+     */
+    public Object getLock(String topic, String key) {
+        int hash = 31 * topic.hashCode() + key.hashCode();
+        return locks[Math.floorMod(hash ^ (hash >>> 16), LOCK_STRIPES)];
+    }
+
+    /**
+     * Encode the value of the key
+     *
+     * @param timestamp timestamp of the record, by which the keyframes are aligned
+     * @return frame
+     */
+    public byte[] encode(String topic, String key, Object value, long timestamp) {
+        DeltaLayout<?> layout = DeltaEventCodec.getLayout(value.getClass());
+        long[] components = new long[layout.getComponentCount()];
+        String[] strings = new String[layout.getStringCount()];
+        layout.extract(value, components, strings);
+
+        long window = Math.floorDiv(timestamp, keyframeInterval);
+        Map<String, KeyState> topicStates = states.computeIfAbsent(topic, t -> new ConcurrentHashMap<>());
+        KeyState state = topicStates.get(key);
+
+        if (state == null || state.layout != layout || state.window != window || state.deltas >= maxDeltas) {
+            KeyState keyframe = new KeyState(layout, components, strings, window);
+            keyframe.sequence = state == null ? 0 : state.sequence + 1;
+            topicStates.put(key, keyframe);
+            return layout.write(components, strings, null, null, keyframe.sequence, false);
+        }
+
+        byte[] frame = layout.write(components, strings, state.components, state.strings, ++state.sequence, false);
+        System.arraycopy(components, 0, state.components, 0, components.length);
+        System.arraycopy(strings, 0, state.strings, 0, strings.length);
+        state.deltas++;
+
+        return frame;
+    }
+
+    /**
+     * Reset the state of the key, so that its next frame is a keyframe
+     */
+    public void reset(String topic, String key) {
+        Map<String, KeyState> topicStates = states.get(topic);
+        if (topicStates != null) {
+            topicStates.remove(key);
+        }
+    }
+}
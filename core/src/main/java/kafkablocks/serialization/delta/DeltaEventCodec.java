@@ -0,0 +1,76 @@
+package kafkablocks.serialization.delta;
+
+import kafkablocks.serialization.EventCodec;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary format of the frames of a per-key delta stream (see {@link DeltaLayout}).
+ * <p>
+ * Consecutive events of a key usually differ only slightly, so the publisher writes a keyframe with all the values
+ * and then the frames with the differences of the numeric fields and of the occurred time from the previous
+ * event of the key (see {@link DeltaEncoder}). A consumer restores the events with the per-key state
+ * (see {@link DeltaDecoder}) and can start reading at any keyframe.
+ * <p>
+ * The codec itself is stateless: it writes standalone keyframes and reads only keyframes,
+ * so the events of the format can be written and read as usual by the components without the per-key state
+ * (e.g. the spool of the publisher or the stream processors).
+ */
+public class DeltaEventCodec implements EventCodec {
+    public static final String NAME = "delta";
+    public static final byte MAGIC_BYTE = 0x03;
+
+    private static final Map<Class<?>, DeltaLayout<?>> layouts = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte getMagicByte() {
+        return MAGIC_BYTE;
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        DeltaLayout<?> layout = getLayout(value.getClass());
+        long[] components = new long[layout.getComponentCount()];
+        String[] strings = new String[layout.getStringCount()];
+        layout.extract(value, components, strings);
+
+        return layout.write(components, strings, null, null, 0, true);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, int offset, int length, Class<T> type) {
+        DeltaLayout<T> layout = getLayout(type);
+        DeltaLayout<T>.FrameReader reader = layout.new FrameReader(data, offset, length);
+        if (!reader.isKeyframe())
+            throw new SerializationException(
+                    "Delta frame can't be read without the previous frames of the key: " + type.getName());
+
+        long[] components = new long[layout.getComponentCount()];
+        String[] strings = new String[layout.getStringCount()];
+        reader.read(components, strings);
+
+        return layout.create(components, strings, null);
+    }
+
+    /**
+     * Check whether the data is a delta frame
+     */
+    public static boolean isDelta(byte[] data) {
+        return data != null && data.length > 0 && data[0] == MAGIC_BYTE;
+    }
+
+    /**
+     * Get the layout of the type, which is created on the first use
+     */
+    @SuppressWarnings("unchecked")
+    static <T> DeltaLayout<T> getLayout(Class<T> type) {
+        return (DeltaLayout<T>) layouts.computeIfAbsent(type, DeltaLayout::new);
+    }
+}
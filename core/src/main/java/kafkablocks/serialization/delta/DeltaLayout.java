@@ -0,0 +1,477 @@
+package kafkablocks.serialization.delta;
+
+import kafkablocks.serialization.GeneratedJsonCodecs;
+import kafkablocks.serialization.flyweight.EventLayout;
+import kafkablocks.serialization.flyweight.FieldKind;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Layout of an event class for the delta frames (see {@link DeltaEventCodec}).
+ * <p>
+ * The fields are ordered as in the fixed layout (see {@link EventLayout}) and are represented as
+ * numeric components and strings. Every numeric field is one component (floating point numbers as their raw bits,
+ * enums as ordinals, -1 - null); a date-time is three components: epoch second (Long.MIN_VALUE - null),
+ * nanosecond and offset in seconds.
+ * <p>
+ * Frame layout:
+ * <pre>
+ * magic byte
+ * flags          bit 0 - keyframe; bit 1 - standalone, i.e. written without the encoder state
+ * layout hash    int32 (big-endian), keyframes only
+ * sequence       varint, number of the frame of the key
+ * components     zigzag varint each: value (keyframe) or difference with the previous value of the key
+ * strings        varint tag each: 0 - unchanged (delta frames only), 1 - null, 2 - UUID (16 bytes follow),
+ *                n + 3 - n bytes of UTF-8 follow
+ * </pre>
+ * The differences wrap around on overflow, so the encoding is lossless for all the values.
+ */
+final class DeltaLayout<T> {
+    static final int KEYFRAME = 1;
+    static final int STANDALONE = 2;
+    static final int HEADER_SIZE = 2;
+
+    private static final int STRING_UNCHANGED = 0;
+    private static final int STRING_NULL = 1;
+    private static final int STRING_UUID = 2;
+    private static final int STRING_BYTES = 3;
+
+    private final Class<T> type;
+    private final int hash;
+    private final FieldKind[] kinds;
+    /**
+     * Index of the first component (or of the string) of each field
+     */
+    private final int[] indexes;
+    private final int componentCount;
+    private final int stringCount;
+    /**
+     * Handles in the order of the fields: (Object) -> Object and (Object, Object) -> void
+     */
+    private final MethodHandle[] getters;
+    private final MethodHandle[] setters;
+    private final Object[][] constants;
+    private final Constructor<T> constructor;
+
+    DeltaLayout(Class<T> type) {
+        this.type = type;
+
+        List<Field> fields = EventLayout.getFields(type);
+        List<EventLayout.Slot> slots = new ArrayList<>(fields.size());
+        for (Field field : fields) {
+            FieldKind kind = FieldKind.of(field.getType());
+            if (kind == null)
+                throw new IllegalArgumentException(String.format("Type %s of field %s.%s is not supported",
+                        field.getType().getName(), type.getName(), field.getName()));
+
+            List<String> constantNames = kind == FieldKind.ENUM
+                    ? Arrays.stream(field.getType().getEnumConstants())
+                    .map(c -> ((Enum<?>) c).name())
+                    .collect(Collectors.toList())
+                    : null;
+            slots.add(new EventLayout.Slot(field.getName(), kind, constantNames));
+        }
+        EventLayout layout = EventLayout.arrange(slots);
+        this.hash = layout.getHash();
+
+        int count = layout.getSlots().size();
+        this.kinds = new FieldKind[count];
+        this.indexes = new int[count];
+        this.getters = new MethodHandle[count];
+        this.setters = new MethodHandle[count];
+        this.constants = new Object[count][];
+        int components = 0;
+        int strings = 0;
+        for (int i = 0; i < count; i++) {
+            EventLayout.Slot slot = layout.getSlots().get(i);
+            Field field = fields.stream().filter(f -> f.getName().equals(slot.getName())).findFirst().orElseThrow();
+
+            kinds[i] = slot.getKind();
+            if (slot.getKind() == FieldKind.STRING) {
+                indexes[i] = strings++;
+            } else {
+                indexes[i] = components;
+                components += slot.getKind() == FieldKind.OFFSET_DATE_TIME ? 3 : 1;
+            }
+
+            getters[i] = GeneratedJsonCodecs.getter(type, field.getDeclaringClass(), slot.getName())
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            setters[i] = GeneratedJsonCodecs.setter(type, field.getDeclaringClass(), slot.getName())
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            constants[i] = field.getType().getEnumConstants();
+        }
+        this.componentCount = components;
+        this.stringCount = strings;
+
+        try {
+            this.constructor = type.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Type has no constructor without parameters: " + type.getName(), e);
+        }
+    }
+
+    Class<T> getType() {
+        return type;
+    }
+
+    int getComponentCount() {
+        return componentCount;
+    }
+
+    int getStringCount() {
+        return stringCount;
+    }
+
+    //region Values
+
+    /**
+     * Get the components and the strings of the value
+     */
+    void extract(Object value, long[] components, String[] strings) {
+        try {
+            for (int i = 0; i < kinds.length; i++) {
+                Object v = (Object) getters[i].invokeExact(value);
+                int index = indexes[i];
+                switch (kinds[i]) {
+                    case BOOLEAN:
+                        components[index] = (Boolean) v ? 1 : 0;
+                        break;
+                    case BYTE:
+                        components[index] = (Byte) v;
+                        break;
+                    case SHORT:
+                        components[index] = (Short) v;
+                        break;
+                    case CHAR:
+                        components[index] = (Character) v;
+                        break;
+                    case INT:
+                        components[index] = (Integer) v;
+                        break;
+                    case FLOAT:
+                        components[index] = Float.floatToRawIntBits((Float) v);
+                        break;
+                    case ENUM:
+                        components[index] = v == null ? -1 : ((Enum<?>) v).ordinal();
+                        break;
+                    case LONG:
+                        components[index] = (Long) v;
+                        break;
+                    case DOUBLE:
+                        components[index] = Double.doubleToRawLongBits((Double) v);
+                        break;
+                    case STRING:
+                        strings[index] = (String) v;
+                        break;
+                    case OFFSET_DATE_TIME:
+                        OffsetDateTime dateTime = (OffsetDateTime) v;
+                        components[index] = dateTime == null ? Long.MIN_VALUE : dateTime.toEpochSecond();
+                        components[index + 1] = dateTime == null ? 0 : dateTime.getNano();
+                        components[index + 2] = dateTime == null ? 0 : dateTime.getOffset().getTotalSeconds();
+                        break;
+                }
+            }
+        } catch (Throwable e) {
+            throw new SerializationException("Can't serialize value of type " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Create the value from the components and the strings
+     *
+     * @param reuse instance to fill or null
+     */
+    T create(long[] components, String[] strings, T reuse) {
+        try {
+            T value = reuse != null ? reuse : constructor.newInstance();
+            for (int i = 0; i < kinds.length; i++) {
+                setters[i].invokeExact((Object) value, valueOf(i, components, strings));
+            }
+
+            return value;
+        } catch (SerializationException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+        }
+    }
+
+    private Object valueOf(int field, long[] components, String[] strings) {
+        int index = indexes[field];
+        long c = kinds[field] == FieldKind.STRING ? 0 : components[index];
+        switch (kinds[field]) {
+            case BOOLEAN:
+                return c != 0;
+            case BYTE:
+                return (byte) c;
+            case SHORT:
+                return (short) c;
+            case CHAR:
+                return (char) c;
+            case INT:
+                return (int) c;
+            case FLOAT:
+                return Float.intBitsToFloat((int) c);
+            case ENUM:
+                if (c < -1 || c >= constants[field].length)
+                    throw new SerializationException("Invalid enum ordinal: " + c);
+                return c < 0 ? null : constants[field][(int) c];
+            case LONG:
+                return c;
+            case DOUBLE:
+                return Double.longBitsToDouble(c);
+            case STRING:
+                return strings[index];
+            case OFFSET_DATE_TIME:
+                if (c == Long.MIN_VALUE)
+                    return null;
+                return OffsetDateTime.ofInstant(
+                        Instant.ofEpochSecond(c, components[index + 1]),
+                        ZoneOffset.ofTotalSeconds((int) components[index + 2]));
+            default:
+                throw new IllegalStateException("Unknown kind: " + kinds[field]);
+        }
+    }
+
+    //endregion
+
+    //region Frames
+
+    /**
+     * Write the frame
+     *
+     * @param prevComponents components of the previous frame of the key or null to write a keyframe
+     * @param prevStrings    strings of the previous frame of the key or null to write a keyframe
+     * @param standalone     whether the frame is written without the encoder state
+     */
+    byte[] write(long[] components, String[] strings, long[] prevComponents, String[] prevStrings,
+                 long sequence, boolean standalone) {
+        boolean keyframe = prevComponents == null;
+        FrameWriter writer = new FrameWriter(HEADER_SIZE + Integer.BYTES + 4 * componentCount + 40 * stringCount);
+        writer.put(DeltaEventCodec.MAGIC_BYTE);
+        writer.put((byte) ((keyframe ? KEYFRAME : 0) | (standalone ? STANDALONE : 0)));
+        if (keyframe) {
+            writer.putInt(hash);
+        }
+        writer.putVarint(sequence);
+
+        for (int i = 0; i < componentCount; i++) {
+            writer.putVarint(zigzag(keyframe ? components[i] : components[i] - prevComponents[i]));
+        }
+
+        for (int i = 0; i < stringCount; i++) {
+            String s = strings[i];
+            if (!keyframe && (s == null ? prevStrings[i] == null : s.equals(prevStrings[i]))) {
+                writer.putVarint(STRING_UNCHANGED);
+            } else if (s == null) {
+                writer.putVarint(STRING_NULL);
+            } else {
+                UUID uuid = parseUuid(s);
+                if (uuid != null) {
+                    writer.putVarint(STRING_UUID);
+                    writer.putLong(uuid.getMostSignificantBits());
+                    writer.putLong(uuid.getLeastSignificantBits());
+                } else {
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    writer.putVarint(STRING_BYTES + (long) bytes.length);
+                    writer.put(bytes);
+                }
+            }
+        }
+
+        return writer.toByteArray();
+    }
+
+    static int flags(byte[] data, int offset, int length) {
+        if (length < HEADER_SIZE || data[offset] != DeltaEventCodec.MAGIC_BYTE)
+            throw new SerializationException("Value is not a delta frame");
+
+        return data[offset + 1];
+    }
+
+    /**
+     * Frame reader; the components and the strings are read into the given arrays
+     */
+    final class FrameReader {
+        private final byte[] data;
+        private final int end;
+        private final boolean keyframe;
+        private final long sequence;
+        private int position;
+
+        FrameReader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.end = offset + length;
+            this.keyframe = (flags(data, offset, length) & KEYFRAME) != 0;
+            this.position = offset + HEADER_SIZE;
+            if (keyframe) {
+                int recordHash = (int) getLong(Integer.BYTES);
+                if (recordHash != hash)
+                    throw new SerializationException(String.format(
+                            "Value was written with a different layout of type %s: hash = %d, expected = %d",
+                            type.getName(), recordHash, hash));
+            }
+            this.sequence = getVarint();
+        }
+
+        boolean isKeyframe() {
+            return keyframe;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Read the components and the strings
+         *
+         * @param components values of the previous frame of the key (for delta frames), replaced by the new ones
+         * @param strings    values of the previous frame of the key (for delta frames), replaced by the new ones
+         */
+        void read(long[] components, String[] strings) {
+            for (int i = 0; i < componentCount; i++) {
+                long value = unzigzag(getVarint());
+                components[i] = keyframe ? value : components[i] + value;
+            }
+
+            for (int i = 0; i < stringCount; i++) {
+                long tag = getVarint();
+                if (tag == STRING_UNCHANGED) {
+                    if (keyframe)
+                        throw new SerializationException("Keyframe has an unchanged string");
+                } else if (tag == STRING_NULL) {
+                    strings[i] = null;
+                } else if (tag == STRING_UUID) {
+                    strings[i] = new UUID(getLong(Long.BYTES), getLong(Long.BYTES)).toString();
+                } else {
+                    long size = tag - STRING_BYTES;
+                    if (size > end - position)
+                        throw new SerializationException("String is out of the value");
+                    strings[i] = new String(data, position, (int) size, StandardCharsets.UTF_8);
+                    position += (int) size;
+                }
+            }
+        }
+
+        private long getVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= end)
+                    throw new SerializationException("Delta frame is truncated");
+
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+
+            throw new SerializationException("Invalid varint in delta frame");
+        }
+
+        private long getLong(int size) {
+            if (end - position < size)
+                throw new SerializationException("Delta frame is truncated");
+
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+    }
+
+    private static final class FrameWriter {
+        private byte[] buffer;
+        private int size;
+
+        FrameWriter(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void put(byte b) {
+            ensureCapacity(1);
+            buffer[size++] = b;
+        }
+
+        void put(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void putInt(int value) {
+            ensureCapacity(Integer.BYTES);
+            for (int i = Integer.BYTES - 1; i >= 0; i--) {
+                buffer[size++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        void putLong(long value) {
+            ensureCapacity(Long.BYTES);
+            for (int i = Long.BYTES - 1; i >= 0; i--) {
+                buffer[size++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        void putVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    //endregion
+
+    /**
+     * Parse the string, if it is a UUID in the canonical form
+     *
+     * @return UUID or null
+     */
+    private static UUID parseUuid(String s) {
+        if (s.length() != 36 || s.charAt(8) != '-')
+            return null;
+
+        try {
+            UUID uuid = UUID.fromString(s);
+            // UUID.fromString accepts non-canonical strings as well, but they must be kept as is
+            return uuid.toString().equals(s) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
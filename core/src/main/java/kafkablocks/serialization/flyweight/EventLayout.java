@@ -0,0 +1,135 @@
+package kafkablocks.serialization.flyweight;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fixed layout of an event class.
+ * <p>
+ * Record layout: header (magic byte, 3 reserved bytes, layout hash as int), fixed part with a slot for each field,
+ * variable part with the bytes of the strings. The slots are ordered by size (descending) and by field name,
+ * so the layout depends only on the set of fields, and every slot is aligned to its size.
+ * The numbers are big-endian.
+ * <p>
+ * The layout hash is computed from the kinds and names of the fields (and the constants of the enums),
+ * so a reader detects the records written with a different layout.
+ * The same layout is computed by the codec at runtime and by the annotation processor at compile time.
+ */
+public final class EventLayout {
+    public static final int HEADER_SIZE = 8;
+    public static final int HASH_OFFSET = 4;
+
+    /**
+     * Slot of a field
+     */
+    public static final class Slot {
+        private final String name;
+        private final FieldKind kind;
+        /**
+         * Names of the enum constants or null, if the field is not an enum
+         */
+        private final List<String> constants;
+        private int offset;
+
+        public Slot(String name, FieldKind kind, List<String> constants) {
+            this.name = name;
+            this.kind = kind;
+            this.constants = constants;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public FieldKind getKind() {
+            return kind;
+        }
+
+        /**
+         * Offset of the slot from the beginning of the record
+         */
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    private final List<Slot> slots;
+    private final int fixedSize;
+    private final int hash;
+
+    private EventLayout(List<Slot> slots, int fixedSize, int hash) {
+        this.slots = slots;
+        this.fixedSize = fixedSize;
+        this.hash = hash;
+    }
+
+    /**
+     * Arrange the slots of the fields
+     *
+     * @throws IllegalArgumentException if the names of the fields are not unique
+     */
+    public static EventLayout arrange(List<Slot> fields) {
+        List<Slot> slots = new ArrayList<>(fields);
+        slots.sort(Comparator.comparingInt((Slot slot) -> -slot.kind.getSize()).thenComparing(Slot::getName));
+
+        StringBuilder signature = new StringBuilder();
+        int offset = HEADER_SIZE;
+        String prevName = null;
+        for (Slot slot : slots) {
+            if (slot.name.equals(prevName))
+                throw new IllegalArgumentException("Duplicate field: " + slot.name);
+            prevName = slot.name;
+
+            slot.offset = offset;
+            offset += slot.kind.getSize();
+
+            signature.append(slot.kind).append(' ').append(slot.name);
+            if (slot.constants != null) {
+                signature.append('(').append(String.join(",", slot.constants)).append(')');
+            }
+            signature.append(';');
+        }
+
+        return new EventLayout(Collections.unmodifiableList(slots), offset, signature.toString().hashCode());
+    }
+
+    /**
+     * Get the fields of the class and its superclasses, which are serialized in the fixed layout:
+     * all the instance fields except the transient and synthetic ones
+     */
+    public static List<Field> getFields(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                    fields.add(field);
+                }
+            }
+        }
+
+        return fields;
+    }
+
+    /**
+     * Slots in the order of their offsets
+     */
+    public List<Slot> getSlots() {
+        return slots;
+    }
+
+    /**
+     * Size of the header and the fixed part of the record
+     */
+    public int getFixedSize() {
+        return fixedSize;
+    }
+
+    public int getHash() {
+        return hash;
+    }
+}
@@ -0,0 +1,74 @@
+package kafkablocks.serialization.flyweight;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Kind of field of the fixed layout and the size of its slot
+ */
+public enum FieldKind {
+    BOOLEAN(1),
+    BYTE(1),
+    SHORT(2),
+    CHAR(2),
+    INT(4),
+    FLOAT(4),
+    /**
+     * Ordinal of the constant (int); -1 - null
+     */
+    ENUM(4),
+    LONG(8),
+    DOUBLE(8),
+    /**
+     * Position of the UTF-8 bytes in the variable part of the record (int) and their number (int); -1 - null
+     */
+    STRING(8),
+    /**
+     * Epoch second (long), nanosecond (int) and offset in seconds (int); Long.MIN_VALUE epoch second - null
+     */
+    OFFSET_DATE_TIME(16);
+
+    private final int size;
+
+    FieldKind(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Size of the slot in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the kind of the field type
+     *
+     * @return kind or null, if the type is not supported
+     */
+    public static FieldKind of(Class<?> type) {
+        if (type == boolean.class)
+            return BOOLEAN;
+        if (type == byte.class)
+            return BYTE;
+        if (type == short.class)
+            return SHORT;
+        if (type == char.class)
+            return CHAR;
+        if (type == int.class)
+            return INT;
+        if (type == float.class)
+            return FLOAT;
+        if (type == long.class)
+            return LONG;
+        if (type == double.class)
+            return DOUBLE;
+        if (type == String.class)
+            return STRING;
+        if (type == OffsetDateTime.class)
+            return OFFSET_DATE_TIME;
+        if (type.isEnum())
+            return ENUM;
+
+        return null;
+    }
+}
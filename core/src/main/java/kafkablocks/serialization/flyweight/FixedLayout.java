@@ -0,0 +1,20 @@
+package kafkablocks.serialization.flyweight;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the event class, for which the flyweight (see {@link Flyweight}) is generated at compile time.
+ * <p>
+ * All the instance fields of the class and its superclasses (except the transient ones) must be of the types
+ * supported by the fixed layout (see {@link FieldKind}). The events of the class should be published
+ * in the "fixed" format (see {@link FixedLayoutEventCodec}), e.g. "kafkablocks.event-format.{class}=fixed".
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface FixedLayout {
+}
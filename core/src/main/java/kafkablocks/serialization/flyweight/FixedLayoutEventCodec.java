@@ -0,0 +1,319 @@
+package kafkablocks.serialization.flyweight;
+
+import kafkablocks.serialization.EventCodec;
+import kafkablocks.serialization.GeneratedJsonCodecs;
+import kafkablocks.serialization.TypedCodec;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Binary format with the fixed layout of the fields (see {@link EventLayout}).
+ * <p>
+ * The fields of a record are read in place by the generated flyweight of the event class (see {@link Flyweight})
+ * without deserialization of the event. The codec itself reads and writes the events via method handles,
+ * so the events can be published and consumed as usual as well.
+ * The layout has no schema evolution: the records written with a different layout are rejected.
+ */
+public class FixedLayoutEventCodec implements EventCodec {
+    public static final String NAME = "fixed";
+    public static final byte MAGIC_BYTE = 0x02;
+
+    private final Map<Class<?>, TypeLayout<?>> layouts = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte getMagicByte() {
+        return MAGIC_BYTE;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] serialize(Object value) {
+        return getLayout((Class<Object>) value.getClass()).write(value);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, int offset, int length, Class<T> type) {
+        return getLayout(type).read(data, offset, length, null);
+    }
+
+    /**
+     * Get the layout of the type, which is created on the first use
+     * (so the types, which are not supported, are rejected only when they are written or read in this format)
+     */
+    @SuppressWarnings("unchecked")
+    private <T> TypeLayout<T> getLayout(Class<T> type) {
+        return (TypeLayout<T>) layouts.computeIfAbsent(type, TypeLayout::new);
+    }
+
+    @Override
+    public <T> TypedCodec<T> bind(Class<T> type) {
+        EventCodec codec = this;
+
+        return new TypedCodec<T>() {
+            @Override
+            public EventCodec getCodec() {
+                return codec;
+            }
+
+            @Override
+            public byte[] serialize(T value) {
+                return value.getClass() == type
+                        ? getLayout(type).write(value)
+                        : codec.serialize(value);
+            }
+
+            @Override
+            public T deserialize(byte[] data, int offset, int length) {
+                return getLayout(type).read(data, offset, length, null);
+            }
+
+            @Override
+            public T deserialize(byte[] data, int offset, int length, T reuse) {
+                return getLayout(type).read(data, offset, length, reuse);
+            }
+        };
+    }
+
+    /**
+     * Check the header of the record
+     *
+     * @throws SerializationException if the record is not in the fixed format or has a different layout
+     */
+    static void checkHeader(byte[] data, int offset, int length, int fixedSize, int hash, String typeName) {
+        if (length < fixedSize || data[offset] != MAGIC_BYTE)
+            throw new SerializationException("Value is not in the fixed layout of type " + typeName);
+
+        int recordHash = ByteBuffer.wrap(data, offset + EventLayout.HASH_OFFSET, Integer.BYTES).getInt();
+        if (recordHash != hash)
+            throw new SerializationException(String.format(
+                    "Value was written with a different layout of type %s: hash = %d, expected = %d",
+                    typeName, recordHash, hash));
+    }
+
+    /**
+     * Layout of the type and the handles for access to its fields
+     */
+    private static final class TypeLayout<T> {
+        private final Class<T> type;
+        private final EventLayout layout;
+        private final Constructor<T> constructor;
+        /**
+         * Handles in the order of the slots: (Object) -> Object and (Object, Object) -> void
+         */
+        private final MethodHandle[] getters;
+        private final MethodHandle[] setters;
+        /**
+         * Enum constants in the order of the slots (null for other fields)
+         */
+        private final Object[][] constants;
+
+        TypeLayout(Class<T> type) {
+            this.type = type;
+
+            List<Field> fields = EventLayout.getFields(type);
+            List<EventLayout.Slot> slots = new ArrayList<>(fields.size());
+            for (Field field : fields) {
+                FieldKind kind = FieldKind.of(field.getType());
+                if (kind == null)
+                    throw new IllegalArgumentException(String.format("Type %s of field %s.%s is not supported",
+                            field.getType().getName(), type.getName(), field.getName()));
+
+                List<String> constantNames = kind == FieldKind.ENUM
+                        ? Arrays.stream(field.getType().getEnumConstants())
+                        .map(c -> ((Enum<?>) c).name())
+                        .collect(Collectors.toList())
+                        : null;
+                slots.add(new EventLayout.Slot(field.getName(), kind, constantNames));
+            }
+            this.layout = EventLayout.arrange(slots);
+
+            int count = layout.getSlots().size();
+            this.getters = new MethodHandle[count];
+            this.setters = new MethodHandle[count];
+            this.constants = new Object[count][];
+            for (int i = 0; i < count; i++) {
+                String name = layout.getSlots().get(i).getName();
+                Field field = fields.stream().filter(f -> f.getName().equals(name)).findFirst().orElseThrow();
+                getters[i] = GeneratedJsonCodecs.getter(type, field.getDeclaringClass(), name)
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                setters[i] = GeneratedJsonCodecs.setter(type, field.getDeclaringClass(), name)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                constants[i] = field.getType().getEnumConstants();
+            }
+
+            try {
+                this.constructor = type.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("Type has no constructor without parameters: " + type.getName(), e);
+            }
+        }
+
+        byte[] write(T value) {
+            List<EventLayout.Slot> slots = layout.getSlots();
+            Object[] values = new Object[slots.size()];
+            int size = layout.getFixedSize();
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    Object v = (Object) getters[i].invokeExact((Object) value);
+                    if (v instanceof String) {
+                        v = ((String) v).getBytes(StandardCharsets.UTF_8);
+                        size += ((byte[]) v).length;
+                    }
+                    values[i] = v;
+                }
+            } catch (Throwable e) {
+                throw new SerializationException("Can't serialize value of type " + type.getName(), e);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            buffer.put(0, MAGIC_BYTE);
+            buffer.putInt(EventLayout.HASH_OFFSET, layout.getHash());
+
+            int varPosition = layout.getFixedSize();
+            for (int i = 0; i < values.length; i++) {
+                int offset = slots.get(i).getOffset();
+                Object v = values[i];
+                switch (slots.get(i).getKind()) {
+                    case BOOLEAN:
+                        buffer.put(offset, (Boolean) v ? (byte) 1 : (byte) 0);
+                        break;
+                    case BYTE:
+                        buffer.put(offset, (Byte) v);
+                        break;
+                    case SHORT:
+                        buffer.putShort(offset, (Short) v);
+                        break;
+                    case CHAR:
+                        buffer.putChar(offset, (Character) v);
+                        break;
+                    case INT:
+                        buffer.putInt(offset, (Integer) v);
+                        break;
+                    case FLOAT:
+                        buffer.putFloat(offset, (Float) v);
+                        break;
+                    case ENUM:
+                        buffer.putInt(offset, v == null ? -1 : ((Enum<?>) v).ordinal());
+                        break;
+                    case LONG:
+                        buffer.putLong(offset, (Long) v);
+                        break;
+                    case DOUBLE:
+                        buffer.putDouble(offset, (Double) v);
+                        break;
+                    case STRING:
+                        if (v == null) {
+                            buffer.putInt(offset, 0);
+                            buffer.putInt(offset + Integer.BYTES, -1);
+                            break;
+                        }
+
+                        byte[] bytes = (byte[]) v;
+                        buffer.putInt(offset, varPosition);
+                        buffer.putInt(offset + Integer.BYTES, bytes.length);
+                        System.arraycopy(bytes, 0, buffer.array(), varPosition, bytes.length);
+                        varPosition += bytes.length;
+                        break;
+                    case OFFSET_DATE_TIME:
+                        if (v == null) {
+                            buffer.putLong(offset, Long.MIN_VALUE);
+                            break;
+                        }
+
+                        OffsetDateTime dateTime = (OffsetDateTime) v;
+                        buffer.putLong(offset, dateTime.toEpochSecond());
+                        buffer.putInt(offset + Long.BYTES, dateTime.getNano());
+                        buffer.putInt(offset + Long.BYTES + Integer.BYTES, dateTime.getOffset().getTotalSeconds());
+                        break;
+                }
+            }
+
+            return buffer.array();
+        }
+
+        T read(byte[] data, int offset, int length, T reuse) {
+            checkHeader(data, offset, length, layout.getFixedSize(), layout.getHash(), type.getName());
+
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).slice();
+            List<EventLayout.Slot> slots = layout.getSlots();
+            try {
+                T value = reuse != null ? reuse : constructor.newInstance();
+                for (int i = 0; i < setters.length; i++) {
+                    setters[i].invokeExact((Object) value, readValue(buffer, slots.get(i), constants[i]));
+                }
+
+                return value;
+            } catch (SerializationException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new SerializationException("Can't deserialize value of type " + type.getName(), e);
+            }
+        }
+
+        private static Object readValue(ByteBuffer buffer, EventLayout.Slot slot, Object[] constants) {
+            int offset = slot.getOffset();
+            switch (slot.getKind()) {
+                case BOOLEAN:
+                    return buffer.get(offset) != 0;
+                case BYTE:
+                    return buffer.get(offset);
+                case SHORT:
+                    return buffer.getShort(offset);
+                case CHAR:
+                    return buffer.getChar(offset);
+                case INT:
+                    return buffer.getInt(offset);
+                case FLOAT:
+                    return buffer.getFloat(offset);
+                case ENUM:
+                    int ordinal = buffer.getInt(offset);
+                    return ordinal < 0 ? null : constants[ordinal];
+                case LONG:
+                    return buffer.getLong(offset);
+                case DOUBLE:
+                    return buffer.getDouble(offset);
+                case STRING:
+                    int length = buffer.getInt(offset + Integer.BYTES);
+                    if (length < 0)
+                        return null;
+
+                    int position = buffer.getInt(offset);
+                    if (position + length > buffer.limit())
+                        throw new SerializationException("String is out of the value: " + slot.getName());
+
+                    return new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+                case OFFSET_DATE_TIME:
+                    long epochSecond = buffer.getLong(offset);
+                    if (epochSecond == Long.MIN_VALUE)
+                        return null;
+
+                    return OffsetDateTime.ofInstant(
+                            Instant.ofEpochSecond(epochSecond, buffer.getInt(offset + Long.BYTES)),
+                            ZoneOffset.ofTotalSeconds(buffer.getInt(offset + Long.BYTES + Integer.BYTES)));
+                default:
+                    throw new IllegalStateException("Unknown kind: " + slot.getKind());
+            }
+        }
+    }
+}
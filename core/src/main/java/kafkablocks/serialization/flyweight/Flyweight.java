@@ -0,0 +1,178 @@
+package kafkablocks.serialization.flyweight;
+
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Base class of the generated flyweights: views of the records in the fixed layout (see {@link EventLayout}),
+ * which read the fields directly from the bytes of the record.
+ * <p>
+ * The flyweight of the class {@code a.b.Outer$Event} is the class {@code a.b.Outer_Event_Flyweight}
+ * with a getter for each field. It is generated for the classes annotated with {@link FixedLayout}.
+ * <p>
+ * A flyweight is reused: {@link #wrap} points it to the next record, and the getters are valid only
+ * until the next call. The getters of the primitive fields do not allocate memory;
+ * the getters of the strings, the date-times create the objects on each call.
+ * Is not thread-safe.
+ */
+public abstract class Flyweight {
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle CHAR = MethodHandles.byteArrayViewVarHandle(char[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle DOUBLE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+
+    private final int layoutHash;
+    private final int fixedSize;
+
+    private byte[] data;
+    private int offset;
+    private int length;
+    /**
+     * Copy of the last record from a direct buffer; is reused for the next records
+     */
+    private byte[] copy;
+
+    protected Flyweight(int layoutHash, int fixedSize) {
+        this.layoutHash = layoutHash;
+        this.fixedSize = fixedSize;
+    }
+
+    /**
+     * Point the flyweight to the record
+     *
+     * @throws SerializationException if the record is not in the fixed layout of the event class
+     */
+    public final void wrap(byte[] data) {
+        wrap(data, 0, data.length);
+    }
+
+    /**
+     * Point the flyweight to the record in the array
+     *
+     * @throws SerializationException if the record is not in the fixed layout of the event class
+     */
+    public final void wrap(byte[] data, int offset, int length) {
+        FixedLayoutEventCodec.checkHeader(data, offset, length, fixedSize, layoutHash, getClass().getName());
+
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Point the flyweight to the remaining bytes of the buffer. The position of the buffer is not changed.
+     * The heap buffers are read in place; the bytes of a direct buffer are copied to the array of the flyweight.
+     *
+     * @throws SerializationException if the record is not in the fixed layout of the event class
+     */
+    public final void wrap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            wrap(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+
+        int remaining = buffer.remaining();
+        if (copy == null || copy.length < remaining) {
+            copy = new byte[remaining];
+        }
+        buffer.duplicate().get(copy, 0, remaining);
+        wrap(copy, 0, remaining);
+    }
+
+    /**
+     * Release the record, so that the flyweight does not hold it
+     */
+    public final void unwrap() {
+        data = null;
+    }
+
+    public final boolean isWrapped() {
+        return data != null;
+    }
+
+    //region Access to the slots
+
+    protected final boolean getBoolean(int slotOffset) {
+        return data[offset + slotOffset] != 0;
+    }
+
+    protected final byte getByte(int slotOffset) {
+        return data[offset + slotOffset];
+    }
+
+    protected final short getShort(int slotOffset) {
+        return (short) SHORT.get(data, offset + slotOffset);
+    }
+
+    protected final char getChar(int slotOffset) {
+        return (char) CHAR.get(data, offset + slotOffset);
+    }
+
+    protected final int getInt(int slotOffset) {
+        return (int) INT.get(data, offset + slotOffset);
+    }
+
+    protected final long getLong(int slotOffset) {
+        return (long) LONG.get(data, offset + slotOffset);
+    }
+
+    protected final float getFloat(int slotOffset) {
+        return (float) FLOAT.get(data, offset + slotOffset);
+    }
+
+    protected final double getDouble(int slotOffset) {
+        return (double) DOUBLE.get(data, offset + slotOffset);
+    }
+
+    protected final <E extends Enum<E>> E getEnum(int slotOffset, E[] constants) {
+        int ordinal = getInt(slotOffset);
+        return ordinal < 0 ? null : constants[ordinal];
+    }
+
+    protected final String getString(int slotOffset) {
+        int stringLength = getInt(slotOffset + Integer.BYTES);
+        if (stringLength < 0)
+            return null;
+
+        int position = getInt(slotOffset);
+        if (position + stringLength > length)
+            throw new SerializationException("String is out of the value at offset " + slotOffset);
+
+        return new String(data, offset + position, stringLength, StandardCharsets.UTF_8);
+    }
+
+    protected final OffsetDateTime getOffsetDateTime(int slotOffset) {
+        long epochSecond = getLong(slotOffset);
+        if (epochSecond == Long.MIN_VALUE)
+            return null;
+
+        return OffsetDateTime.ofInstant(
+                Instant.ofEpochSecond(epochSecond, getInt(slotOffset + Long.BYTES)),
+                ZoneOffset.ofTotalSeconds(getInt(slotOffset + Long.BYTES + Integer.BYTES)));
+    }
+
+    /**
+     * Get the date-time as milliseconds since the epoch without creating an object
+     *
+     * @return milliseconds or Long.MIN_VALUE, if the value is null
+     */
+    protected final long getEpochMilli(int slotOffset) {
+        long epochSecond = getLong(slotOffset);
+        if (epochSecond == Long.MIN_VALUE)
+            return Long.MIN_VALUE;
+
+        return epochSecond * 1000 + getInt(slotOffset + Long.BYTES) / 1_000_000;
+    }
+
+    //endregion
+}
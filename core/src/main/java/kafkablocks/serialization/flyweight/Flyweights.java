@@ -0,0 +1,39 @@
+package kafkablocks.serialization.flyweight;
+
+/**
+ * Lookup of the generated flyweights (see {@link Flyweight})
+ */
+public final class Flyweights {
+    public static final String CLASS_NAME_SUFFIX = "_Flyweight";
+
+    private Flyweights() {
+    }
+
+    /**
+     * Get the name of the generated flyweight class for the binary name of the event class
+     */
+    public static String getFlyweightClassName(String binaryName) {
+        int packageEnd = binaryName.lastIndexOf('.');
+        return binaryName.substring(0, packageEnd + 1)
+                + binaryName.substring(packageEnd + 1).replace('$', '_')
+                + CLASS_NAME_SUFFIX;
+    }
+
+    /**
+     * Check that the flyweight class is generated for the event class
+     */
+    public static boolean isFlyweightOf(Class<? extends Flyweight> flyweightType, Class<?> eventType) {
+        return flyweightType.getName().equals(getFlyweightClassName(eventType.getName()));
+    }
+
+    /**
+     * Create the flyweight
+     */
+    public static <F extends Flyweight> F create(Class<F> flyweightType) {
+        try {
+            return flyweightType.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Can't create flyweight " + flyweightType.getName(), e);
+        }
+    }
+}
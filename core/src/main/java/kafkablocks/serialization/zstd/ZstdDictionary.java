@@ -0,0 +1,67 @@
+package kafkablocks.serialization.zstd;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+import org.apache.kafka.common.errors.SerializationException;
+
+/**
+ * Zstd dictionary trained for an event type.
+ * The native compression and decompression contexts are created once and are shared by all threads.
+ */
+public final class ZstdDictionary {
+    private final String typeName;
+    private final int version;
+    private final byte[] bytes;
+    private final ZstdDictCompress compressDict;
+    private final ZstdDictDecompress decompressDict;
+
+    ZstdDictionary(String typeName, int version, byte[] bytes, int level) {
+        this.typeName = typeName;
+        this.version = version;
+        this.bytes = bytes;
+        this.compressDict = new ZstdDictCompress(bytes, level);
+        this.decompressDict = new ZstdDictDecompress(bytes);
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    public byte[] compress(byte[] data) {
+        try {
+            return Zstd.compress(data, compressDict);
+        } catch (ZstdException e) {
+            throw new SerializationException(String.format(
+                    "Can't compress value of type %s with dictionary v%d", typeName, version), e);
+        }
+    }
+
+    public byte[] decompress(byte[] data) {
+        long size = Zstd.decompressedSize(data);
+        if (size <= 0 || size > Integer.MAX_VALUE)
+            throw new SerializationException(String.format(
+                    "Invalid zstd frame of value of type %s: decompressed size = %d", typeName, size));
+
+        try {
+            return Zstd.decompress(data, decompressDict, (int) size);
+        } catch (ZstdException e) {
+            throw new SerializationException(String.format(
+                    "Can't decompress value of type %s with dictionary v%d", typeName, version), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s-v%d (%d bytes)", typeName, version, bytes.length);
+    }
+}
@@ -0,0 +1,78 @@
+package kafkablocks.serialization.zstd;
+
+import kafkablocks.serialization.EventHeaders;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+/**
+ * Compression of the serialized values of an event type with the type's zstd dictionary.
+ * <p>
+ * The version of the dictionary is written into the {@link EventHeaders#DICTIONARY_VERSION} header;
+ * records without the header are not compressed. A value is written uncompressed,
+ * if the type has no dictionary yet or if compression does not make the value smaller.
+ */
+public final class ZstdDictionaryCompressor {
+    private final ZstdDictionaryStore store;
+    private final String typeName;
+    /**
+     * Whether the values are compressed on writing (the compressed values are decompressed anyway)
+     */
+    private final boolean compressOnWrite;
+
+    public ZstdDictionaryCompressor(ZstdDictionaryStore store, Class<?> type, boolean compressOnWrite) {
+        this.store = store;
+        this.typeName = type.getSimpleName();
+        this.compressOnWrite = compressOnWrite;
+    }
+
+    /**
+     * Compress the value and add the dictionary version header
+     *
+     * @return compressed value or the value as is, if it is not compressed
+     */
+    public byte[] compress(byte[] data, Headers headers) {
+        if (!compressOnWrite || headers == null)
+            return data;
+
+        ZstdDictionary dictionary = store.getLatest(typeName);
+        if (dictionary == null)
+            return data;
+
+        byte[] compressed = dictionary.compress(data);
+        if (compressed.length >= data.length)
+            return data;
+
+        headers.add(EventHeaders.DICTIONARY_VERSION, EventHeaders.toBytes(dictionary.getVersion()));
+        return compressed;
+    }
+
+    /**
+     * Whether the value of the record is compressed, i.e. the record has the dictionary version header
+     */
+    public boolean isCompressed(Headers headers) {
+        return headers != null && headers.lastHeader(EventHeaders.DICTIONARY_VERSION) != null;
+    }
+
+    /**
+     * Decompress the value, if it has the dictionary version header
+     *
+     * @return decompressed value or the value as is, if it is not compressed
+     */
+    public byte[] decompress(byte[] data, Headers headers) {
+        if (headers == null)
+            return data;
+
+        Header header = headers.lastHeader(EventHeaders.DICTIONARY_VERSION);
+        if (header == null)
+            return data;
+
+        int version = EventHeaders.toInt(header.value());
+        ZstdDictionary dictionary = store.get(typeName, version);
+        if (dictionary == null)
+            throw new SerializationException(String.format(
+                    "zstd dictionary v%d of type %s not found", version, typeName));
+
+        return dictionary.decompress(data);
+    }
+}
@@ -0,0 +1,127 @@
+package kafkablocks.serialization.zstd;
+
+import kafkablocks.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Store of the zstd dictionaries: a directory with files "{event type}-v{version}.zdict".
+ * <p>
+ * A new dictionary of a type gets the next version and is used for compression right after it is added,
+ * the previous versions are kept for reading the records compressed with them.
+ * The directory must be shared by (or copied to) all the publishers and consumers of the type.
+ */
+@Slf4j
+public class ZstdDictionaryStore {
+    public static final int DEFAULT_LEVEL = 3;
+    private static final String FILE_EXTENSION = "zdict";
+    private static final Pattern FILE_NAME_PATTERN = Pattern.compile("(.+)-v(\\d+)\\." + FILE_EXTENSION);
+
+    private final Path dir;
+    private final int level;
+    /**
+     * Table: event type name -> version -> dictionary
+     */
+    private final Map<String, NavigableMap<Integer, ZstdDictionary>> dictionaries = new ConcurrentHashMap<>();
+
+    public ZstdDictionaryStore(String dir) {
+        this(dir, DEFAULT_LEVEL);
+    }
+
+    /**
+     * @param dir   directory of the dictionaries; is created if not exists
+     * @param level zstd compression level
+     */
+    public ZstdDictionaryStore(String dir, int level) {
+        FileUtils.ensureDirectoryExists(dir);
+        this.dir = Paths.get(dir);
+        this.level = level;
+        load();
+    }
+
+    private void load() {
+        File[] files = dir.toFile().listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            Matcher matcher = FILE_NAME_PATTERN.matcher(file.getName());
+            if (!matcher.matches())
+                continue;
+
+            try {
+                register(matcher.group(1), Integer.parseInt(matcher.group(2)), Files.readAllBytes(file.toPath()));
+            } catch (IOException | RuntimeException e) {
+                log.error("Can't load zstd dictionary from file: " + file, e);
+            }
+        }
+
+        log.info("zstd dictionaries loaded from '{}': {}", dir, dictionaries.values());
+    }
+
+    private ZstdDictionary register(String typeName, int version, byte[] bytes) {
+        ZstdDictionary dictionary = new ZstdDictionary(typeName, version, bytes, level);
+        dictionaries.computeIfAbsent(typeName, key -> new ConcurrentSkipListMap<>()).put(version, dictionary);
+        return dictionary;
+    }
+
+    /**
+     * Get the latest dictionary of the type or null, if the type has no dictionaries
+     */
+    public ZstdDictionary getLatest(String typeName) {
+        NavigableMap<Integer, ZstdDictionary> versions = dictionaries.get(typeName);
+        if (versions == null)
+            return null;
+
+        Map.Entry<Integer, ZstdDictionary> entry = versions.lastEntry();
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Get the dictionary of the type by the version or null, if it is not found
+     */
+    public ZstdDictionary get(String typeName, int version) {
+        NavigableMap<Integer, ZstdDictionary> versions = dictionaries.get(typeName);
+        return versions == null ? null : versions.get(version);
+    }
+
+    /**
+     * Add a new version of the dictionary of the type: the dictionary is saved into the directory
+     * and becomes the latest one
+     */
+    public synchronized ZstdDictionary add(String typeName, byte[] bytes) {
+        Assert.hasText(typeName, "typeName is empty");
+        Assert.isTrue(bytes != null && bytes.length > 0, "dictionary is empty");
+
+        ZstdDictionary latest = getLatest(typeName);
+        int version = latest == null ? 1 : latest.getVersion() + 1;
+
+        Path file = dir.resolve(String.format("%s-v%d.%s", typeName, version, FILE_EXTENSION));
+        Path tmpFile = dir.resolve(file.getFileName() + ".tmp");
+        try {
+            // the file appears under its name only when it is completely written
+            Files.write(tmpFile, bytes);
+            Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't save zstd dictionary: " + file, e);
+        }
+
+        ZstdDictionary dictionary = register(typeName, version, bytes);
+        log.info("zstd dictionary added: {}", dictionary);
+        return dictionary;
+    }
+}
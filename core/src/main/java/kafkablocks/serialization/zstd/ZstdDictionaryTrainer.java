@@ -0,0 +1,155 @@
+package kafkablocks.serialization.zstd;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import kafkablocks.serialization.EventHeaders;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Trainer of a zstd dictionary for an event type.
+ * <p>
+ * Samples are the serialized values of the type: they can be added in-process (e.g. by a publisher)
+ * or read from the latest records of the topic. The trainer can also be run offline:
+ * <pre>
+ * java -cp core.jar kafkablocks.serialization.zstd.ZstdDictionaryTrainer
+ *      {bootstrap servers} {topic} {event type} {dictionaries dir} [max samples]
+ * </pre>
+ * zstd needs at least several hundreds of samples to train a useful dictionary.
+ */
+@Slf4j
+public class ZstdDictionaryTrainer {
+    public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+    public static final int DEFAULT_SAMPLES_SIZE = 16 * 1024 * 1024;
+    private static final int DEFAULT_MAX_SAMPLES = 10_000;
+    private static final Duration DEFAULT_SAMPLING_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ZstdDictTrainer trainer;
+    private int sampleCount;
+
+    public ZstdDictionaryTrainer() {
+        this(DEFAULT_SAMPLES_SIZE, DEFAULT_DICTIONARY_SIZE);
+    }
+
+    /**
+     * @param samplesSize    max total size of the samples
+     * @param dictionarySize max size of the dictionary
+     */
+    public ZstdDictionaryTrainer(int samplesSize, int dictionarySize) {
+        this.trainer = new ZstdDictTrainer(samplesSize, dictionarySize);
+    }
+
+    /**
+     * Add a sample
+     *
+     * @return false, if the sample was not added, because the max total size of the samples is reached
+     */
+    public synchronized boolean addSample(byte[] sample) {
+        if (!trainer.addSample(sample))
+            return false;
+
+        sampleCount++;
+        return true;
+    }
+
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Add the values of the latest records of the topic as samples.
+     * The records, which are already compressed, are skipped.
+     *
+     * @param consumerProps properties of a consumer to read the topic with
+     * @param maxSamples    max number of the samples
+     * @param timeout       max time of reading
+     * @return number of the added samples
+     */
+    public int sampleTopic(Map<String, Object> consumerProps, String topic, int maxSamples, Duration timeout) {
+        Map<String, Object> props = new HashMap<>(consumerProps);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+
+        int added = 0;
+        try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(props)) {
+            List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .map(info -> new TopicPartition(info.topic(), info.partition()))
+                    .collect(Collectors.toList());
+            consumer.assign(partitions);
+
+            // read the latest records: the last maxSamples / partitions records of each partition
+            long perPartition = Math.max(1, maxSamples / Math.max(1, partitions.size()));
+            Map<TopicPartition, Long> beginOffsets = consumer.beginningOffsets(partitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            long remaining = 0;
+            for (TopicPartition partition : partitions) {
+                long from = Math.max(beginOffsets.get(partition), endOffsets.get(partition) - perPartition);
+                consumer.seek(partition, from);
+                remaining += endOffsets.get(partition) - from;
+            }
+
+            long deadline = System.currentTimeMillis() + timeout.toMillis();
+            sampling:
+            while (added < maxSamples && remaining > 0 && System.currentTimeMillis() < deadline) {
+                ConsumerRecords<byte[], byte[]> records = consumer.poll(Duration.ofMillis(500));
+                for (ConsumerRecord<byte[], byte[]> record : records) {
+                    remaining--;
+                    if (record.value() == null || record.headers().lastHeader(EventHeaders.DICTIONARY_VERSION) != null)
+                        continue;
+
+                    if (added >= maxSamples || !addSample(record.value()))
+                        break sampling;
+
+                    added++;
+                }
+            }
+        }
+
+        log.info("{} samples read from topic '{}'", added, topic);
+        return added;
+    }
+
+    /**
+     * Train the dictionary on the added samples
+     */
+    public synchronized byte[] train() {
+        if (sampleCount == 0)
+            throw new IllegalStateException("No samples to train a dictionary");
+
+        return trainer.trainSamples();
+    }
+
+    /**
+     * Train the dictionary and add it to the store as the latest dictionary of the type
+     */
+    public ZstdDictionary trainAndStore(ZstdDictionaryStore store, String typeName) {
+        return store.add(typeName, train());
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: ZstdDictionaryTrainer <bootstrap servers> <topic> <event type> <dictionaries dir> [max samples]");
+            System.exit(1);
+        }
+
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, args[0]);
+        int maxSamples = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MAX_SAMPLES;
+
+        ZstdDictionaryTrainer trainer = new ZstdDictionaryTrainer();
+        trainer.sampleTopic(props, args[1], maxSamples, DEFAULT_SAMPLING_TIMEOUT);
+        ZstdDictionary dictionary = trainer.trainAndStore(new ZstdDictionaryStore(args[3]), args[2]);
+        System.out.println("Dictionary trained: " + dictionary);
+    }
+}
@@ -0,0 +1,161 @@
+package kafkablocks.versioning;
+
+import kafkablocks.events.Event;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Реестр upcaster-ов - преобразователей событий старых версий схемы в более новые.
+ * <p>
+ * Upcaster регистрируется для класса события и диапазона версий записей (см. {@link VersionRange}):
+ * запись, версия которой попадает в диапазон, читается как значение исходного типа (класса старой версии)
+ * и преобразуется в значение целевой версии. Если целевая версия - не текущая версия класса,
+ * то дальше применяется upcaster, диапазон которого содержит целевую версию, и т.д.
+ * <p>
+ * Цепочки upcaster-ов вычисляются один раз для каждой встреченной версии и кэшируются,
+ * поэтому при обработке записей версия не разбирается, а событие преобразуется за один проход.
+ * Upcaster-ы нужно регистрировать при старте приложения, до начала потребления событий.
+ */
+@Slf4j
+public final class EventUpcasters {
+    private EventUpcasters() {
+    }
+
+    private static class Step {
+        private final VersionRange range;
+        private final Class<?> sourceType;
+        private final String targetVersion;
+        private final Function<Object, Object> upcaster;
+
+        Step(VersionRange range, Class<?> sourceType, String targetVersion, Function<Object, Object> upcaster) {
+            this.range = range;
+            this.sourceType = sourceType;
+            this.targetVersion = targetVersion;
+            this.upcaster = upcaster;
+        }
+    }
+
+    /**
+     * Таблица: класс события -> upcaster-ы
+     */
+    private static final Map<Class<?>, List<Step>> steps = new ConcurrentHashMap<>();
+    /**
+     * Таблица: класс события -> версия записи -> цепочка (пустая, если upcaster-ов для версии нет)
+     */
+    private static final Map<Class<?>, Map<String, Optional<UpcastChain<?>>>> chains = new ConcurrentHashMap<>();
+    /**
+     * Номер изменения реестра; позволяет тем, кто кэширует цепочки, узнать о регистрации новых upcaster-ов
+     */
+    private static volatile int generation;
+
+    /**
+     * Зарегистрировать upcaster
+     *
+     * @param eventType     класс события
+     * @param versionRange  диапазон версий записей, к которым применяется upcaster
+     * @param sourceType    тип, в который десериализуется запись (класс, описывающий старую версию схемы)
+     * @param targetVersion версия, в которую преобразуется значение
+     * @param upcaster      преобразователь; для последнего шага цепочки должен возвращать экземпляр eventType,
+     *                      для промежуточных - экземпляр исходного типа следующего шага
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <S> void register(
+            Class<? extends Event> eventType,
+            String versionRange,
+            Class<S> sourceType,
+            String targetVersion,
+            Function<? super S, ?> upcaster) {
+
+        Assert.notNull(eventType, "eventType is null");
+        Assert.notNull(sourceType, "sourceType is null");
+        Assert.hasText(targetVersion, "targetVersion is empty");
+        Assert.notNull(upcaster, "upcaster is null");
+
+        VersionRange range = VersionRange.parse(versionRange);
+        Assert.isTrue(!range.contains(new ComparableVersion(targetVersion)),
+                () -> String.format("Target version %s is in the range %s", targetVersion, versionRange));
+
+        steps.computeIfAbsent(eventType, key -> new CopyOnWriteArrayList<>())
+                .add(new Step(range, sourceType, targetVersion, (Function<Object, Object>) (Function<?, ?>) upcaster));
+        chains.remove(eventType);
+        generation++;
+    }
+
+    public static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Получить цепочку upcaster-ов для записей заданной версии
+     *
+     * @return цепочка или null, если преобразовывать записи этой версии не нужно
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> UpcastChain<T> getChain(Class<T> eventType, String version) {
+        List<Step> typeSteps = steps.get(eventType);
+        if (typeSteps == null)
+            return null;
+
+        return (UpcastChain<T>) chains
+                .computeIfAbsent(eventType, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(version, key -> Optional.ofNullable(createChain(eventType, version, typeSteps)))
+                .orElse(null);
+    }
+
+    private static <T> UpcastChain<T> createChain(Class<T> eventType, String version, List<Step> typeSteps) {
+        ComparableVersion eventVersion = new ComparableVersion(EventVersions.of(eventType));
+        ComparableVersion current = new ComparableVersion(version);
+
+        Class<?> sourceType = null;
+        Function<Object, Object> upcaster = null;
+        List<Step> chainSteps = new ArrayList<>();
+
+        while (!current.equals(eventVersion)) {
+            Step step = findStep(typeSteps, current);
+            if (step == null)
+                break;
+
+            if (chainSteps.contains(step))
+                throw new IllegalStateException(String.format(
+                        "Upcasters of %s form a cycle at version %s", eventType.getName(), current));
+
+            chainSteps.add(step);
+            if (upcaster == null) {
+                sourceType = step.sourceType;
+                upcaster = step.upcaster;
+            } else {
+                upcaster = upcaster.andThen(step.upcaster);
+            }
+
+            current = new ComparableVersion(step.targetVersion);
+        }
+
+        if (upcaster == null)
+            return null;
+
+        if (!current.equals(eventVersion)) {
+            log.warn("Upcasters of {} convert version {} to {}, but not to the current version {}",
+                    eventType.getName(), version, current, eventVersion);
+        }
+
+        UpcastChain<T> chain = new UpcastChain<>(eventType, version, sourceType, upcaster, chainSteps.size());
+        log.debug("Upcast chain created: {}", chain);
+        return chain;
+    }
+
+    private static Step findStep(List<Step> typeSteps, ComparableVersion version) {
+        for (Step step : typeSteps) {
+            if (step.range.contains(version))
+                return step;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+package kafkablocks.versioning;
+
+import kafkablocks.events.EventVersion;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Версии схем классов событий (см. {@link EventVersion}).
+ * Версия класса вычисляется один раз и кэшируется вместе с ее представлением для заголовка записи.
+ */
+public final class EventVersions {
+    private EventVersions() {
+    }
+
+    /**
+     * Версия класса, у которого нет аннотации {@link EventVersion}
+     */
+    public static final String DEFAULT_VERSION = "1";
+
+    private static final ClassValue<String> versions = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            EventVersion annotation = type.getAnnotation(EventVersion.class);
+            return annotation != null ? annotation.value() : DEFAULT_VERSION;
+        }
+    };
+
+    private static final ClassValue<byte[]> versionBytes = new ClassValue<byte[]>() {
+        @Override
+        protected byte[] computeValue(Class<?> type) {
+            return versions.get(type).getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Получить версию класса
+     */
+    public static String of(Class<?> type) {
+        return versions.get(type);
+    }
+
+    /**
+     * Получить версию класса в виде значения заголовка записи (UTF-8).
+     * Массив общий, изменять его нельзя
+     */
+    public static byte[] bytesOf(Class<?> type) {
+        return versionBytes.get(type);
+    }
+}
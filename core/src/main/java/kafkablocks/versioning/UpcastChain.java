@@ -0,0 +1,49 @@
+package kafkablocks.versioning;
+
+import java.util.function.Function;
+
+/**
+ * Цепочка upcaster-ов для записей одной версии: из записи читается значение исходного типа
+ * (класс, описывающий старую версию схемы), которое за один проход преобразуется в экземпляр текущего класса события.
+ *
+ * @param <T> класс события
+ */
+public final class UpcastChain<T> {
+    private final Class<T> eventType;
+    private final String fromVersion;
+    private final Class<?> sourceType;
+    private final Function<Object, Object> upcaster;
+    private final int length;
+
+    UpcastChain(Class<T> eventType, String fromVersion, Class<?> sourceType, Function<Object, Object> upcaster, int length) {
+        this.eventType = eventType;
+        this.fromVersion = fromVersion;
+        this.sourceType = sourceType;
+        this.upcaster = upcaster;
+        this.length = length;
+    }
+
+    /**
+     * Тип, в который нужно десериализовать запись старой версии
+     */
+    public Class<?> getSourceType() {
+        return sourceType;
+    }
+
+    /**
+     * Кол-во upcaster-ов в цепочке
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public T upcast(Object source) {
+        return eventType.cast(upcaster.apply(source));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s -> %s (%d steps)",
+                eventType.getSimpleName(), fromVersion, EventVersions.of(eventType), length);
+    }
+}
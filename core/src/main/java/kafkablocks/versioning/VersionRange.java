@@ -0,0 +1,75 @@
+package kafkablocks.versioning;
+
+import org.springframework.util.Assert;
+
+/**
+ * Диапазон версий в нотации maven: "[1,2)", "(,1.5]", "[2,)".
+ * Строка без скобок задает одну версию: "1" = "[1,1]".
+ */
+public final class VersionRange {
+    private final String spec;
+    /**
+     * Нижняя граница или null, если ее нет
+     */
+    private final ComparableVersion lower;
+    private final boolean lowerInclusive;
+    /**
+     * Верхняя граница или null, если ее нет
+     */
+    private final ComparableVersion upper;
+    private final boolean upperInclusive;
+
+    private VersionRange(
+            String spec,
+            ComparableVersion lower, boolean lowerInclusive,
+            ComparableVersion upper, boolean upperInclusive) {
+        this.spec = spec;
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    public static VersionRange parse(String spec) {
+        Assert.hasText(spec, "version range is empty");
+        String s = spec.trim();
+
+        char first = s.charAt(0);
+        char last = s.charAt(s.length() - 1);
+        if (first != '[' && first != '(') {
+            ComparableVersion version = new ComparableVersion(s);
+            return new VersionRange(spec, version, true, version, true);
+        }
+
+        Assert.isTrue(last == ']' || last == ')', () -> "Invalid version range: " + spec);
+        String[] bounds = s.substring(1, s.length() - 1).split(",", -1);
+        Assert.isTrue(bounds.length == 2, () -> "Invalid version range: " + spec);
+
+        String lower = bounds[0].trim();
+        String upper = bounds[1].trim();
+        return new VersionRange(
+                spec,
+                lower.isEmpty() ? null : new ComparableVersion(lower), first == '[',
+                upper.isEmpty() ? null : new ComparableVersion(upper), last == ']');
+    }
+
+    public boolean contains(ComparableVersion version) {
+        if (lower != null) {
+            int cmp = version.compareTo(lower);
+            if (cmp < 0 || (cmp == 0 && !lowerInclusive))
+                return false;
+        }
+
+        if (upper != null) {
+            int cmp = version.compareTo(upper);
+            return cmp < 0 || (cmp == 0 && upperInclusive);
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,96 @@
+package kafkablocks.consumer;
+
+import kafkablocks.EventTopicProperties;
+import kafkablocks.serialization.EventChunk;
+import kafkablocks.serialization.EventHeaders;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.helpers.NOPLogger;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+public class ChunkReassemblerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<EventChunk.Chunked> split(byte[] value, int chunkSize) {
+        Headers headers = new RecordHeaders();
+        headers.add(EventHeaders.TYPE, "PositionEvent".getBytes(StandardCharsets.UTF_8));
+        return EventChunk.split(value, headers, chunkSize);
+    }
+
+    private static ConsumerRecord<String, byte[]> record(EventChunk.Chunked chunk, long offset) {
+        return new ConsumerRecord<>("topic", 0, offset, 1000, TimestampType.CREATE_TIME, null,
+                3, chunk.getData().length, "key", chunk.getData(), chunk.getHeaders());
+    }
+
+    private ChunkReassembler reassembler(long maxMemory, Duration timeout) throws Exception {
+        EventTopicProperties.Chunking properties = new EventTopicProperties.Chunking();
+        properties.setMaxMemory(DataSize.ofBytes(maxMemory));
+        properties.setSpillDir(folder.newFolder().getPath());
+        properties.setTimeout(timeout);
+        return new ChunkReassembler(properties, NOPLogger.NOP_LOGGER);
+    }
+
+    @Test
+    public void chunksAreReassembledOutOfOrder() throws Exception {
+        byte[] inMemory = new byte[10_000];
+        byte[] spilled = new byte[25_000];
+        new Random(1).nextBytes(inMemory);
+        new Random(2).nextBytes(spilled);
+
+        // второе событие не помещается в память и собирается в файле
+        ChunkReassembler reassembler = reassembler(16_000, Duration.ofMinutes(1));
+        List<EventChunk.Chunked> first = split(inMemory, 4096);
+        List<EventChunk.Chunked> second = split(spilled, 4096);
+
+        Assert.assertNull(reassembler.add(record(first.get(2), 1), EventChunk.read(first.get(2).getHeaders())));
+        for (int i = second.size() - 1; i > 0; i--) {
+            EventChunk.Chunked chunk = second.get(i);
+            Assert.assertNull(reassembler.add(record(chunk, 10 + i), EventChunk.read(chunk.getHeaders())));
+        }
+        // повторная часть игнорируется
+        Assert.assertNull(reassembler.add(record(first.get(2), 2), EventChunk.read(first.get(2).getHeaders())));
+        Assert.assertNull(reassembler.add(record(first.get(0), 3), EventChunk.read(first.get(0).getHeaders())));
+
+        ConsumerRecord<String, byte[]> firstRecord =
+                reassembler.add(record(first.get(1), 4), EventChunk.read(first.get(1).getHeaders()));
+        Assert.assertArrayEquals(inMemory, firstRecord.value());
+        // оффсет собранного события - оффсет первой полученной части
+        Assert.assertEquals(1, firstRecord.offset());
+        Assert.assertFalse(EventChunk.isChunk(firstRecord.headers()));
+        Assert.assertNotNull(firstRecord.headers().lastHeader(EventHeaders.TYPE));
+
+        ConsumerRecord<String, byte[]> secondRecord =
+                reassembler.add(record(second.get(0), 20), EventChunk.read(second.get(0).getHeaders()));
+        Assert.assertArrayEquals(spilled, secondRecord.value());
+    }
+
+    @Test
+    public void incompleteEventIsSkippedOnTimeout() throws Exception {
+        ChunkReassembler reassembler = reassembler(0, Duration.ofMillis(1));
+        List<EventChunk.Chunked> chunks = split(new byte[100], 40);
+
+        Assert.assertNull(reassembler.add(record(chunks.get(0), 1), EventChunk.read(chunks.get(0).getHeaders())));
+        File spillDir = folder.getRoot().listFiles()[0];
+        Assert.assertEquals(1, spillDir.listFiles().length);
+        Thread.sleep(10);
+
+        // первая часть была отброшена, поэтому событие не собирается, а ее файл удален
+        Assert.assertNull(reassembler.add(record(chunks.get(1), 2), EventChunk.read(chunks.get(1).getHeaders())));
+        Assert.assertNull(reassembler.add(record(chunks.get(2), 3), EventChunk.read(chunks.get(2).getHeaders())));
+        reassembler.clear();
+        Assert.assertEquals(0, spillDir.listFiles().length);
+    }
+}
@@ -0,0 +1,39 @@
+package kafkablocks.consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class EventBatchTest {
+
+    private static EventPoolTest.PooledEvent event(String key, int x) {
+        return new EventPoolTest.PooledEvent(key, x, null);
+    }
+
+    @Test
+    public void eventsAreIndexedByKeyInOrder() {
+        EventPoolTest.PooledEvent a1 = event("a", 1);
+        EventPoolTest.PooledEvent b1 = event("b", 1);
+        EventPoolTest.PooledEvent a2 = event("a", 2);
+        EventPoolTest.PooledEvent c1 = event("c", 1);
+
+        EventBatch<EventPoolTest.PooledEvent> batch = new EventBatch<>(4);
+        for (EventPoolTest.PooledEvent event : Arrays.asList(a1, b1, a2)) {
+            batch.add(event.getKey(), event);
+        }
+
+        Map<String, List<EventPoolTest.PooledEvent>> byKey = batch.getEventsByKey();
+        Assert.assertEquals(Arrays.asList("a", "b"), Arrays.asList(byKey.keySet().toArray()));
+        Assert.assertEquals(Arrays.asList(a1, a2), byKey.get("a"));
+        Assert.assertEquals(Arrays.asList(a2, b1), batch.getLastEvents());
+
+        // индекс перестраивается после добавления события
+        batch.add(c1.getKey(), c1);
+        Assert.assertEquals(4, batch.size());
+        Assert.assertEquals("c", batch.getKey(3));
+        Assert.assertEquals(Arrays.asList(a2, b1, c1), batch.getLastEvents());
+    }
+}
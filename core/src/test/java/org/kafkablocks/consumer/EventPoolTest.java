@@ -0,0 +1,116 @@
+package kafkablocks.consumer;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.serialization.EventCodecs;
+import kafkablocks.serialization.EventTypeSerde;
+import kafkablocks.serialization.SerdeRegistry;
+import kafkablocks.serialization.TypedCodec;
+import kafkablocks.serialization.avro.AvroEventCodec;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EventPoolTest {
+
+    @Getter
+    @NoArgsConstructor
+    public static class PooledEvent extends BaseEvent {
+        private String objectId;
+        private int x;
+        private String label;
+
+        PooledEvent(String objectId, int x, String label) {
+            this.objectId = objectId;
+            this.x = x;
+            this.label = label;
+        }
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    private static EventPool<PooledEvent> createPool(EventPooling mode) {
+        return new EventPool<>(PooledEvent.class, mode, LoggerFactory.getLogger(EventPoolTest.class));
+    }
+
+    @Test
+    public void jsonFillsPooledInstance() {
+        EventTypeSerde<PooledEvent> serde = SerdeRegistry.getInstance().forType(PooledEvent.class);
+        EventPool<PooledEvent> pool = createPool(EventPooling.ENABLED);
+
+        PooledEvent first = new PooledEvent("obj-1", 10, "first");
+        PooledEvent reused = pool.acquire();
+        PooledEvent event = serde.deserialize(null, serde.serialize(first), reused);
+        Assert.assertSame(reused, event);
+        Assert.assertEquals(first.getId(), event.getId());
+        Assert.assertEquals("first", event.getLabel());
+        pool.release(event);
+
+        // поля, которых нет в записи, не должны сохранить значения от предыдущей записи
+        PooledEvent second = new PooledEvent("obj-2", 20, null);
+        reused = pool.acquire();
+        Assert.assertSame(event, reused);
+        Assert.assertNull(reused.getObjectId());
+
+        event = serde.deserialize(null, serde.serialize(second), reused);
+        Assert.assertSame(reused, event);
+        Assert.assertEquals("obj-2", event.getObjectId());
+        Assert.assertEquals(20, event.getX());
+        Assert.assertNull(event.getLabel());
+        Assert.assertEquals(second.getId(), event.getId());
+        Assert.assertEquals(second.getOccurred(), event.getOccurred());
+    }
+
+    @Test
+    public void avroFillsPooledInstance() {
+        TypedCodec<PooledEvent> codec = EventCodecs.get(AvroEventCodec.NAME).bind(PooledEvent.class);
+        PooledEvent reused = createPool(EventPooling.ENABLED).acquire();
+
+        PooledEvent source = new PooledEvent("obj-1", 10, "label");
+        byte[] data = codec.serialize(source);
+        PooledEvent event = codec.deserialize(data, 0, data.length, reused);
+
+        Assert.assertSame(reused, event);
+        Assert.assertEquals(source.getId(), event.getId());
+        Assert.assertEquals("obj-1", event.getObjectId());
+        Assert.assertEquals("label", event.getLabel());
+    }
+
+    @Test
+    public void debugModeDetectsRetainedEvents() {
+        EventPool<PooledEvent> pool = createPool(EventPooling.DEBUG);
+        List<PooledEvent> retained = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            PooledEvent event = pool.acquire();
+            if (i % 5 == 0) {
+                retained.add(event);
+            }
+            pool.release(event);
+        }
+
+        // в режиме отладки экземпляры не переиспользуются, но сбрасываются
+        Assert.assertNotSame(retained.get(0), retained.get(1));
+        Assert.assertNull(retained.get(0).getId());
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        Assert.assertEquals(2, pool.checkRetained());
+        Assert.assertEquals(2, pool.getRetainedCount());
+        Assert.assertEquals(0, pool.checkRetained());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void disabledPoolIsNotCreated() {
+        createPool(EventPooling.DISABLED);
+    }
+}
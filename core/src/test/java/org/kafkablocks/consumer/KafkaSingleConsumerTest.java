@@ -0,0 +1,109 @@
+package kafkablocks.consumer;
+
+import kafkablocks.EventTopicProperties;
+import kafkablocks.events.BaseEvent;
+import kafkablocks.serialization.EventChunk;
+import kafkablocks.serialization.EventHeaders;
+import kafkablocks.serialization.EventTypeSerde;
+import kafkablocks.serialization.JsonEventCodec;
+import kafkablocks.serialization.SerdeRegistry;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class KafkaSingleConsumerTest {
+    private static final String TOPIC = "topic";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    public static class LargeEvent extends BaseEvent {
+        private String payload;
+
+        LargeEvent(String payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public String getKey() {
+            return "key";
+        }
+    }
+
+    private KafkaSingleConsumer createConsumer() throws Exception {
+        EventTopicProperties.Chunking chunking = new EventTopicProperties.Chunking();
+        chunking.setSpillDir(folder.newFolder().getPath());
+
+        EventTopicProperties eventTopicProperties = Mockito.mock(EventTopicProperties.class);
+        Mockito.when(eventTopicProperties.resolveTopicByEventClass(LargeEvent.class)).thenReturn(TOPIC);
+        Mockito.when(eventTopicProperties.getSerdeRegistry()).thenReturn(new SerdeRegistry(
+                Collections.singletonMap(TOPIC, LargeEvent.class), type -> JsonEventCodec.NAME));
+        Mockito.when(eventTopicProperties.getChunking()).thenReturn(chunking);
+
+        return new KafkaSingleConsumer(LargeEvent.class, eventTopicProperties, new KafkaProperties());
+    }
+
+    private static List<ConsumerRecord<String, byte[]>> chunkRecords(LargeEvent event, int chunkSize) {
+        EventTypeSerde<LargeEvent> serde = SerdeRegistry.getInstance().forType(LargeEvent.class);
+        Headers headers = new RecordHeaders();
+        EventHeaders.write(headers, event);
+        byte[] value = serde.serialize(event, headers);
+
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (EventChunk.Chunked chunk : EventChunk.split(value, headers, chunkSize)) {
+            records.add(new ConsumerRecord<>(TOPIC, 0, records.size(), 1000, TimestampType.CREATE_TIME, null,
+                    3, chunk.getData().length, "key", chunk.getData(), chunk.getHeaders()));
+        }
+        return records;
+    }
+
+    @Test
+    public void dedupeFilterPassesChunkedEvent() throws Exception {
+        KafkaSingleConsumer consumer = createConsumer();
+        List<LargeEvent> processed = new ArrayList<>();
+        consumer.setEventHandler((key, event) -> processed.add(event), LargeEvent.class);
+        // все части события несут его ИД, но повтором считается только повторно полученное событие
+        consumer.setFilter(Filter.dedupe(10));
+
+        LargeEvent event = new LargeEvent(String.join("", Collections.nCopies(100, "payload")));
+        List<ConsumerRecord<String, byte[]>> records = chunkRecords(event, 64);
+        Assert.assertTrue(records.size() > 1);
+
+        consumer.onSharedRecords(records);
+        consumer.onSharedRecords(chunkRecords(event, 64));
+
+        Assert.assertEquals(1, processed.size());
+        Assert.assertEquals(event.getId(), processed.get(0).getId());
+        Assert.assertEquals(event.getPayload(), processed.get(0).getPayload());
+    }
+
+    @Test
+    public void consumerReadsOnlyCommittedEventsIfConfigured() {
+        EventTopicProperties eventTopicProperties = Mockito.mock(EventTopicProperties.class);
+        Assert.assertNotEquals("read_committed", KafkaSingleConsumer.getConsumerProperties(
+                eventTopicProperties, new KafkaProperties(), "id").get(ConsumerConfig.ISOLATION_LEVEL_CONFIG));
+
+        // события прерванной транзакции публикуются повторно, поэтому их не должно быть видно потребителю
+        Mockito.when(eventTopicProperties.isReadCommitted()).thenReturn(true);
+        Assert.assertEquals("read_committed", KafkaSingleConsumer.getConsumerProperties(
+                eventTopicProperties, new KafkaProperties(), "id").get(ConsumerConfig.ISOLATION_LEVEL_CONFIG));
+    }
+}
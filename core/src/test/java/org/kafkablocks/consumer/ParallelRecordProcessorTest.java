@@ -0,0 +1,120 @@
+package kafkablocks.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.consumer.RetriableCommitFailedException;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+public class ParallelRecordProcessorTest {
+    private static final TopicPartition P0 = new TopicPartition("topic", 0);
+    private static final TopicPartition P1 = new TopicPartition("topic", 1);
+
+    private static ConsumerRecord<String, byte[]> record(TopicPartition partition, long offset, String key) {
+        return new ConsumerRecord<>(partition.topic(), partition.partition(), offset, key, new byte[0]);
+    }
+
+    @Test
+    public void fullQueuePausesPartitionAndOffsetsAreCommittedAfterProcessing() throws Exception {
+        ParallelProcessing properties = new ParallelProcessing();
+        properties.setThreads(2);
+        properties.setQueueCapacity(1);
+
+        CountDownLatch release = new CountDownLatch(1);
+        List<ConsumerRecord<String, byte[]>> processed = Collections.synchronizedList(new ArrayList<>());
+        ParallelRecordProcessor processor = new ParallelRecordProcessor(properties, record -> {
+            // первая запись ключа "a" обрабатывается долго, и очередь ее потока заполняется
+            if (record.partition() == 0 && record.offset() == 0) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            processed.add(record);
+        }, null, "test", NOPLogger.NOP_LOGGER);
+        processor.start();
+
+        MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.assign(Arrays.asList(P0, P1));
+
+        processor.onPoll(Arrays.asList(
+                record(P0, 0, "a"), record(P0, 1, "a"), record(P0, 2, "a"), record(P1, 0, "b")), consumer);
+        Assert.assertEquals(Collections.singleton(P0), consumer.paused());
+
+        release.countDown();
+        Map<TopicPartition, OffsetAndMetadata> committed = Collections.emptyMap();
+        for (int i = 0; i < 500 && !(committed.size() == 2 && committed.get(P0).offset() == 3); i++) {
+            Thread.sleep(10);
+            processor.onIdle(consumer);
+            committed = consumer.committed(new HashSet<>(Arrays.asList(P0, P1)));
+        }
+        processor.stop();
+
+        Assert.assertTrue(consumer.paused().isEmpty());
+        Assert.assertEquals(3, committed.get(P0).offset());
+        Assert.assertEquals(1, committed.get(P1).offset());
+        // записи одного ключа обработаны по порядку
+        List<Long> offsetsOfA = processed.stream()
+                .filter(record -> "a".equals(record.key()))
+                .map(ConsumerRecord::offset)
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(0L, 1L, 2L), offsetsOfA);
+    }
+
+    @Test
+    public void failedCommitIsRetriedOnIdle() throws Exception {
+        ParallelProcessing properties = new ParallelProcessing();
+        properties.setThreads(1);
+
+        CountDownLatch processed = new CountDownLatch(1);
+        ParallelRecordProcessor processor = new ParallelRecordProcessor(
+                properties, record -> processed.countDown(), null, "test", NOPLogger.NOP_LOGGER);
+        processor.start();
+
+        AtomicBoolean failCommit = new AtomicBoolean(true);
+        MockConsumer<String, byte[]> consumer = new MockConsumer<String, byte[]>(OffsetResetStrategy.EARLIEST) {
+            @Override
+            public synchronized void commitAsync(
+                    Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+                // не удается фиксация оффсета после обработанной записи
+                if (offsets.get(P0).offset() == 1 && failCommit.getAndSet(false)) {
+                    callback.onComplete(offsets, new RetriableCommitFailedException("test"));
+                    return;
+                }
+                super.commitAsync(offsets, callback);
+            }
+        };
+        consumer.assign(Collections.singleton(P0));
+
+        processor.onPoll(Collections.singletonList(record(P0, 0, "a")), consumer);
+        Assert.assertTrue(processed.await(5, TimeUnit.SECONDS));
+
+        // в партиции больше нет записей, поэтому фиксация повторяется только при проверке простоя
+        for (int i = 0; i < 500 && failCommit.get(); i++) {
+            Thread.sleep(10);
+            processor.onIdle(consumer);
+        }
+        processor.onIdle(consumer);
+        processor.stop();
+
+        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(Collections.singleton(P0));
+        Assert.assertEquals(1, committed.get(P0).offset());
+    }
+}
@@ -0,0 +1,61 @@
+package kafkablocks.processing;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.serialization.delta.DeltaEncoder;
+import kafkablocks.serialization.delta.DeltaEventCodec;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.Iterator;
+
+public class EnvelopeUnpackingTransformerTest {
+    private static final long BASE_TS = 1_600_000_000_000L;
+
+    @Getter
+    @NoArgsConstructor
+    public static class PositionEvent extends BaseEvent {
+        private String objectId;
+        private double x;
+
+        PositionEvent(String objectId, double x) {
+            this.objectId = objectId;
+            this.x = x;
+        }
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    @Test
+    public void deltaFramesAreDecoded() {
+        ProcessorContext context = Mockito.mock(ProcessorContext.class);
+        Mockito.when(context.headers()).thenReturn(new RecordHeaders());
+        EnvelopeUnpackingTransformer<PositionEvent> transformer =
+                new EnvelopeUnpackingTransformer<>(PositionEvent.class, null, true);
+        transformer.init(context);
+
+        DeltaEncoder encoder = new DeltaEncoder(Duration.ofSeconds(10), 1000);
+        for (int i = 0; i < 5; i++) {
+            PositionEvent event = new PositionEvent("obj-1", 10.5 + i);
+            byte[] frame = encoder.encode("topic", "obj-1", event, BASE_TS + i * 100);
+            Assert.assertTrue(DeltaEventCodec.isDelta(frame));
+
+            // каждый кадр, а не только опорный, дает событие
+            Iterator<KeyValue<String, PositionEvent>> result = transformer.transform("obj-1", frame).iterator();
+            Assert.assertTrue(result.hasNext());
+            PositionEvent decoded = result.next().value;
+            Assert.assertEquals(event.getId(), decoded.getId());
+            Assert.assertEquals(event.getX(), decoded.getX(), 0);
+            Assert.assertFalse(result.hasNext());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package kafkablocks.publisher;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveBatchControllerTest {
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static AdaptiveBatchController createController() {
+        KafkaPublisherProperties.AdaptiveBatching properties = new KafkaPublisherProperties.AdaptiveBatching();
+        properties.setMinInterval(Duration.ofMillis(1));
+        properties.setMaxInterval(Duration.ofMillis(10));
+        properties.setIncreaseStep(Duration.ofMillis(2));
+        properties.setLatencyTarget(Duration.ofNanos(TARGET));
+
+        return new AdaptiveBatchController(properties, () -> {
+        }, () -> Double.NaN, () -> Double.NaN, LoggerFactory.getLogger(AdaptiveBatchControllerTest.class));
+    }
+
+    @Test
+    public void intervalIncreasesAdditivelyAndDecreasesMultiplicatively() {
+        AdaptiveBatchController controller = createController();
+        Assert.assertEquals(1, controller.getMetrics().getIntervalMillis(), 1e-9);
+
+        controller.adjust(TARGET / 2, 0.1);
+        controller.adjust(TARGET / 2, 0.1);
+        Assert.assertEquals(5, controller.getMetrics().getIntervalMillis(), 1e-9);
+
+        // не больше максимума
+        for (int i = 0; i < 10; i++) {
+            controller.adjust(TARGET / 2, Double.NaN);
+        }
+        Assert.assertEquals(10, controller.getMetrics().getIntervalMillis(), 1e-9);
+
+        controller.adjust(TARGET * 2, 0.1);
+        BatchingMetrics metrics = controller.getMetrics();
+        Assert.assertEquals(5, metrics.getIntervalMillis(), 1e-9);
+        Assert.assertEquals(100, metrics.getLatencyMillis(), 1e-9);
+        Assert.assertEquals(5, metrics.getIncreaseCount());
+        Assert.assertEquals(1, metrics.getDecreaseCount());
+    }
+
+    @Test
+    public void intervalDoesNotIncreaseWhenBatchesAreFull() {
+        AdaptiveBatchController controller = createController();
+
+        controller.adjust(TARGET / 2, 0.95);
+        Assert.assertEquals(1, controller.getMetrics().getIntervalMillis(), 1e-9);
+        Assert.assertEquals(0, controller.getMetrics().getIncreaseCount());
+    }
+}
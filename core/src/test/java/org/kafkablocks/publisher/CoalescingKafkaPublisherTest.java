@@ -0,0 +1,124 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.events.Event;
+import lombok.Getter;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+public class CoalescingKafkaPublisherTest {
+
+    @Getter
+    public static class PositionEvent extends BaseEvent {
+        private final String objectId;
+        private final int n;
+
+        PositionEvent(String objectId, int n) {
+            this.objectId = objectId;
+            this.n = n;
+        }
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    public static class OtherEvent extends BaseEvent {
+        @Override
+        public String getKey() {
+            return "other";
+        }
+    }
+
+    private KafkaPublisher publisher;
+
+    @Before
+    public void setUp() {
+        publisher = Mockito.mock(KafkaPublisher.class);
+        Mockito.when(publisher.publishEventAsync(Mockito.any())).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(
+                        new RecordMetadata(new TopicPartition("test-topic", 0), 0, 0, 0, 0L, 0, 0)));
+    }
+
+    private static KafkaPublisherProperties.Coalescing coalescing(Duration interval, int maxKeys) {
+        KafkaPublisherProperties.CoalescingRule rule = new KafkaPublisherProperties.CoalescingRule();
+        rule.setInterval(interval);
+        rule.setMaxKeys(maxKeys);
+
+        KafkaPublisherProperties.Coalescing properties = new KafkaPublisherProperties.Coalescing();
+        properties.setStripes(1);
+        properties.getEvents().put("PositionEvent", rule);
+        return properties;
+    }
+
+    private List<Integer> getSent(int times) {
+        ArgumentCaptor<Event> captor = ArgumentCaptor.forClass(Event.class);
+        Mockito.verify(publisher, Mockito.timeout(5000).times(times)).publishEventAsync(captor.capture());
+        return captor.getAllValues().stream()
+                .map(event -> ((PositionEvent) event).getN())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void latestEventOfKeyIsPublished() {
+        CoalescingKafkaPublisher coalescing =
+                new CoalescingKafkaPublisher(publisher, coalescing(Duration.ofHours(1), 100));
+
+        CompletableFuture<RecordMetadata> first = coalescing.publishEventAsync(new PositionEvent("a", 1));
+        coalescing.publishEvent(new PositionEvent("b", 2));
+        coalescing.publishEvent(new PositionEvent("a", 3));
+        CompletableFuture<RecordMetadata> last = coalescing.publishEventAsync(new PositionEvent("a", 4));
+        Mockito.verify(publisher, Mockito.never()).publishEventAsync(Mockito.any());
+
+        coalescing.flush();
+        Assert.assertEquals(Arrays.asList(2, 4), getSent(2));
+        Mockito.verify(publisher).flush();
+
+        // схлопнутые события получают результат отправки последнего
+        Assert.assertSame(first, last);
+        Assert.assertTrue(last.isDone());
+    }
+
+    @Test
+    public void otherEventsArePublishedImmediately() {
+        CoalescingKafkaPublisher coalescing =
+                new CoalescingKafkaPublisher(publisher, coalescing(Duration.ofHours(1), 100));
+
+        OtherEvent event = new OtherEvent();
+        coalescing.publishEvent(event);
+        Mockito.verify(publisher).publishEvent(event);
+    }
+
+    @Test
+    public void eventsAreFlushedOnInterval() {
+        CoalescingKafkaPublisher coalescing =
+                new CoalescingKafkaPublisher(publisher, coalescing(Duration.ofMillis(20), 100));
+
+        coalescing.publishEvent(new PositionEvent("a", 1));
+        coalescing.publishEvent(new PositionEvent("a", 2));
+        Assert.assertEquals(Arrays.asList(2), getSent(1));
+    }
+
+    @Test
+    public void eventsAreFlushedOnMaxKeys() {
+        CoalescingKafkaPublisher coalescing =
+                new CoalescingKafkaPublisher(publisher, coalescing(Duration.ofHours(1), 2));
+
+        coalescing.publishEvent(new PositionEvent("a", 1));
+        coalescing.publishEvent(new PositionEvent("b", 2));
+        Assert.assertEquals(Arrays.asList(1, 2), getSent(2));
+    }
+}
@@ -0,0 +1,65 @@
+package kafkablocks.publisher;
+
+import kafkablocks.EventTopicProperties;
+import kafkablocks.events.Event;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EnvelopeAccumulatorTest {
+
+    @Test
+    public void blockedSendDoesNotStallOtherKeys() throws Exception {
+        EventTopicProperties.Envelope properties = new EventTopicProperties.Envelope();
+        properties.setMaxEvents(2);
+        properties.setLinger(Duration.ofMinutes(1));
+
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> sentKeys = Collections.synchronizedList(new ArrayList<>());
+        EnvelopeAccumulator accumulator = new EnvelopeAccumulator(properties, (ProducerRecord<String, Event> record) -> {
+            // отправка конверта ключа "a" блокируется, как при заполненном буфере продюсера
+            if ("a".equals(record.key())) {
+                sending.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            sentKeys.add(record.key());
+            return CompletableFuture.completedFuture((RecordMetadata) null);
+        }, NOPLogger.NOP_LOGGER);
+
+        Thread publisher = new Thread(() -> {
+            accumulator.add(new KafkaPublisherImplTest.KeyedEvent("a", 1), "topic");
+            accumulator.add(new KafkaPublisherImplTest.KeyedEvent("a", 2), "topic");
+        });
+        publisher.start();
+        Assert.assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        // событие другого ключа добавляется, пока отправка конверта ключа "a" заблокирована
+        CompletableFuture<RecordMetadata> future = CompletableFuture
+                .supplyAsync(() -> accumulator.add(new KafkaPublisherImplTest.KeyedEvent("b", 1), "topic"))
+                .get(1, TimeUnit.SECONDS);
+        Assert.assertFalse(future.isDone());
+
+        release.countDown();
+        publisher.join();
+        accumulator.close();
+
+        Assert.assertEquals(2, sentKeys.size());
+        Assert.assertEquals("a", sentKeys.get(0));
+        Assert.assertTrue(future.isDone());
+    }
+}
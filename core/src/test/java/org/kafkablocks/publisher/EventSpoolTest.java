@@ -0,0 +1,98 @@
+package kafkablocks.publisher;
+
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class EventSpoolTest {
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static EventSpool.Entry entry(String key, int n) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("n", new byte[]{(byte) n});
+        return new EventSpool.Entry("topic", key, "SomeEvent", headers,
+                ("value-" + n).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> values(List<EventSpool.Entry> entries) {
+        return entries.stream()
+                .map(entry -> new String(entry.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().listFiles((dir, name) -> name.endsWith(".spool"));
+    }
+
+    @Test
+    public void entriesAreReadInOrderAcrossSegments() {
+        EventSpool spool = new EventSpool(folder.getRoot().getPath(), SEGMENT_SIZE, false);
+        Assert.assertFalse(spool.hasPending());
+
+        for (int i = 0; i < 50; i++) {
+            spool.append(entry(i % 2 == 0 ? "a" : null, i));
+        }
+        Assert.assertTrue(spool.hasPending());
+        Assert.assertTrue(segmentFiles().length > 1);
+
+        List<EventSpool.Entry> first = spool.read(30);
+        Assert.assertEquals(30, first.size());
+        Assert.assertEquals("value-0", values(first).get(0));
+        Assert.assertEquals("a", first.get(0).getKey());
+        Assert.assertNull(first.get(1).getKey());
+        Assert.assertEquals(1, first.get(1).getHeaders().lastHeader("n").value()[0]);
+
+        // без подтверждения читаются те же записи
+        Assert.assertEquals(values(first), values(spool.read(30)));
+
+        spool.commit(first.get(29).getEnd());
+        List<EventSpool.Entry> rest = spool.read(100);
+        Assert.assertEquals(20, rest.size());
+        Assert.assertEquals("value-30", values(rest).get(0));
+
+        spool.commit(rest.get(19).getEnd());
+        Assert.assertFalse(spool.hasPending());
+        Assert.assertEquals(1, segmentFiles().length);
+    }
+
+    @Test
+    public void spoolIsRestoredAfterReopening() throws Exception {
+        EventSpool spool = new EventSpool(folder.getRoot().getPath(), SEGMENT_SIZE, false);
+        for (int i = 0; i < 10; i++) {
+            spool.append(entry("a", i));
+        }
+        spool.commit(spool.read(4).get(3).getEnd());
+        spool.close();
+
+        // портим контрольную сумму последней записи, как при аварии во время записи
+        List<EventSpool.Entry> entries = new EventSpool(folder.getRoot().getPath(), SEGMENT_SIZE, false).read(100);
+        Assert.assertEquals(6, entries.size());
+        Assert.assertEquals(1, segmentFiles().length);
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles()[0], "rw")) {
+            file.seek(entries.get(4).getEnd().getOffset() + 4);
+            file.writeInt(12345);
+        }
+
+        EventSpool reopened = new EventSpool(folder.getRoot().getPath(), SEGMENT_SIZE, false);
+        Assert.assertTrue(reopened.hasPending());
+        List<String> values = values(reopened.read(100));
+        Assert.assertEquals("value-4", values.get(0));
+        Assert.assertEquals("value-8", values.get(values.size() - 1));
+
+        // новые записи добавляются вместо оборванной
+        reopened.append(entry("a", 10));
+        values = values(reopened.read(100));
+        Assert.assertEquals("value-10", values.get(values.size() - 1));
+    }
+}
@@ -0,0 +1,51 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.Event;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class InFlightLimiterTest {
+
+    private static ProducerRecord<String, Event> record(String key) {
+        return new ProducerRecord<>("topic", key, new KafkaPublisherImplTest.KeyedEvent(key, 1));
+    }
+
+    @Test
+    public void droppedEventIsCompletedOutsideOfLock() throws Exception {
+        KafkaPublisherProperties.Backpressure properties = new KafkaPublisherProperties.Backpressure();
+        properties.setPolicy(BackpressurePolicy.DROP_OLDEST);
+        properties.getGlobal().setMaxEvents(1);
+        properties.setMaxPending(1);
+        InFlightLimiter limiter = new InFlightLimiter(properties, NOPLogger.NOP_LOGGER);
+        // отправка не завершается, поэтому следующие события встают в очередь
+        InFlightLimiter.Sender sender = (record, sentBytes) -> new CompletableFuture<>();
+
+        limiter.send(record("a"), sender);
+        CompletableFuture<RecordMetadata> dropped = limiter.send(record("b"), sender);
+
+        // обработчик, как и запись в спул, обращается к ограничителю из другого потока;
+        // если он выполняется под блокировкой ограничителя, то обращение не завершится
+        AtomicBoolean lockIsFree = new AtomicBoolean();
+        dropped.whenComplete((recordMetadata, e) -> {
+            try {
+                CompletableFuture.supplyAsync(limiter::getPendingCount).get(1, TimeUnit.SECONDS);
+                lockIsFree.set(true);
+            } catch (Exception ignored) {
+            }
+        });
+
+        limiter.send(record("c"), sender);
+
+        Assert.assertTrue(dropped.isCompletedExceptionally());
+        Assert.assertTrue(lockIsFree.get());
+        Assert.assertEquals(1, limiter.getPendingCount());
+        limiter.close();
+    }
+}
@@ -0,0 +1,384 @@
+package kafkablocks.publisher;
+
+import kafkablocks.EventTopicProperties;
+import kafkablocks.events.BaseEvent;
+import kafkablocks.events.Event;
+import kafkablocks.serialization.EventEnvelope;
+import kafkablocks.serialization.EventHeaders;
+import kafkablocks.serialization.SerdeProvider;
+import kafkablocks.serialization.SerdeRegistry;
+import kafkablocks.serialization.SerializedEvent;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class KafkaPublisherImplTest {
+    private static final String TOPIC = "test-topic";
+    private static final int PARTITION_COUNT = 3;
+
+    @Getter
+    @NoArgsConstructor
+    public static class KeyedEvent extends BaseEvent {
+        private String objectId;
+        private int n;
+
+        KeyedEvent(String objectId, int n) {
+            this.objectId = objectId;
+            this.n = n;
+        }
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    /**
+     * KafkaTemplate закрывает продюсер после каждой отправки, а фабрика возвращает продюсер, который это игнорирует
+     */
+    private static class TestProducer extends MockProducer<String, Event> {
+        TestProducer(Cluster cluster, boolean autoComplete) {
+            super(cluster, autoComplete, new DefaultPartitioner(), new StringSerializer(), SerdeProvider.getSerializer());
+        }
+
+        @Override
+        public void close(Duration timeout) {
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestProducer producer;
+    private KafkaPublisherImpl publisher;
+
+    private void createPublisher(boolean autoComplete) {
+        createPublisher(autoComplete, new KafkaPublisherProperties());
+    }
+
+    private void createPublisher(boolean autoComplete, KafkaPublisherProperties publisherProperties) {
+        producer = new TestProducer(createCluster(), autoComplete);
+        publisher = new KafkaPublisherImpl(
+                createEventTopicProperties(), new KafkaProperties(), publisherProperties,
+                createProducerFactory(producer), new KafkaAdmin(Collections.emptyMap()));
+    }
+
+    private static Cluster createCluster() {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitions = Arrays.asList(
+                new PartitionInfo(TOPIC, 0, node, null, null),
+                new PartitionInfo(TOPIC, 1, node, null, null),
+                new PartitionInfo(TOPIC, 2, node, null, null));
+        return new Cluster("test", Collections.singletonList(node), partitions,
+                Collections.emptySet(), Collections.emptySet());
+    }
+
+    private static DefaultKafkaProducerFactory<String, Event> createProducerFactory(TestProducer producer) {
+        @SuppressWarnings("unchecked")
+        DefaultKafkaProducerFactory<String, Event> producerFactory = Mockito.mock(DefaultKafkaProducerFactory.class);
+        Mockito.when(producerFactory.createProducer()).thenReturn(producer);
+        return producerFactory;
+    }
+
+    private static EventTopicProperties createEventTopicProperties() {
+        EventTopicProperties eventTopicProperties = Mockito.mock(EventTopicProperties.class);
+        Mockito.when(eventTopicProperties.resolveTopicByEvent(Mockito.any())).thenReturn(TOPIC);
+        return eventTopicProperties;
+    }
+
+    private static EventTopicProperties createEnvelopeTopicProperties(EventTopicProperties.Envelope envelope) {
+        EventTopicProperties eventTopicProperties = createEventTopicProperties();
+        Mockito.when(eventTopicProperties.hasEnvelopes()).thenReturn(true);
+        Mockito.when(eventTopicProperties.isEnveloped(KeyedEvent.class)).thenReturn(true);
+        Mockito.when(eventTopicProperties.getEnvelope()).thenReturn(envelope);
+        return eventTopicProperties;
+    }
+
+    @Before
+    public void setUp() {
+        createPublisher(true);
+    }
+
+    @Test
+    public void batchIsGroupedByPartition() throws Exception {
+        List<KeyedEvent> events = Arrays.asList(
+                new KeyedEvent("a", 1), new KeyedEvent("b", 1), new KeyedEvent("c", 1),
+                new KeyedEvent("a", 2), new KeyedEvent("b", 2), new KeyedEvent("c", 2));
+
+        List<CompletableFuture<RecordMetadata>> futures = publisher.publishEvents(events);
+        Assert.assertEquals(events.size(), futures.size());
+
+        List<ProducerRecord<String, Event>> sent = producer.history();
+        Assert.assertEquals(events.size(), sent.size());
+
+        // записи одной партиции идут подряд
+        List<Integer> partitions = futures.stream()
+                .map(future -> future.join().partition())
+                .collect(Collectors.toList());
+        List<Integer> sentPartitions = sent.stream()
+                .map(record -> partitions.get(events.indexOf(record.value())))
+                .collect(Collectors.toList());
+        for (int i = 1; i < sentPartitions.size(); i++) {
+            int partition = sentPartitions.get(i);
+            Assert.assertTrue(partition == sentPartitions.get(i - 1)
+                    || !sentPartitions.subList(0, i).contains(partition));
+        }
+
+        // порядок событий с одинаковым ключом сохраняется
+        List<Integer> ofA = sent.stream()
+                .filter(record -> record.key().equals("a"))
+                .map(record -> ((KeyedEvent) record.value()).getN())
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(1, 2), ofA);
+        Assert.assertTrue(partitions.stream().allMatch(p -> p >= 0 && p < PARTITION_COUNT));
+    }
+
+    @Test
+    public void failedSendCompletesFuture() throws Exception {
+        createPublisher(false);
+
+        List<CompletableFuture<RecordMetadata>> futures = publisher.publishEvents(Arrays.asList(
+                new KeyedEvent("a", 1), new KeyedEvent("a", 2)));
+        Assert.assertTrue(producer.completeNext());
+        Assert.assertTrue(producer.errorNext(new RuntimeException("broker is down")));
+
+        Assert.assertEquals(TOPIC, futures.get(0).get().topic());
+        Assert.assertTrue(futures.get(1).isCompletedExceptionally());
+    }
+
+    @Test
+    public void flushCompletesPendingSends() {
+        createPublisher(false);
+
+        CompletableFuture<RecordMetadata> future = publisher.publishEventAsync(new KeyedEvent("a", 1));
+        Assert.assertFalse(future.isDone());
+
+        publisher.flush();
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isCompletedExceptionally());
+    }
+
+    private static KafkaPublisherProperties limitedTo(int maxEvents, BackpressurePolicy policy) {
+        KafkaPublisherProperties properties = new KafkaPublisherProperties();
+        properties.getBackpressure().setPolicy(policy);
+        properties.getBackpressure().getGlobal().setMaxEvents(maxEvents);
+        return properties;
+    }
+
+    @Test
+    public void failPolicyRejectsEventsOverLimit() {
+        createPublisher(false, limitedTo(2, BackpressurePolicy.FAIL));
+
+        publisher.publishEvent(new KeyedEvent("a", 1));
+        Assert.assertEquals(0.5, publisher.getPressure(), 0);
+        publisher.publishEvent(new KeyedEvent("b", 1));
+        Assert.assertEquals(1.0, publisher.getPressure(TOPIC), 0);
+
+        CompletableFuture<RecordMetadata> rejected = publisher.publishEventAsync(new KeyedEvent("c", 1));
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        Assert.assertThrows(BackpressureException.class, () -> publisher.publishEvent(new KeyedEvent("c", 2)));
+
+        producer.completeNext();
+        publisher.publishEvent(new KeyedEvent("c", 3));
+        Assert.assertEquals(3, producer.history().size());
+    }
+
+    @Test
+    public void blockPolicyWaitsForRoom() {
+        KafkaPublisherProperties properties = limitedTo(1, BackpressurePolicy.BLOCK);
+        properties.getBackpressure().setBlockTimeout(Duration.ofMillis(50));
+        createPublisher(false, properties);
+
+        publisher.publishEvent(new KeyedEvent("a", 1));
+        CompletableFuture<RecordMetadata> timedOut = publisher.publishEventAsync(new KeyedEvent("a", 2));
+        Assert.assertTrue(timedOut.isCompletedExceptionally());
+
+        producer.completeNext();
+        Assert.assertEquals(0, publisher.getPressure(), 0);
+        publisher.publishEvent(new KeyedEvent("a", 3));
+        Assert.assertEquals(2, producer.history().size());
+    }
+
+    @Test
+    public void dropOldestPolicyKeepsLatestEventOfKey() throws Exception {
+        createPublisher(false, limitedTo(1, BackpressurePolicy.DROP_OLDEST));
+
+        CompletableFuture<RecordMetadata> first = publisher.publishEventAsync(new KeyedEvent("a", 1));
+        CompletableFuture<RecordMetadata> replaced = publisher.publishEventAsync(new KeyedEvent("a", 2));
+        CompletableFuture<RecordMetadata> latest = publisher.publishEventAsync(new KeyedEvent("a", 3));
+        Assert.assertTrue(replaced.isCompletedExceptionally());
+        Assert.assertEquals(1.0, publisher.getPressure(), 0);
+
+        producer.completeNext();
+        first.get();
+
+        // последнее событие отправляется из очереди в отдельном потоке
+        long deadline = System.currentTimeMillis() + 5000;
+        while (producer.history().size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        producer.completeNext();
+        latest.get(5, TimeUnit.SECONDS);
+
+        List<Integer> sent = producer.history().stream()
+                // с лимитами значение сериализуется до передачи продюсеру, чтобы учесть его объем
+                .map(record -> ((KeyedEvent) ((SerializedEvent) record.value()).getEvent()).getN())
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(1, 3), sent);
+    }
+
+    @Test
+    public void bytesOfAllChunksAreInFlight() {
+        EventTopicProperties.Chunking chunking = new EventTopicProperties.Chunking();
+        chunking.setChunkSize(DataSize.ofBytes(16));
+        EventTopicProperties eventTopicProperties = createEventTopicProperties();
+        Mockito.when(eventTopicProperties.isChunkingEnabled()).thenReturn(true);
+        Mockito.when(eventTopicProperties.getChunking()).thenReturn(chunking);
+
+        KafkaPublisherProperties properties = new KafkaPublisherProperties();
+        properties.getBackpressure().getGlobal().setMaxBytes(100_000);
+        producer = new TestProducer(createCluster(), false);
+        publisher = new KafkaPublisherImpl(
+                eventTopicProperties, new KafkaProperties(), properties,
+                createProducerFactory(producer), new KafkaAdmin(Collections.emptyMap()));
+
+        publisher.publishEventAsync(new KeyedEvent("a", 1));
+        Assert.assertTrue(producer.history().size() > 1);
+
+        // в полете объем всех частей события, а не только последней
+        long sentBytes = producer.history().stream()
+                .mapToLong(record -> ((SerializedEvent) record.value()).getData().length)
+                .sum();
+        Assert.assertEquals(sentBytes / 100_000.0, publisher.getPressure(), 1e-9);
+    }
+
+    @Test
+    public void partitionIsSentBySingleShard() {
+        KafkaPublisherProperties properties = new KafkaPublisherProperties();
+        properties.setProducerCount(2);
+        Cluster cluster = createCluster();
+        List<TestProducer> producers = Arrays.asList(
+                new TestProducer(cluster, true), new TestProducer(cluster, true));
+        publisher = new KafkaPublisherImpl(
+                createEventTopicProperties(), new KafkaProperties(), properties,
+                shard -> createProducerFactory(producers.get(shard)), new KafkaAdmin(Collections.emptyMap()));
+
+        List<KeyedEvent> events = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            events.add(new KeyedEvent("object-" + (i % 10), i));
+        }
+        List<CompletableFuture<RecordMetadata>> futures = publisher.publishEvents(events);
+
+        // партиция, в которую отправлено событие -> шард, который его отправил
+        Map<Integer, Integer> partitionShards = new HashMap<>();
+        for (int shard = 0; shard < producers.size(); shard++) {
+            for (ProducerRecord<String, Event> record : producers.get(shard).history()) {
+                int partition = futures.get(events.indexOf(record.value())).join().partition();
+                Integer previousShard = partitionShards.putIfAbsent(partition, shard);
+                Assert.assertTrue(previousShard == null || previousShard == shard);
+            }
+        }
+
+        List<ProducerShardMetrics> metrics = publisher.getShardMetrics();
+        Assert.assertEquals(2, metrics.size());
+        Assert.assertEquals(events.size(), metrics.stream().mapToLong(ProducerShardMetrics::getAcknowledged).sum());
+        Assert.assertTrue(metrics.stream().allMatch(m -> m.getInFlight() == 0 && m.getFailed() == 0));
+    }
+
+    @Test
+    public void failedEventsAreSpooledAndReplayedInOrder() throws Exception {
+        KafkaPublisherProperties properties = new KafkaPublisherProperties();
+        properties.getSpool().setDir(folder.getRoot().getPath());
+        properties.getSpool().setRetryBackoff(Duration.ofMillis(10));
+        createPublisher(false, properties);
+
+        CompletableFuture<RecordMetadata> first = publisher.publishEventAsync(new KeyedEvent("a", 1));
+        producer.errorNext(new TimeoutException("broker is down"));
+        ExecutionException e = Assert.assertThrows(ExecutionException.class, first::get);
+        Assert.assertTrue(e.getCause() instanceof EventSpooledException);
+
+        // пока в спуле есть события, новые события сохраняются за ними
+        publisher.publishEvent(new KeyedEvent("a", 2));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (producer.history().size() < 3 && System.currentTimeMillis() < deadline) {
+            producer.completeNext();
+            Thread.sleep(10);
+        }
+        while (producer.completeNext()) {
+        }
+
+        List<Integer> sent = producer.history().stream()
+                .map(record -> ((KeyedEvent) record.value()).getN())
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(1, 1, 2), sent);
+    }
+
+    @Test
+    public void eventsOfKeyArePackedIntoEnvelope() throws Exception {
+        EventTopicProperties.Envelope envelope = new EventTopicProperties.Envelope();
+        envelope.setMaxEvents(3);
+        envelope.setLinger(Duration.ofMinutes(1));
+        producer = new TestProducer(createCluster(), true);
+        publisher = new KafkaPublisherImpl(
+                createEnvelopeTopicProperties(envelope), new KafkaProperties(), new KafkaPublisherProperties(),
+                createProducerFactory(producer), new KafkaAdmin(Collections.emptyMap()));
+
+        List<CompletableFuture<RecordMetadata>> futures = publisher.publishEvents(Arrays.asList(
+                new KeyedEvent("a", 1), new KeyedEvent("b", 1), new KeyedEvent("a", 2), new KeyedEvent("a", 3)));
+        // конверт ключа "a" заполнен и отправлен, а конверт ключа "b" ждет
+        Assert.assertEquals(1, producer.history().size());
+        Assert.assertFalse(futures.get(1).isDone());
+        Assert.assertSame(futures.get(0).get(), futures.get(3).get());
+
+        publisher.flush();
+        Assert.assertTrue(futures.get(1).isDone());
+
+        ProducerRecord<String, Event> record = producer.history().get(0);
+        Assert.assertEquals("a", record.key());
+        Assert.assertTrue(EventEnvelope.isEnvelope(record.headers()));
+        Assert.assertEquals("KeyedEvent", EventHeaders.read(record.headers()).getType());
+
+        EventEnvelope.Reader reader = new EventEnvelope.Reader(((EventEnvelope) record.value()).getData());
+        List<Integer> unpacked = new ArrayList<>();
+        long lastTimestamp = 0;
+        while (reader.next()) {
+            KeyedEvent event = SerdeRegistry.getInstance().forType(KeyedEvent.class).deserialize(reader.copyValue());
+            unpacked.add(event.getN());
+            Assert.assertTrue(reader.getTimestamp() >= lastTimestamp);
+            lastTimestamp = reader.getTimestamp();
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, 3), unpacked);
+        Assert.assertEquals(lastTimestamp, (long) record.timestamp());
+    }
+}
@@ -0,0 +1,84 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.Event;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SerializationPipelineTest {
+
+    @Test
+    public void eventsOfKeyAreSentInOrder() {
+        KafkaPublisherProperties.Serialization properties = new KafkaPublisherProperties.Serialization();
+        properties.setThreads(3);
+        properties.setQueueCapacity(30);
+
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<KafkaPublisherImplTest.KeyedEvent> sent = Collections.synchronizedList(new ArrayList<>());
+        SerializationPipeline pipeline = new SerializationPipeline(properties,
+                record -> {
+                    threads.add(Thread.currentThread().getName());
+                    return record;
+                },
+                record -> {
+                    sent.add((KafkaPublisherImplTest.KeyedEvent) record.value());
+                    return CompletableFuture.completedFuture(null);
+                },
+                NOPLogger.NOP_LOGGER);
+
+        List<CompletableFuture<RecordMetadata>> futures = new ArrayList<>();
+        for (int n = 0; n < 1000; n++) {
+            Event event = new KafkaPublisherImplTest.KeyedEvent("key" + n % 10, n);
+            futures.add(pipeline.submit(new ProducerRecord<>("topic", event.getKey(), event)));
+        }
+
+        // после drain все поставленные в очередь события уже переданы на отправку
+        pipeline.drain();
+        Assert.assertEquals(1000, sent.size());
+        Assert.assertTrue(futures.stream().allMatch(CompletableFuture::isDone));
+        Assert.assertEquals(3, threads.size());
+
+        Map<String, Integer> lastByKey = new HashMap<>();
+        for (KafkaPublisherImplTest.KeyedEvent event : sent) {
+            Integer last = lastByKey.put(event.getKey(), event.getN());
+            Assert.assertTrue(last == null || last < event.getN());
+        }
+
+        pipeline.close();
+    }
+
+    @Test
+    public void serializationErrorFailsOnlyItsEvent() throws Exception {
+        KafkaPublisherProperties.Serialization properties = new KafkaPublisherProperties.Serialization();
+        properties.setThreads(1);
+
+        SerializationPipeline pipeline = new SerializationPipeline(properties,
+                record -> {
+                    if (((KafkaPublisherImplTest.KeyedEvent) record.value()).getN() == 1)
+                        throw new IllegalArgumentException("can't serialize");
+                    return record;
+                },
+                record -> CompletableFuture.completedFuture(null),
+                NOPLogger.NOP_LOGGER);
+
+        CompletableFuture<RecordMetadata> failed =
+                pipeline.submit(new ProducerRecord<>("topic", "a", new KafkaPublisherImplTest.KeyedEvent("a", 1)));
+        CompletableFuture<RecordMetadata> next =
+                pipeline.submit(new ProducerRecord<>("topic", "a", new KafkaPublisherImplTest.KeyedEvent("a", 2)));
+        pipeline.close();
+
+        Assert.assertTrue(failed.isCompletedExceptionally());
+        Assert.assertNull(next.get());
+    }
+}
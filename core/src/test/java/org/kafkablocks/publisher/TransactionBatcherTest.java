@@ -0,0 +1,91 @@
+package kafkablocks.publisher;
+
+import kafkablocks.events.Event;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+public class TransactionBatcherTest {
+    /**
+     * Размеры отправленных транзакций кафки
+     */
+    private final List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong offset = new AtomicLong();
+
+    private TransactionBatcher createBatcher(Duration window, int maxEvents) {
+        KafkaPublisherProperties.Transactions properties = new KafkaPublisherProperties.Transactions();
+        properties.setWindow(window);
+        properties.setMaxEvents(maxEvents);
+
+        return new TransactionBatcher(properties, records -> {
+            // событие с отрицательным номером не удается отправить
+            if (records.stream().anyMatch(record -> ((KafkaPublisherImplTest.KeyedEvent) record.value()).getN() < 0))
+                throw new IllegalStateException("transaction aborted");
+
+            committed.add(records.size());
+            return records.stream()
+                    .map(record -> new RecordMetadata(new TopicPartition(record.topic(), 0),
+                            offset.getAndIncrement(), 0, 0, 0L, 0, 0))
+                    .collect(Collectors.toList());
+        }, NOPLogger.NOP_LOGGER);
+    }
+
+    private static List<ProducerRecord<String, Event>> transaction(int... numbers) {
+        List<ProducerRecord<String, Event>> records = new ArrayList<>();
+        for (int n : numbers) {
+            records.add(new ProducerRecord<>("topic", "key", new KafkaPublisherImplTest.KeyedEvent("key", n)));
+        }
+        return records;
+    }
+
+    private static List<Long> offsets(CompletableFuture<List<RecordMetadata>> future) {
+        return future.join().stream().map(RecordMetadata::offset).collect(Collectors.toList());
+    }
+
+    @Test
+    public void transactionsOfWindowAreCommittedTogether() {
+        TransactionBatcher batcher = createBatcher(Duration.ofSeconds(1), 5);
+
+        CompletableFuture<List<RecordMetadata>> first = batcher.submit(transaction(1, 2));
+        CompletableFuture<List<RecordMetadata>> second = batcher.submit(transaction(3));
+        // не помещается в группу из 5 событий
+        CompletableFuture<List<RecordMetadata>> third = batcher.submit(transaction(4, 5, 6));
+        batcher.close();
+
+        Assert.assertEquals(Arrays.asList(3, 3), committed);
+        Assert.assertEquals(Arrays.asList(0L, 1L), offsets(first));
+        Assert.assertEquals(Collections.singletonList(2L), offsets(second));
+        Assert.assertEquals(Arrays.asList(3L, 4L, 5L), offsets(third));
+    }
+
+    @Test
+    public void failedTransactionDoesNotAbortOthers() {
+        TransactionBatcher batcher = createBatcher(Duration.ofSeconds(1), 100);
+
+        CompletableFuture<List<RecordMetadata>> good = batcher.submit(transaction(1, 2));
+        CompletableFuture<List<RecordMetadata>> bad = batcher.submit(transaction(3, -1));
+        batcher.close();
+
+        Assert.assertEquals(Collections.singletonList(2), committed);
+        Assert.assertEquals(2, good.join().size());
+        try {
+            bad.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package kafkablocks.serialization;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.serialization.avro.AvroEventCodec;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+public class EventCodecsTest {
+
+    @Getter
+    @NoArgsConstructor
+    public static class TestEvent extends BaseEvent {
+        private String objectId;
+        private int x;
+        private double y;
+        private Integer nullable;
+
+        TestEvent(String objectId, int x, double y) {
+            super(OffsetDateTime.of(2020, 6, 1, 12, 30, 15, 123456789, ZoneOffset.ofHours(3)));
+            this.objectId = objectId;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    @Test
+    public void avroRoundTrip() {
+        TestEvent event = new TestEvent("obj-1", 10, 2.5);
+        EventCodec codec = EventCodecs.get(AvroEventCodec.NAME);
+
+        byte[] data = codec.serialize(event);
+        Assert.assertEquals(AvroEventCodec.MAGIC_BYTE, data[0]);
+        assertEventsEqual(event, codec.deserialize(data, 0, data.length, TestEvent.class));
+    }
+
+    @Test
+    public void avroIsMoreCompactThanJson() {
+        TestEvent event = new TestEvent("obj-1", 10, 2.5);
+
+        byte[] avro = EventCodecs.get(AvroEventCodec.NAME).serialize(event);
+        byte[] json = EventCodecs.get(JsonEventCodec.NAME).serialize(event);
+        Assert.assertTrue(avro.length < json.length);
+    }
+
+    @Test
+    public void mixedFormatsAreResolvedByMagicByte() {
+        TestEvent event = new TestEvent("obj-2", -1, 0.1);
+        EventDeserializer<TestEvent> deserializer = new EventDeserializer<>(TestEvent.class);
+
+        for (String format : new String[]{JsonEventCodec.NAME, AvroEventCodec.NAME}) {
+            byte[] data = EventCodecs.get(format).serialize(event);
+            assertEventsEqual(event, deserializer.deserialize("topic", data));
+        }
+    }
+
+    @Test
+    public void byteBufferIsReadInPlace() {
+        TestEvent event = new TestEvent("obj-3", 7, 1.5);
+        EventDeserializer<TestEvent> deserializer = new EventDeserializer<>(TestEvent.class);
+
+        for (String format : new String[]{JsonEventCodec.NAME, AvroEventCodec.NAME}) {
+            byte[] data = EventCodecs.get(format).serialize(event);
+
+            // запись в середине общего буфера
+            ByteBuffer heap = ByteBuffer.allocate(data.length + 20);
+            heap.position(10);
+            heap.put(data);
+            heap.position(10).limit(10 + data.length);
+            ByteBuffer slice = heap.slice();
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data).flip();
+
+            for (ByteBuffer buffer : new ByteBuffer[]{heap, slice, direct}) {
+                int position = buffer.position();
+                assertEventsEqual(event, deserializer.deserialize("topic", null, buffer));
+                Assert.assertEquals(position, buffer.position());
+            }
+        }
+    }
+
+    @Test
+    public void jsonIsDefault() {
+        Assert.assertEquals(JsonEventCodec.NAME, EventCodecs.resolve((byte) '{').getName());
+        Assert.assertEquals(JsonEventCodec.NAME, EventCodecs.resolve((byte) ' ').getName());
+        Assert.assertEquals(JsonEventCodec.NAME, EventCodecs.resolve((byte) '\n').getName());
+        Assert.assertEquals(JsonEventCodec.NAME, EventCodecs.resolve((byte) '\t').getName());
+        Assert.assertEquals(JsonEventCodec.NAME, EventCodecs.resolve((byte) '\r').getName());
+        Assert.assertEquals(JsonEventCodec.NAME, SerdeRegistry.getInstance().forType(TestEvent.class).getCodec().getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whitespaceMagicByteIsRejected() {
+        EventCodec codec = Mockito.mock(EventCodec.class);
+        Mockito.when(codec.getName()).thenReturn("newline");
+        Mockito.when(codec.getMagicByte()).thenReturn((byte) '\n');
+
+        EventCodecs.register(codec);
+    }
+
+    private static void assertEventsEqual(TestEvent expected, TestEvent actual) {
+        Assert.assertEquals(expected.getId(), actual.getId());
+        Assert.assertEquals(expected.getOccurred(), actual.getOccurred());
+        Assert.assertEquals(expected.getObjectId(), actual.getObjectId());
+        Assert.assertEquals(expected.getX(), actual.getX());
+        Assert.assertEquals(expected.getY(), actual.getY(), 0);
+        Assert.assertNull(actual.getNullable());
+    }
+}
@@ -0,0 +1,47 @@
+package kafkablocks.serialization;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class EventEnvelopeTest {
+
+    @Test
+    public void framesAreReadWithTheirTimestamps() {
+        long base = 1_600_000_000_000L;
+        long[] timestamps = {base, base + 5, base + 3, base + 100_000};
+
+        EventEnvelope.Builder builder = new EventEnvelope.Builder(0);
+        for (int i = 0; i < timestamps.length; i++) {
+            builder.add(timestamps[i], new byte[i * 100]);
+        }
+        EventEnvelope envelope = builder.build("key");
+        Assert.assertEquals(timestamps.length, envelope.getCount());
+        Assert.assertEquals(base + 100_000, envelope.getLastTimestamp());
+
+        EventEnvelope.Reader reader = new EventEnvelope.Reader(envelope.getData());
+        for (int i = 0; i < timestamps.length; i++) {
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(timestamps[i], reader.getTimestamp());
+            Assert.assertEquals(i * 100, reader.getLength());
+        }
+        Assert.assertFalse(reader.next());
+
+        Assert.assertEquals(envelope.getLastTimestamp(),
+                EventEnvelope.wrap("key", envelope.getData()).getLastTimestamp());
+    }
+
+    @Test
+    public void truncatedEnvelopeIsRejected() {
+        byte[] data = new EventEnvelope.Builder(0)
+                .add(1, new byte[10])
+                .add(2, new byte[10])
+                .build("key")
+                .getData();
+
+        Assert.assertThrows(SerializationException.class,
+                () -> EventEnvelope.wrap("key", Arrays.copyOf(data, data.length - 1)));
+    }
+}
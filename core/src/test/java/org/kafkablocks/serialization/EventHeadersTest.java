@@ -0,0 +1,67 @@
+package kafkablocks.serialization;
+
+import kafkablocks.consumer.Filter;
+import kafkablocks.events.EventMetadata;
+import kafkablocks.versioning.EventVersions;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class EventHeadersTest {
+
+    @Test
+    public void writeAndRead() {
+        EventCodecsTest.TestEvent event = new EventCodecsTest.TestEvent("obj-1", 1, 2);
+        RecordHeaders headers = new RecordHeaders();
+        EventHeaders.write(headers, event);
+
+        EventMetadata metadata = EventHeaders.read(headers);
+        Assert.assertEquals("TestEvent", metadata.getType());
+        Assert.assertEquals(event.getId(), metadata.getId());
+        Assert.assertEquals(event.getOccurred().toInstant().toEpochMilli(), metadata.getOccurred());
+        Assert.assertEquals(EventVersions.DEFAULT_VERSION, metadata.getSchemaVersion());
+        Assert.assertEquals(metadata.getOccurred(), EventHeaders.readOccurred(headers));
+
+        // UUID пишется в двоичном виде
+        Assert.assertEquals(17, headers.lastHeader(EventHeaders.ID).value().length);
+    }
+
+    @Test
+    public void nonUuidIdIsWrittenAsString() {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(EventHeaders.ID, "0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+
+        EventMetadata metadata = EventHeaders.read(headers);
+        Assert.assertEquals("0123456789abcdef", metadata.getId());
+        Assert.assertNull(metadata.getType());
+        Assert.assertFalse(metadata.hasOccurred());
+    }
+
+    @Test
+    public void noHeaders() {
+        Assert.assertSame(EventMetadata.EMPTY, EventHeaders.read(new RecordHeaders()));
+        Assert.assertEquals(EventMetadata.NO_TIMESTAMP, EventHeaders.readOccurred(new RecordHeaders()));
+    }
+
+    @Test
+    public void filters() {
+        EventMetadata metadata = new EventMetadata("TestEvent", "id-1", 100, "1");
+
+        Assert.assertTrue(Filter.byType("TestEvent").accept("key", metadata));
+        Assert.assertFalse(Filter.byType("OtherEvent").accept("key", metadata));
+        Assert.assertTrue(Filter.byType("OtherEvent").accept("key", EventMetadata.EMPTY));
+
+        Assert.assertTrue(Filter.occurredBetween(100, 200).accept("key", metadata));
+        Assert.assertFalse(Filter.occurredBetween(101, 200).accept("key", metadata));
+
+        Filter dedupe = Filter.dedupe(2);
+        Assert.assertTrue(dedupe.accept("key", metadata));
+        Assert.assertFalse(dedupe.accept("key", metadata));
+        Assert.assertTrue(dedupe.accept("key", new EventMetadata("TestEvent", "id-2", 100, "1")));
+        Assert.assertTrue(dedupe.accept("key", new EventMetadata("TestEvent", "id-3", 100, "1")));
+        // id-1 вытеснен из памяти фильтра
+        Assert.assertTrue(dedupe.accept("key", metadata));
+    }
+}
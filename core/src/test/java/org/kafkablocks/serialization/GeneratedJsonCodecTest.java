@@ -0,0 +1,133 @@
+package kafkablocks.serialization;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kafkablocks.events.BaseEvent;
+import kafkablocks.utils.ObjectMapperUtils;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+public class GeneratedJsonCodecTest {
+
+    public enum State {
+        MOVING, STOPPED
+    }
+
+    @Getter
+    @NoArgsConstructor
+    public static class WideEvent extends BaseEvent {
+        private String objectId;
+        private int x;
+        private long sequence;
+        private double speed;
+        private float ratio;
+        private boolean active;
+        private Integer nullableInt;
+        private Boolean flag;
+        private State state;
+        private LocalDateTime local;
+        private List<String> tags;
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    /**
+     * Class with a computed property: the codec is not generated
+     */
+    @Getter
+    @NoArgsConstructor
+    public static class ComputedEvent extends BaseEvent {
+        private int x;
+
+        public int getDoubleX() {
+            return x * 2;
+        }
+
+        @Override
+        public String getKey() {
+            return null;
+        }
+    }
+
+    private static final ObjectMapper objectMapper = ObjectMapperUtils.createWithDefaultDTFormatters();
+
+    private static WideEvent createEvent() {
+        WideEvent event = new WideEvent();
+        event.objectId = "obj-1";
+        event.x = -10;
+        event.sequence = Long.MAX_VALUE;
+        event.speed = 12.75;
+        event.ratio = 0.1f;
+        event.active = true;
+        event.flag = false;
+        event.state = State.MOVING;
+        event.local = LocalDateTime.of(2020, 6, 1, 12, 30, 15, 123_000_000);
+        event.tags = Arrays.asList("a", "b");
+        return event;
+    }
+
+    @Test
+    public void codecIsGenerated() {
+        Assert.assertNotNull(GeneratedJsonCodecs.find(WideEvent.class, objectMapper));
+        Assert.assertNull(GeneratedJsonCodecs.find(ComputedEvent.class, objectMapper));
+    }
+
+    @Test
+    public void jsonIsSameAsObjectMapper() throws Exception {
+        TypedCodec<WideEvent> codec = new JsonEventCodec().bind(WideEvent.class);
+        WideEvent event = createEvent();
+
+        Assert.assertEquals(
+                new String(objectMapper.writeValueAsBytes(event), StandardCharsets.UTF_8),
+                new String(codec.serialize(event), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readsObjectMapperJson() throws Exception {
+        TypedCodec<WideEvent> codec = new JsonEventCodec().bind(WideEvent.class);
+        WideEvent source = createEvent();
+        byte[] data = objectMapper.writeValueAsBytes(source);
+
+        WideEvent event = codec.deserialize(data, 0, data.length);
+        Assert.assertEquals(source.getId(), event.getId());
+        Assert.assertEquals(source.getOccurred(), event.getOccurred());
+        Assert.assertEquals("obj-1", event.getObjectId());
+        Assert.assertEquals(-10, event.getX());
+        Assert.assertEquals(Long.MAX_VALUE, event.getSequence());
+        Assert.assertEquals(12.75, event.getSpeed(), 0);
+        Assert.assertEquals(0.1f, event.getRatio(), 0);
+        Assert.assertTrue(event.isActive());
+        Assert.assertNull(event.getNullableInt());
+        Assert.assertEquals(Boolean.FALSE, event.getFlag());
+        Assert.assertEquals(State.MOVING, event.getState());
+        Assert.assertEquals(source.getLocal(), event.getLocal());
+        Assert.assertEquals(source.getTags(), event.getTags());
+    }
+
+    @Test
+    public void readsLikeObjectMapper() {
+        TypedCodec<WideEvent> codec = new JsonEventCodec().bind(WideEvent.class);
+        String json = "{\"OBJECTID\":\"obj-2\",\"unknown\":{\"a\":[1,2]},\"x\":\"15\",\"speed\":3," +
+                "\"occurred\":\"2020-06-01T12:30:15.5+03:00\",\"state\":null}";
+        byte[] data = json.getBytes(StandardCharsets.UTF_8);
+
+        WideEvent event = codec.deserialize(data, 0, data.length);
+        Assert.assertEquals("obj-2", event.getObjectId());
+        Assert.assertEquals(15, event.getX());
+        Assert.assertEquals(3, event.getSpeed(), 0);
+        Assert.assertEquals(OffsetDateTime.of(2020, 6, 1, 12, 30, 15, 500_000_000, ZoneOffset.ofHours(3)),
+                event.getOccurred());
+        Assert.assertNull(event.getState());
+    }
+}
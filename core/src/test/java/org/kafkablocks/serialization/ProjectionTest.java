@@ -0,0 +1,108 @@
+package kafkablocks.serialization;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kafkablocks.events.BaseEvent;
+import kafkablocks.utils.ObjectMapperUtils;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class ProjectionTest {
+
+    @Getter
+    @NoArgsConstructor
+    public static class Point {
+        private double x;
+        private double y;
+    }
+
+    @Getter
+    @NoArgsConstructor
+    public static class PointEvent extends BaseEvent {
+        private String objectId;
+        private int x;
+        private String label;
+        private Point position;
+        private List<Point> track;
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    private static final String JSON = "{\"objectId\":\"obj-1\",\"x\":5,\"label\":\"text\"," +
+            "\"position\":{\"x\":1.5,\"y\":2.5},\"track\":[{\"x\":1,\"y\":2},{\"x\":3,\"y\":4}]," +
+            "\"unknown\":{\"a\":[1,{\"b\":2}]}}";
+    private static final byte[] DATA = JSON.getBytes(StandardCharsets.UTF_8);
+
+    private static void assertProjected(TypedCodec<PointEvent> codec) {
+        Projection projection = Projection.of("OBJECTID", "position.x", "track.y");
+        PointEvent event = codec.deserialize(DATA, 0, DATA.length, null, projection);
+
+        Assert.assertEquals("obj-1", event.getObjectId());
+        Assert.assertEquals(0, event.getX());
+        Assert.assertNull(event.getLabel());
+        Assert.assertEquals(1.5, event.getPosition().getX(), 0);
+        Assert.assertEquals(0, event.getPosition().getY(), 0);
+        Assert.assertEquals(2, event.getTrack().size());
+        Assert.assertEquals(0, event.getTrack().get(1).getX(), 0);
+        Assert.assertEquals(4, event.getTrack().get(1).getY(), 0);
+    }
+
+    @Test
+    public void pathsAreMerged() {
+        Projection projection = Projection.of("position.x", "position", "x");
+        Assert.assertEquals(Arrays.asList("position", "position.x", "x"),
+                Arrays.asList(projection.getPaths().toArray()));
+        Assert.assertTrue(projection.getChild("position").isAll());
+        Assert.assertNull(projection.getChild("label"));
+        Assert.assertEquals(projection, Projection.of("x", "position.x", "position"));
+    }
+
+    @Test
+    public void jacksonReadsProjection() {
+        ObjectMapper objectMapper = ObjectMapperUtils.createWithDefaultDTFormatters();
+        assertProjected(new JsonEventCodec(objectMapper).bind(PointEvent.class));
+    }
+
+    @Test
+    public void generatedCodecReadsProjection() {
+        Assert.assertNotNull(GeneratedJsonCodecs.find(PointEvent.class, new ObjectMapper()));
+        assertProjected(new JsonEventCodec().bind(PointEvent.class));
+    }
+
+    @Test
+    public void projectionFillsPooledInstance() {
+        TypedCodec<PointEvent> codec = new JsonEventCodec().bind(PointEvent.class);
+        PointEvent reuse = new PointEvent();
+
+        PointEvent event = codec.deserialize(DATA, 0, DATA.length, reuse, Projection.of("x"));
+        Assert.assertSame(reuse, event);
+        Assert.assertEquals(5, event.getX());
+        Assert.assertNull(event.getObjectId());
+    }
+
+    @Test
+    public void deserializerReadsProjectionFromBuffer() {
+        EventDeserializer<PointEvent> deserializer = new EventDeserializer<>(PointEvent.class, Projection.of("x"));
+        // the value is in the middle of a shared buffer
+        ByteBuffer buffer = ByteBuffer.allocate(DATA.length + 8);
+        buffer.position(4);
+        buffer.put(DATA);
+        buffer.position(4).limit(4 + DATA.length);
+
+        PointEvent event = deserializer.deserialize("topic", new RecordHeaders(), buffer);
+        Assert.assertEquals(5, event.getX());
+        Assert.assertNull(event.getObjectId());
+        Assert.assertNull(event.getLabel());
+        Assert.assertEquals(4, buffer.position());
+    }
+}
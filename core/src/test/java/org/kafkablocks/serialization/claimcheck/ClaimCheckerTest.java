@@ -0,0 +1,71 @@
+package kafkablocks.serialization.claimcheck;
+
+import kafkablocks.serialization.EventHeaders;
+import kafkablocks.serialization.EventTypeSerde;
+import kafkablocks.serialization.JsonEventCodec;
+import kafkablocks.serialization.SerdeRegistry;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+
+public class ClaimCheckerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String text(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void largeValuesAreOffloaded() throws Exception {
+        String dir = folder.newFolder().getPath();
+        ClaimChecker claimChecker = new ClaimChecker(new LocalFileBlobStore(dir, Duration.ofDays(1)), 1024, 1 << 20);
+        SerdeRegistry registry = new SerdeRegistry(
+                Collections.emptyMap(), type -> JsonEventCodec.NAME, null, type -> false, claimChecker);
+        EventTypeSerde<String> serde = registry.forType(String.class);
+
+        // мелкие значения пишутся как есть
+        RecordHeaders smallHeaders = new RecordHeaders();
+        byte[] small = serde.serialize("small", smallHeaders);
+        Assert.assertFalse(ClaimChecker.isReference(smallHeaders));
+        Assert.assertEquals("small", serde.deserialize(smallHeaders, small));
+
+        // в запись большого значения пишется только ссылка, одинаковые значения хранятся в одном файле
+        String large = text(100_000);
+        RecordHeaders headers = new RecordHeaders();
+        byte[] reference = serde.serialize(large, headers);
+        Assert.assertTrue(ClaimChecker.isReference(headers));
+        Assert.assertTrue(reference.length < 100);
+        Assert.assertArrayEquals(reference, serde.serialize(large, new RecordHeaders()));
+        Assert.assertEquals(1, new File(dir).listFiles().length);
+
+        Assert.assertEquals(large, serde.deserialize(headers, reference));
+        Assert.assertEquals(large, serde.deserialize(headers, reference, null, null));
+    }
+
+    @Test
+    public void missingValueIsReported() throws Exception {
+        String dir = folder.newFolder().getPath();
+        ClaimChecker claimChecker = new ClaimChecker(new LocalFileBlobStore(dir, Duration.ofDays(1)), 16, 0);
+        RecordHeaders headers = new RecordHeaders();
+        byte[] reference = claimChecker.offload(text(100).getBytes(StandardCharsets.UTF_8), headers);
+        Assert.assertEquals(100, EventHeaders.toInt(headers.lastHeader(EventHeaders.CLAIM_CHECK).value()));
+
+        for (File file : new File(dir).listFiles()) {
+            Assert.assertTrue(file.delete());
+        }
+        Assert.assertThrows(SerializationException.class, () -> claimChecker.resolve(reference, headers));
+    }
+}
@@ -0,0 +1,119 @@
+package kafkablocks.serialization.delta;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.serialization.EventCodec;
+import kafkablocks.serialization.EventCodecs;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+public class DeltaEventCodecTest {
+
+    public enum State {
+        MOVING, STOPPED
+    }
+
+    @Getter
+    @NoArgsConstructor
+    public static class PositionEvent extends BaseEvent {
+        private String objectId;
+        private double x;
+        private double y;
+        private long counter;
+        private State state;
+        private String comment;
+
+        PositionEvent(String objectId, OffsetDateTime occurred, double x, double y, long counter) {
+            super(occurred);
+            this.objectId = objectId;
+            this.x = x;
+            this.y = y;
+            this.counter = counter;
+            this.state = State.MOVING;
+        }
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    private static final long BASE_TS = 1_600_000_000_000L;
+    private static final OffsetDateTime BASE_TIME = OffsetDateTime.of(2020, 9, 13, 12, 26, 40, 0, ZoneOffset.ofHours(3));
+
+    private static PositionEvent event(int i) {
+        return new PositionEvent("obj-1", BASE_TIME.plusNanos(100_000_000L * i), 10.5 + i * 0.25, -2.0, i);
+    }
+
+    private static void assertEvent(PositionEvent expected, PositionEvent actual) {
+        Assert.assertEquals(expected.getId(), actual.getId());
+        Assert.assertEquals(expected.getOccurred(), actual.getOccurred());
+        Assert.assertEquals(expected.getObjectId(), actual.getObjectId());
+        Assert.assertEquals(expected.getX(), actual.getX(), 0);
+        Assert.assertEquals(expected.getY(), actual.getY(), 0);
+        Assert.assertEquals(expected.getCounter(), actual.getCounter());
+        Assert.assertEquals(expected.getState(), actual.getState());
+        Assert.assertNull(actual.getComment());
+    }
+
+    @Test
+    public void deltaFramesAreDecodedLosslessly() {
+        DeltaEncoder encoder = new DeltaEncoder(Duration.ofSeconds(10), 1000);
+        DeltaDecoder<PositionEvent> decoder = new DeltaDecoder<>(PositionEvent.class);
+
+        PositionEvent first = event(0);
+        byte[] keyframe = encoder.encode("topic", "obj-1", first, BASE_TS);
+        assertEvent(first, decoder.decode("obj-1", keyframe, null));
+
+        for (int i = 1; i < 10; i++) {
+            PositionEvent event = event(i);
+            byte[] frame = encoder.encode("topic", "obj-1", event, BASE_TS + i * 100);
+            // the UUID id dominates the delta frame, the rest of the fields take a few bytes
+            Assert.assertTrue(frame.length < keyframe.length);
+            assertEvent(event, decoder.decode("obj-1", frame, null));
+        }
+    }
+
+    @Test
+    public void keyframeIsWrittenInEachInterval() {
+        DeltaEncoder encoder = new DeltaEncoder(Duration.ofSeconds(10), 1000);
+        PositionEvent firstEvent = event(0);
+        PositionEvent nextEvent = event(2);
+        byte[] first = encoder.encode("topic", "obj-1", firstEvent, BASE_TS);
+        byte[] delta = encoder.encode("topic", "obj-1", event(1), BASE_TS + 100);
+        byte[] next = encoder.encode("topic", "obj-1", nextEvent, BASE_TS + 10_000);
+
+        // a consumer, which starts at the beginning of the interval, reads the key from its keyframe
+        DeltaDecoder<PositionEvent> decoder = new DeltaDecoder<>(PositionEvent.class);
+        Assert.assertThrows(SerializationException.class, () -> decoder.decode("obj-1", delta, null));
+        assertEvent(nextEvent, decoder.decode("obj-1", next, null));
+
+        // the codec reads keyframes without the state and rejects delta frames
+        EventCodec codec = EventCodecs.get(DeltaEventCodec.NAME);
+        assertEvent(firstEvent, codec.deserialize(first, 0, first.length, PositionEvent.class));
+        Assert.assertThrows(SerializationException.class,
+                () -> codec.deserialize(delta, 0, delta.length, PositionEvent.class));
+    }
+
+    @Test
+    public void gapInFramesIsDetected() {
+        DeltaEncoder encoder = new DeltaEncoder(Duration.ofSeconds(10), 1000);
+        DeltaDecoder<PositionEvent> decoder = new DeltaDecoder<>(PositionEvent.class);
+        decoder.decode("obj-1", encoder.encode("topic", "obj-1", event(0), BASE_TS), null);
+        encoder.encode("topic", "obj-1", event(1), BASE_TS + 100);
+        byte[] afterGap = encoder.encode("topic", "obj-1", event(2), BASE_TS + 200);
+
+        Assert.assertThrows(SerializationException.class, () -> decoder.decode("obj-1", afterGap, null));
+
+        // after the reset (e.g. the frame was not sent) the next frame is a keyframe
+        encoder.reset("topic", "obj-1");
+        PositionEvent event = event(3);
+        assertEvent(event, decoder.decode("obj-1", encoder.encode("topic", "obj-1", event, BASE_TS + 300), null));
+    }
+}
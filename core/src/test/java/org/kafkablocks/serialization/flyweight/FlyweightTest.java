@@ -0,0 +1,122 @@
+package kafkablocks.serialization.flyweight;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.serialization.EventCodec;
+import kafkablocks.serialization.EventCodecs;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+public class FlyweightTest {
+
+    public enum State {
+        MOVING, STOPPED
+    }
+
+    @Getter
+    @NoArgsConstructor
+    @FixedLayout
+    public static class TrackEvent extends BaseEvent {
+        private String objectId;
+        private double x;
+        private double y;
+        private float speed;
+        private int count;
+        private long sequence;
+        private boolean moving;
+        private State state;
+        private String comment;
+
+        TrackEvent(String objectId, double x, double y) {
+            super(OffsetDateTime.of(2020, 6, 1, 12, 30, 15, 123456789, ZoneOffset.ofHours(3)));
+            this.objectId = objectId;
+            this.x = x;
+            this.y = y;
+            this.speed = 1.5f;
+            this.count = -3;
+            this.sequence = Long.MAX_VALUE;
+            this.moving = true;
+            this.state = State.STOPPED;
+        }
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    private static final EventCodec codec = EventCodecs.get(FixedLayoutEventCodec.NAME);
+
+    @Test
+    public void codecRoundTrip() {
+        TrackEvent event = new TrackEvent("obj-1", 10.5, -2.25);
+        byte[] data = codec.serialize(event);
+        Assert.assertEquals(FixedLayoutEventCodec.MAGIC_BYTE, data[0]);
+
+        TrackEvent read = codec.deserialize(data, 0, data.length, TrackEvent.class);
+        Assert.assertEquals(event.getId(), read.getId());
+        Assert.assertEquals(event.getOccurred(), read.getOccurred());
+        Assert.assertEquals("obj-1", read.getObjectId());
+        Assert.assertEquals(10.5, read.getX(), 0);
+        Assert.assertEquals(-2.25, read.getY(), 0);
+        Assert.assertEquals(Long.MAX_VALUE, read.getSequence());
+        Assert.assertEquals(State.STOPPED, read.getState());
+        Assert.assertNull(read.getComment());
+    }
+
+    @Test
+    public void flyweightReadsRecord() {
+        TrackEvent event = new TrackEvent("объект-1", 10.5, -2.25);
+        byte[] data = codec.serialize(event);
+
+        FlyweightTest_TrackEvent_Flyweight flyweight = new FlyweightTest_TrackEvent_Flyweight();
+        flyweight.wrap(data);
+        Assert.assertEquals(event.getId(), flyweight.getId());
+        Assert.assertEquals(event.getOccurred(), flyweight.getOccurred());
+        Assert.assertEquals(event.getOccurred().toInstant().toEpochMilli(), flyweight.getOccurredEpochMilli());
+        Assert.assertEquals("объект-1", flyweight.getObjectId());
+        Assert.assertEquals(10.5, flyweight.getX(), 0);
+        Assert.assertEquals(-2.25, flyweight.getY(), 0);
+        Assert.assertEquals(1.5f, flyweight.getSpeed(), 0);
+        Assert.assertEquals(-3, flyweight.getCount());
+        Assert.assertEquals(Long.MAX_VALUE, flyweight.getSequence());
+        Assert.assertTrue(flyweight.isMoving());
+        Assert.assertEquals(State.STOPPED, flyweight.getState());
+        Assert.assertNull(flyweight.getComment());
+
+        // direct buffer is copied to the array of the flyweight
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        flyweight.wrap(buffer);
+        Assert.assertEquals(10.5, flyweight.getX(), 0);
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void flyweightLayoutIsSameAsCodec() {
+        byte[] data = codec.serialize(new TrackEvent("obj-1", 1, 2));
+        Assert.assertEquals(FlyweightTest_TrackEvent_Flyweight.LAYOUT_HASH,
+                ByteBuffer.wrap(data).getInt(EventLayout.HASH_OFFSET));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void otherFormatIsRejected() {
+        byte[] json = "{\"objectId\":\"obj-1\",\"x\":1,\"y\":2,\"some\":\"padding to the fixed size of the layout\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        new FlyweightTest_TrackEvent_Flyweight().wrap(json);
+    }
+
+    @Test(expected = SerializationException.class)
+    public void otherLayoutIsRejected() {
+        byte[] data = codec.serialize(new TrackEvent("obj-1", 1, 2));
+        ByteBuffer.wrap(data).putInt(EventLayout.HASH_OFFSET, FlyweightTest_TrackEvent_Flyweight.LAYOUT_HASH + 1);
+        codec.deserialize(data, 0, data.length, TrackEvent.class);
+    }
+}
@@ -0,0 +1,66 @@
+package kafkablocks.serialization.zstd;
+
+import kafkablocks.serialization.EventHeaders;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+
+public class ZstdDictionaryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] sample(int i) {
+        return String.format(
+                "{\"id\":\"%08d-0000-4000-8000-000000000000\",\"occurred\":\"2020-06-01T12:%02d:15.123+03:00\"," +
+                        "\"objectId\":\"object-%d\",\"x\":%d.5,\"y\":%d.25}",
+                i, i % 60, i % 50, i % 1000, i % 777)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ZstdDictionaryStore train(String dir) {
+        ZstdDictionaryTrainer trainer = new ZstdDictionaryTrainer(1024 * 1024, 4 * 1024);
+        for (int i = 0; i < 2000; i++) {
+            trainer.addSample(sample(i));
+        }
+
+        ZstdDictionaryStore store = new ZstdDictionaryStore(dir);
+        trainer.trainAndStore(store, "String");
+        return store;
+    }
+
+    @Test
+    public void compressAndDecompress() throws Exception {
+        String dir = folder.newFolder().getPath();
+        ZstdDictionaryStore store = train(dir);
+        Assert.assertEquals(1, store.getLatest("String").getVersion());
+
+        ZstdDictionaryCompressor compressor = new ZstdDictionaryCompressor(store, String.class, true);
+        byte[] data = sample(12345);
+        RecordHeaders headers = new RecordHeaders();
+        byte[] compressed = compressor.compress(data, headers);
+
+        Assert.assertTrue(compressed.length < data.length);
+        Assert.assertTrue(compressor.isCompressed(headers));
+        Assert.assertEquals(1, EventHeaders.toInt(headers.lastHeader(EventHeaders.DICTIONARY_VERSION).value()));
+
+        // словари загружаются из каталога
+        ZstdDictionaryCompressor reader = new ZstdDictionaryCompressor(new ZstdDictionaryStore(dir), String.class, false);
+        Assert.assertArrayEquals(data, reader.decompress(compressed, headers));
+    }
+
+    @Test
+    public void notCompressedWithoutDictionary() throws Exception {
+        ZstdDictionaryStore store = new ZstdDictionaryStore(folder.newFolder().getPath());
+        ZstdDictionaryCompressor compressor = new ZstdDictionaryCompressor(store, String.class, true);
+
+        byte[] data = sample(1);
+        RecordHeaders headers = new RecordHeaders();
+        Assert.assertSame(data, compressor.compress(data, headers));
+        Assert.assertFalse(compressor.isCompressed(headers));
+        Assert.assertSame(data, compressor.decompress(data, headers));
+    }
+}
@@ -0,0 +1,123 @@
+package kafkablocks.versioning;
+
+import kafkablocks.events.BaseEvent;
+import kafkablocks.events.EventVersion;
+import kafkablocks.serialization.EventHeaders;
+import kafkablocks.serialization.EventTypeSerde;
+import kafkablocks.serialization.JsonEventCodec;
+import kafkablocks.serialization.SerdeRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class EventUpcastersTest {
+
+    /**
+     * Версия 1: расстояние в метрах целым числом
+     */
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DistanceV1 {
+        private String objectId;
+        private int meters;
+    }
+
+    /**
+     * Версия 2: расстояние в километрах
+     */
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DistanceV2 {
+        private String objectId;
+        private double km;
+    }
+
+    /**
+     * Текущая версия 3: расстояние в километрах и единицы измерения
+     */
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EventVersion("3")
+    public static class DistanceEvent extends BaseEvent {
+        private String objectId;
+        private double value;
+        private String unit;
+
+        @Override
+        public String getKey() {
+            return objectId;
+        }
+    }
+
+    @BeforeClass
+    public static void registerUpcasters() {
+        EventUpcasters.register(DistanceEvent.class, "[1,2)", DistanceV1.class, "2",
+                v1 -> new DistanceV2(v1.getObjectId(), v1.getMeters() / 1000.0));
+        EventUpcasters.register(DistanceEvent.class, "[2,3)", DistanceV2.class, "3",
+                v2 -> new DistanceEvent(v2.getObjectId(), v2.getKm(), "km"));
+    }
+
+    private static final JsonEventCodec json = new JsonEventCodec();
+
+    private static RecordHeaders versionHeaders(String version) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(EventHeaders.SCHEMA_VERSION, version.getBytes(StandardCharsets.UTF_8));
+        return headers;
+    }
+
+    @Test
+    public void versionRange() {
+        VersionRange range = VersionRange.parse("[1,2)");
+        Assert.assertTrue(range.contains(new ComparableVersion("1")));
+        Assert.assertTrue(range.contains(new ComparableVersion("1.9")));
+        Assert.assertFalse(range.contains(new ComparableVersion("2")));
+
+        Assert.assertTrue(VersionRange.parse("(,1.5]").contains(new ComparableVersion("0.1")));
+        Assert.assertTrue(VersionRange.parse("2").contains(new ComparableVersion("2.0")));
+        Assert.assertFalse(VersionRange.parse("2").contains(new ComparableVersion("2.1")));
+    }
+
+    @Test
+    public void chainIsPrecomputed() {
+        UpcastChain<DistanceEvent> chain = EventUpcasters.getChain(DistanceEvent.class, "1");
+        Assert.assertEquals(2, chain.getLength());
+        Assert.assertEquals(DistanceV1.class, chain.getSourceType());
+        Assert.assertSame(chain, EventUpcasters.getChain(DistanceEvent.class, "1"));
+
+        Assert.assertEquals(1, EventUpcasters.getChain(DistanceEvent.class, "2.5").getLength());
+        Assert.assertNull(EventUpcasters.getChain(DistanceEvent.class, "3"));
+    }
+
+    @Test
+    public void oldRecordsAreUpcasted() {
+        EventTypeSerde<DistanceEvent> serde = SerdeRegistry.getInstance().forType(DistanceEvent.class);
+
+        DistanceEvent fromV1 = serde.deserialize(versionHeaders("1"), json.serialize(new DistanceV1("obj-1", 1500)));
+        Assert.assertEquals("obj-1", fromV1.getObjectId());
+        Assert.assertEquals(1.5, fromV1.getValue(), 0);
+        Assert.assertEquals("km", fromV1.getUnit());
+
+        DistanceEvent fromV2 = serde.deserialize(versionHeaders("2"), json.serialize(new DistanceV2("obj-2", 2.5)));
+        Assert.assertEquals(2.5, fromV2.getValue(), 0);
+
+        // записи без заголовка версии - версии 1
+        DistanceEvent noHeader = serde.deserialize(new RecordHeaders(), json.serialize(new DistanceV1("obj-3", 500)));
+        Assert.assertEquals(0.5, noHeader.getValue(), 0);
+
+        DistanceEvent current = new DistanceEvent("obj-4", 3, "mi");
+        RecordHeaders headers = new RecordHeaders();
+        EventHeaders.write(headers, current);
+        DistanceEvent fromV3 = serde.deserialize(headers, serde.serialize(current));
+        Assert.assertEquals("mi", fromV3.getUnit());
+        Assert.assertEquals(current.getId(), fromV3.getId());
+    }
+}
@@ -48,6 +48,8 @@ public class PositionEventPublisher extends ServiceBase {
 
         while (true) {
             var millis = RandomUtils.getRandomInt(500, 1000);
+            // с ростом загрузки публикатора плавно увеличиваем паузу (до 5 раз), чтобы не упереться в лимиты
+            millis += (int) (millis * 4 * kafkaPublisher.getPressure());
             var hasStopped = stoppedEvent.wait(millis, TimeUnit.MILLISECONDS);
             if (hasStopped) {
                 break;